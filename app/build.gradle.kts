@@ -9,7 +9,7 @@ plugins {
     // Apply the application plugin to add support for building a CLI application in Java.
     application
     java
-//    id("org.graalvm.buildtools.native") version "0.11.1"
+    id("org.graalvm.buildtools.native") version "0.11.1"
     id("com.gradleup.shadow") version "9.2.2"
 }
 
@@ -21,7 +21,10 @@ repositories {
 
 dependencies {
 
-    //    annotationProcessor("info.picocli:picocli-codegen:4.7.5")
+    // Generates the reflection metadata picocli needs in a native image
+    annotationProcessor("info.picocli:picocli-codegen:4.7.5")
+    // Native-image feature API, used only by the native-image builder
+    compileOnly("org.graalvm.sdk:nativeimage:23.1.2")
     // SLF4J API
     implementation("org.slf4j:slf4j-api:2.0.12")
     // Logback as the logging implementation
@@ -57,17 +60,59 @@ application {
     mainClass = "org.rifushigi.Tessera"
 }
 
-//graalvmNative {
-//    binaries {
-//        named("main") {
-//            imageName.set("tessera")
-//            buildArgs.add("--add-charset=CP1252")
-//        }
-//    }
-//    metadataRepository {
-//        enabled.set(true)
-//    }
-//}
+tasks.named<JavaCompile>("compileJava") {
+    // Lets picocli-codegen place its generated native-image metadata under a project-specific directory
+    options.compilerArgs.add("-Aproject=org.rifushigi/tessera")
+}
+
+graalvmNative {
+    binaries {
+        named("main") {
+            imageName.set("tessera")
+            mainClass.set("org.rifushigi.Tessera")
+        }
+    }
+    metadataRepository {
+        enabled.set(true)
+    }
+    // `./gradlew :app:trainingRun -Pagent` records the reflection and resources used by a training run;
+    // `./gradlew :app:metadataCopy --task trainingRun` merges them into the checked-in metadata
+    agent {
+        defaultMode.set("standard")
+        metadataCopy {
+            inputTaskNames.add("trainingRun")
+            outputDirectories.add("src/main/resources/META-INF/native-image/org.rifushigi/tessera")
+            mergeWithExisting.set(true)
+        }
+    }
+}
+
+// A representative generation run on synthetic data, used to train the startup archives
+val trainingRun by tasks.registering(JavaExec::class) {
+    group = "distribution"
+    description = "Runs a representative generation workload on synthetic data."
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass = "org.rifushigi.Tessera"
+    args("train", "--work-dir", layout.buildDirectory.dir("training/run").get().asFile.absolutePath)
+}
+
+// An AppCDS archive of the classes the training run loads from the shadow jar. Use it with
+// java -XX:SharedArchiveFile=app/build/cds/tessera.jsa -jar app/build/libs/app-all.jar ...
+val appCdsArchive by tasks.registering(JavaExec::class) {
+    group = "distribution"
+    description = "Creates an AppCDS archive for the shadow jar from a training run."
+    val shadowJar = tasks.named<Jar>("shadowJar")
+    val archive = layout.buildDirectory.file("cds/tessera.jsa")
+    classpath(shadowJar.flatMap { it.archiveFile })
+    mainClass = "org.rifushigi.Tessera"
+    javaLauncher = javaToolchains.launcherFor(java.toolchain)
+    inputs.file(shadowJar.flatMap { it.archiveFile })
+    outputs.file(archive)
+    jvmArgumentProviders.add(CommandLineArgumentProvider {
+        listOf("-XX:ArchiveClassesAtExit=" + archive.get().asFile.absolutePath)
+    })
+    args("train", "--work-dir", layout.buildDirectory.dir("cds/training").get().asFile.absolutePath)
+}
 
 tasks.named<Test>("test") {
     // Use JUnit Platform for unit tests.
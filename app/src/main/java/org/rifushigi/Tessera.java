@@ -4,6 +4,9 @@
 package org.rifushigi;
 
 import org.rifushigi.command.GenerateCommand;
+import org.rifushigi.command.MergeManifestsCommand;
+import org.rifushigi.command.ServeCommand;
+import org.rifushigi.command.TrainCommand;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
 
@@ -14,6 +17,9 @@ import picocli.CommandLine.Command;
         description = "Automates certificate generation from Word templates and Excel data.",
         subcommands = {
                 GenerateCommand.class,
+                ServeCommand.class,
+                MergeManifestsCommand.class,
+                TrainCommand.class,
                 CommandLine.HelpCommand.class
         }
 )
@@ -23,7 +29,9 @@ public class Tessera {
 
     public static void main(String[] args) {
 
-        int exitCode = new CommandLine(new Tessera()).execute(args);
+        int exitCode = new CommandLine(new Tessera())
+                .setCaseInsensitiveEnumValuesAllowed(true)
+                .execute(args);
         System.exit(exitCode);
     }
 }
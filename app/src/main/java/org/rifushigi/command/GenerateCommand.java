@@ -2,13 +2,25 @@ package org.rifushigi.command;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.rifushigi.domain.infrastructure.ArchiveSink;
+import org.rifushigi.domain.infrastructure.BundleFormat;
+import org.rifushigi.domain.infrastructure.ColumnFormats;
+import org.rifushigi.domain.infrastructure.DataSource;
+import org.rifushigi.domain.infrastructure.FsyncPolicy;
+import org.rifushigi.domain.infrastructure.MergeBreak;
+import org.rifushigi.domain.infrastructure.TemplateStore;
+import org.rifushigi.domain.infrastructure.ZipCompression;
+import org.rifushigi.domain.service.GenerationOptions;
 import org.rifushigi.domain.service.GenerationService;
+import org.rifushigi.domain.service.Shard;
 import org.rifushigi.util.AnsiColors;
 import org.rifushigi.util.FileValidator;
 import picocli.CommandLine;
 
 import java.io.File;
 import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.List;
 import java.util.Scanner;
 import java.util.concurrent.Callable;
@@ -29,7 +41,7 @@ public class GenerateCommand implements Callable<Integer> {
     )
     private List<File> templateFiles;
 
-    @CommandLine.Option(names = {"-d", "--data"}, description = "Path to the Excel data file (.xlsx).")
+    @CommandLine.Option(names = {"-d", "--data"}, description = "Path to the data file: an Excel workbook (.xlsx) or a CSV/TSV file (.csv, .tsv).")
     private File dataFile;
 
     @CommandLine.Option(names = {"-o", "--output"}, defaultValue = "./output", description = "Output directory for generated documents.")
@@ -38,6 +50,84 @@ public class GenerateCommand implements Callable<Integer> {
     @CommandLine.Option(names = {"-i", "--interactive"}, description = "Run in interactive mode, prompting for input.")
     private boolean interactiveMode;
 
+    @CommandLine.Option(names = {"--compiled-template"}, description = "Parse each template once into a render plan instead of re-parsing it for every record.")
+    private boolean compiledTemplate;
+
+    @CommandLine.Option(names = {"--threads"}, paramLabel = "N", description = "Number of worker threads rendering documents (default: available processors).")
+    private Integer threads;
+
+    @CommandLine.Option(names = {"--deflate-level"}, paramLabel = "0-9", description = "Deflate level for the document parts regenerated per record (compiled templates and merged documents only).")
+    private Integer deflateLevel;
+
+    @CommandLine.Option(names = {"--stored"}, description = "Store the document parts regenerated per record without compression (compiled templates and merged documents only).")
+    private boolean stored;
+
+    @CommandLine.Option(names = {"--bundle"}, paramLabel = "zip|tar", description = "Stream every document into a single archive instead of one file per record.")
+    private BundleFormat bundleFormat;
+
+    @CommandLine.Option(names = {"--bundle-file"}, paramLabel = "FILE", description = "Archive file for --bundle, or '-' for standard output (default: <output>/certificates_09_2025.<format>).")
+    private String bundleFile;
+
+    @CommandLine.Option(names = {"--incremental"}, description = "Skip records whose document is unchanged since the last run, using a manifest kept in each output directory.")
+    private boolean incremental;
+
+    @CommandLine.Option(names = {"--metrics-json"}, paramLabel = "FILE", description = "Write per-stage timings, throughput and the slowest records of the run to a JSON file.")
+    private File metricsFile;
+
+    @CommandLine.Option(names = {"--group-by"}, paramLabel = "COLUMN", description = "Group the data rows into sheets by the value of this column, e.g. for CSV files, which otherwise form one sheet named after the file. Every sheet must have the column.")
+    private String groupByColumn;
+
+    @CommandLine.Option(names = {"--shard"}, paramLabel = "i/N", description = "Render only the i-th of N shares of the records, e.g. 2/4, so that N processes can split a run. Check the result with merge-manifests.")
+    private String shard;
+
+    @CommandLine.Option(names = {"--shard-key"}, paramLabel = "COLUMN", defaultValue = Shard.DEFAULT_KEY_COLUMN, description = "Column whose value assigns a record to a shard (default: ${DEFAULT-VALUE}).")
+    private String shardKey;
+
+    @CommandLine.Option(names = {"--fsync"}, paramLabel = "none|end|each", description = "When documents are forced to disk: never, once at the end, or after each document (default: none for a directory, end for a bundle).")
+    private FsyncPolicy fsyncPolicy;
+
+    @CommandLine.Option(names = {"--max-in-flight-writes"}, paramLabel = "N", description = "Number of documents written to the output directory concurrently (default: 64).")
+    private Integer maxInFlightWrites;
+
+    @CommandLine.Option(names = {"--template-cache"}, paramLabel = "DIR", description = "Directory scanned and compiled templates are cached in between runs (default: ~/.cache/tessera).")
+    private File templateCacheDirectory;
+
+    @CommandLine.Option(names = {"--template-cache-size"}, paramLabel = "MB", defaultValue = "256", description = "Size the template cache is kept within, least recently used templates first out (default: ${DEFAULT-VALUE} MB).")
+    private long templateCacheSizeMb;
+
+    @CommandLine.Option(names = {"--no-template-cache"}, description = "Scan and compile every template from scratch, without the template cache.")
+    private boolean noTemplateCache;
+
+    @CommandLine.Option(names = {"--max-heap-budget"}, paramLabel = "MB", description = "Bound the documents in flight by the heap they take up, and keep large template parts in temporary files, e.g. 1500 on a 2 GB container. Reading slows down when the budget is used up.")
+    private Long maxHeapBudgetMb;
+
+    @CommandLine.Option(names = {"--dedup"}, description = "Render records with identical values once; their copies become hard links in the output directory and hard link entries in a tar bundle. Not available for zip bundles.")
+    private boolean deduplicate;
+
+    @CommandLine.Option(names = {"--validate-only"}, description = "Read the data once without generating anything, check every record against its template and report the documents a real run would produce.")
+    private boolean validateOnly;
+
+    @CommandLine.Option(names = {"--routes"}, paramLabel = "FILE", description = "Route rows to templates by sheet and column values, one rule per line, e.g. sheet = \"Level 2\" and TRACK = Honours -> diploma.docx, transcript.docx. A row matching several rules is rendered into each of their templates. Replaces -t.")
+    private File routingFile;
+
+    @CommandLine.Option(names = {"--images"}, paramLabel = "DIR", description = "Directory the image file names of $${IMAGE:column} placeholders are relative to (default: the data file's directory).")
+    private File imageDirectory;
+
+    @CommandLine.Option(names = {"--image-cache-size"}, paramLabel = "MB", defaultValue = "64", description = "Size the images kept in memory between documents are bounded to, least recently used first out (default: ${DEFAULT-VALUE} MB).")
+    private long imageCacheSizeMb;
+
+    @CommandLine.Option(names = {"--format"}, paramLabel = "COLUMN=FORMAT", description = "Format the values of a column: ordinal (dates as 20th September 2025), date:PATTERN, number:PATTERN or excel (as the cells show them), e.g. --format \"ISSUED=date:dd/MM/yyyy\". Repeatable. The DATE column is ordinal unless given another format.")
+    private List<String> columnFormats;
+
+    @CommandLine.Option(names = {"--date"}, paramLabel = "YYYY-MM-DD", description = "The date $${DATE} placeholders show when the data has no DATE column (default: today). Give the same date to reproduce or resume a run on another day.")
+    private String runDate;
+
+    @CommandLine.Option(names = {"--merge-per-sheet"}, description = "Merge the documents of each sheet into a single DOCX for printing, e.g. <output>/certificates_09_2025/diploma/Level 2.docx, in record order. The template's styles, fonts and images are included once.")
+    private boolean mergePerSheet;
+
+    @CommandLine.Option(names = {"--merge-break"}, paramLabel = "section|page", description = "What separates the records of a merged document: a section break, repeating the template's page setup, headers and footers, or a page break (default: section).")
+    private MergeBreak mergeBreak;
+
     @Override
     public Integer call() {
         if (interactiveMode) {
@@ -49,32 +139,117 @@ public class GenerateCommand implements Callable<Integer> {
             }
         } else {
             // Validate command-line arguments
-            if (templateFiles == null || dataFile == null) {
+            if ((templateFiles == null && routingFile == null) || dataFile == null) {
                 logger.error(AnsiColors.colored(AnsiColors.RED, "Missing required command-line arguments. Use --help for details or run with --interactive."));
                 return 1;
             }
-            List<Path> templatePaths = templateFiles.stream().map(File::toPath).toList();
+            List<Path> templatePaths = templateFiles != null ? templateFiles.stream().map(File::toPath).toList() : List.of();
             return runGeneration(templatePaths, dataFile.toPath(), outputDirectory.toPath());
         }
     }
 
     private Integer runGeneration(List<Path> templatePath, Path dataPath, Path outputDirectory) {
         // Validation moved from GenerationService to the command level
-        if (!FileValidator.fileExistsAndIsReadable(templatePath.getFirst()) || !FileValidator.hasExtension(templatePath.getFirst(), ".docx")) {
+        if (!templatePath.isEmpty() && (!FileValidator.fileExistsAndIsReadable(templatePath.getFirst()) || !FileValidator.hasExtension(templatePath.getFirst(), ".docx"))) {
             logger.error(AnsiColors.colored(AnsiColors.RED, "Invalid template file: " + templatePath));
             return 1;
         }
-        if (!FileValidator.fileExistsAndIsReadable(dataPath) || !FileValidator.hasExtension(dataPath, ".xlsx")) {
+        if (routingFile != null && !FileValidator.fileExistsAndIsReadable(routingFile.toPath())) {
+            System.err.println(AnsiColors.colored(AnsiColors.RED, "Invalid routing file: " + routingFile));
+            return 1;
+        }
+        if (!FileValidator.fileExistsAndIsReadable(dataPath) || !FileValidator.hasAnyExtension(dataPath, DataSource.FILE_EXTENSIONS)) {
             System.err.println(AnsiColors.colored(AnsiColors.RED, "Invalid data file: " + dataPath));
             return 1;
         }
-        if (!FileValidator.createDirectoryIfNotExists(outputDirectory)) {
+        if (stored && deflateLevel != null) {
+            System.err.println(AnsiColors.colored(AnsiColors.RED, "--stored and --deflate-level can not be combined."));
+            return 1;
+        }
+        LocalDate date = null;
+        if (runDate != null) {
+            try {
+                date = LocalDate.parse(runDate);
+            } catch (DateTimeParseException e) {
+                System.err.println(AnsiColors.colored(AnsiColors.RED, "Invalid --date: " + runDate + " is not a YYYY-MM-DD date."));
+                return 1;
+            }
+        }
+        ColumnFormats formats;
+        try {
+            formats = ColumnFormats.parse(columnFormats != null ? columnFormats : List.of());
+        } catch (IllegalArgumentException e) {
+            System.err.println(AnsiColors.colored(AnsiColors.RED, "Invalid --format: " + e.getMessage()));
+            return 1;
+        }
+
+        GenerationOptions options;
+        try {
+            GenerationOptions.Builder builder = GenerationOptions.builder()
+                    .compiledTemplates(compiledTemplate)
+                    .incremental(incremental)
+                    .groupByColumn(groupByColumn)
+                    .deduplicate(deduplicate)
+                    .mergePerSheet(mergePerSheet)
+                    .fsyncPolicy(fsyncPolicy)
+                    .columnFormats(formats);
+            builder.images(imageDirectory != null ? imageDirectory.toPath() : null, imageCacheSizeMb * 1024 * 1024);
+            if (routingFile != null) {
+                builder.routingFile(routingFile.toPath());
+            }
+            if (metricsFile != null) {
+                builder.metricsFile(metricsFile.toPath());
+            }
+            if (shard != null) {
+                builder.shard(Shard.parse(shard, shardKey));
+            }
+            if (mergeBreak != null) {
+                builder.mergeBreak(mergeBreak);
+            }
+            if (date != null) {
+                builder.runDate(date);
+            }
+            if (maxInFlightWrites != null) {
+                builder.maxInFlightWrites(maxInFlightWrites);
+            }
+            if (maxHeapBudgetMb != null) {
+                builder.maxHeapBudget(maxHeapBudgetMb * 1024 * 1024);
+            }
+            if (!noTemplateCache) {
+                Path cacheDirectory = templateCacheDirectory != null ? templateCacheDirectory.toPath() : TemplateStore.defaultDirectory();
+                builder.templateCache(cacheDirectory, templateCacheSizeMb * 1024 * 1024);
+            }
+            if (threads != null) {
+                builder.threads(threads);
+            }
+            if (stored) {
+                builder.zipCompression(ZipCompression.STORED);
+            } else if (deflateLevel != null) {
+                builder.zipCompression(ZipCompression.deflate(deflateLevel));
+            }
+            if (bundleFormat != null) {
+                builder.bundle(bundleFormat, bundleFile);
+                if (ArchiveSink.STANDARD_OUTPUT.equals(bundleFile)) {
+                    // Standard output carries the archive, so progress messages go to standard error
+                    builder.console(System.err);
+                }
+            }
+            options = builder.build();
+        } catch (IllegalArgumentException e) {
+            // The builder rejects options that can not be combined
+            System.err.println(AnsiColors.colored(AnsiColors.RED, "Invalid options: " + e.getMessage()));
+            return 1;
+        }
+        if (!validateOnly && !FileValidator.createDirectoryIfNotExists(outputDirectory)) {
             System.err.println(AnsiColors.colored(AnsiColors.RED, "Could not create output directory: " + outputDirectory));
             return 1;
         }
 
         try {
-            GenerationService service = new GenerationService(templatePath, dataPath, outputDirectory);
+            GenerationService service = new GenerationService(templatePath, dataPath, outputDirectory, options);
+            if (validateOnly) {
+                return service.validate() ? 0 : 1;
+            }
             service.generate();
             return 0;
         } catch (Exception e) {
@@ -1,5 +1,6 @@
 package org.rifushigi.command;
 
+import org.rifushigi.domain.infrastructure.DataSource;
 import org.rifushigi.util.AnsiColors;
 import org.rifushigi.util.FileValidator;
 
@@ -26,20 +27,20 @@ public class InteractiveMode {
      */
     public Result collectInput() {
         List<Path> templatePaths = promptForFilePaths("template", ".docx");
-        Path dataPath = promptForFilePath("data", ".xlsx");
+        Path dataPath = promptForFilePath("data", DataSource.FILE_EXTENSIONS);
         Path outputDirectory = promptForDirectoryPath("output", ".");
 
         return new Result(templatePaths, dataPath, outputDirectory);
     }
 
-    private Path promptForFilePath(String fileType, String extension) {
+    private Path promptForFilePath(String fileType, List<String> extensions) {
         while (true) {
-            System.out.printf("Enter the path to the %s file (e.g., %s): %n", fileType, "template" + extension);
+            System.out.printf("Enter the path to the %s file (e.g., %s): %n", fileType, "template" + extensions.getFirst());
             System.out.print(AnsiColors.colored(AnsiColors.GREEN, ">> "));
             String input = scanner.nextLine().trim();
             Path path = Paths.get(input);
 
-            if (FileValidator.fileExistsAndIsReadable(path) && FileValidator.hasExtension(path, extension)) {
+            if (FileValidator.fileExistsAndIsReadable(path) && FileValidator.hasAnyExtension(path, extensions)) {
                 return path;
             } else {
                 System.err.println(AnsiColors.colored(AnsiColors.RED, "Invalid path or file extension. Please try again."));
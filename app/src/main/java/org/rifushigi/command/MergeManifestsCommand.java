@@ -0,0 +1,63 @@
+package org.rifushigi.command;
+
+import org.rifushigi.domain.service.ShardManifestMerger;
+import org.rifushigi.util.AnsiColors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import picocli.CommandLine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+@CommandLine.Command(
+        name = "merge-manifests",
+        mixinStandardHelpOptions = true,
+        version = "Tessera 1.0",
+        description = "Checks that the shards of a sharded generate run together produced every record exactly once."
+)
+public class MergeManifestsCommand implements Callable<Integer> {
+    private static final Logger logger = LoggerFactory.getLogger(MergeManifestsCommand.class);
+
+    @CommandLine.Parameters(arity = "1..*", paramLabel = "PATH", description = "Shard manifests, or the output directories of the shards to take them from.")
+    private List<File> paths;
+
+    @CommandLine.Option(names = {"-o", "--output"}, paramLabel = "FILE", description = "Write the merged manifest, one line per record, to this file.")
+    private File outputFile;
+
+    @Override
+    public Integer call() {
+        try {
+            List<Path> manifests = ShardManifestMerger.findManifests(paths.stream().map(File::toPath).toList());
+            ShardManifestMerger merger = ShardManifestMerger.merge(manifests);
+
+            for (String warning : merger.warnings()) {
+                System.err.println(AnsiColors.colored(AnsiColors.YELLOW, "Warning: " + warning));
+            }
+            for (String problem : merger.problems()) {
+                System.err.println(AnsiColors.colored(AnsiColors.RED, problem));
+            }
+            if (outputFile != null) {
+                merger.write(outputFile.toPath());
+                System.out.println(AnsiColors.colored(AnsiColors.CYAN, "Merged manifest written to " + outputFile));
+            }
+
+            int records = merger.recordCounts().values().stream().mapToInt(Integer::intValue).sum();
+            if (!merger.problems().isEmpty()) {
+                System.err.println(AnsiColors.colored(AnsiColors.RED, String.format(
+                        "%d shard manifest(s) do not add up to a complete run of %d records.",
+                        merger.shardCount(), records)));
+                return 1;
+            }
+            System.out.println(AnsiColors.colored(AnsiColors.GREEN, String.format(
+                    "%d shards produced all %d records of %d sheet(s) exactly once.",
+                    merger.shardCount(), records, merger.recordCounts().size())));
+            return 0;
+        } catch (IOException e) {
+            logger.error(AnsiColors.colored(AnsiColors.RED, "Could not merge the shard manifests: " + e.getMessage()));
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.rifushigi.command;
+
+import org.rifushigi.domain.infrastructure.TemplateStore;
+import org.rifushigi.domain.infrastructure.ZipCompression;
+import org.rifushigi.domain.service.TemplateCache;
+import org.rifushigi.metrics.GenerationMetrics;
+import org.rifushigi.server.GenerationServer;
+import org.rifushigi.util.AnsiColors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import picocli.CommandLine;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+@CommandLine.Command(
+        name = "serve",
+        mixinStandardHelpOptions = true,
+        version = "Tessera 1.0",
+        description = "Runs a local HTTP server that generates documents on request from warm, compiled templates."
+)
+public class ServeCommand implements Callable<Integer> {
+    private static final Logger logger = LoggerFactory.getLogger(ServeCommand.class);
+
+    @CommandLine.Option(names = {"--templates"}, required = true, paramLabel = "DIR", description = "Directory of Word templates (.docx), each served under its file name without the extension.")
+    private File templateDirectory;
+
+    @CommandLine.Option(names = {"--host"}, defaultValue = "127.0.0.1", description = "Address to listen on (default: ${DEFAULT-VALUE}).")
+    private String host;
+
+    @CommandLine.Option(names = {"-p", "--port"}, defaultValue = "8080", description = "Port to listen on (default: ${DEFAULT-VALUE}).")
+    private int port;
+
+    @CommandLine.Option(names = {"--deflate-level"}, paramLabel = "0-9", description = "Deflate level for the document parts regenerated per record.")
+    private Integer deflateLevel;
+
+    @CommandLine.Option(names = {"--no-template-cache"}, description = "Compile every template from scratch, without the template cache shared with generate.")
+    private boolean noTemplateCache;
+
+    @Override
+    public Integer call() {
+        if (!templateDirectory.isDirectory()) {
+            System.err.println(AnsiColors.colored(AnsiColors.RED, "Template directory not found: " + templateDirectory));
+            return 1;
+        }
+
+        try {
+            GenerationMetrics metrics = new GenerationMetrics();
+            ZipCompression compression = deflateLevel != null ? ZipCompression.deflate(deflateLevel) : ZipCompression.DEFAULT;
+            TemplateStore store = noTemplateCache ? null : new TemplateStore(TemplateStore.defaultDirectory(), TemplateStore.DEFAULT_MAX_BYTES);
+            TemplateCache templates = new TemplateCache(templateDirectory.toPath(), compression, store, metrics);
+
+            System.out.println(AnsiColors.colored(AnsiColors.CYAN, "Compiling templates in " + templateDirectory + "..."));
+            List<String> failures = templates.preload();
+            for (String failure : failures) {
+                System.err.println(AnsiColors.colored(AnsiColors.YELLOW, "Skipping template " + failure));
+            }
+
+            GenerationServer server = new GenerationServer(new InetSocketAddress(host, port), templates, metrics);
+            CountDownLatch stopped = new CountDownLatch(1);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop(5);
+                stopped.countDown();
+            }, "tessera-shutdown"));
+            server.start();
+
+            System.out.println(AnsiColors.colored(AnsiColors.GREEN, String.format(
+                    "%d template(s) ready. Listening on http://%s:%d (Ctrl+C to stop)",
+                    templates.size(), server.address().getHostString(), server.address().getPort())));
+            stopped.await();
+            return 0;
+        } catch (IOException | IllegalArgumentException e) {
+            logger.error(AnsiColors.colored(AnsiColors.RED, "Could not start the server: " + e.getMessage()));
+            return 1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+    }
+}
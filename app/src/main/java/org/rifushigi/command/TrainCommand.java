@@ -0,0 +1,130 @@
+package org.rifushigi.command;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.wp.usermodel.HeaderFooterType;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.rifushigi.domain.infrastructure.BundleFormat;
+import org.rifushigi.domain.infrastructure.ExcelReader;
+import org.rifushigi.domain.service.GenerationOptions;
+import org.rifushigi.domain.service.GenerationService;
+import org.rifushigi.util.Json;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import picocli.CommandLine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Exercises every code path of a generation run on a small synthetic workbook.
+ * <p>
+ * The build runs it as the training workload for the AppCDS archive, which records the classes it loads,
+ * and for the native-image tracing agent, which records the reflection and resources POI and XMLBeans use.
+ * It is hidden from the help because it is of no use on its own.
+ */
+@CommandLine.Command(
+        name = "train",
+        hidden = true,
+        description = "Runs a representative generation workload (used to build startup archives)."
+)
+public class TrainCommand implements Callable<Integer> {
+    private static final Logger logger = LoggerFactory.getLogger(TrainCommand.class);
+
+    private static final int ROWS = 50;
+
+    @CommandLine.Option(names = {"--work-dir"}, paramLabel = "DIR", description = "Directory for the synthetic input and the generated output (default: a temporary directory).")
+    private File workDirectory;
+
+    @Override
+    public Integer call() {
+        try {
+            Path work = workDirectory != null ? workDirectory.toPath() : Files.createTempDirectory("tessera-train");
+            Files.createDirectories(work);
+            Path template = writeTemplate(work.resolve("certificate-training.docx"));
+            Path workbook = writeWorkbook(work.resolve("cohort.xlsx"));
+            Path csv = writeCsv(work.resolve("cohort.csv"));
+            List<Path> templates = List.of(template);
+
+            // The progress report of each run is not of interest here
+            PrintStream quiet = new PrintStream(OutputStream.nullOutputStream());
+
+            new GenerationService(templates, workbook, work.resolve("poi"),
+                    GenerationOptions.builder().console(quiet).build()).generate();
+            new GenerationService(templates, workbook, work.resolve("compiled"),
+                    GenerationOptions.builder().compiledTemplates(true).incremental(true)
+                            .metricsFile(work.resolve("metrics.json")).console(quiet).build()).generate();
+            for (BundleFormat format : BundleFormat.values()) {
+                new GenerationService(templates, workbook, work,
+                        GenerationOptions.builder().compiledTemplates(true).bundle(format, null).console(quiet).build()).generate();
+            }
+            new GenerationService(templates, csv, work.resolve("csv"),
+                    GenerationOptions.builder().compiledTemplates(true).groupByColumn("LEVEL").console(quiet).build()).generate();
+            new ExcelReader().readData(workbook);
+            new ExcelReader(0).readData(workbook);
+            Json.parse(Files.readString(work.resolve("metrics.json")));
+            return 0;
+        } catch (IOException | RuntimeException e) {
+            logger.error("Training run failed: {}", e.getMessage(), e);
+            return 1;
+        }
+    }
+
+    private static Path writeTemplate(Path file) throws IOException {
+        try (XWPFDocument document = new XWPFDocument(); OutputStream out = Files.newOutputStream(file)) {
+            document.createHeader(HeaderFooterType.DEFAULT).createParagraph().createRun().setText("${COURSE}");
+            XWPFParagraph title = document.createParagraph();
+            title.createRun().setText("Certificate of Completion");
+
+            XWPFParagraph name = document.createParagraph();
+            name.createRun().setText("Awarded to ${FULL");
+            name.createRun().setText(" NAME} on ${DATE}");
+
+            XWPFTable table = document.createTable(1, 2);
+            table.getRow(0).getCell(0).setText("Course");
+            table.getRow(0).getCell(1).setText("${COURSE}");
+            document.write(out);
+        }
+        return file;
+    }
+
+    private static Path writeWorkbook(Path file) throws IOException {
+        try (XSSFWorkbook workbook = new XSSFWorkbook(); OutputStream out = Files.newOutputStream(file)) {
+            Sheet sheet = workbook.createSheet("Level 1");
+            sheet.createRow(0).createCell(0).setCellValue("Training cohort");
+            Row header = sheet.createRow(1);
+            header.createCell(0).setCellValue("FULL NAME");
+            header.createCell(1).setCellValue("DATE");
+            header.createCell(2).setCellValue("COURSE");
+            header.createCell(3).setCellValue("SCORE");
+            for (int i = 0; i < ROWS; i++) {
+                Row row = sheet.createRow(i + 2);
+                row.createCell(0).setCellValue("Trainee " + i);
+                row.createCell(1).setCellValue("1 September 2025");
+                row.createCell(2).setCellValue(i % 2 == 0 ? "Software Engineering" : "Data Analysis");
+                row.createCell(3).setCellValue(50 + i);
+            }
+            workbook.write(out);
+        }
+        return file;
+    }
+
+    private static Path writeCsv(Path file) throws IOException {
+        StringBuilder csv = new StringBuilder("FULL NAME,DATE,COURSE,LEVEL\r\n");
+        for (int i = 0; i < ROWS; i++) {
+            csv.append("\"Trainee, ").append(i).append("\",1 September 2025,Software Engineering,Level ")
+                    .append(1 + i % 2).append("\r\n");
+        }
+        Files.writeString(file, csv);
+        return file;
+    }
+}
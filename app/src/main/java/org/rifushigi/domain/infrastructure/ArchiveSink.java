@@ -0,0 +1,127 @@
+package org.rifushigi.domain.infrastructure;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+/**
+ * Streams every document into a single archive, written sequentially to a file or to standard output.
+ * A file target is synced to disk according to its {@link FsyncPolicy}: by default once, when the archive is closed.
+ */
+public abstract class ArchiveSink implements DocumentSink {
+
+    /**
+     * The target name that selects standard output instead of a file.
+     */
+    public static final String STANDARD_OUTPUT = "-";
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final FileOutputStream file;
+    private final String targetName;
+    private final FsyncPolicy fsyncPolicy;
+    protected final OutputStream out;
+
+    protected ArchiveSink(FileOutputStream file, String targetName, FsyncPolicy fsyncPolicy) {
+        this.file = file;
+        this.targetName = targetName;
+        this.fsyncPolicy = fsyncPolicy;
+        this.out = new BufferedOutputStream(file, BUFFER_SIZE);
+    }
+
+    /**
+     * Opens an archive sink.
+     *
+     * @param format The archive format.
+     * @param target The archive file, or {@link #STANDARD_OUTPUT} to stream to standard output.
+     * @return The sink.
+     * @throws IOException if the file cannot be created.
+     */
+    public static ArchiveSink open(BundleFormat format, String target) throws IOException {
+        return open(format, target, FsyncPolicy.END);
+    }
+
+    /**
+     * Opens an archive sink.
+     *
+     * @param format      The archive format.
+     * @param target      The archive file, or {@link #STANDARD_OUTPUT} to stream to standard output.
+     * @param fsyncPolicy When a file target is forced to disk. Standard output is never forced.
+     * @return The sink.
+     * @throws IOException if the file cannot be created.
+     */
+    public static ArchiveSink open(BundleFormat format, String target, FsyncPolicy fsyncPolicy) throws IOException {
+        boolean toStandardOutput = STANDARD_OUTPUT.equals(target);
+        // Standard output is written through its descriptor so console messages cannot end up in the archive
+        FileOutputStream file = toStandardOutput
+                ? new FileOutputStream(FileDescriptor.out)
+                : new FileOutputStream(Path.of(target).toFile());
+        String targetName = toStandardOutput ? "<stdout>" : Path.of(target).toAbsolutePath().toString();
+        return switch (format) {
+            case ZIP -> new ZipArchiveSink(file, targetName, fsyncPolicy);
+            case TAR -> new TarArchiveSink(file, targetName, fsyncPolicy);
+        };
+    }
+
+    @Override
+    public void write(String entryPath, byte[] content) throws IOException {
+        writeDocument(entryPath, content);
+        if (fsyncPolicy == FsyncPolicy.EACH && file.getFD() != FileDescriptor.out) {
+            out.flush();
+            file.getChannel().force(false);
+        }
+    }
+
+    @Override
+    public void link(String existingEntryPath, String entryPath) throws IOException {
+        writeLink(existingEntryPath, entryPath);
+    }
+
+    @Override
+    public String describe(String entryDirectory) {
+        return targetName + "!/" + entryDirectory;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finishArchive();
+            out.flush();
+            if (fsyncPolicy != FsyncPolicy.NONE && file.getFD() != FileDescriptor.out) {
+                file.getChannel().force(true);
+            }
+        } finally {
+            if (file.getFD() != FileDescriptor.out) {
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * Appends a document to the archive.
+     *
+     * @param entryPath The relative path of the document.
+     * @param content   The document bytes.
+     * @throws IOException if writing fails.
+     */
+    protected abstract void writeDocument(String entryPath, byte[] content) throws IOException;
+
+    /**
+     * Appends an entry that refers to a document already in the archive instead of repeating its bytes.
+     *
+     * @param existingEntryPath The relative path of a document written before.
+     * @param entryPath         The relative path of the identical document.
+     * @throws IOException if writing fails or the existing document is not in the archive.
+     */
+    protected abstract void writeLink(String existingEntryPath, String entryPath) throws IOException;
+
+    /**
+     * Writes the archive trailer.
+     *
+     * @throws IOException if writing fails.
+     */
+    protected abstract void finishArchive() throws IOException;
+}
@@ -0,0 +1,22 @@
+package org.rifushigi.domain.infrastructure;
+
+/**
+ * Archive formats that a whole run can be bundled into.
+ */
+public enum BundleFormat {
+    ZIP(".zip"),
+    TAR(".tar");
+
+    private final String extension;
+
+    BundleFormat(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * @return The file extension of the format, e.g. ".zip".
+     */
+    public String extension() {
+        return extension;
+    }
+}
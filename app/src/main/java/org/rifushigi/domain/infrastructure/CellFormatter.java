@@ -0,0 +1,203 @@
+package org.rifushigi.domain.infrastructure;
+
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.rifushigi.domain.model.ColumnType;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * Turns the cells of one sheet into record values and infers the type of each column.
+ * <p>
+ * The number format of a column is resolved from its cell style once, and again only for a cell style the
+ * column has not had before. Formatting a value, with the column's {@link ColumnFormats configured format} or
+ * as Excel shows it, is done once per distinct value of a column: repeated values such as issue dates are
+ * looked up. A column stops memoising once it has more distinct values than the limit, as unique values like
+ * ids gain nothing from it.
+ */
+final class CellFormatter {
+
+    private static final int MAX_MEMOISED_VALUES_PER_COLUMN = 1024;
+
+    private final ColumnFormats formats;
+    private final DataFormatter dataFormatter;
+    private final IntFunction<CellStyle> styles;
+    private final List<Column> columns = new ArrayList<>();
+
+    /**
+     * @param formats       The configured formats of the columns.
+     * @param dataFormatter Formats values as Excel shows them; may be null if only text is formatted.
+     * @param styles        Looks up a cell style of the workbook by index, or returns null if there is none.
+     */
+    CellFormatter(ColumnFormats formats, DataFormatter dataFormatter, IntFunction<CellStyle> styles) {
+        this.formats = formats;
+        this.dataFormatter = dataFormatter;
+        this.styles = styles;
+    }
+
+    /**
+     * Binds the configured formats to the columns of the sheet.
+     *
+     * @param headers The column headers, in column order.
+     */
+    void headers(List<String> headers) {
+        for (int i = 0; i < headers.size(); i++) {
+            column(i).format = formats.forColumn(headers.get(i));
+        }
+    }
+
+    /**
+     * Formats a number cell.
+     *
+     * @param columnIndex The column of the cell.
+     * @param value       The cell value.
+     * @param styleIndex  The index of the cell style, or -1 for the default style.
+     * @return The value.
+     */
+    String number(int columnIndex, double value, int styleIndex) {
+        Column column = column(columnIndex);
+        if (column.number == null || column.styleIndex != styleIndex) {
+            column.resolve(styleIndex, styles);
+        }
+        NumberFormat number = column.number;
+        boolean date = number.date() && DateUtil.isValidExcelDate(value);
+        column.type = date ? ColumnType.DATE : ColumnType.NUMBER;
+
+        NumberValue key = new NumberValue(value, number);
+        String formatted = column.memoised(key);
+        if (formatted != null) {
+            return formatted;
+        }
+        if (column.format != null) {
+            formatted = date ? column.format.date(DateUtil.getLocalDateTime(value)) : column.format.number(value);
+        }
+        if (formatted == null) {
+            formatted = dataFormatter.formatRawCellContents(value, number.index(), number.pattern());
+        }
+        column.memoise(key, formatted);
+        return formatted;
+    }
+
+    /**
+     * Formats a text cell. A date format of the column applies to text in ISO form.
+     *
+     * @param columnIndex The column of the cell.
+     * @param value       The cell text.
+     * @return The value.
+     */
+    String text(int columnIndex, String value) {
+        Column column = column(columnIndex);
+        if (!value.isEmpty()) {
+            column.type = ColumnType.STRING;
+        }
+        if (column.format == null || value.isEmpty()) {
+            return value;
+        }
+        String formatted = column.memoised(value);
+        if (formatted != null) {
+            return formatted;
+        }
+        formatted = isoDate(value) instanceof LocalDateTime date ? column.format.date(date) : null;
+        formatted = formatted != null ? formatted : value;
+        column.memoise(value, formatted);
+        return formatted;
+    }
+
+    /**
+     * @param size The number of columns of the sheet.
+     * @return The type of the non-blank cell last formatted in each column, or STRING if there was none.
+     */
+    List<ColumnType> types(int size) {
+        ColumnType[] types = new ColumnType[size];
+        Arrays.fill(types, ColumnType.STRING);
+        for (int i = 0; i < Math.min(size, columns.size()); i++) {
+            if (columns.get(i).type != null) {
+                types[i] = columns.get(i).type;
+            }
+        }
+        return List.of(types);
+    }
+
+    private Column column(int index) {
+        while (columns.size() <= index) {
+            columns.add(new Column());
+        }
+        return columns.get(index);
+    }
+
+    private static LocalDateTime isoDate(String value) {
+        if (value.length() < 10 || value.charAt(4) != '-') {
+            return null;
+        }
+        try {
+            return value.length() == 10 ? LocalDate.parse(value).atStartOfDay() : LocalDateTime.parse(value);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The state of one column: its resolved number format, its configured format and its memoised values.
+     */
+    private static final class Column {
+
+        private ColumnFormats.ValueFormat format;
+        private int styleIndex;
+        private NumberFormat number;
+        private final Map<Integer, NumberFormat> numbersByStyle = new HashMap<>();
+        private ColumnType type;
+        private Map<Object, String> values = new HashMap<>();
+
+        void resolve(int styleIndex, IntFunction<CellStyle> styles) {
+            this.styleIndex = styleIndex;
+            this.number = numbersByStyle.computeIfAbsent(styleIndex, key -> {
+                CellStyle style = key < 0 ? null : styles.apply(key);
+                int index = style != null ? style.getDataFormat() : 0;
+                String pattern = style != null ? style.getDataFormatString() : null;
+                if (pattern == null) {
+                    pattern = BuiltinFormats.getBuiltinFormat(index);
+                }
+                return new NumberFormat(index, pattern, DateUtil.isADateFormat(index, pattern));
+            });
+        }
+
+        String memoised(Object value) {
+            return values == null ? null : values.get(value);
+        }
+
+        void memoise(Object value, String formatted) {
+            if (values == null) {
+                return;
+            }
+            if (values.size() >= MAX_MEMOISED_VALUES_PER_COLUMN) {
+                values = null;
+                return;
+            }
+            values.put(value, formatted);
+        }
+    }
+
+    /**
+     * A number format of the workbook.
+     *
+     * @param index   The format index.
+     * @param pattern The format pattern.
+     * @param date    true if the format shows dates or times.
+     */
+    private record NumberFormat(int index, String pattern, boolean date) {}
+
+    /**
+     * A number cell value with its format, as memoised.
+     */
+    private record NumberValue(double value, NumberFormat format) {}
+}
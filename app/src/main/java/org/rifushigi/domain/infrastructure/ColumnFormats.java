@@ -0,0 +1,157 @@
+package org.rifushigi.domain.infrastructure;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.TextStyle;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * How the values of particular data columns are written into documents, overriding the format of their cells.
+ * <p>
+ * A format is given per column as "COLUMN=FORMAT", where FORMAT is one of:
+ * <ul>
+ *     <li>{@code ordinal}: dates as "20th September 2025";</li>
+ *     <li>{@code date:PATTERN}: dates with a {@link DateTimeFormatter} pattern, e.g. "date:dd/MM/yyyy";</li>
+ *     <li>{@code number:PATTERN}: numbers with a {@link DecimalFormat} pattern, e.g. "number:#,##0.00";</li>
+ *     <li>{@code excel}: values as Excel shows them, which is what columns without a format get.</li>
+ * </ul>
+ * A date format applies to date cells and to text in ISO form such as "2025-09-20"; a number format to
+ * number cells. Other values of the column are left as Excel shows them. The DATE column is formatted as an
+ * ordinal date unless it is given another format.
+ * <p>
+ * Formats are applied by the reading thread only and are not thread-safe.
+ */
+public final class ColumnFormats {
+
+    /**
+     * The formats used when none are given.
+     */
+    public static final ColumnFormats DEFAULT = new ColumnFormats(Map.of("date", new OrdinalDate()));
+
+    private final Map<String, ValueFormat> byColumn;
+
+    private ColumnFormats(Map<String, ValueFormat> byColumn) {
+        this.byColumn = byColumn;
+    }
+
+    /**
+     * Parses column formats on top of the {@link #DEFAULT defaults}.
+     *
+     * @param specs Formats as "COLUMN=FORMAT".
+     * @return The column formats.
+     * @throws IllegalArgumentException if a format is not valid.
+     */
+    public static ColumnFormats parse(List<String> specs) {
+        Map<String, ValueFormat> byColumn = new HashMap<>(DEFAULT.byColumn);
+        for (String spec : specs) {
+            int equals = spec.indexOf('=');
+            if (equals <= 0) {
+                throw new IllegalArgumentException("Expected COLUMN=FORMAT but got '" + spec + "'");
+            }
+            String column = spec.substring(0, equals).strip();
+            byColumn.put(normalize(column), parseFormat(spec.substring(equals + 1).strip()));
+        }
+        return new ColumnFormats(byColumn);
+    }
+
+    private static ValueFormat parseFormat(String format) {
+        if (format.equalsIgnoreCase("ordinal")) {
+            return new OrdinalDate();
+        }
+        if (format.equalsIgnoreCase("excel")) {
+            return new AsShown();
+        }
+        if (format.regionMatches(true, 0, "date:", 0, 5)) {
+            try {
+                DateTimeFormatter formatter = DateTimeFormatter.ofPattern(format.substring(5), Locale.ENGLISH);
+                // Fails now rather than on the first date if the pattern asks for fields a date does not have
+                formatter.format(LocalDateTime.of(2000, 1, 1, 0, 0));
+                return new DatePattern(formatter);
+            } catch (IllegalArgumentException | DateTimeException e) {
+                throw new IllegalArgumentException("Invalid date pattern '" + format.substring(5) + "': " + e.getMessage(), e);
+            }
+        }
+        if (format.regionMatches(true, 0, "number:", 0, 7)) {
+            try {
+                return new NumberPattern(new DecimalFormat(format.substring(7), DecimalFormatSymbols.getInstance(Locale.ENGLISH)));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid number pattern '" + format.substring(7) + "': " + e.getMessage(), e);
+            }
+        }
+        throw new IllegalArgumentException("Unknown format '" + format + "'; expected ordinal, date:PATTERN, number:PATTERN or excel");
+    }
+
+    /**
+     * @param header A column header (case-insensitive).
+     * @return The format of the column, or null to write its values as Excel shows them.
+     */
+    ValueFormat forColumn(String header) {
+        ValueFormat format = byColumn.get(normalize(header));
+        return format instanceof AsShown ? null : format;
+    }
+
+    /**
+     * Formats a date as "20th September 2025".
+     *
+     * @param date The date.
+     * @return The ordinal date.
+     */
+    public static String ordinal(LocalDate date) {
+        int day = date.getDayOfMonth();
+        String suffix = day >= 11 && day <= 13 ? "th" : switch (day % 10) {
+            case 1 -> "st";
+            case 2 -> "nd";
+            case 3 -> "rd";
+            default -> "th";
+        };
+        return day + suffix + " " + date.getMonth().getDisplayName(TextStyle.FULL, Locale.ENGLISH) + " " + date.getYear();
+    }
+
+    private static String normalize(String header) {
+        return header.strip().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The format of a column. Each method returns null for values the format does not apply to.
+     */
+    interface ValueFormat {
+
+        default String date(LocalDateTime value) {
+            return null;
+        }
+
+        default String number(double value) {
+            return null;
+        }
+    }
+
+    private record OrdinalDate() implements ValueFormat {
+        @Override
+        public String date(LocalDateTime value) {
+            return ordinal(value.toLocalDate());
+        }
+    }
+
+    private record DatePattern(DateTimeFormatter formatter) implements ValueFormat {
+        @Override
+        public String date(LocalDateTime value) {
+            return formatter.format(value);
+        }
+    }
+
+    private record NumberPattern(DecimalFormat format) implements ValueFormat {
+        @Override
+        public String number(double value) {
+            return format.format(value);
+        }
+    }
+
+    private record AsShown() implements ValueFormat {}
+}
@@ -0,0 +1,573 @@
+package org.rifushigi.domain.infrastructure;
+
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.rifushigi.domain.model.CandidateRecord;
+import org.rifushigi.domain.model.Placeholder;
+import org.rifushigi.domain.model.TemplateMetadata;
+import org.rifushigi.metrics.GenerationMetrics;
+import org.rifushigi.metrics.Stage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * An immutable render plan for a Word template.
+ * <p>
+ * The template is parsed with POI exactly once: every placeholder is replaced by a slot marker using the
+ * same paragraph logic as {@link WordDocumentWriter}, the document is serialised, and each part of the
+ * resulting package is split into static byte segments interleaved with placeholder slots. Rendering a
+ * record then only writes those segments and the XML-escaped replacement values into a new zip, without
+ * building a POI object model per record.
+ * <p>
+ * Parts without slots (styles, fonts, images...) are the same in every document. They are kept in their
+ * compressed form, copied from the template file where POI left them unchanged, and written verbatim by a
+ * {@link ZipPassthroughWriter}; only the parts that hold slots are compressed again for each record.
+ * <p>
+ * The slot of an image placeholder is filled with an inline drawing, and the relationships of the part holding
+ * it get a slot of their own for the images of each document. Every distinct image of a document is written
+ * once, copied as is from the zip entry held by the {@link ImageCache}.
+ * <p>
+ * A compiled template can be {@link #writeTo saved} and {@link #readFrom read back} without POI, which is how
+ * the {@link TemplateStore} spares later runs the compilation.
+ */
+public class CompiledTemplate implements DocumentRenderer {
+
+    // Private-use code points used to mark slots in the serialised XML; real templates do not contain them.
+    private static final char SLOT_START = '\uE000';
+    private static final char SLOT_END = '\uE001';
+    // Names the slot filled with the image relationships of the part that follows; it cannot be a variable name
+    private static final String RELATIONSHIPS_SLOT = "\u0000relationships:";
+    private static final String RELATIONSHIPS_END = "</Relationships>";
+    private static final String EMPTY_RELATIONSHIPS = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+            + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">" + RELATIONSHIPS_END;
+    private static final String IMAGE_RELATIONSHIP_TYPE = "http://schemas.openxmlformats.org/officeDocument/2006/relationships/image";
+    private static final String CONTENT_TYPES = "[Content_Types].xml";
+    private static final Map<String, String> IMAGE_CONTENT_TYPES = Map.of(
+            "png", "image/png", "jpeg", "image/jpeg", "gif", "image/gif", "bmp", "image/bmp");
+    // Drawing ids of placed images start here, well clear of the ids of the template's own drawings
+    private static final int FIRST_DRAWING_ID = 100_000;
+
+    private final WordDocumentWriter writer;
+    private final List<Part> parts;
+    private final ZipCompression compression;
+    private final ImageCache images;
+    private final boolean hasImages;
+    private final GenerationMetrics metrics;
+
+    private CompiledTemplate(WordDocumentWriter writer, List<Part> parts, ZipCompression compression,
+                             ImageCache images, GenerationMetrics metrics) {
+        this.writer = writer;
+        this.parts = parts;
+        this.compression = compression;
+        this.images = images;
+        this.hasImages = parts.stream().anyMatch(part -> part.slots() != null
+                && Arrays.stream(part.slots()).anyMatch(Placeholder::isImage));
+        this.metrics = metrics;
+    }
+
+    /**
+     * Parses the template once and compiles it into a render plan using the default compression.
+     *
+     * @param templatePath The path to the .docx template file.
+     * @param placeholders The placeholders detected in the template.
+     * @return The compiled template.
+     * @throws IOException if there is an error reading the template.
+     */
+    public static CompiledTemplate compile(Path templatePath, Set<Placeholder> placeholders) throws IOException {
+        return compile(templatePath, placeholders, ZipCompression.DEFAULT);
+    }
+
+    /**
+     * Parses the template once and compiles it into a render plan.
+     *
+     * @param templatePath The path to the .docx template file.
+     * @param placeholders The placeholders detected in the template.
+     * @param compression  How the parts that change per record are compressed.
+     * @return The compiled template.
+     * @throws IOException if there is an error reading the template.
+     */
+    public static CompiledTemplate compile(Path templatePath, Set<Placeholder> placeholders,
+                                           ZipCompression compression) throws IOException {
+        return compile(templatePath, placeholders, compression, GenerationMetrics.DISABLED);
+    }
+
+    /**
+     * Parses the template once and compiles it into a render plan.
+     *
+     * @param templatePath The path to the .docx template file.
+     * @param placeholders The placeholders detected in the template.
+     * @param compression  How the parts that change per record are compressed.
+     * @param metrics      Receives the compilation time and the replacement and serialisation time of every document.
+     * @return The compiled template.
+     * @throws IOException if there is an error reading the template.
+     */
+    public static CompiledTemplate compile(Path templatePath, Set<Placeholder> placeholders,
+                                           ZipCompression compression, GenerationMetrics metrics) throws IOException {
+        return compile(templatePath, placeholders, compression, ImageCache.forTemplate(templatePath), metrics);
+    }
+
+    /**
+     * Parses the template once and compiles it into a render plan.
+     *
+     * @param templatePath The path to the .docx template file.
+     * @param placeholders The placeholders detected in the template.
+     * @param compression  How the parts that change per record are compressed.
+     * @param images       Loads the images of image placeholders.
+     * @param metrics      Receives the compilation time and the replacement and serialisation time of every document.
+     * @return The compiled template.
+     * @throws IOException if there is an error reading the template.
+     */
+    public static CompiledTemplate compile(Path templatePath, Set<Placeholder> placeholders, ZipCompression compression,
+                                           ImageCache images, GenerationMetrics metrics) throws IOException {
+        return compile(templatePath, placeholders, compression, images, null, metrics);
+    }
+
+    /**
+     * Parses the template once and compiles it into a render plan.
+     *
+     * @param templatePath The path to the .docx template file.
+     * @param placeholders The placeholders detected in the template.
+     * @param compression  How the parts that change per record are compressed.
+     * @param images       Loads the images of image placeholders.
+     * @param runDate      The DATE of data without a DATE column, or null for the current date.
+     * @param metrics      Receives the compilation time and the replacement and serialisation time of every document.
+     * @return The compiled template.
+     * @throws IOException if there is an error reading the template.
+     */
+    public static CompiledTemplate compile(Path templatePath, Set<Placeholder> placeholders, ZipCompression compression,
+                                           ImageCache images, LocalDate runDate, GenerationMetrics metrics) throws IOException {
+        long start = metrics.start();
+        WordDocumentWriter writer = new WordDocumentWriter(new TemplateMetadata(templatePath, placeholders), images,
+                runDate, metrics);
+
+        List<String> slotNames = new ArrayList<>();
+        Map<String, String> markers = new HashMap<>();
+        for (Placeholder placeholder : placeholders) {
+            markers.put(placeholder.varName(), SLOT_START + Integer.toString(slotNames.size()) + SLOT_END);
+            slotNames.add(placeholder.varName());
+        }
+
+        ByteArrayOutputStream packageBytes = new ByteArrayOutputStream();
+        try (XWPFDocument document = writer.createAndReplaceDocument(markers)) {
+            document.write(packageBytes);
+        }
+
+        // Entries of the original file, reused as is when POI wrote them back unchanged
+        Map<String, RawZipEntry> templateEntries = RawZipEntry.readArchive(Files.readAllBytes(templatePath));
+
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(packageBytes.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                if (!entry.isDirectory()) {
+                    entries.put(entry.getName(), zis.readAllBytes());
+                }
+            }
+        }
+        if (placeholders.stream().anyMatch(Placeholder::isImage)) {
+            prepareImageParts(entries, slotNames);
+        }
+
+        List<Part> parts = new ArrayList<>();
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            parts.add(splitPart(entry.getKey(), entry.getValue(), slotNames, templateEntries, compression));
+        }
+
+        metrics.record(Stage.TEMPLATE_LOADING, start);
+        return new CompiledTemplate(writer, List.copyOf(parts), compression, images, metrics);
+    }
+
+    /**
+     * Reads a render plan saved with {@link #writeTo(DataOutputStream)}.
+     *
+     * @param in           The saved plan.
+     * @param templatePath The template the plan was compiled from.
+     * @param placeholders The placeholders detected in the template.
+     * @param compression  The compression the plan was compiled with.
+     * @param images       Loads the images of image placeholders.
+     * @param runDate      The DATE of data without a DATE column, or null for the current date.
+     * @param metrics      Receives the replacement and serialisation time of every document.
+     * @return The compiled template.
+     * @throws IOException if the plan cannot be read.
+     */
+    static CompiledTemplate readFrom(DataInputStream in, Path templatePath, Set<Placeholder> placeholders,
+                                     ZipCompression compression, ImageCache images, LocalDate runDate,
+                                     GenerationMetrics metrics) throws IOException {
+        int partCount = in.readInt();
+        List<Part> parts = new ArrayList<>(partCount);
+        for (int i = 0; i < partCount; i++) {
+            String name = in.readUTF();
+            if (in.readBoolean()) {
+                int method = in.readInt();
+                long crc = in.readLong();
+                long size = in.readLong();
+                parts.add(new Part(name, new RawZipEntry(name, method, crc, size, readBytes(in)), null, null));
+                continue;
+            }
+            int segmentCount = in.readInt();
+            if (segmentCount < 1) {
+                throw new IOException("Invalid segment count in saved render plan: " + segmentCount);
+            }
+            byte[][] segments = new byte[segmentCount][];
+            String[] slots = new String[segments.length - 1];
+            for (int j = 0; j < segments.length; j++) {
+                segments[j] = readBytes(in);
+                if (j < slots.length) {
+                    slots[j] = in.readUTF();
+                }
+            }
+            parts.add(new Part(name, null, segments, slots));
+        }
+        return new CompiledTemplate(new WordDocumentWriter(new TemplateMetadata(templatePath, placeholders), images,
+                runDate, metrics), List.copyOf(parts), compression, images, metrics);
+    }
+
+    /**
+     * Saves the render plan, to be restored with {@link #readFrom}.
+     *
+     * @param out Where the plan is written.
+     * @throws IOException if writing fails.
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(parts.size());
+        for (Part part : parts) {
+            out.writeUTF(part.name());
+            out.writeBoolean(part.raw() != null);
+            if (part.raw() != null) {
+                out.writeInt(part.raw().method());
+                out.writeLong(part.raw().crc());
+                out.writeLong(part.raw().size());
+                writeBytes(out, part.raw().compressedData());
+                continue;
+            }
+            out.writeInt(part.segments().length);
+            for (int j = 0; j < part.segments().length; j++) {
+                writeBytes(out, part.segments()[j]);
+                if (j < part.slots().length) {
+                    out.writeUTF(part.slots()[j]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return How the parts that change per record are compressed.
+     */
+    public ZipCompression compression() {
+        return compression;
+    }
+
+    @Override
+    public Map<String, String> resolveReplacements(CandidateRecord record) {
+        return writer.getReplacementsMap(record);
+    }
+
+    @Override
+    public void render(Map<String, String> replacements, OutputStream outputStream) throws IOException {
+        // Filling slots and writing entries alternate part by part, so both are summed over the document
+        long replacementNanos = 0;
+        long start = metrics.start();
+        DocumentImages documentImages = hasImages ? collectImages(replacements) : null;
+        int drawingId = FIRST_DRAWING_ID;
+        ZipPassthroughWriter zip = new ZipPassthroughWriter(outputStream, compression);
+        for (Part part : parts) {
+            if (part.raw() != null) {
+                zip.writeRaw(part.raw());
+                continue;
+            }
+            long partStart = metrics.start();
+            ByteArrayOutputStream xml = new ByteArrayOutputStream();
+            xml.write(part.segments()[0]);
+            for (int i = 0; i < part.slots().length; i++) {
+                String slot = part.slots()[i];
+                String value;
+                if (slot.startsWith(RELATIONSHIPS_SLOT)) {
+                    value = imageRelationships(documentImages.byPart().get(slot.substring(RELATIONSHIPS_SLOT.length())));
+                } else if (Placeholder.isImage(slot)) {
+                    String reference = replacements.getOrDefault(slot, "");
+                    value = reference.isEmpty() ? "" : drawing(documentImages.byReference().get(reference), drawingId++);
+                } else {
+                    value = escapeXml(replacements.getOrDefault(slot, ""));
+                }
+                xml.write(value.getBytes(StandardCharsets.UTF_8));
+                xml.write(part.segments()[i + 1]);
+            }
+            replacementNanos += metrics.start() - partStart;
+            zip.writeEntry(part.name(), xml.toByteArray());
+        }
+        if (documentImages != null) {
+            // Each image once, however often the document shows it
+            for (ImageCache.Image image : documentImages.byReference().values()) {
+                zip.writeRaw(image.entry());
+            }
+        }
+        zip.finish();
+
+        if (metrics.enabled()) {
+            long totalNanos = System.nanoTime() - start;
+            metrics.recordNanos(Stage.REPLACEMENT, replacementNanos);
+            metrics.recordNanos(Stage.ZIP_SERIALISATION, totalNanos - replacementNanos);
+        }
+    }
+
+    /**
+     * Looks up the images of a document, and which parts show them, before any part is written: the
+     * relationships of a part may come before the part in the package.
+     */
+    private DocumentImages collectImages(Map<String, String> replacements) throws IOException {
+        Map<String, ImageCache.Image> byReference = new LinkedHashMap<>();
+        Map<String, Set<ImageCache.Image>> byPart = new HashMap<>();
+        for (Part part : parts) {
+            if (part.slots() == null) {
+                continue;
+            }
+            for (String slot : part.slots()) {
+                String reference = Placeholder.isImage(slot) ? replacements.getOrDefault(slot, "") : "";
+                if (reference.isEmpty()) {
+                    continue;
+                }
+                ImageCache.Image image = byReference.get(reference);
+                if (image == null) {
+                    image = images.image(reference);
+                    byReference.put(reference, image);
+                }
+                byPart.computeIfAbsent(part.name(), name -> new LinkedHashSet<>()).add(image);
+            }
+        }
+        return new DocumentImages(byReference, byPart);
+    }
+
+    /**
+     * Prepares the package of a template with image placeholders: the relationships of every part showing
+     * an image get a slot for the relationships of the document's images, and the content types cover every
+     * image format.
+     */
+    private static void prepareImageParts(Map<String, byte[]> entries, List<String> slotNames) {
+        List<String> imageMarkers = new ArrayList<>();
+        for (int i = 0; i < slotNames.size(); i++) {
+            if (Placeholder.isImage(slotNames.get(i))) {
+                imageMarkers.add(SLOT_START + Integer.toString(i) + SLOT_END);
+            }
+        }
+
+        for (String name : List.copyOf(entries.keySet())) {
+            if (!name.endsWith(".xml")) {
+                continue;
+            }
+            String xml = new String(entries.get(name), StandardCharsets.UTF_8);
+            if (imageMarkers.stream().noneMatch(xml::contains)) {
+                continue;
+            }
+            String relationshipsName = relationshipsPartName(name);
+            byte[] existing = entries.get(relationshipsName);
+            String relationships = existing != null ? new String(existing, StandardCharsets.UTF_8) : EMPTY_RELATIONSHIPS;
+            int end = relationships.lastIndexOf(RELATIONSHIPS_END);
+            if (end < 0) {
+                continue;
+            }
+            String marker = SLOT_START + Integer.toString(slotNames.size()) + SLOT_END;
+            slotNames.add(RELATIONSHIPS_SLOT + name);
+            entries.put(relationshipsName, (relationships.substring(0, end) + marker + relationships.substring(end))
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+
+        byte[] contentTypes = entries.get(CONTENT_TYPES);
+        if (contentTypes != null) {
+            String xml = new String(contentTypes, StandardCharsets.UTF_8);
+            StringBuilder defaults = new StringBuilder();
+            IMAGE_CONTENT_TYPES.forEach((extension, contentType) -> {
+                if (!xml.toLowerCase(Locale.ROOT).contains("extension=\"" + extension + "\"")) {
+                    defaults.append("<Default Extension=\"").append(extension)
+                            .append("\" ContentType=\"").append(contentType).append("\"/>");
+                }
+            });
+            int end = xml.lastIndexOf("</Types>");
+            if (end >= 0) {
+                entries.put(CONTENT_TYPES, (xml.substring(0, end) + defaults + xml.substring(end))
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    /**
+     * @return The name of the part holding the relationships of a part, e.g. word/_rels/document.xml.rels.
+     */
+    private static String relationshipsPartName(String partName) {
+        int slash = partName.lastIndexOf('/');
+        return partName.substring(0, slash + 1) + "_rels/" + partName.substring(slash + 1) + ".rels";
+    }
+
+    /**
+     * @return The relationships of a part to the images it shows.
+     */
+    private static String imageRelationships(Set<ImageCache.Image> partImages) {
+        if (partImages == null) {
+            return "";
+        }
+        StringBuilder xml = new StringBuilder();
+        for (ImageCache.Image image : partImages) {
+            xml.append("<Relationship Id=\"").append(relationshipId(image))
+                    .append("\" Type=\"").append(IMAGE_RELATIONSHIP_TYPE)
+                    .append("\" Target=\"/").append(image.entry().name()).append("\"/>");
+        }
+        return xml.toString();
+    }
+
+    private static String relationshipId(ImageCache.Image image) {
+        return "rIdImage" + image.hash().substring(0, 16);
+    }
+
+    /**
+     * Returns an inline drawing of an image, to take the place of a slot within the text of a run: the text
+     * element is closed before the drawing and opened again after it. The namespaces are declared on the
+     * drawing itself, as the part may not declare them.
+     */
+    private static String drawing(ImageCache.Image image, int id) {
+        String extent = "cx=\"" + image.widthEmu() + "\" cy=\"" + image.heightEmu() + "\"";
+        return "</w:t><w:drawing>"
+                + "<wp:inline xmlns:wp=\"http://schemas.openxmlformats.org/drawingml/2006/wordprocessingDrawing\""
+                + " distT=\"0\" distB=\"0\" distL=\"0\" distR=\"0\">"
+                + "<wp:extent " + extent + "/>"
+                + "<wp:docPr id=\"" + id + "\" name=\"Picture " + id + "\"/>"
+                + "<a:graphic xmlns:a=\"http://schemas.openxmlformats.org/drawingml/2006/main\">"
+                + "<a:graphicData uri=\"http://schemas.openxmlformats.org/drawingml/2006/picture\">"
+                + "<pic:pic xmlns:pic=\"http://schemas.openxmlformats.org/drawingml/2006/picture\">"
+                + "<pic:nvPicPr><pic:cNvPr id=\"0\" name=\"" + image.fileName() + "\"/><pic:cNvPicPr/></pic:nvPicPr>"
+                + "<pic:blipFill><a:blip xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\""
+                + " r:embed=\"" + relationshipId(image) + "\"/><a:stretch><a:fillRect/></a:stretch></pic:blipFill>"
+                + "<pic:spPr><a:xfrm><a:off x=\"0\" y=\"0\"/><a:ext " + extent + "/></a:xfrm>"
+                + "<a:prstGeom prst=\"rect\"><a:avLst/></a:prstGeom></pic:spPr>"
+                + "</pic:pic></a:graphicData></a:graphic></wp:inline></w:drawing><w:t xml:space=\"preserve\">";
+    }
+
+    /**
+     * Splits a package part around its slot markers. Parts without markers become a single
+     * pre-compressed entry.
+     */
+    private static Part splitPart(String name, byte[] data, List<String> slotNames,
+                                  Map<String, RawZipEntry> templateEntries, ZipCompression compression) {
+        String xml = name.endsWith(".xml") || name.endsWith(".rels") ? new String(data, StandardCharsets.UTF_8) : null;
+        if (xml == null || xml.indexOf(SLOT_START) < 0) {
+            return new Part(name, staticEntry(name, data, templateEntries, compression), null, null);
+        }
+
+        List<byte[]> segments = new ArrayList<>();
+        List<String> slots = new ArrayList<>();
+        int segmentStart = 0;
+        int pos = xml.indexOf(SLOT_START);
+        while (pos >= 0) {
+            int end = xml.indexOf(SLOT_END, pos);
+            int slot = end < 0 ? -1 : parseSlot(xml.substring(pos + 1, end), slotNames.size());
+            if (slot < 0) {
+                // not one of our markers, keep it as template text
+                pos = xml.indexOf(SLOT_START, pos + 1);
+                continue;
+            }
+            segments.add(xml.substring(segmentStart, pos).getBytes(StandardCharsets.UTF_8));
+            slots.add(slotNames.get(slot));
+            segmentStart = end + 1;
+            pos = xml.indexOf(SLOT_START, segmentStart);
+        }
+        segments.add(xml.substring(segmentStart).getBytes(StandardCharsets.UTF_8));
+
+        return new Part(name, null, segments.toArray(new byte[0][]), slots.toArray(new String[0]));
+    }
+
+    /**
+     * Returns the compressed form of a part that is the same in every document: the template's own entry
+     * if POI wrote the part back byte for byte, otherwise the part compressed once now.
+     */
+    private static RawZipEntry staticEntry(String name, byte[] data, Map<String, RawZipEntry> templateEntries,
+                                           ZipCompression compression) {
+        RawZipEntry original = templateEntries.get(name);
+        if (original != null && original.size() == data.length) {
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            if (crc.getValue() == original.crc()) {
+                return original;
+            }
+        }
+        return RawZipEntry.compress(name, data, compression);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid length in saved render plan: " + length);
+        }
+        byte[] bytes = in.readNBytes(length);
+        if (bytes.length != length) {
+            throw new EOFException("Saved render plan is truncated");
+        }
+        return bytes;
+    }
+
+    private static int parseSlot(String digits, int slotCount) {
+        if (digits.isEmpty() || digits.length() > 9 || !digits.chars().allMatch(Character::isDigit)) {
+            return -1;
+        }
+        int slot = Integer.parseInt(digits);
+        return slot < slotCount ? slot : -1;
+    }
+
+    /**
+     * Escapes a value for use as XML character data, dropping characters XML 1.0 cannot represent.
+     */
+    static String escapeXml(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 16);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&' -> sb.append("&amp;");
+                case '<' -> sb.append("&lt;");
+                case '>' -> sb.append("&gt;");
+                default -> {
+                    if (c >= 0x20 || c == '\t' || c == '\n' || c == '\r') {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A single entry of the template package: either a raw entry copied into every document, or
+     * segments with a slot (variable name) between each pair.
+     */
+    private record Part(String name, RawZipEntry raw, byte[][] segments, String[] slots) {}
+
+    /**
+     * The images of one document.
+     *
+     * @param byReference Each distinct image, by the value of its image placeholders.
+     * @param byPart      The images each part shows, by part name.
+     */
+    private record DocumentImages(Map<String, ImageCache.Image> byReference, Map<String, Set<ImageCache.Image>> byPart) {}
+}
@@ -0,0 +1,279 @@
+package org.rifushigi.domain.infrastructure;
+
+import org.rifushigi.domain.model.CandidateRecord;
+import org.rifushigi.domain.model.RecordSchema;
+import org.rifushigi.metrics.GenerationMetrics;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads a CSV or TSV file (RFC 4180) over a memory-mapped view of the file, streaming each row as it is read.
+ * <p>
+ * Fields may be quoted with double quotes, inside which delimiters, line breaks and doubled quotes are taken
+ * literally. Lines end with LF or CRLF, the file is decoded as UTF-8 and a leading byte order mark is ignored.
+ * <p>
+ * The whole file forms one sheet, named after the file without its extension. Its header is the first
+ * non-blank row, unless that row holds a single value and the row after it holds more: such a row is a title,
+ * as in the workbooks this tool reads, and the header follows it. As in {@link ExcelReader}, blank rows are
+ * skipped, missing trailing fields are empty and fields beyond the header are ignored.
+ */
+public class CsvReader implements DataSource {
+
+    // Files are mapped in windows so that files over 2 GiB can be read and little address space is held
+    private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
+    private final byte delimiter;
+    private final ColumnFormats formats;
+    private final GenerationMetrics metrics;
+
+    /**
+     * @param delimiter The field delimiter, e.g. ',' or '\t'.
+     */
+    public CsvReader(char delimiter) {
+        this(delimiter, GenerationMetrics.DISABLED);
+    }
+
+    /**
+     * @param delimiter The field delimiter, e.g. ',' or '\t'.
+     * @param metrics   Receives the parsing time of every row.
+     */
+    public CsvReader(char delimiter, GenerationMetrics metrics) {
+        this(delimiter, ColumnFormats.DEFAULT, metrics);
+    }
+
+    /**
+     * @param delimiter The field delimiter, e.g. ',' or '\t'.
+     * @param formats   The formats of particular columns. Fields are text, so only date formats apply, to ISO dates.
+     * @param metrics   Receives the parsing time of every row.
+     */
+    public CsvReader(char delimiter, ColumnFormats formats, GenerationMetrics metrics) {
+        if (delimiter > 0x7F || delimiter == '"' || delimiter == '\r' || delimiter == '\n') {
+            throw new IllegalArgumentException("Invalid CSV delimiter: " + delimiter);
+        }
+        this.delimiter = (byte) delimiter;
+        this.formats = formats;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void streamData(Path dataPath, SheetRecordHandler handler) throws IOException {
+        if (!Files.exists(dataPath) || !Files.isReadable(dataPath)) {
+            throw new IOException("Data file not found or is not readable: " + dataPath);
+        }
+        String fileName = dataPath.getFileName().toString();
+        int extension = fileName.lastIndexOf('.');
+        String sheetName = extension > 0 ? fileName.substring(0, extension) : fileName;
+        SheetRecordHandler reader = TimedRecordHandler.wrap(handler, metrics);
+
+        try (FileChannel channel = FileChannel.open(dataPath, StandardOpenOption.READ)) {
+            Tokenizer tokenizer = new Tokenizer(channel, delimiter);
+            List<String> fields = new ArrayList<>();
+
+            List<String> header = nextNonBlankRow(tokenizer, fields);
+            if (header == null) {
+                return;
+            }
+            List<String> firstRow = null;
+            if (nonBlankCount(header) == 1) {
+                List<String> next = nextNonBlankRow(tokenizer, fields);
+                if (next != null && nonBlankCount(next) > 1) {
+                    header = next;
+                } else {
+                    firstRow = next;
+                }
+            }
+
+            RecordSchema schema = RecordSchema.of(header);
+            ValuePool valuePool = new ValuePool();
+            CellFormatter formatter = new CellFormatter(formats, null, style -> null);
+            formatter.headers(header);
+            reader.startSheet(sheetName);
+            if (firstRow != null) {
+                reader.record(sheetName, toRecord(schema, firstRow, formatter, valuePool));
+            }
+            while (tokenizer.nextRow(fields)) {
+                if (nonBlankCount(fields) > 0) {
+                    reader.record(sheetName, toRecord(schema, fields, formatter, valuePool));
+                }
+            }
+            reader.endSheet(sheetName);
+        } catch (MalformedCsvException e) {
+            throw new IOException("Malformed CSV file " + dataPath + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return A copy of the next row with a non-blank field, or null at the end of the file.
+     */
+    private static List<String> nextNonBlankRow(Tokenizer tokenizer, List<String> fields) throws IOException {
+        while (tokenizer.nextRow(fields)) {
+            if (nonBlankCount(fields) > 0) {
+                return List.copyOf(fields);
+            }
+        }
+        return null;
+    }
+
+    private static int nonBlankCount(List<String> fields) {
+        int count = 0;
+        for (String field : fields) {
+            if (!field.isBlank()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static CandidateRecord toRecord(RecordSchema schema, List<String> fields, CellFormatter formatter,
+                                            ValuePool valuePool) {
+        String[] values = new String[schema.size()];
+        Arrays.fill(values, "");
+        for (int i = 0; i < Math.min(values.length, fields.size()); i++) {
+            values[i] = valuePool.intern(i, formatter.text(i, fields.get(i)));
+        }
+        return new CandidateRecord(schema, values);
+    }
+
+    /**
+     * Splits the mapped file into rows of decoded fields. The structural characters are all ASCII, so the
+     * file is scanned byte by byte and only the bytes of each field are decoded.
+     */
+    private static final class Tokenizer {
+
+        private static final int END_OF_FILE = -1;
+        private static final int NONE = -2;
+
+        private final FileChannel channel;
+        private final byte delimiter;
+        private final long size;
+        private MappedByteBuffer window;
+        private long windowEnd;
+        private int pushedBack = NONE;
+        private long line = 1;
+
+        private byte[] field = new byte[256];
+        private int fieldLength;
+
+        Tokenizer(FileChannel channel, byte delimiter) throws IOException {
+            this.channel = channel;
+            this.delimiter = delimiter;
+            this.size = channel.size();
+            skipByteOrderMark();
+        }
+
+        /**
+         * Reads the next row into the given list.
+         *
+         * @return false at the end of the file.
+         */
+        boolean nextRow(List<String> fields) throws IOException {
+            fields.clear();
+            int c = read();
+            if (c == END_OF_FILE) {
+                return false;
+            }
+            while (true) {
+                fieldLength = 0;
+                if (c == '"') {
+                    c = readQuoted();
+                }
+                // Unquoted text, or text after a closing quote, which is kept rather than rejected
+                while (c != END_OF_FILE && c != delimiter && c != '\n' && c != '\r') {
+                    append(c);
+                    c = read();
+                }
+                fields.add(new String(field, 0, fieldLength, StandardCharsets.UTF_8));
+
+                if (c == delimiter) {
+                    c = read();
+                    continue;
+                }
+                if (c == '\r') {
+                    int next = read();
+                    if (next != '\n') {
+                        pushedBack = next;
+                    }
+                }
+                line++;
+                return true;
+            }
+        }
+
+        /**
+         * Reads a quoted field up to its closing quote.
+         *
+         * @return The character after the closing quote.
+         */
+        private int readQuoted() throws IOException {
+            long startLine = line;
+            while (true) {
+                int c = read();
+                if (c == END_OF_FILE) {
+                    throw new MalformedCsvException("unterminated quoted field starting on line " + startLine);
+                }
+                if (c == '"') {
+                    c = read();
+                    if (c != '"') {
+                        return c;
+                    }
+                } else if (c == '\n') {
+                    line++;
+                }
+                append(c);
+            }
+        }
+
+        private void append(int c) {
+            if (fieldLength == field.length) {
+                field = Arrays.copyOf(field, field.length * 2);
+            }
+            field[fieldLength++] = (byte) c;
+        }
+
+        private int read() throws IOException {
+            if (pushedBack != NONE) {
+                int c = pushedBack;
+                pushedBack = NONE;
+                return c;
+            }
+            if (window == null || !window.hasRemaining()) {
+                if (windowEnd >= size) {
+                    return END_OF_FILE;
+                }
+                long length = Math.min(WINDOW_SIZE, size - windowEnd);
+                window = channel.map(FileChannel.MapMode.READ_ONLY, windowEnd, length);
+                windowEnd += length;
+            }
+            return window.get() & 0xFF;
+        }
+
+        private void skipByteOrderMark() throws IOException {
+            if (size >= 3) {
+                int b0 = read(), b1 = read(), b2 = read();
+                if (b0 == 0xEF && b1 == 0xBB && b2 == 0xBF) {
+                    return;
+                }
+                // Not a byte order mark: start over at the beginning of the file
+                window.position(0);
+            }
+        }
+    }
+
+    /**
+     * Signals a CSV file that cannot be split into fields.
+     */
+    private static final class MalformedCsvException extends IOException {
+        MalformedCsvException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.rifushigi.domain.infrastructure;
+
+import org.rifushigi.domain.model.CandidateRecord;
+import org.rifushigi.metrics.GenerationMetrics;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A data file read as candidate records grouped into sheets: the worksheets of a workbook, or the rows of a
+ * CSV file, optionally {@link #groupedBy(String) grouped by a column}.
+ */
+public interface DataSource {
+
+    /**
+     * The data file extensions {@link #forFile(Path, GenerationMetrics)} can read.
+     */
+    List<String> FILE_EXTENSIONS = List.of(".xlsx", ".csv", ".tsv");
+
+    /**
+     * Picks the data source for a file by its extension.
+     *
+     * @param dataPath The data file.
+     * @param metrics  Receives the parsing time of every row.
+     * @return A {@link CsvReader} for .csv and .tsv files, an {@link ExcelReader} for .xlsx files.
+     * @throws IllegalArgumentException if the extension is not one of {@link #FILE_EXTENSIONS}.
+     */
+    static DataSource forFile(Path dataPath, GenerationMetrics metrics) {
+        return forFile(dataPath, ColumnFormats.DEFAULT, metrics);
+    }
+
+    /**
+     * Picks the data source for a file by its extension.
+     *
+     * @param dataPath The data file.
+     * @param formats  The formats of particular columns.
+     * @param metrics  Receives the parsing time of every row.
+     * @return A {@link CsvReader} for .csv and .tsv files, an {@link ExcelReader} for .xlsx files.
+     * @throws IllegalArgumentException if the extension is not one of {@link #FILE_EXTENSIONS}.
+     */
+    static DataSource forFile(Path dataPath, ColumnFormats formats, GenerationMetrics metrics) {
+        String fileName = dataPath.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (fileName.endsWith(".csv")) {
+            return new CsvReader(',', formats, metrics);
+        }
+        if (fileName.endsWith(".tsv")) {
+            return new CsvReader('\t', formats, metrics);
+        }
+        if (fileName.endsWith(".xlsx")) {
+            return new ExcelReader(ExcelReader.DEFAULT_STREAMING_THRESHOLD, formats, metrics);
+        }
+        throw new IllegalArgumentException("Unsupported data file: " + dataPath);
+    }
+
+    /**
+     * Streams the records of a data file to a handler, sheet by sheet, without holding them in memory.
+     *
+     * @param dataPath The data file.
+     * @param handler  The handler receiving each record as soon as it is read.
+     * @throws IOException if there's an error reading the file or the handler aborts.
+     */
+    void streamData(Path dataPath, SheetRecordHandler handler) throws IOException;
+
+    /**
+     * Reads every record of a data file.
+     *
+     * @param dataPath The data file.
+     * @return A map of sheet names to lists of candidate records, in sheet order.
+     * @throws IOException if there's an error reading the file.
+     */
+    default Map<String, List<CandidateRecord>> readData(Path dataPath) throws IOException {
+        Map<String, List<CandidateRecord>> dataBySheet = new LinkedHashMap<>();
+        streamData(dataPath, new SheetRecordHandler() {
+            @Override
+            public void startSheet(String sheetName) {
+                dataBySheet.put(sheetName, new ArrayList<>());
+            }
+
+            @Override
+            public void record(String sheetName, CandidateRecord record) {
+                dataBySheet.get(sheetName).add(record);
+            }
+        });
+        return dataBySheet;
+    }
+
+    /**
+     * Regroups the records of this source by the value of a column, so that each distinct value forms a sheet
+     * of its own. Records whose value is blank stay in the sheet they were read from. Reading fails with an
+     * {@link IOException} at the first sheet that has no such column.
+     *
+     * @param column The header of the column to group by (case-insensitive).
+     * @return A source whose sheets are the groups.
+     */
+    default DataSource groupedBy(String column) {
+        DataSource source = this;
+        return (dataPath, handler) -> {
+            GroupingRecordHandler grouping = new GroupingRecordHandler(column, handler);
+            source.streamData(dataPath, grouping);
+            grouping.finish();
+        };
+    }
+}
@@ -0,0 +1,304 @@
+package org.rifushigi.domain.infrastructure;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes every document to its own file below an output directory.
+ * <p>
+ * {@link #writeAsync Background writes} run on virtual threads, so the writer hands off a document and moves on
+ * while the file system works; once {@link #DEFAULT_MAX_IN_FLIGHT the in-flight limit} is reached it waits
+ * for a write to finish. Directories are created once and remembered. With {@link FsyncPolicy#END} every
+ * file written is forced to disk when the sink is closed. {@link #link Identical documents} are hard links
+ * to the first, or copies where the file system has no hard links.
+ * <p>
+ * A document is written to a temporary file in its directory and then moved over its file name. Writes to the
+ * same file that overlap can not mix their bytes, the last one to finish wins, and a file is never seen half
+ * written. Directories created for a document are synced into their parents like the document into its directory.
+ */
+public class DirectorySink implements DocumentSink {
+
+    /**
+     * The number of documents written concurrently when no limit is given.
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+
+    private static final StandardOpenOption[] WRITE_OPTIONS = {
+            StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE
+    };
+
+    private final Path outputDir;
+    private final FsyncPolicy fsyncPolicy;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final ExecutorService writers = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("tessera-file-writer-", 0).factory());
+    private final Set<Path> createdDirectories = ConcurrentHashMap.newKeySet();
+    // Only kept for FsyncPolicy.END, which syncs them all on close
+    private final Set<Path> unsyncedFiles = ConcurrentHashMap.newKeySet();
+    // Only kept for FsyncPolicy.END: the parents of the directories this sink created
+    private final Set<Path> unsyncedDirectories = ConcurrentHashMap.newKeySet();
+    // Temporary file names are unique to this sink, so that shards writing to the same directory do not collide
+    private final String temporaryPrefix =
+            ".tessera-" + HexFormat.of().toHexDigits(ThreadLocalRandom.current().nextLong()) + "-";
+    private final AtomicLong temporaryFiles = new AtomicLong();
+
+    public DirectorySink(Path outputDir) {
+        this(outputDir, FsyncPolicy.NONE, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * @param outputDir   The root directory of the output.
+     * @param fsyncPolicy When written files are forced to disk.
+     * @param maxInFlight The number of documents that may be written concurrently.
+     */
+    public DirectorySink(Path outputDir, FsyncPolicy fsyncPolicy, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("In-flight write limit must be at least 1");
+        }
+        this.outputDir = outputDir;
+        this.fsyncPolicy = fsyncPolicy;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    @Override
+    public void write(String entryPath, byte[] content) throws IOException {
+        writeFile(outputDir.resolve(entryPath), content);
+    }
+
+    @Override
+    public CompletableFuture<Void> writeAsync(String entryPath, byte[] content) {
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            written.completeExceptionally(new InterruptedIOException("Interrupted while waiting to write " + entryPath));
+            return written;
+        }
+        writers.execute(() -> {
+            try {
+                writeFile(outputDir.resolve(entryPath), content);
+                written.complete(null);
+            } catch (IOException | RuntimeException e) {
+                // Anything left uncompleted would keep its document, and its heap share, from ever being released
+                written.completeExceptionally(e);
+            } finally {
+                // Released after the callbacks of the future have run, so close() also waits for those
+                inFlight.release();
+            }
+        });
+        return written;
+    }
+
+    @Override
+    public void link(String existingEntryPath, String entryPath) throws IOException {
+        Path existing = outputDir.resolve(existingEntryPath);
+        Path filePath = outputDir.resolve(entryPath);
+        Path directory = createDirectory(filePath);
+
+        // Made under a temporary name and moved over the file name, like a write, so that an earlier file of
+        // that name is replaced as a whole, and any other name linked to it keeps its content
+        Path temporaryFile = temporaryFile(directory);
+        boolean copied = false;
+        try {
+            try {
+                Files.createLink(temporaryFile, existing);
+            } catch (UnsupportedOperationException | FileSystemException e) {
+                // no hard links on this file system, or across file systems
+                Files.copy(existing, temporaryFile);
+                copied = true;
+                if (fsyncPolicy == FsyncPolicy.EACH) {
+                    try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+                        channel.force(true);
+                    }
+                }
+            }
+            moveIntoPlace(temporaryFile, filePath);
+            // Moving a link over another link to the same file does nothing and leaves the temporary name
+            Files.deleteIfExists(temporaryFile);
+        } catch (IOException | RuntimeException e) {
+            deleteTemporaryFile(temporaryFile, e);
+            throw e;
+        }
+        switch (fsyncPolicy) {
+            case EACH -> syncDirectory(directory);
+            case END -> {
+                if (copied) {
+                    unsyncedFiles.add(filePath);
+                }
+            }
+            case NONE -> {
+                // left to the operating system
+            }
+        }
+    }
+
+    @Override
+    public String describe(String entryDirectory) {
+        return outputDir.resolve(entryDirectory).toAbsolutePath().toString();
+    }
+
+    /**
+     * Waits for the background writes and, with {@link FsyncPolicy#END}, forces every file to disk.
+     *
+     * @throws IOException if a file cannot be synced or the wait is interrupted.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            inFlight.acquire(maxInFlight);
+            inFlight.release(maxInFlight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for documents to be written");
+        } finally {
+            writers.close();
+        }
+
+        if (fsyncPolicy == FsyncPolicy.END) {
+            for (Path file : unsyncedFiles) {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    channel.force(true);
+                }
+            }
+            unsyncedFiles.clear();
+            createdDirectories.forEach(DirectorySink::syncDirectory);
+            unsyncedDirectories.forEach(DirectorySink::syncDirectory);
+        }
+    }
+
+    /**
+     * Writes a document to a temporary file next to it and moves that over the file name. A file of that name
+     * is replaced rather than written over, which also leaves alone any other name linked to it.
+     */
+    private void writeFile(Path filePath, byte[] content) throws IOException {
+        Path directory = createDirectory(filePath);
+        Path temporaryFile = temporaryFile(directory);
+        try {
+            try (FileChannel channel = FileChannel.open(temporaryFile, WRITE_OPTIONS)) {
+                ByteBuffer buffer = ByteBuffer.wrap(content);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                if (fsyncPolicy == FsyncPolicy.EACH) {
+                    channel.force(true);
+                }
+            }
+            moveIntoPlace(temporaryFile, filePath);
+            // Moving a link over another link to the same file does nothing and leaves the temporary name
+            Files.deleteIfExists(temporaryFile);
+        } catch (IOException | RuntimeException e) {
+            deleteTemporaryFile(temporaryFile, e);
+            throw e;
+        }
+        switch (fsyncPolicy) {
+            case EACH -> syncDirectory(directory);
+            case END -> unsyncedFiles.add(filePath);
+            case NONE -> {
+                // left to the operating system
+            }
+        }
+    }
+
+    /**
+     * @return A name for a temporary file in a directory that no other write of any sink uses.
+     */
+    private Path temporaryFile(Path directory) {
+        return directory.resolve(temporaryPrefix + temporaryFiles.incrementAndGet() + ".part");
+    }
+
+    /**
+     * Moves a complete temporary file over its file name, replacing any file of that name in one step where
+     * the file system can.
+     */
+    private static void moveIntoPlace(Path temporaryFile, Path filePath) throws IOException {
+        try {
+            Files.move(temporaryFile, filePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporaryFile, filePath, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void deleteTemporaryFile(Path temporaryFile, Exception failure) {
+        try {
+            Files.deleteIfExists(temporaryFile);
+        } catch (IOException e) {
+            failure.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Creates the directory of a file, unless this sink already did. Every directory created on the way is
+     * synced into its parent according to the fsync policy, not only the last one.
+     *
+     * @return The directory.
+     */
+    private Path createDirectory(Path filePath) throws IOException {
+        Path directory = filePath.getParent();
+        if (!createdDirectories.contains(directory)) {
+            List<Path> missing = new ArrayList<>();
+            Path ancestor = directory;
+            while (ancestor != null && !Files.isDirectory(ancestor)) {
+                missing.add(ancestor);
+                ancestor = ancestor.getParent();
+            }
+            try {
+                Files.createDirectories(directory);
+            } catch (IOException e) {
+                throw new IOException(String.format("Failed to create output directory: %s. Skipping file creation.",
+                        directory.toAbsolutePath()), e);
+            }
+            createdDirectories.add(directory);
+            for (Path created : missing) {
+                switch (fsyncPolicy) {
+                    case EACH -> syncDirectory(created.getParent());
+                    case END -> {
+                        if (created.getParent() != null) {
+                            unsyncedDirectories.add(created.getParent());
+                        }
+                    }
+                    case NONE -> {
+                        // left to the operating system
+                    }
+                }
+            }
+        }
+        return directory;
+    }
+
+    /**
+     * Forces a directory's entries to disk, so that a synced file can also be found after a crash.
+     * Not every platform can open a directory for this; there the file system is relied upon instead.
+     */
+    private static void syncDirectory(Path directory) {
+        if (directory == null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // directories can not be opened on Windows
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package org.rifushigi.domain.infrastructure;
+
+import org.apache.poi.xwpf.usermodel.IBody;
+import org.apache.poi.xwpf.usermodel.IBodyElement;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFFooter;
+import org.apache.poi.xwpf.usermodel.XWPFHeader;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.apache.poi.xwpf.usermodel.XWPFTableCell;
+import org.apache.poi.xwpf.usermodel.XWPFTableRow;
+import org.apache.xmlbeans.XmlObject;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTP;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Enumerates and addresses every paragraph of a Word document that can hold placeholders: the body, the
+ * headers and footers, tables nested to any depth and text boxes.
+ * <p>
+ * A paragraph is addressed by the name of its package part and an element path. The path starts with the
+ * index of a body element of the part; a table is followed by a row and a cell index, after which the path
+ * continues in the cell's body. A paragraph may be followed by {@link #TEXT_BOX} and the index of one of the
+ * text box paragraphs it anchors. Paths are positional, so they are valid for any document loaded from the
+ * same template.
+ */
+public final class DocumentParagraphs {
+
+    /**
+     * The path step that enters the text boxes anchored in a paragraph.
+     */
+    public static final int TEXT_BOX = -1;
+
+    private static final String TEXT_BOX_PARAGRAPHS =
+            "declare namespace w='http://schemas.openxmlformats.org/wordprocessingml/2006/main' .//w:txbxContent/w:p";
+
+    private DocumentParagraphs() {}
+
+    /**
+     * Receives the paragraphs of a document.
+     */
+    @FunctionalInterface
+    public interface Visitor {
+
+        /**
+         * @param part        The name of the package part holding the paragraph.
+         * @param elementPath The path to the paragraph within the part.
+         * @param paragraph   The paragraph.
+         */
+        void visit(String part, List<Integer> elementPath, XWPFParagraph paragraph);
+    }
+
+    /**
+     * Visits every paragraph of the document, part by part in document order.
+     *
+     * @param document The document.
+     * @param visitor  Receives each paragraph.
+     */
+    public static void forEach(XWPFDocument document, Visitor visitor) {
+        visitBody(partName(document), document, new ArrayList<>(), visitor);
+        for (XWPFHeader header : document.getHeaderList()) {
+            visitBody(header.getPackagePart().getPartName().getName(), header, new ArrayList<>(), visitor);
+        }
+        for (XWPFFooter footer : document.getFooterList()) {
+            visitBody(footer.getPackagePart().getPartName().getName(), footer, new ArrayList<>(), visitor);
+        }
+    }
+
+    /**
+     * Looks up a paragraph by its address.
+     *
+     * @param document    The document.
+     * @param part        The name of the package part holding the paragraph.
+     * @param elementPath The path to the paragraph within the part.
+     * @return The paragraph, or null if the document has no paragraph at that address.
+     */
+    public static XWPFParagraph find(XWPFDocument document, String part, List<Integer> elementPath) {
+        IBody body = bodyOf(document, part);
+        XWPFParagraph paragraph = null;
+        int i = 0;
+        while (body != null && i < elementPath.size()) {
+            int step = elementPath.get(i++);
+            if (step == TEXT_BOX) {
+                if (paragraph == null || i >= elementPath.size()) {
+                    return null;
+                }
+                List<CTP> boxes = textBoxParagraphs(paragraph);
+                int box = elementPath.get(i);
+                return box < boxes.size() ? new XWPFParagraph(boxes.get(box), paragraph.getBody()) : null;
+            }
+
+            List<IBodyElement> elements = body.getBodyElements();
+            if (paragraph != null || step < 0 || step >= elements.size()) {
+                return null;
+            }
+            IBodyElement element = elements.get(step);
+            if (element instanceof XWPFParagraph p) {
+                paragraph = p;
+            } else if (element instanceof XWPFTable table && i + 1 < elementPath.size()) {
+                XWPFTableRow row = table.getRow(elementPath.get(i++));
+                XWPFTableCell cell = row == null ? null : row.getCell(elementPath.get(i++));
+                body = cell;
+            } else {
+                return null;
+            }
+        }
+        return paragraph;
+    }
+
+    /**
+     * Collects the text of a paragraph's runs, as placeholders are matched against.
+     *
+     * @param paragraph The paragraph.
+     * @return The first text element of each run, or "" for runs without text.
+     */
+    public static String[] runTexts(XWPFParagraph paragraph) {
+        List<XWPFRun> runs = paragraph.getRuns();
+        String[] texts = new String[runs.size()];
+        for (int i = 0; i < texts.length; i++) {
+            String text = runs.get(i).getText(0);
+            texts[i] = text == null ? "" : text;
+        }
+        return texts;
+    }
+
+    /**
+     * @param texts The run texts of a paragraph.
+     * @return The offset at which each run's text starts in the concatenated paragraph text.
+     */
+    public static int[] runStarts(String[] texts) {
+        int[] starts = new int[texts.length];
+        int offset = 0;
+        for (int i = 0; i < texts.length; i++) {
+            starts[i] = offset;
+            offset += texts[i].length();
+        }
+        return starts;
+    }
+
+    /**
+     * @param starts The run starts returned by {@link #runStarts(String[])}.
+     * @param offset An offset in the concatenated paragraph text.
+     * @return The index of the run holding the character at the offset.
+     */
+    public static int runAt(int[] starts, int offset) {
+        // The last run starting at or before the offset; empty runs share their start with the next run
+        int low = 0;
+        int high = starts.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (starts[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private static void visitBody(String part, IBody body, List<Integer> path, Visitor visitor) {
+        List<IBodyElement> elements = body.getBodyElements();
+        for (int i = 0; i < elements.size(); i++) {
+            path.add(i);
+            if (elements.get(i) instanceof XWPFParagraph paragraph) {
+                visitParagraph(part, paragraph, path, visitor);
+            } else if (elements.get(i) instanceof XWPFTable table) {
+                List<XWPFTableRow> rows = table.getRows();
+                for (int r = 0; r < rows.size(); r++) {
+                    List<XWPFTableCell> cells = rows.get(r).getTableCells();
+                    for (int c = 0; c < cells.size(); c++) {
+                        path.add(r);
+                        path.add(c);
+                        visitBody(part, cells.get(c), path, visitor);
+                        path.removeLast();
+                        path.removeLast();
+                    }
+                }
+            }
+            path.removeLast();
+        }
+    }
+
+    private static void visitParagraph(String part, XWPFParagraph paragraph, List<Integer> path, Visitor visitor) {
+        visitor.visit(part, List.copyOf(path), paragraph);
+
+        List<CTP> boxes = textBoxParagraphs(paragraph);
+        for (int box = 0; box < boxes.size(); box++) {
+            path.add(TEXT_BOX);
+            path.add(box);
+            visitor.visit(part, List.copyOf(path), new XWPFParagraph(boxes.get(box), paragraph.getBody()));
+            path.removeLast();
+            path.removeLast();
+        }
+    }
+
+    /**
+     * Finds the paragraphs of the text boxes anchored in a paragraph, including the fallback copy Word
+     * writes of each, in document order.
+     */
+    private static List<CTP> textBoxParagraphs(XWPFParagraph paragraph) {
+        List<CTP> boxes = new ArrayList<>();
+        for (XmlObject object : paragraph.getCTP().selectPath(TEXT_BOX_PARAGRAPHS)) {
+            if (object instanceof CTP ctp) {
+                boxes.add(ctp);
+            }
+        }
+        return boxes;
+    }
+
+    private static IBody bodyOf(XWPFDocument document, String part) {
+        if (part.equals(partName(document))) {
+            return document;
+        }
+        for (XWPFHeader header : document.getHeaderList()) {
+            if (part.equals(header.getPackagePart().getPartName().getName())) {
+                return header;
+            }
+        }
+        for (XWPFFooter footer : document.getFooterList()) {
+            if (part.equals(footer.getPackagePart().getPartName().getName())) {
+                return footer;
+            }
+        }
+        return null;
+    }
+
+    private static String partName(XWPFDocument document) {
+        return document.getPackagePart().getPartName().getName();
+    }
+}
@@ -0,0 +1,41 @@
+package org.rifushigi.domain.infrastructure;
+
+import org.rifushigi.domain.model.CandidateRecord;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Renders a personalised document (DOCX format) from a template for a single candidate record.
+ */
+public interface DocumentRenderer {
+
+    /**
+     * Generates a single personalised document for a given candidate record.
+     *
+     * @param record       The candidate record containing the data for replacement.
+     * @param outputStream The output stream to which the new document will be written.
+     * @throws IOException if an error occurs during the file I/O.
+     */
+    default void generateDocument(CandidateRecord record, OutputStream outputStream) throws IOException {
+        render(resolveReplacements(record), outputStream);
+    }
+
+    /**
+     * Resolves the value of every template placeholder for a candidate record.
+     *
+     * @param record The candidate record containing the data for replacement.
+     * @return A map of placeholder variable names to replacement values.
+     */
+    Map<String, String> resolveReplacements(CandidateRecord record);
+
+    /**
+     * Renders the document with already resolved replacement values.
+     *
+     * @param replacements The values returned by {@link #resolveReplacements(CandidateRecord)}.
+     * @param outputStream The output stream to which the new document will be written.
+     * @throws IOException if an error occurs during the file I/O.
+     */
+    void render(Map<String, String> replacements, OutputStream outputStream) throws IOException;
+}
@@ -0,0 +1,64 @@
+package org.rifushigi.domain.infrastructure;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Destination for generated documents: a directory tree or a single archive.
+ * Documents are addressed by a relative, '/'-separated entry path such as
+ * {@code certificates_09_2025/Certificate/Level 1/Jane Doe.docx}.
+ */
+public interface DocumentSink extends Closeable {
+
+    /**
+     * Stores a generated document.
+     *
+     * @param entryPath The relative path of the document.
+     * @param content   The document bytes.
+     * @throws IOException if the document cannot be stored.
+     */
+    void write(String entryPath, byte[] content) throws IOException;
+
+    /**
+     * Stores a generated document, possibly in the background. A sink that writes in the background may block
+     * the caller while too many documents are in flight. By default the document is written before returning.
+     *
+     * @param entryPath The relative path of the document.
+     * @param content   The document bytes. Must not be modified afterwards.
+     * @return A future completed once the document is stored, or failed with the {@link IOException} that
+     * prevented it.
+     */
+    default CompletableFuture<Void> writeAsync(String entryPath, byte[] content) {
+        try {
+            write(entryPath, content);
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Stores a document identical to one already stored, without storing its bytes again where the output
+     * allows it.
+     *
+     * @param existingEntryPath The relative path of a document this sink has stored.
+     * @param entryPath         The relative path of the identical document.
+     * @throws IOException if the document cannot be stored.
+     */
+    void link(String existingEntryPath, String entryPath) throws IOException;
+
+    /**
+     * @param entryDirectory A relative, '/'-separated directory.
+     * @return A human-readable location of that directory, for progress messages.
+     */
+    String describe(String entryDirectory);
+
+    /**
+     * Completes the output, waiting for documents still being written in the background.
+     *
+     * @throws IOException if the output cannot be completed.
+     */
+    @Override
+    void close() throws IOException;
+}
@@ -3,7 +3,10 @@ package org.rifushigi.domain.infrastructure;
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.rifushigi.domain.model.CandidateRecord;
+import org.rifushigi.domain.model.ColumnType;
 import org.rifushigi.domain.model.Placeholder;
+import org.rifushigi.domain.model.RecordSchema;
+import org.rifushigi.metrics.GenerationMetrics;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -11,7 +14,54 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 
-public class ExcelReader {
+/**
+ * Reads the sheets of an Excel workbook. Small workbooks are loaded into an {@link XSSFWorkbook}, larger ones
+ * are streamed with the {@link StreamingExcelReader}.
+ * <p>
+ * Each sheet gets a schema typing its columns as text, numbers or dates by the first row after the header.
+ * Cells are formatted as Excel shows them, or with the {@link ColumnFormats} configured for their column.
+ */
+public class ExcelReader implements DataSource {
+
+    /**
+     * Workbooks larger than this (in bytes on disk) are read with the {@link StreamingExcelReader}
+     * instead of being loaded into an {@link XSSFWorkbook}.
+     */
+    public static final long DEFAULT_STREAMING_THRESHOLD = 10L * 1024 * 1024;
+
+    private final long streamingThreshold;
+    private final ColumnFormats formats;
+    private final GenerationMetrics metrics;
+
+    public ExcelReader() {
+        this(DEFAULT_STREAMING_THRESHOLD);
+    }
+
+    /**
+     * @param streamingThreshold The file size in bytes above which the workbook is streamed.
+     */
+    public ExcelReader(long streamingThreshold) {
+        this(streamingThreshold, GenerationMetrics.DISABLED);
+    }
+
+    /**
+     * @param streamingThreshold The file size in bytes above which the workbook is streamed.
+     * @param metrics            Receives the parsing time of every streamed row.
+     */
+    public ExcelReader(long streamingThreshold, GenerationMetrics metrics) {
+        this(streamingThreshold, ColumnFormats.DEFAULT, metrics);
+    }
+
+    /**
+     * @param streamingThreshold The file size in bytes above which the workbook is streamed.
+     * @param formats            The formats of particular columns.
+     * @param metrics            Receives the parsing time of every streamed row.
+     */
+    public ExcelReader(long streamingThreshold, ColumnFormats formats, GenerationMetrics metrics) {
+        this.streamingThreshold = streamingThreshold;
+        this.formats = formats;
+        this.metrics = metrics;
+    }
 
     /**
      * Reads data from all sheets of an Excel file and returns a map where keys
@@ -21,13 +71,17 @@ public class ExcelReader {
      * @return A map of sheet names to lists to candidate records.
      * @throws IOException if there's an error reading the file.
      * */
+    @Override
     public Map<String, List<CandidateRecord>> readData(Path excelFilePath) throws IOException {
         if (!Files.exists(excelFilePath) || !Files.isReadable(excelFilePath)) {
             throw new IOException("Excel file not found or is not readable: " + excelFilePath);
         }
 
-        Map<String, List<CandidateRecord>> dataBySheet = new LinkedHashMap<>();
+        if (Files.size(excelFilePath) > streamingThreshold) {
+            return DataSource.super.readData(excelFilePath);
+        }
 
+        Map<String, List<CandidateRecord>> dataBySheet = new LinkedHashMap<>();
         try(InputStream is = Files.newInputStream(excelFilePath);
             Workbook workbook = new XSSFWorkbook(is)){
             for (int i = 0; i < workbook.getNumberOfSheets(); i++){
@@ -42,6 +96,18 @@ public class ExcelReader {
         return dataBySheet;
     }
 
+    /**
+     * Streams all sheets of an Excel file row by row without loading the workbook into memory.
+     *
+     * @param excelFilePath The path to the Excel file.
+     * @param handler       The handler receiving each record as soon as it is read.
+     * @throws IOException if there's an error reading the file.
+     */
+    @Override
+    public void streamData(Path excelFilePath, SheetRecordHandler handler) throws IOException {
+        new StreamingExcelReader(formats).readData(excelFilePath, TimedRecordHandler.wrap(handler, metrics));
+    }
+
     /**
      * Parses a single sheet from the workbook.
      *
@@ -51,6 +117,8 @@ public class ExcelReader {
     private List<CandidateRecord> parseSheet(Sheet sheet){
         List<CandidateRecord> records = new ArrayList<>();
         DataFormatter dataFormatter = new DataFormatter();
+        // Formula cells show their last calculated value, as the streaming reader does
+        dataFormatter.setUseCachedValuesForFormulaCells(true);
 
         // I'm assuming the first row is the header
         // As it should be... Apparently it was not :(
@@ -63,6 +131,11 @@ public class ExcelReader {
         for (Cell cell: headerRow){
             headers.add(dataFormatter.formatCellValue(cell));
         }
+        CellFormatter formatter = new CellFormatter(formats, dataFormatter, sheet.getWorkbook()::getCellStyleAt);
+        formatter.headers(headers);
+        ValuePool valuePool = new ValuePool();
+        List<String[]> rows = new ArrayList<>();
+        List<ColumnType> types = null;
 
         // Iterate over the remaining rows
         for (int i = 1; i <= sheet.getLastRowNum(); i++){
@@ -71,22 +144,39 @@ public class ExcelReader {
                 continue;
             }
 
-            Map<String, String> rowData = new HashMap<>();
+            String[] rowData = new String[headers.size()];
             boolean hasData = false;
 
             for (int j = 0; j < headers.size(); j++){
                 Cell cell = dataRow.getCell(j, Row.MissingCellPolicy.RETURN_BLANK_AS_NULL);
-                String cellValue = (cell == null) ? "" : dataFormatter.formatCellValue(cell);
-                rowData.put(headers.get(j), cellValue);
+                String cellValue = (cell == null) ? "" : formatCell(formatter, dataFormatter, cell, j);
+                rowData[j] = valuePool.intern(j, cellValue);
 
                 if(!cellValue.isBlank()){
                     hasData = true;
                 }
             }
             if (hasData){
-                records.add(new CandidateRecord(rowData));
+                rows.add(rowData);
+                if (types == null && i > 1) {
+                    types = formatter.types(headers.size());
+                }
             }
         }
+
+        RecordSchema schema = types == null ? RecordSchema.of(headers) : RecordSchema.of(headers, types);
+        for (String[] rowData : rows) {
+            records.add(new CandidateRecord(schema, rowData));
+        }
         return records;
     }
+
+    private static String formatCell(CellFormatter formatter, DataFormatter dataFormatter, Cell cell, int column) {
+        CellType type = cell.getCellType() == CellType.FORMULA ? cell.getCachedFormulaResultType() : cell.getCellType();
+        return switch (type) {
+            case NUMERIC -> formatter.number(column, cell.getNumericCellValue(), cell.getCellStyle().getIndex());
+            case STRING -> formatter.text(column, cell.getStringCellValue());
+            default -> dataFormatter.formatCellValue(cell);
+        };
+    }
 }
@@ -0,0 +1,13 @@
+package org.rifushigi.domain.infrastructure;
+
+/**
+ * When written documents are forced to disk, trading throughput for durability against a crash or power loss.
+ */
+public enum FsyncPolicy {
+    /** Leave flushing to the operating system. */
+    NONE,
+    /** Force everything to disk once, when the output is closed. */
+    END,
+    /** Force every document to disk as soon as it is written. */
+    EACH
+}
@@ -0,0 +1,66 @@
+package org.rifushigi.domain.infrastructure;
+
+import org.rifushigi.domain.model.CandidateRecord;
+import org.rifushigi.domain.model.RecordSchema;
+
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Forwards records to another handler under the sheet named by one of their columns.
+ * <p>
+ * A group is started when its first record arrives, so groups of an unsorted file interleave; all of them
+ * are ended by {@link #finish()}. Characters that Excel does not allow in sheet names are replaced, which
+ * keeps a group value from reaching outside its output directory. A record with a blank value stays in its sheet,
+ * but a sheet without the column at all fails the run, as the column name is most likely mistyped.
+ */
+final class GroupingRecordHandler implements SheetRecordHandler {
+
+    private final String column;
+    private final SheetRecordHandler handler;
+    private final Set<String> groups = new LinkedHashSet<>();
+
+    // The column index is resolved once per schema, and a source has one schema per sheet
+    private RecordSchema schema;
+    private int columnIndex = -1;
+
+    GroupingRecordHandler(String column, SheetRecordHandler handler) {
+        this.column = column;
+        this.handler = handler;
+    }
+
+    @Override
+    public void record(String sheetName, CandidateRecord record) throws IOException {
+        if (record.schema() != schema) {
+            schema = record.schema();
+            columnIndex = schema.indexOf(column);
+            if (columnIndex < 0) {
+                throw new IOException("Can not group by column '" + column + "': sheet '" + sheetName
+                        + "' has no such column. Its columns are " + schema.headers());
+            }
+        }
+        String value = record.getValue(columnIndex);
+        String group = value == null || value.isBlank() ? sheetName : groupName(value);
+        if (groups.add(group)) {
+            handler.startSheet(group);
+        }
+        handler.record(group, record);
+    }
+
+    /**
+     * Ends every group once the source has been read.
+     *
+     * @throws IOException if the handler aborts.
+     */
+    void finish() throws IOException {
+        for (String group : groups) {
+            handler.endSheet(group);
+        }
+    }
+
+    private static String groupName(String value) {
+        String name = value.strip().replaceAll("[\\\\/:*?\\[\\]\\p{Cntrl}]", "_");
+        return name.equals(".") || name.equals("..") ? "_" : name;
+    }
+}
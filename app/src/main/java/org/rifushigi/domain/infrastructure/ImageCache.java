@@ -0,0 +1,248 @@
+package org.rifushigi.domain.infrastructure;
+
+import org.rifushigi.util.Digests;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the images of image placeholders from a directory, keeping the decoded and sized images in memory.
+ * <p>
+ * An image is referred to by the SHA-256 of its file. The data column names a file; {@link #reference} hashes
+ * it once per file (again only when the file's size or modification time changes) and the values of a record
+ * carry the hash, so documents with the same image share one cached image and a changed image changes the
+ * record's content hash. {@link #image} returns the image with its pixel size, its size in the document and
+ * its zip entry, ready to be copied into any number of documents as is.
+ * <p>
+ * The images are kept in a least recently used cache bounded by their total size. An image dropped from it is
+ * read from its file again when next needed. The cache is shared by every rendering thread.
+ */
+public final class ImageCache {
+
+    /**
+     * The size the cache is bounded to when no bound is given.
+     */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private static final String REFERENCE_PREFIX = "sha256:";
+    private static final String MEDIA_DIRECTORY = "word/media/";
+    // Images are placed at 96 dpi, scaled down to the text width of a page with 1 inch margins if wider
+    private static final long EMU_PER_PIXEL = 9525;
+    private static final long MAX_WIDTH_EMU = 6L * 914400;
+
+    private final Path directory;
+    private final long maxBytes;
+    private final Map<Path, FileHash> hashes = new ConcurrentHashMap<>();
+    private final Map<String, Path> files = new ConcurrentHashMap<>();
+    // Guarded by itself; in access order, so the eldest entry is the least recently used
+    private final LinkedHashMap<String, Image> images = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger loads = new AtomicInteger();
+
+    /**
+     * @param directory The directory the file names of the data are relative to.
+     * @param maxBytes  The total size the cached images may take up.
+     */
+    public ImageCache(Path directory, long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Image cache size can not be negative");
+        }
+        this.directory = directory.toAbsolutePath().normalize();
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param templatePath A template.
+     * @return A cache for the images next to the template, for renderers not given one.
+     */
+    public static ImageCache forTemplate(Path templatePath) {
+        Path parent = templatePath.toAbsolutePath().getParent();
+        return new ImageCache(parent != null ? parent : Path.of(""), DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Turns the file name of a data value into the value of an image placeholder.
+     *
+     * @param fileName The file name, relative to the image directory.
+     * @return The reference to the image, the file name if there is no such file, or "" for a blank name.
+     */
+    public String reference(String fileName) {
+        if (fileName == null || fileName.isBlank()) {
+            return "";
+        }
+        Path file = directory.resolve(fileName.strip()).normalize();
+        // Names come from the data, so they must not reach outside the image directory
+        if (!file.startsWith(directory)) {
+            return fileName;
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            FileHash known = hashes.get(file);
+            if (known != null && known.size() == attributes.size() && known.modified().equals(attributes.lastModifiedTime())) {
+                return REFERENCE_PREFIX + known.hash();
+            }
+            byte[] data = Files.readAllBytes(file);
+            String hash = Digests.sha256Hex(data);
+            hashes.put(file, new FileHash(attributes.size(), attributes.lastModifiedTime(), hash));
+            files.put(hash, file);
+            if (!isCached(hash)) {
+                // The file has just been read, so decode it now rather than read it again to render it
+                try {
+                    cache(decode(hash, data, directory.relativize(file).toString()));
+                    loads.incrementAndGet();
+                } catch (IOException e) {
+                    // reported by image() when the record is rendered
+                }
+            }
+            return REFERENCE_PREFIX + hash;
+        } catch (IOException e) {
+            return fileName;
+        }
+    }
+
+    /**
+     * @param fileName A file name, relative to the image directory.
+     * @return true if there is such an image file.
+     */
+    public boolean exists(String fileName) {
+        return reference(fileName).startsWith(REFERENCE_PREFIX);
+    }
+
+    /**
+     * Returns the image an image placeholder value refers to.
+     *
+     * @param reference A value returned by {@link #reference}, other than "".
+     * @return The image.
+     * @throws IOException if there is no such image, it is not a PNG, JPEG, GIF or BMP image, or its file
+     *                     changed during the run.
+     */
+    public Image image(String reference) throws IOException {
+        if (!reference.startsWith(REFERENCE_PREFIX)) {
+            throw new IOException("Image not found: " + reference);
+        }
+        String hash = reference.substring(REFERENCE_PREFIX.length());
+        synchronized (images) {
+            Image image = images.get(hash);
+            if (image != null) {
+                hits.incrementAndGet();
+                return image;
+            }
+        }
+
+        Path file = files.get(hash);
+        if (file == null) {
+            throw new IOException("Image not found: " + reference);
+        }
+        byte[] data = Files.readAllBytes(file);
+        if (!Digests.sha256Hex(data).equals(hash)) {
+            throw new IOException("Image changed during the run: " + directory.relativize(file));
+        }
+        Image image = decode(hash, data, directory.relativize(file).toString());
+        loads.incrementAndGet();
+        cache(image);
+        return image;
+    }
+
+    private boolean isCached(String hash) {
+        synchronized (images) {
+            return images.containsKey(hash);
+        }
+    }
+
+    private void cache(Image image) {
+        long bytes = image.data().length;
+        if (bytes > maxBytes) {
+            return;
+        }
+        synchronized (images) {
+            if (images.putIfAbsent(image.hash(), image) != null) {
+                return;
+            }
+            cachedBytes += bytes;
+            Iterator<Image> eldest = images.values().iterator();
+            while (cachedBytes > maxBytes && eldest.hasNext()) {
+                cachedBytes -= eldest.next().data().length;
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Reads the format and pixel size of an image from its header, without decoding the pixels.
+     */
+    private static Image decode(String hash, byte[] data, String name) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(data))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("Not a supported image: " + name);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                String format = switch (reader.getFormatName().toLowerCase(Locale.ROOT)) {
+                    case "png" -> "png";
+                    case "jpeg", "jpg" -> "jpeg";
+                    case "gif" -> "gif";
+                    case "bmp" -> "bmp";
+                    default -> throw new IOException("Not a PNG, JPEG, GIF or BMP image: " + name);
+                };
+                long width = reader.getWidth(0) * EMU_PER_PIXEL;
+                long height = reader.getHeight(0) * EMU_PER_PIXEL;
+                if (width > MAX_WIDTH_EMU) {
+                    height = height * MAX_WIDTH_EMU / width;
+                    width = MAX_WIDTH_EMU;
+                }
+                // Images are compressed already, so the part is stored rather than deflated again
+                String fileName = "tessera-" + hash.substring(0, 16) + "." + format;
+                RawZipEntry entry = RawZipEntry.compress(MEDIA_DIRECTORY + fileName, data, ZipCompression.STORED);
+                return new Image(hash, format, fileName, data, width, height, entry);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * @return The number of times an image was found in the cache.
+     */
+    public int hits() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of times an image was read from its file and decoded.
+     */
+    public int loads() {
+        return loads.get();
+    }
+
+    /**
+     * A decoded and sized image.
+     *
+     * @param hash      The SHA-256 of the image file.
+     * @param format    The image format, which is also the extension of its part: png, jpeg, gif or bmp.
+     * @param fileName  The name of its part within the media directory, the same for every document.
+     * @param data      The image file. Must not be modified.
+     * @param widthEmu  Its width in a document, in EMU.
+     * @param heightEmu Its height in a document, in EMU.
+     * @param entry     Its part, ready to be copied into a document package.
+     */
+    public record Image(String hash, String format, String fileName, byte[] data, long widthEmu, long heightEmu,
+                        RawZipEntry entry) {}
+
+    private record FileHash(long size, FileTime modified, String hash) {}
+}
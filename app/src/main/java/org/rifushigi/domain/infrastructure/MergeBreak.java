@@ -0,0 +1,11 @@
+package org.rifushigi.domain.infrastructure;
+
+/**
+ * What separates the records of a {@link MergedDocument}.
+ */
+public enum MergeBreak {
+    /** A section break of the template's kind, a new page unless the template says otherwise, repeating its page setup, headers and footers. */
+    SECTION,
+    /** A page break before the first paragraph of every record, within a single section. */
+    PAGE
+}
@@ -0,0 +1,867 @@
+package org.rifushigi.domain.infrastructure;
+
+import org.rifushigi.domain.model.PlaceholderLocation;
+import org.rifushigi.domain.model.TemplateMetadata;
+import org.rifushigi.util.Digests;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A single DOCX holding the documents of many records one after another, for printing a whole sheet at once.
+ * <p>
+ * The merged package is built as documents are added, without an object model. The body of each document's
+ * main part is cut out of its XML and appended to a temporary file, with a {@link MergeBreak section or page
+ * break} between records. The parts every document shares with the template (styles, fonts, numbering,
+ * theme, headers, footers and the template's own media) are copied once from the first document, as they
+ * are compressed. Parts a document adds beyond the template, such as the images of image placeholders, are
+ * copied as they come, each distinct one once, and the references to them in the body renamed. When the
+ * merged document is closed, the main part is streamed into the package from the temporary file.
+ * <p>
+ * Documents may be added in any order; they are merged in sequence order, holding back those that arrive
+ * early. Each {@link #add} returns a future that completes once its document has been merged, so that what
+ * the caller holds for a held back document can be kept until then. A failure to write is kept: every
+ * document merged after it fails with it, and closing throws it instead of moving a broken file into place.
+ * Parts besides the main document are those of the first document, so placeholders in headers or footers
+ * would show the values of the first record; templates with such placeholders are not merged, see
+ * {@link #sharedPartPlaceholders}.
+ */
+public class MergedDocument implements Closeable {
+
+    private static final String MAIN_PART = "word/document.xml";
+    private static final String MAIN_RELATIONSHIPS = "word/_rels/document.xml.rels";
+    private static final String CONTENT_TYPES = "[Content_Types].xml";
+    private static final String BODY_END = "</w:body>";
+    private static final String RELATIONSHIPS_END = "</Relationships>";
+    private static final String TYPES_END = "</Types>";
+    private static final String EMPTY_RELATIONSHIPS = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+            + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">" + RELATIONSHIPS_END;
+    private static final String PAGE_BREAK_PARAGRAPH = "<w:p><w:r><w:br w:type=\"page\"/></w:r></w:p>";
+    private static final String PAGE_BREAK_BEFORE = "<w:pageBreakBefore/>";
+    // Paragraph properties that come before pageBreakBefore in the schema's order
+    private static final List<String> BEFORE_PAGE_BREAK = List.of("w:pStyle", "w:keepNext", "w:keepLines");
+    private static final Pattern RELATIONSHIP = Pattern.compile("<Relationship\\b[^>]*>");
+    private static final Pattern DEFAULT_CONTENT_TYPE = Pattern.compile("<Default\\b[^>]*>");
+    private static final Pattern OVERRIDE_CONTENT_TYPE = Pattern.compile("<Override\\b[^>]*>");
+    private static final Pattern ATTRIBUTE = Pattern.compile("([\\w:]+)=\"([^\"]*)\"");
+    private static final Pattern NAMESPACE = Pattern.compile("\\bxmlns:(\\w+)=\"([^\"]*)\"");
+    private static final Pattern RELATIONSHIP_REFERENCE = Pattern.compile("(\\br:\\w+=\")([^\"]*)\"");
+    private static final Pattern DRAWING_ID = Pattern.compile("(<wp:docPr\\b[^>]*?\\bid=\")\\d+\"");
+    // Drawings of the body are renumbered from here, clear of the ids of drawings in headers and footers
+    private static final int FIRST_DRAWING_ID = 1_000_000;
+
+    private final Path file;
+    private final Path partFile;
+    private final Path bodyFile;
+    private final Set<String> templateRelationshipIds;
+    private final MergeBreak mergeBreak;
+    private final FsyncPolicy fsyncPolicy;
+    private final FileOutputStream fileOut;
+    private final ZipPassthroughWriter zip;
+    private final Writer body;
+
+    // Documents that arrived before an earlier sequence number; null marks a document left out
+    private final TreeMap<Integer, Pending> pending = new TreeMap<>();
+    private int nextSequence;
+    private int documents;
+    private boolean closed;
+    // The first failure to write, after which nothing more is merged
+    private IOException writeError;
+
+    // Taken from the first document merged
+    private String documentStart;
+    private int rootTagEnd;
+    private String documentEnd;
+    private Map<String, String> namespaces;
+    private String relationships;
+    private String contentTypes;
+    private final Map<String, String> defaultContentTypes = new HashMap<>();
+
+    private final Map<String, String> addedNamespaces = new LinkedHashMap<>();
+    private final StringBuilder addedRelationships = new StringBuilder();
+    private final StringBuilder addedContentTypes = new StringBuilder();
+    // The relationship id of each distinct part added by the documents, by content hash and extension
+    private final Map<String, String> addedParts = new HashMap<>();
+    private int relationshipCount;
+    private int drawingId = FIRST_DRAWING_ID;
+    private String sectionProperties;
+    // With section breaks, the last element of the previous document: the break goes into it once another follows
+    private String heldElement;
+
+    private MergedDocument(Path file, Set<String> templateRelationshipIds, MergeBreak mergeBreak,
+                           ZipCompression compression, FsyncPolicy fsyncPolicy) throws IOException {
+        this.file = file;
+        this.templateRelationshipIds = templateRelationshipIds;
+        this.mergeBreak = mergeBreak;
+        this.fsyncPolicy = fsyncPolicy;
+
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        this.partFile = directory.resolve(file.getFileName() + ".part");
+        this.bodyFile = Files.createTempFile(directory, ".tessera-merge-", ".xml");
+        this.fileOut = new FileOutputStream(partFile.toFile());
+        this.zip = new ZipPassthroughWriter(new BufferedOutputStream(fileOut, 64 * 1024), compression);
+        this.body = Files.newBufferedWriter(bodyFile, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Finds the placeholders of a template that a merged document could not fill per record: those outside the
+     * main part, in headers and footers, which every record shares with the first.
+     *
+     * @param template The scanned template, with its placeholder locations.
+     * @return The locations of those placeholders, in document order.
+     */
+    public static List<PlaceholderLocation> sharedPartPlaceholders(TemplateMetadata template) {
+        return template.locations().stream()
+                .filter(location -> !location.part().equals("/" + MAIN_PART))
+                .toList();
+    }
+
+    /**
+     * Starts a merged document. It is written next to its final location and only moved there once complete.
+     *
+     * @param file         The merged DOCX file.
+     * @param templatePath The template the documents are rendered from, which tells the parts they share
+     *                     from the parts each of them adds.
+     * @param mergeBreak   What separates the records.
+     * @param compression  How the main part of the merged document is compressed.
+     * @param fsyncPolicy  Whether the merged document is forced to disk when it is complete.
+     * @return The merged document, holding no documents yet.
+     * @throws IOException if the template cannot be read or the file cannot be created.
+     */
+    public static MergedDocument create(Path file, Path templatePath, MergeBreak mergeBreak, ZipCompression compression,
+                                        FsyncPolicy fsyncPolicy) throws IOException {
+        Set<String> ids = new HashSet<>();
+        try (ZipFile template = new ZipFile(templatePath.toFile())) {
+            ZipEntry entry = template.getEntry(MAIN_RELATIONSHIPS);
+            if (entry != null) {
+                try (InputStream in = template.getInputStream(entry)) {
+                    for (Relationship relationship : relationships(new String(in.readAllBytes(), StandardCharsets.UTF_8))) {
+                        ids.add(relationship.id());
+                    }
+                }
+            }
+        }
+        return new MergedDocument(file, ids, mergeBreak, compression, fsyncPolicy);
+    }
+
+    /**
+     * Adds the document of a record. It is merged once every document of a lower sequence number has been
+     * added or {@link #skip skipped}.
+     *
+     * @param sequence The zero-based sequence number of the record.
+     * @param document The DOCX bytes of the record's document.
+     * @return Completes once the document has been merged, or exceptionally if it cannot be read, in which
+     * case it is left out, if writing fails or if the merged document is abandoned first.
+     */
+    public CompletableFuture<Void> add(int sequence, byte[] document) {
+        Source source;
+        try {
+            source = Source.parse(document, templateRelationshipIds);
+        } catch (IOException e) {
+            skip(sequence);
+            return CompletableFuture.failedFuture(e);
+        }
+        Pending added = new Pending(source, new CompletableFuture<>());
+        pending.put(sequence, added);
+        mergePending();
+        return added.merged();
+    }
+
+    /**
+     * Leaves the document of a record out, so that the documents after it can be merged.
+     *
+     * @param sequence The zero-based sequence number of the record.
+     */
+    public void skip(int sequence) {
+        pending.put(sequence, null);
+        mergePending();
+    }
+
+    /**
+     * @return The number of documents merged so far.
+     */
+    public int documents() {
+        return documents;
+    }
+
+    /**
+     * Merges any documents still held back, writes the main part and moves the merged document into place.
+     * If no document was merged, no file is created.
+     *
+     * @throws IOException if writing fails, now or while documents were added.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            // Documents held back for one that never came are merged in order regardless
+            pending.values().forEach(this::merge);
+            pending.clear();
+            if (writeError != null) {
+                throw writeError;
+            }
+            if (heldElement != null) {
+                body.write(heldElement);
+            }
+            body.close();
+            if (documents == 0) {
+                fileOut.close();
+                return;
+            }
+
+            zip.writeEntry(MAIN_RELATIONSHIPS, insertBefore(relationships, RELATIONSHIPS_END, addedRelationships)
+                    .getBytes(StandardCharsets.UTF_8));
+            zip.writeEntry(CONTENT_TYPES, insertBefore(contentTypes, TYPES_END, addedContentTypes)
+                    .getBytes(StandardCharsets.UTF_8));
+            StringBuilder declarations = new StringBuilder();
+            addedNamespaces.forEach((prefix, uri) ->
+                    declarations.append(" xmlns:").append(prefix).append("=\"").append(uri).append('"'));
+            try (OutputStream main = zip.openEntry(MAIN_PART)) {
+                main.write((documentStart.substring(0, rootTagEnd) + declarations + documentStart.substring(rootTagEnd))
+                        .getBytes(StandardCharsets.UTF_8));
+                Files.copy(bodyFile, main);
+                String tail = (sectionProperties != null ? sectionProperties : "") + documentEnd;
+                main.write(tail.getBytes(StandardCharsets.UTF_8));
+            }
+            zip.finish();
+            if (fsyncPolicy != FsyncPolicy.NONE) {
+                fileOut.getChannel().force(true);
+            }
+            fileOut.close();
+            try {
+                Files.move(partFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(partFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            deleteTemporaryFiles();
+        }
+    }
+
+    /**
+     * Gives up on the merged document, for a run that failed: the documents held back fail, and neither a
+     * merged document nor its temporary files are left behind. A merged document from an earlier run stays
+     * as it was.
+     *
+     * @throws IOException if the temporary files cannot be closed or deleted.
+     */
+    public void abandon() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        IOException abandoned = new IOException("the merged document " + file.getFileName() + " was abandoned");
+        for (Pending document : pending.values()) {
+            if (document != null) {
+                document.merged().completeExceptionally(abandoned);
+            }
+        }
+        pending.clear();
+        deleteTemporaryFiles();
+    }
+
+    private void deleteTemporaryFiles() throws IOException {
+        try (body; fileOut) {
+            // Only closed
+        } finally {
+            Files.deleteIfExists(bodyFile);
+            Files.deleteIfExists(partFile);
+        }
+    }
+
+    private void mergePending() {
+        while (pending.containsKey(nextSequence)) {
+            merge(pending.remove(nextSequence++));
+        }
+    }
+
+    /**
+     * Appends a document that is next in sequence order, unless an earlier one could not be written, and
+     * completes its future. A document left out is passed as null.
+     */
+    private void merge(Pending document) {
+        if (document == null) {
+            return;
+        }
+        if (writeError == null) {
+            try {
+                append(document.source());
+            } catch (IOException e) {
+                writeError = e;
+            }
+        }
+        if (writeError == null) {
+            document.merged().complete(null);
+        } else {
+            document.merged().completeExceptionally(writeError);
+        }
+    }
+
+    /**
+     * Appends the body of a document, with a break before it unless it is the first.
+     */
+    private void append(Source source) throws IOException {
+        if (documents == 0) {
+            start(source);
+        }
+        Map<String, String> renamed = new HashMap<>();
+        for (Relationship relationship : source.added()) {
+            renamed.put(relationship.id(), addRelationship(source, relationship));
+        }
+        String content = renumberDrawings(renameReferences(source.body(), renamed));
+        source.namespaces().forEach((prefix, uri) -> {
+            if (!namespaces.containsKey(prefix)) {
+                addedNamespaces.putIfAbsent(prefix, uri);
+            }
+        });
+
+        List<int[]> elements = topLevelElements(content);
+        if (!elements.isEmpty()) {
+            if (mergeBreak == MergeBreak.PAGE) {
+                int[] first = elements.getFirst();
+                if (documents > 0) {
+                    content = content.substring(0, first[0]) + withPageBreakBefore(content.substring(first[0], first[1]))
+                            + content.substring(first[1]);
+                }
+                body.write(content);
+            } else {
+                int[] last = elements.getLast();
+                if (heldElement != null) {
+                    body.write(withSectionBreak(heldElement, sectionProperties != null ? sectionProperties : "<w:sectPr/>"));
+                }
+                body.write(content, 0, last[0]);
+                heldElement = content.substring(last[0]);
+            }
+        }
+        if (source.sectionProperties() != null) {
+            sectionProperties = source.sectionProperties();
+        }
+        documents++;
+    }
+
+    /**
+     * Takes the outline of the merged package from the first document and copies the parts it shares with
+     * the template.
+     */
+    private void start(Source first) throws IOException {
+        documentStart = first.start();
+        rootTagEnd = first.rootTagEnd();
+        documentEnd = first.end();
+        namespaces = first.namespaces();
+
+        Set<String> recordParts = new HashSet<>();
+        String shared = first.relationships();
+        for (Relationship relationship : first.added()) {
+            shared = shared.replace(relationship.xml(), "");
+            if (!relationship.external()) {
+                recordParts.add(partName(relationship.target()));
+            }
+        }
+        relationships = shared;
+
+        String types = first.contentTypes();
+        Matcher overrides = OVERRIDE_CONTENT_TYPE.matcher(types);
+        while (overrides.find()) {
+            String partName = attributes(overrides.group()).getOrDefault("PartName", "");
+            if (recordParts.contains(partName.startsWith("/") ? partName.substring(1) : partName)) {
+                types = types.replace(overrides.group(), "");
+            }
+        }
+        contentTypes = types;
+        Matcher defaults = DEFAULT_CONTENT_TYPE.matcher(types);
+        while (defaults.find()) {
+            Map<String, String> attributes = attributes(defaults.group());
+            defaultContentTypes.put(attributes.getOrDefault("Extension", "").toLowerCase(Locale.ROOT),
+                    attributes.get("ContentType"));
+        }
+
+        for (RawZipEntry entry : first.entries().values()) {
+            String name = entry.name();
+            if (!name.equals(MAIN_PART) && !name.equals(MAIN_RELATIONSHIPS) && !name.equals(CONTENT_TYPES)
+                    && !name.endsWith("/") && !recordParts.contains(name)) {
+                zip.writeRaw(entry);
+            }
+        }
+    }
+
+    /**
+     * Adds a relationship of a document that the template does not have, copying the part it refers to
+     * unless an identical part was added before.
+     *
+     * @return The id of the relationship in the merged document.
+     */
+    private String addRelationship(Source source, Relationship relationship) throws IOException {
+        if (relationship.external()) {
+            String id = nextRelationshipId();
+            addedRelationships.append(relationshipXml(id, relationship.type(), relationship.target(), true));
+            return id;
+        }
+
+        String partName = partName(relationship.target());
+        RawZipEntry entry = source.entries().get(partName);
+        if (entry == null) {
+            throw new IOException("The document refers to a missing part " + partName);
+        }
+        String extension = extension(partName);
+        String key = Digests.sha256Hex(entry.compressedData()) + extension;
+        String existing = addedParts.get(key);
+        if (existing != null) {
+            return existing;
+        }
+
+        String id = nextRelationshipId();
+        String mergedName = partName.substring(0, partName.lastIndexOf('/') + 1) + "merged" + relationshipCount
+                + (extension.isEmpty() ? "" : "." + extension);
+        zip.writeRaw(new RawZipEntry(mergedName, entry.method(), entry.crc(), entry.size(), entry.compressedData()));
+        addedRelationships.append(relationshipXml(id, relationship.type(), "/" + mergedName, false));
+        addedParts.put(key, id);
+
+        String contentType = contentType(source.contentTypes(), partName, extension);
+        if (contentType != null && !contentType.equals(defaultContentTypes.get(extension))) {
+            if (!extension.isEmpty() && !defaultContentTypes.containsKey(extension)) {
+                defaultContentTypes.put(extension, contentType);
+                addedContentTypes.append("<Default Extension=\"").append(extension)
+                        .append("\" ContentType=\"").append(contentType).append("\"/>");
+            } else {
+                addedContentTypes.append("<Override PartName=\"/").append(mergedName)
+                        .append("\" ContentType=\"").append(contentType).append("\"/>");
+            }
+        }
+        return id;
+    }
+
+    private String nextRelationshipId() {
+        return "rIdMerged" + ++relationshipCount;
+    }
+
+    /**
+     * Points the relationship references of a body at the relationships of the merged document.
+     */
+    private static String renameReferences(String content, Map<String, String> renamed) {
+        if (renamed.isEmpty()) {
+            return content;
+        }
+        Matcher matcher = RELATIONSHIP_REFERENCE.matcher(content);
+        StringBuilder result = new StringBuilder(content.length());
+        while (matcher.find()) {
+            String id = renamed.getOrDefault(matcher.group(2), matcher.group(2));
+            matcher.appendReplacement(result, Matcher.quoteReplacement(matcher.group(1) + id + "\""));
+        }
+        matcher.appendTail(result);
+        return result.toString();
+    }
+
+    /**
+     * Gives every drawing of a body an id of its own, as every document numbers its drawings alike.
+     */
+    private String renumberDrawings(String content) {
+        if (!content.contains("<wp:docPr")) {
+            return content;
+        }
+        Matcher matcher = DRAWING_ID.matcher(content);
+        StringBuilder result = new StringBuilder(content.length());
+        while (matcher.find()) {
+            matcher.appendReplacement(result, Matcher.quoteReplacement(matcher.group(1) + drawingId++ + "\""));
+        }
+        matcher.appendTail(result);
+        return result.toString();
+    }
+
+    /**
+     * Ends a section after an element: in the properties of the element if it is a paragraph, otherwise in
+     * a paragraph of its own after it.
+     *
+     * @param element The last element of a document, possibly followed by whitespace.
+     */
+    static String withSectionBreak(String element, String sectionProperties) {
+        String separate = element + "<w:p><w:pPr>" + sectionProperties + "</w:pPr></w:p>";
+        if (!isElement(element, 0, "w:p")) {
+            return separate;
+        }
+        int startTagEnd = tagEnd(element, 0);
+        if (startTagEnd < 0 || element.charAt(startTagEnd - 1) == '/') {
+            return separate;
+        }
+        int child = element.indexOf('<', startTagEnd);
+        if (child < 0 || !isElement(element, child, "w:pPr")) {
+            return element.substring(0, startTagEnd + 1) + "<w:pPr>" + sectionProperties + "</w:pPr>"
+                    + element.substring(startTagEnd + 1);
+        }
+        int childTagEnd = tagEnd(element, child);
+        if (childTagEnd < 0) {
+            return separate;
+        }
+        if (element.charAt(childTagEnd - 1) == '/') {
+            return element.substring(0, child) + "<w:pPr>" + sectionProperties + "</w:pPr>"
+                    + element.substring(childTagEnd + 1);
+        }
+        int propertiesEnd = elementEnd(element, child);
+        if (propertiesEnd < 0) {
+            return separate;
+        }
+        // The section properties come last, except for a tracked change of the paragraph properties
+        int insert = element.lastIndexOf("</w:pPr>", propertiesEnd - 1);
+        int change = element.indexOf("<w:pPrChange", child);
+        if (change >= 0 && change < insert) {
+            insert = change;
+        }
+        return element.substring(0, insert) + sectionProperties + element.substring(insert);
+    }
+
+    /**
+     * Starts a page before an element: in the properties of the element if it is a paragraph, otherwise with
+     * a page break in a paragraph before it.
+     *
+     * @param element The first element of a document.
+     */
+    static String withPageBreakBefore(String element) {
+        String separate = PAGE_BREAK_PARAGRAPH + element;
+        if (!isElement(element, 0, "w:p")) {
+            return separate;
+        }
+        int startTagEnd = tagEnd(element, 0);
+        if (startTagEnd < 0) {
+            return separate;
+        }
+        if (element.charAt(startTagEnd - 1) == '/') {
+            return "<w:p><w:pPr>" + PAGE_BREAK_BEFORE + "</w:pPr></w:p>";
+        }
+        int child = element.indexOf('<', startTagEnd);
+        if (child < 0 || !isElement(element, child, "w:pPr")) {
+            return element.substring(0, startTagEnd + 1) + "<w:pPr>" + PAGE_BREAK_BEFORE + "</w:pPr>"
+                    + element.substring(startTagEnd + 1);
+        }
+        int childTagEnd = tagEnd(element, child);
+        if (childTagEnd < 0) {
+            return separate;
+        }
+        if (element.charAt(childTagEnd - 1) == '/') {
+            return element.substring(0, child) + "<w:pPr>" + PAGE_BREAK_BEFORE + "</w:pPr>"
+                    + element.substring(childTagEnd + 1);
+        }
+
+        int insert = childTagEnd + 1;
+        int next = element.indexOf('<', insert);
+        while (next >= 0 && isAnyElement(element, next, BEFORE_PAGE_BREAK)) {
+            insert = elementEnd(element, next);
+            if (insert < 0) {
+                return separate;
+            }
+            next = element.indexOf('<', insert);
+        }
+        if (next >= 0 && isElement(element, next, "w:pageBreakBefore")) {
+            // It may be switched off
+            int end = elementEnd(element, next);
+            return end < 0 ? separate : element.substring(0, next) + PAGE_BREAK_BEFORE + element.substring(end);
+        }
+        return element.substring(0, insert) + PAGE_BREAK_BEFORE + element.substring(insert);
+    }
+
+    private static boolean isAnyElement(String xml, int position, List<String> names) {
+        for (String name : names) {
+            if (isElement(xml, position, name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The start and end of every element at the top level of an XML fragment, in order.
+     * @throws IOException if an element is not closed.
+     */
+    static List<int[]> topLevelElements(String xml) throws IOException {
+        List<int[]> elements = new ArrayList<>();
+        int position = xml.indexOf('<');
+        while (position >= 0) {
+            int end;
+            if (xml.startsWith("<!--", position)) {
+                end = skipPast(xml, position, "-->");
+            } else if (xml.startsWith("<?", position)) {
+                end = skipPast(xml, position, "?>");
+            } else {
+                end = elementEnd(xml, position);
+                if (end >= 0) {
+                    elements.add(new int[]{position, end});
+                }
+            }
+            if (end < 0) {
+                throw new IOException("The body of the document is not well-formed");
+            }
+            position = xml.indexOf('<', end);
+        }
+        return elements;
+    }
+
+    /**
+     * @param start The position of the start tag of an element.
+     * @return The position just past the end of the element, or -1 if it is not closed.
+     */
+    static int elementEnd(String xml, int start) {
+        int depth = 0;
+        int position = start;
+        while (position >= 0) {
+            int end;
+            if (xml.startsWith("<!--", position)) {
+                end = skipPast(xml, position, "-->");
+            } else if (xml.startsWith("<?", position)) {
+                end = skipPast(xml, position, "?>");
+            } else if (xml.startsWith("<![CDATA[", position)) {
+                end = skipPast(xml, position, "]]>");
+            } else {
+                int close = tagEnd(xml, position);
+                if (close < 0) {
+                    return -1;
+                }
+                end = close + 1;
+                if (xml.charAt(position + 1) == '/') {
+                    depth--;
+                } else if (xml.charAt(close - 1) != '/') {
+                    depth++;
+                }
+                if (depth == 0) {
+                    return end;
+                }
+            }
+            if (end < 0) {
+                return -1;
+            }
+            position = xml.indexOf('<', end);
+        }
+        return -1;
+    }
+
+    /**
+     * @param start The position of the '<' of a tag.
+     * @return The position of the '>' that closes the tag, or -1 if there is none.
+     */
+    private static int tagEnd(String xml, int start) {
+        char quote = 0;
+        for (int i = start + 1; i < xml.length(); i++) {
+            char c = xml.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipPast(String xml, int start, String terminator) {
+        int end = xml.indexOf(terminator, start);
+        return end < 0 ? -1 : end + terminator.length();
+    }
+
+    /**
+     * @return true if the tag at a position opens an element of the given qualified name.
+     */
+    private static boolean isElement(String xml, int position, String name) {
+        int after = position + 1 + name.length();
+        if (!xml.startsWith(name, position + 1) || xml.charAt(position) != '<' || after >= xml.length()) {
+            return false;
+        }
+        char c = xml.charAt(after);
+        return c == '>' || c == '/' || Character.isWhitespace(c);
+    }
+
+    /**
+     * @return The name of the part a relationship of the main part points at, e.g. word/media/image1.png.
+     */
+    private static String partName(String target) {
+        if (target.startsWith("/")) {
+            return target.substring(1);
+        }
+        Deque<String> segments = new ArrayDeque<>(List.of("word"));
+        for (String segment : target.split("/")) {
+            if (segment.equals("..")) {
+                segments.pollLast();
+            } else if (!segment.isEmpty() && !segment.equals(".")) {
+                segments.addLast(segment);
+            }
+        }
+        return String.join("/", segments);
+    }
+
+    private static String extension(String partName) {
+        int dot = partName.lastIndexOf('.');
+        return dot > partName.lastIndexOf('/') ? partName.substring(dot + 1).toLowerCase(Locale.ROOT) : "";
+    }
+
+    /**
+     * @return The content type a package gives a part, or null if it gives none.
+     */
+    private static String contentType(String contentTypes, String partName, String extension) {
+        Matcher overrides = OVERRIDE_CONTENT_TYPE.matcher(contentTypes);
+        while (overrides.find()) {
+            Map<String, String> attributes = attributes(overrides.group());
+            if (("/" + partName).equals(attributes.get("PartName"))) {
+                return attributes.get("ContentType");
+            }
+        }
+        Matcher defaults = DEFAULT_CONTENT_TYPE.matcher(contentTypes);
+        while (defaults.find()) {
+            Map<String, String> attributes = attributes(defaults.group());
+            if (extension.equalsIgnoreCase(attributes.get("Extension"))) {
+                return attributes.get("ContentType");
+            }
+        }
+        return null;
+    }
+
+    private static String relationshipXml(String id, String type, String target, boolean external) {
+        return "<Relationship Id=\"" + id + "\" Type=\"" + type + "\" Target=\"" + target + "\""
+                + (external ? " TargetMode=\"External\"" : "") + "/>";
+    }
+
+    private static String insertBefore(String xml, String end, CharSequence insertion) {
+        int position = xml.lastIndexOf(end);
+        return position < 0 ? xml : xml.substring(0, position) + insertion + xml.substring(position);
+    }
+
+    private static List<Relationship> relationships(String xml) {
+        List<Relationship> relationships = new ArrayList<>();
+        Matcher matcher = RELATIONSHIP.matcher(xml);
+        while (matcher.find()) {
+            Map<String, String> attributes = attributes(matcher.group());
+            relationships.add(new Relationship(attributes.getOrDefault("Id", ""), attributes.getOrDefault("Type", ""),
+                    attributes.getOrDefault("Target", ""), "External".equals(attributes.get("TargetMode")), matcher.group()));
+        }
+        return relationships;
+    }
+
+    private static Map<String, String> attributes(String tag) {
+        Map<String, String> attributes = new HashMap<>();
+        Matcher matcher = ATTRIBUTE.matcher(tag);
+        while (matcher.find()) {
+            attributes.put(matcher.group(1), matcher.group(2));
+        }
+        return attributes;
+    }
+
+    private static String inflate(RawZipEntry entry) throws IOException {
+        if (entry.method() == ZipEntry.STORED) {
+            return new String(entry.compressedData(), StandardCharsets.UTF_8);
+        }
+        Inflater inflater = new Inflater(true);
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(entry.compressedData()), inflater)) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * A relationship of a main part.
+     *
+     * @param xml The relationship element as it appears in the relationships part.
+     */
+    private record Relationship(String id, String type, String target, boolean external, String xml) {}
+
+    /**
+     * A document held back until the documents before it have been merged.
+     *
+     * @param source The document, taken apart.
+     * @param merged Completed once the document has been merged.
+     */
+    private record Pending(Source source, CompletableFuture<Void> merged) {}
+
+    /**
+     * A document taken apart for merging.
+     *
+     * @param entries            The entries of the document's package, compressed.
+     * @param start              The main part up to and including the start tag of the body.
+     * @param rootTagEnd         The position of the '>' of the root element's start tag within {@code start}.
+     * @param body               The content of the body, without its section properties.
+     * @param sectionProperties  The section properties at the end of the body, or null if there are none.
+     * @param end                The main part from the end tag of the body.
+     * @param namespaces         The namespaces declared by the root element, by prefix.
+     * @param relationships      The relationships part of the main part.
+     * @param contentTypes       The content types part of the package.
+     * @param added              The relationships of the main part that the template does not have.
+     */
+    private record Source(Map<String, RawZipEntry> entries, String start, int rootTagEnd, String body,
+                          String sectionProperties, String end, Map<String, String> namespaces,
+                          String relationships, String contentTypes, List<Relationship> added) {
+
+        static Source parse(byte[] document, Set<String> templateRelationshipIds) throws IOException {
+            Map<String, RawZipEntry> entries = RawZipEntry.readArchive(document);
+            RawZipEntry main = entries.get(MAIN_PART);
+            RawZipEntry types = entries.get(CONTENT_TYPES);
+            if (main == null || types == null) {
+                throw new IOException("The document is not a readable DOCX package");
+            }
+            String xml = inflate(main);
+            int root = xml.indexOf("<w:document");
+            int rootEnd = root < 0 ? -1 : tagEnd(xml, root);
+            int bodyStart = rootEnd < 0 ? -1 : xml.indexOf("<w:body", rootEnd);
+            int bodyTagEnd = bodyStart < 0 ? -1 : tagEnd(xml, bodyStart);
+            int bodyEnd = xml.lastIndexOf(BODY_END);
+            if (bodyTagEnd < 0 || bodyEnd < bodyTagEnd) {
+                throw new IOException("The main part of the document has no body");
+            }
+
+            String body = xml.substring(bodyTagEnd + 1, bodyEnd);
+            String sectionProperties = null;
+            List<int[]> elements = topLevelElements(body);
+            if (!elements.isEmpty() && isElement(body, elements.getLast()[0], "w:sectPr")) {
+                int[] last = elements.getLast();
+                sectionProperties = body.substring(last[0], last[1]);
+                body = body.substring(0, last[0]);
+            }
+
+            Map<String, String> namespaces = new LinkedHashMap<>();
+            Matcher declarations = NAMESPACE.matcher(xml.substring(root, rootEnd));
+            while (declarations.find()) {
+                namespaces.put(declarations.group(1), declarations.group(2));
+            }
+
+            RawZipEntry relationshipsEntry = entries.get(MAIN_RELATIONSHIPS);
+            String relationships = relationshipsEntry != null ? inflate(relationshipsEntry) : EMPTY_RELATIONSHIPS;
+            List<Relationship> added = MergedDocument.relationships(relationships).stream()
+                    .filter(relationship -> !templateRelationshipIds.contains(relationship.id()))
+                    .toList();
+            return new Source(entries, xml.substring(0, bodyTagEnd + 1), rootEnd, body, sectionProperties,
+                    xml.substring(bodyEnd), namespaces, relationships, inflate(types), added);
+        }
+    }
+}
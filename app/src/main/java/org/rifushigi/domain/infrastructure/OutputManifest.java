@@ -0,0 +1,147 @@
+package org.rifushigi.domain.infrastructure;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The content-hash manifest of an output directory, used for incremental regeneration.
+ * <p>
+ * For each generated file it records a hash of everything the file was rendered from. Entries are appended
+ * to the manifest as soon as their file has been written, so a run that is interrupted can resume from
+ * where it stopped; {@link #close()} compacts the log into one line per file.
+ */
+public class OutputManifest implements Closeable {
+
+    /**
+     * The name of the manifest file inside each output directory.
+     */
+    public static final String FILE_NAME = ".tessera-manifest";
+
+    private final Path directory;
+    private final Path manifestFile;
+    private final Map<String, String> hashes;
+    private Writer log;
+
+    private OutputManifest(Path directory, Map<String, String> hashes) {
+        this.directory = directory;
+        this.manifestFile = directory.resolve(FILE_NAME);
+        this.hashes = hashes;
+    }
+
+    /**
+     * Loads the manifest of an output directory. A missing manifest is empty.
+     *
+     * @param directory The output directory.
+     * @return The manifest.
+     * @throws IOException if the manifest exists but cannot be read.
+     */
+    public static OutputManifest load(Path directory) throws IOException {
+        Map<String, String> hashes = new ConcurrentHashMap<>();
+        Path manifestFile = directory.resolve(FILE_NAME);
+        if (Files.exists(manifestFile)) {
+            List<String> lines = Files.readAllLines(manifestFile, StandardCharsets.UTF_8);
+            for (String line : lines) {
+                int tab = line.indexOf('\t');
+                // A torn last line from an interrupted run is ignored, and its file regenerated
+                if (tab > 0 && tab < line.length() - 1) {
+                    hashes.put(unescape(line.substring(tab + 1)), line.substring(0, tab));
+                }
+            }
+        }
+        return new OutputManifest(directory, hashes);
+    }
+
+    /**
+     * @param fileName The file name inside the output directory.
+     * @param hash     The hash of the inputs the file would be rendered from now.
+     * @return true if the file exists and was generated from the same inputs.
+     */
+    public boolean isUpToDate(String fileName, String hash) {
+        return hash.equals(hashes.get(fileName)) && Files.isRegularFile(directory.resolve(fileName));
+    }
+
+    /**
+     * Records that a file has been written from inputs with the given hash.
+     *
+     * @param fileName The file name inside the output directory.
+     * @param hash     The hash of the inputs.
+     * @throws IOException if the manifest cannot be written.
+     */
+    public synchronized void record(String fileName, String hash) throws IOException {
+        if (log == null) {
+            Files.createDirectories(directory);
+            log = Files.newBufferedWriter(manifestFile, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        log.write(hash + "\t" + escape(fileName) + "\n");
+        log.flush();
+        hashes.put(fileName, hash);
+    }
+
+    /**
+     * Rewrites the manifest with one line per file, sorted by file name.
+     *
+     * @throws IOException if the manifest cannot be written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (log == null) {
+            return;
+        }
+        log.close();
+        log = null;
+
+        Path compacted = directory.resolve(FILE_NAME + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(compacted, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, String> entry : new TreeMap<>(hashes).entrySet()) {
+                writer.write(entry.getValue() + "\t" + escape(entry.getKey()) + "\n");
+            }
+        }
+        Files.move(compacted, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Escapes backslashes, tabs and line breaks, so that a value fits in one field of a tab-separated line.
+     *
+     * @param fileName The value to escape.
+     * @return The escaped value.
+     */
+    public static String escape(String fileName) {
+        return fileName.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    /**
+     * Reverses {@link #escape(String)}.
+     *
+     * @param escaped The escaped value.
+     * @return The original value.
+     */
+    public static String unescape(String escaped) {
+        StringBuilder sb = new StringBuilder(escaped.length());
+        for (int i = 0; i < escaped.length(); i++) {
+            char c = escaped.charAt(i);
+            if (c == '\\' && i + 1 < escaped.length()) {
+                char next = escaped.charAt(++i);
+                sb.append(switch (next) {
+                    case 't' -> '\t';
+                    case 'n' -> '\n';
+                    case 'r' -> '\r';
+                    default -> next;
+                });
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,62 @@
+package org.rifushigi.domain.infrastructure;
+
+import org.rifushigi.domain.model.Placeholder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds every occurrence of a set of placeholders in a text in a single left-to-right scan.
+ * <p>
+ * Placeholders are delimited as "${name}", with no "}" inside the name, so the scan only has to stop at each
+ * "${", find the next "}" and look the candidate up; the cost is linear in the text, whatever the number of
+ * placeholders. Occurrences never overlap, matching how {@code PlaceholderService} finds them.
+ */
+final class PlaceholderMatcher {
+
+    private static final String OPENING = "${";
+    private static final char CLOSING = '}';
+
+    private final Map<String, Placeholder> byFullText = new HashMap<>();
+
+    PlaceholderMatcher(Collection<Placeholder> placeholders) {
+        for (Placeholder placeholder : placeholders) {
+            byFullText.put(placeholder.fullText(), placeholder);
+        }
+    }
+
+    /**
+     * @param text The text to scan.
+     * @return The occurrences of known placeholders, in text order.
+     */
+    List<Match> findAll(String text) {
+        List<Match> matches = new ArrayList<>();
+        int start = text.indexOf(OPENING);
+        while (start >= 0) {
+            int close = text.indexOf(CLOSING, start + OPENING.length() + 1);
+            if (close < 0) {
+                break;
+            }
+            Placeholder placeholder = byFullText.get(text.substring(start, close + 1));
+            if (placeholder != null) {
+                matches.add(new Match(start, close + 1, placeholder));
+                start = text.indexOf(OPENING, close + 1);
+            } else {
+                start = text.indexOf(OPENING, start + 1);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * An occurrence of a placeholder.
+     *
+     * @param start       The index of its first character.
+     * @param end         The index after its last character.
+     * @param placeholder The placeholder.
+     */
+    record Match(int start, int end, Placeholder placeholder) {}
+}
@@ -0,0 +1,152 @@
+package org.rifushigi.domain.infrastructure;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * A zip entry held in its final, already compressed form, ready to be copied into an archive as is.
+ *
+ * @param name           The entry name.
+ * @param method         {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}.
+ * @param crc            The CRC-32 of the uncompressed data.
+ * @param size           The uncompressed size in bytes.
+ * @param compressedData The entry data exactly as it is stored in the archive. Must not be modified.
+ */
+public record RawZipEntry(String name, int method, long crc, long size, byte[] compressedData) {
+
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int CENTRAL_DIRECTORY_HEADER = 0x02014b50;
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+    private static final long ZIP64_MARKER = 0xFFFFFFFFL;
+
+    /**
+     * Compresses data into a raw entry.
+     *
+     * @param name        The entry name.
+     * @param data        The uncompressed data.
+     * @param compression How to compress the data.
+     * @return The compressed entry.
+     */
+    public static RawZipEntry compress(String name, byte[] data, ZipCompression compression) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        if (compression.stored()) {
+            return new RawZipEntry(name, ZipEntry.STORED, crc.getValue(), data.length, data);
+        }
+
+        // Zip entries hold raw deflate data, without the zlib header
+        Deflater deflater = new Deflater(compression.level(), true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                compressed.write(buffer, 0, length);
+            }
+            return new RawZipEntry(name, ZipEntry.DEFLATED, crc.getValue(), data.length, compressed.toByteArray());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Reads the entries of a zip archive without decompressing them.
+     * Entries that cannot be copied verbatim (encrypted or ZIP64) are left out.
+     *
+     * @param archive The bytes of the zip archive.
+     * @return The entries by name in archive order, or an empty map if the archive cannot be read.
+     */
+    public static Map<String, RawZipEntry> readArchive(byte[] archive) {
+        Map<String, RawZipEntry> entries = new LinkedHashMap<>();
+        List<RawZipEntry> read = read(archive, false);
+        if (read != null) {
+            read.forEach(entry -> entries.put(entry.name(), entry));
+        }
+        return entries;
+    }
+
+    /**
+     * Reads every entry of a zip archive without decompressing them.
+     *
+     * @param archive The bytes of the zip archive.
+     * @return The entries in archive order, or null if any entry cannot be copied verbatim.
+     */
+    public static List<RawZipEntry> readAllEntries(byte[] archive) {
+        return read(archive, true);
+    }
+
+    private static List<RawZipEntry> read(byte[] archive, boolean strict) {
+        List<RawZipEntry> entries = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.wrap(archive).order(ByteOrder.LITTLE_ENDIAN);
+
+        int end = findEndOfCentralDirectory(buffer);
+        if (end < 0) {
+            return null;
+        }
+        int entryCount = buffer.getShort(end + 10) & 0xFFFF;
+        int position = buffer.getInt(end + 16);
+
+        for (int i = 0; i < entryCount; i++) {
+            if (position < 0 || position + 46 > archive.length || buffer.getInt(position) != CENTRAL_DIRECTORY_HEADER) {
+                return null;
+            }
+            int flags = buffer.getShort(position + 8) & 0xFFFF;
+            int method = buffer.getShort(position + 10) & 0xFFFF;
+            long crc = buffer.getInt(position + 16) & 0xFFFFFFFFL;
+            long compressedSize = buffer.getInt(position + 20) & 0xFFFFFFFFL;
+            long size = buffer.getInt(position + 24) & 0xFFFFFFFFL;
+            int nameLength = buffer.getShort(position + 28) & 0xFFFF;
+            int extraLength = buffer.getShort(position + 30) & 0xFFFF;
+            int commentLength = buffer.getShort(position + 32) & 0xFFFF;
+            long localHeader = buffer.getInt(position + 42) & 0xFFFFFFFFL;
+            String name = new String(archive, position + 46, nameLength,
+                    (flags & 0x0800) != 0 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+            position += 46 + nameLength + extraLength + commentLength;
+
+            boolean copyable = (flags & 0x0001) == 0
+                    && (method == ZipEntry.STORED || method == ZipEntry.DEFLATED)
+                    && compressedSize != ZIP64_MARKER && size != ZIP64_MARKER && localHeader != ZIP64_MARKER;
+            if (!copyable || localHeader + 30 > archive.length || buffer.getInt((int) localHeader) != LOCAL_FILE_HEADER) {
+                if (strict) {
+                    return null;
+                }
+                continue;
+            }
+            int dataStart = (int) localHeader + 30
+                    + (buffer.getShort((int) localHeader + 26) & 0xFFFF)
+                    + (buffer.getShort((int) localHeader + 28) & 0xFFFF);
+            if (dataStart + compressedSize > archive.length) {
+                if (strict) {
+                    return null;
+                }
+                continue;
+            }
+            byte[] data = new byte[(int) compressedSize];
+            System.arraycopy(archive, dataStart, data, 0, data.length);
+            entries.add(new RawZipEntry(name, method, crc, size, data));
+        }
+        return entries;
+    }
+
+    private static int findEndOfCentralDirectory(ByteBuffer buffer) {
+        // The record is 22 bytes followed by a comment of at most 64 KiB
+        int lowest = Math.max(0, buffer.limit() - 22 - 0xFFFF);
+        for (int position = buffer.limit() - 22; position >= lowest; position--) {
+            if (buffer.getInt(position) == END_OF_CENTRAL_DIRECTORY) {
+                return position;
+            }
+        }
+        return -1;
+    }
+}
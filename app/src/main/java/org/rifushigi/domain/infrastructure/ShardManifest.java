@@ -0,0 +1,217 @@
+package org.rifushigi.domain.infrastructure;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The record of what one shard of a sharded run produced, used to check that the shards together produced
+ * every record exactly once.
+ * <p>
+ * The manifest is a tab-separated log. It starts with the shard, the key column and a hash of the data file,
+ * followed by one line per record the shard owned, appended as its outcome becomes known. Once every record
+ * has been handled, the number of records read per sheet and a completion marker are added, so a shard that
+ * stopped early is recognised.
+ */
+public class ShardManifest implements Closeable {
+
+    /**
+     * The prefix of shard manifest file names, which end in "&lt;i&gt;-of-&lt;N&gt;".
+     */
+    public static final String FILE_PREFIX = ".tessera-shard-";
+
+    /**
+     * The outcome of a record owned by a shard.
+     */
+    public enum Status {
+        /** The document was written. */
+        CREATED,
+        /** The document was up to date from an earlier incremental run. */
+        UNCHANGED,
+        /** The document could not be generated. */
+        FAILED;
+
+        /**
+         * @return The name used in manifest files, e.g. "created".
+         */
+        public String key() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * A record owned by a shard.
+     *
+     * @param sheetName The sheet the record was read from.
+     * @param sequence  The zero-based position of the record within the sheet.
+     * @param status    The outcome.
+     * @param entryPath The output path of the record's document.
+     */
+    public record Entry(String sheetName, int sequence, Status status, String entryPath) {}
+
+    /**
+     * A shard manifest read back from disk.
+     *
+     * @param shardNumber     The one-based number of the shard.
+     * @param shardCount      The number of shards of the run.
+     * @param keyColumn       The column records were assigned to shards by.
+     * @param dataFingerprint The SHA-256 hash of the data file.
+     * @param recordCounts    The number of records read per sheet, in sheet order.
+     * @param entries         The records owned by the shard, in the order they were handled.
+     * @param complete        true if the shard ran to completion.
+     */
+    public record Contents(int shardNumber, int shardCount, String keyColumn, String dataFingerprint,
+                           Map<String, Integer> recordCounts, List<Entry> entries, boolean complete) {}
+
+    private final Writer log;
+    private IOException failure;
+
+    private ShardManifest(Writer log) {
+        this.log = log;
+    }
+
+    /**
+     * @param outputDir The output directory of the shard.
+     * @param number    The one-based number of the shard.
+     * @param count     The number of shards.
+     * @return The manifest file of that shard.
+     */
+    public static Path fileFor(Path outputDir, int number, int count) {
+        return outputDir.resolve(FILE_PREFIX + number + "-of-" + count);
+    }
+
+    /**
+     * Starts the manifest of a shard, replacing any manifest of an earlier run of the same shard.
+     *
+     * @param outputDir       The output directory of the shard.
+     * @param number          The one-based number of the shard.
+     * @param count           The number of shards.
+     * @param keyColumn       The column records are assigned to shards by.
+     * @param dataFingerprint The SHA-256 hash of the data file.
+     * @return The manifest, to be closed once every record has been handled.
+     * @throws IOException if the manifest cannot be written.
+     */
+    public static ShardManifest create(Path outputDir, int number, int count, String keyColumn,
+                                       String dataFingerprint) throws IOException {
+        Files.createDirectories(outputDir);
+        Writer log = Files.newBufferedWriter(fileFor(outputDir, number, count), StandardCharsets.UTF_8);
+        log.write("shard\t" + number + "\t" + count + "\n");
+        log.write("key\t" + OutputManifest.escape(keyColumn) + "\n");
+        log.write("data\t" + dataFingerprint + "\n");
+        return new ShardManifest(log);
+    }
+
+    /**
+     * Records the outcome of a record owned by the shard. Failures to write are reported by {@link #close()},
+     * so that the pipeline threads calling this are not interrupted.
+     *
+     * @param sheetName The sheet the record was read from.
+     * @param sequence  The zero-based position of the record within the sheet.
+     * @param status    The outcome.
+     * @param entryPath The output path of the record's document.
+     */
+    public synchronized void record(String sheetName, int sequence, Status status, String entryPath) {
+        write("record\t" + OutputManifest.escape(sheetName) + "\t" + sequence + "\t" + status.key()
+                + "\t" + OutputManifest.escape(entryPath) + "\n");
+    }
+
+    /**
+     * Records how many records of a sheet were read, including those owned by other shards.
+     *
+     * @param sheetName The sheet.
+     * @param records   The number of records.
+     */
+    public synchronized void recordCount(String sheetName, int records) {
+        write("count\t" + OutputManifest.escape(sheetName) + "\t" + records + "\n");
+    }
+
+    /**
+     * Marks the shard as complete. Called once every record count has been recorded.
+     */
+    public synchronized void complete() {
+        write("complete\n");
+    }
+
+    /**
+     * Closes the manifest. A manifest closed without {@link #complete()} records a shard that stopped early.
+     *
+     * @throws IOException if any part of the manifest could not be written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            log.close();
+        } catch (IOException e) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void write(String line) {
+        if (failure != null) {
+            return;
+        }
+        try {
+            log.write(line);
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Reads a shard manifest. Lines that cannot be parsed, such as a torn last line, are ignored.
+     *
+     * @param file The manifest file.
+     * @return The contents.
+     * @throws IOException if the file cannot be read or does not start like a shard manifest.
+     */
+    public static Contents read(Path file) throws IOException {
+        int number = 0;
+        int count = 0;
+        String keyColumn = null;
+        String dataFingerprint = null;
+        Map<String, Integer> recordCounts = new LinkedHashMap<>();
+        List<Entry> entries = new ArrayList<>();
+        boolean complete = false;
+
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            String[] fields = line.split("\t", -1);
+            try {
+                switch (fields[0]) {
+                    case "shard" -> {
+                        number = Integer.parseInt(fields[1]);
+                        count = Integer.parseInt(fields[2]);
+                    }
+                    case "key" -> keyColumn = OutputManifest.unescape(fields[1]);
+                    case "data" -> dataFingerprint = fields[1];
+                    case "record" -> entries.add(new Entry(OutputManifest.unescape(fields[1]),
+                            Integer.parseInt(fields[2]), Status.valueOf(fields[3].toUpperCase(Locale.ROOT)),
+                            OutputManifest.unescape(fields[4])));
+                    case "count" -> recordCounts.put(OutputManifest.unescape(fields[1]), Integer.parseInt(fields[2]));
+                    case "complete" -> complete = true;
+                    default -> {
+                        // unknown or torn line
+                    }
+                }
+            } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+                // torn line from a shard that stopped while writing it
+            }
+        }
+        if (count == 0 || keyColumn == null || dataFingerprint == null) {
+            throw new IOException("Not a shard manifest: " + file);
+        }
+        return new Contents(number, count, keyColumn, dataFingerprint, recordCounts, entries, complete);
+    }
+}
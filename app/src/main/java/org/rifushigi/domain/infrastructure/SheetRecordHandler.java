@@ -0,0 +1,41 @@
+package org.rifushigi.domain.infrastructure;
+
+import org.rifushigi.domain.model.CandidateRecord;
+
+import java.io.IOException;
+
+/**
+ * Receives candidate records one at a time as a {@link DataSource} is streamed.
+ * <p>
+ * {@link #startSheet(String)} is called once before the first record of a sheet and
+ * {@link #endSheet(String)} once after its last record. Sheets that {@link DataSource#readData(java.nio.file.Path)}
+ * would skip are never started. The records of different sheets only interleave when the source is
+ * {@link DataSource#groupedBy(String) grouped by a column}.
+ */
+public interface SheetRecordHandler {
+
+    /**
+     * Called when a sheet with data is encountered, before any of its records.
+     *
+     * @param sheetName The name of the sheet.
+     * @throws IOException to abort reading.
+     */
+    default void startSheet(String sheetName) throws IOException {}
+
+    /**
+     * Called for every non-blank row of a sheet, in row order.
+     *
+     * @param sheetName The name of the sheet the record belongs to.
+     * @param record    The candidate record read from the row.
+     * @throws IOException to abort reading.
+     */
+    void record(String sheetName, CandidateRecord record) throws IOException;
+
+    /**
+     * Called after the last record of a sheet.
+     *
+     * @param sheetName The name of the sheet.
+     * @throws IOException to abort reading.
+     */
+    default void endSheet(String sheetName) throws IOException {}
+}
@@ -0,0 +1,312 @@
+package org.rifushigi.domain.infrastructure;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.rifushigi.domain.model.CandidateRecord;
+import org.rifushigi.domain.model.RecordSchema;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads an Excel workbook with the XSSF event model instead of building an {@link org.apache.poi.xssf.usermodel.XSSFWorkbook}.
+ * <p>
+ * Only the shared strings table and the styles are held in memory; every sheet is parsed with SAX and
+ * each row is handed to a {@link SheetRecordHandler} as soon as it has been read. The header-row and
+ * blank-row rules, the column types and the column formats are the same as {@link ExcelReader}'s.
+ */
+public class StreamingExcelReader {
+
+    private final ColumnFormats formats;
+
+    public StreamingExcelReader() {
+        this(ColumnFormats.DEFAULT);
+    }
+
+    /**
+     * @param formats The formats of particular columns.
+     */
+    public StreamingExcelReader(ColumnFormats formats) {
+        this.formats = formats;
+    }
+
+    /**
+     * Streams every sheet of an Excel file to the given handler.
+     *
+     * @param excelFilePath The path to the Excel file.
+     * @param handler       The handler receiving the records.
+     * @throws IOException if there's an error reading the file or the handler aborts.
+     */
+    public void readData(Path excelFilePath, SheetRecordHandler handler) throws IOException {
+        if (!Files.exists(excelFilePath) || !Files.isReadable(excelFilePath)) {
+            throw new IOException("Excel file not found or is not readable: " + excelFilePath);
+        }
+
+        try (OPCPackage pkg = OPCPackage.open(excelFilePath.toFile(), PackageAccess.READ)) {
+            ReadOnlySharedStringsTable sharedStrings = new ReadOnlySharedStringsTable(pkg);
+            XSSFReader xssfReader = new XSSFReader(pkg);
+            StylesTable styles = xssfReader.getStylesTable();
+            DataFormatter dataFormatter = new DataFormatter();
+
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) xssfReader.getSheetsData();
+            while (sheets.hasNext()) {
+                try (InputStream sheetStream = sheets.next()) {
+                    CellFormatter formatter = new CellFormatter(formats, dataFormatter,
+                            index -> styles == null ? null : styles.getStyleAt(index));
+                    SheetHandler sheetHandler = new SheetHandler(sheets.getSheetName(), sharedStrings, formatter, handler);
+                    XMLReader parser = XMLHelper.newXMLReader();
+                    parser.setContentHandler(sheetHandler);
+                    parser.parse(new InputSource(sheetStream));
+                    sheetHandler.finish();
+                }
+            }
+        } catch (SAXException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException("Malformed sheet in Excel file: " + excelFilePath, e);
+        } catch (OpenXML4JException | ParserConfigurationException e) {
+            throw new IOException("Could not open Excel file: " + excelFilePath, e);
+        }
+    }
+
+    /**
+     * SAX handler for a single worksheet part. It rebuilds each row's formatted cell values and
+     * turns them into candidate records with the same rules as the DOM reader: the header is the row at
+     * index 1, every row from index 1 onwards with a non-blank cell becomes a record, and the sheet is
+     * only reported if it has more than one physical row. The records are typed by the first row after the
+     * header, so the header record is held back until that row has been read.
+     */
+    private static final class SheetHandler extends DefaultHandler {
+
+        private static final int HEADER_ROW_INDEX = 1;
+
+        private final String sheetName;
+        private final ReadOnlySharedStringsTable sharedStrings;
+        private final CellFormatter formatter;
+        private final SheetRecordHandler handler;
+
+        private final List<String> headers = new ArrayList<>();
+        private final ValuePool valuePool = new ValuePool();
+        private RecordSchema schema = RecordSchema.of(List.of());
+        private final List<String> rowCellValues = new ArrayList<>();
+        private final List<Integer> rowCellColumns = new ArrayList<>();
+        private final StringBuilder text = new StringBuilder();
+
+        private int physicalRows;
+        private int rowIndex = -1;
+        private int columnIndex;
+        private String cellType;
+        private String cellStyle;
+        private boolean inValue;
+        private boolean inInlineString;
+
+        // The first record is held back until a second physical row proves the sheet is not skipped
+        private CandidateRecord pendingRecord;
+        private boolean started;
+        // The values of the header row, until the first data row gives the schema its types
+        private String[] headerValues;
+        private boolean typed;
+
+        SheetHandler(String sheetName, ReadOnlySharedStringsTable sharedStrings, CellFormatter formatter,
+                     SheetRecordHandler handler) {
+            this.sheetName = sheetName;
+            this.sharedStrings = sharedStrings;
+            this.formatter = formatter;
+            this.handler = handler;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+            switch (localName) {
+                case "row" -> {
+                    physicalRows++;
+                    String ref = attributes.getValue("r");
+                    rowIndex = ref == null ? rowIndex + 1 : Integer.parseInt(ref) - 1;
+                    columnIndex = -1;
+                    rowCellValues.clear();
+                    rowCellColumns.clear();
+                    if (physicalRows == 2) {
+                        startSheet();
+                    }
+                }
+                case "c" -> {
+                    String ref = attributes.getValue("r");
+                    columnIndex = ref == null ? columnIndex + 1 : columnOf(ref);
+                    cellType = attributes.getValue("t");
+                    cellStyle = attributes.getValue("s");
+                    text.setLength(0);
+                }
+                case "v" -> {
+                    inValue = true;
+                    text.setLength(0);
+                }
+                case "is" -> {
+                    inInlineString = true;
+                    text.setLength(0);
+                }
+                default -> {
+                    // formulas, rich text properties and the rest of the sheet are not needed
+                }
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            switch (localName) {
+                case "v" -> inValue = false;
+                case "is" -> inInlineString = false;
+                case "c" -> {
+                    rowCellColumns.add(columnIndex);
+                    rowCellValues.add(formatCellValue());
+                }
+                case "row" -> endRow();
+                default -> {
+                    // nothing to do
+                }
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (inValue || inInlineString) {
+                text.append(ch, start, length);
+            }
+        }
+
+        /**
+         * Formats the value of the cell that just ended the same way {@link ExcelReader} does for the DOM.
+         */
+        private String formatCellValue() {
+            String raw = text.toString();
+            if (cellType == null || cellType.equals("n")) {
+                if (raw.isEmpty()) {
+                    return "";
+                }
+                int styleIndex = cellStyle == null ? -1 : Integer.parseInt(cellStyle);
+                return formatter.number(columnIndex, Double.parseDouble(raw), styleIndex);
+            }
+            return switch (cellType) {
+                case "s" -> raw.isEmpty() ? "" : formatter.text(columnIndex, sharedStrings.getItemAt(Integer.parseInt(raw)).getString());
+                case "b" -> "1".equals(raw) ? "TRUE" : "FALSE";
+                case "inlineStr", "str", "d" -> formatter.text(columnIndex, raw);
+                default -> raw; // e (error)
+            };
+        }
+
+        private void endRow() throws SAXException {
+            if (rowIndex == HEADER_ROW_INDEX) {
+                headers.addAll(rowCellValues);
+                schema = RecordSchema.of(headers);
+                formatter.headers(headers);
+            }
+            if (rowIndex < HEADER_ROW_INDEX) {
+                return;
+            }
+
+            String[] values = new String[schema.size()];
+            Arrays.fill(values, "");
+            boolean hasData = false;
+            for (int i = 0; i < rowCellColumns.size(); i++) {
+                int column = rowCellColumns.get(i);
+                if (column < values.length) {
+                    String value = rowCellValues.get(i);
+                    values[column] = valuePool.intern(column, value);
+                    if (!value.isBlank()) {
+                        hasData = true;
+                    }
+                }
+            }
+            if (rowIndex == HEADER_ROW_INDEX) {
+                headerValues = hasData ? values : null;
+            } else if (hasData) {
+                typeSchema();
+                emit(new CandidateRecord(schema, values));
+            }
+        }
+
+        /**
+         * Types the schema by the row just read and emits the header record with it.
+         */
+        private void typeSchema() throws SAXException {
+            if (typed) {
+                return;
+            }
+            typed = true;
+            schema = RecordSchema.of(headers, formatter.types(headers.size()));
+            if (headerValues != null) {
+                emit(new CandidateRecord(schema, headerValues));
+                headerValues = null;
+            }
+        }
+
+        private void startSheet() throws SAXException {
+            started = true;
+            try {
+                handler.startSheet(sheetName);
+                if (pendingRecord != null) {
+                    handler.record(sheetName, pendingRecord);
+                    pendingRecord = null;
+                }
+            } catch (IOException e) {
+                throw new SAXException(e);
+            }
+        }
+
+        private void emit(CandidateRecord record) throws SAXException {
+            if (!started) {
+                pendingRecord = record;
+                return;
+            }
+            try {
+                handler.record(sheetName, record);
+            } catch (IOException e) {
+                throw new SAXException(e);
+            }
+        }
+
+        /**
+         * Completes the sheet once the whole part has been parsed.
+         */
+        void finish() throws IOException {
+            if (headerValues != null && started) {
+                handler.record(sheetName, new CandidateRecord(schema, headerValues));
+            }
+            if (started) {
+                handler.endSheet(sheetName);
+            }
+        }
+
+        /**
+         * Converts the column letters of a cell reference such as "AB12" to a zero-based column index.
+         */
+        private static int columnOf(String cellReference) {
+            int column = 0;
+            for (int i = 0; i < cellReference.length(); i++) {
+                char c = cellReference.charAt(i);
+                if (c < 'A' || c > 'Z') {
+                    break;
+                }
+                column = column * 26 + (c - 'A' + 1);
+            }
+            return column - 1;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package org.rifushigi.domain.infrastructure;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Bundles documents into a POSIX (ustar) tar archive. Entry paths that do not fit the ustar name fields,
+ * or that are not plain ASCII, are carried in a PAX extended header. Identical documents are stored once
+ * and added again as hard links to the first.
+ */
+class TarArchiveSink extends ArchiveSink {
+
+    private static final int BLOCK_SIZE = 512;
+    private static final int NAME_LENGTH = 100;
+    private static final int PREFIX_LENGTH = 155;
+    private static final byte REGULAR_FILE = '0';
+    private static final byte HARD_LINK = '1';
+    private static final int LINK_NAME_OFFSET = 157;
+    private static final byte PAX_HEADER = 'x';
+
+    TarArchiveSink(FileOutputStream file, String targetName, FsyncPolicy fsyncPolicy) {
+        super(file, targetName, fsyncPolicy);
+    }
+
+    @Override
+    protected void writeDocument(String entryPath, byte[] content) throws IOException {
+        writeEntry(entryPath, REGULAR_FILE, content, null);
+    }
+
+    @Override
+    protected void writeLink(String existingEntryPath, String entryPath) throws IOException {
+        writeEntry(entryPath, HARD_LINK, new byte[0], existingEntryPath);
+    }
+
+    @Override
+    protected void finishArchive() throws IOException {
+        // Two empty blocks mark the end of the archive
+        out.write(new byte[BLOCK_SIZE * 2]);
+    }
+
+    private void writeEntry(String entryPath, byte type, byte[] content, String linkPath) throws IOException {
+        byte[] header = new byte[BLOCK_SIZE];
+        boolean fitsName = fitsUstarNames(entryPath, header);
+        boolean fitsLink = linkPath == null || fitsLinkName(linkPath, header);
+        if (!fitsName || !fitsLink) {
+            ByteArrayOutputStream pax = new ByteArrayOutputStream();
+            if (!fitsName) {
+                pax.write(paxRecord("path", entryPath));
+                fitsUstarNames(asciiName(entryPath), header);
+            }
+            if (!fitsLink) {
+                pax.write(paxRecord("linkpath", linkPath));
+                fitsLinkName(asciiName(linkPath), header);
+            }
+            writeEntry("PaxHeaders/" + asciiName(entryPath), PAX_HEADER, pax.toByteArray(), null);
+        }
+
+        writeOctal(header, 100, 8, 0644);                 // mode
+        writeOctal(header, 108, 8, 0);                    // uid
+        writeOctal(header, 116, 8, 0);                    // gid
+        writeOctal(header, 124, 12, content.length);      // size
+        writeOctal(header, 136, 12, 0);                   // mtime, fixed for reproducible bundles
+        header[156] = type;
+        System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 6);
+        header[263] = '0';
+        header[264] = '0';
+
+        // The checksum is computed with its own field filled with spaces
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xFF;
+        }
+        writeOctal(header, 148, 7, checksum);
+
+        out.write(header);
+        out.write(content);
+        int padding = (BLOCK_SIZE - content.length % BLOCK_SIZE) % BLOCK_SIZE;
+        out.write(new byte[padding]);
+    }
+
+    /**
+     * Stores the path in the ustar name and prefix fields if it is ASCII and short enough.
+     *
+     * @return false if the path needs a PAX header.
+     */
+    private static boolean fitsUstarNames(String entryPath, byte[] header) {
+        byte[] path = entryPath.getBytes(StandardCharsets.UTF_8);
+        if (path.length != entryPath.length()) {
+            return false;
+        }
+        if (path.length <= NAME_LENGTH) {
+            System.arraycopy(path, 0, header, 0, path.length);
+            return true;
+        }
+        // Split at a '/' so that the prefix and the name each fit their field
+        for (int split = Math.min(path.length - 1, PREFIX_LENGTH); split > 0; split--) {
+            if (path[split] == '/' && path.length - split - 1 <= NAME_LENGTH) {
+                System.arraycopy(path, split + 1, header, 0, path.length - split - 1);
+                System.arraycopy(path, 0, header, 345, split);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stores the link target in the ustar link name field if it is ASCII and short enough.
+     *
+     * @return false if the target needs a PAX header.
+     */
+    private static boolean fitsLinkName(String linkPath, byte[] header) {
+        byte[] path = linkPath.getBytes(StandardCharsets.UTF_8);
+        if (path.length != linkPath.length() || path.length > NAME_LENGTH) {
+            return false;
+        }
+        System.arraycopy(path, 0, header, LINK_NAME_OFFSET, path.length);
+        return true;
+    }
+
+    /**
+     * A lossy ASCII stand-in for readers that ignore PAX headers.
+     */
+    private static String asciiName(String entryPath) {
+        String fileName = entryPath.substring(entryPath.lastIndexOf('/') + 1);
+        String ascii = fileName.replaceAll("[^\\x20-\\x7E]", "_");
+        return ascii.length() <= NAME_LENGTH - 11 ? ascii : ascii.substring(ascii.length() - (NAME_LENGTH - 11));
+    }
+
+    /**
+     * Encodes a PAX record, "length key=value\n", where the length counts the whole record including itself.
+     */
+    private static byte[] paxRecord(String key, String value) {
+        int payload = (" " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8).length;
+        int length = payload + Integer.toString(payload).length();
+        if (Integer.toString(length).length() != Integer.toString(payload).length()) {
+            length++;
+        }
+        return (length + " " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void writeOctal(byte[] header, int offset, int length, long value) {
+        // length - 1 octal digits followed by a NUL
+        String octal = Long.toOctalString(value);
+        int digits = length - 1;
+        for (int i = 0; i < digits; i++) {
+            int fromEnd = digits - 1 - i;
+            header[offset + i] = (byte) (fromEnd < octal.length() ? octal.charAt(octal.length() - 1 - fromEnd) : '0');
+        }
+        header[offset + digits] = 0;
+    }
+}
@@ -0,0 +1,269 @@
+package org.rifushigi.domain.infrastructure;
+
+import org.rifushigi.domain.model.Placeholder;
+import org.rifushigi.domain.model.PlaceholderLocation;
+import org.rifushigi.domain.model.TemplateMetadata;
+import org.rifushigi.metrics.GenerationMetrics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An on-disk cache of scanned and compiled templates, shared by every run on the machine.
+ * <p>
+ * Entries are keyed by the SHA-256 of the template file, so an edited template is never served from the cache:
+ * its new hash simply misses. The scan (placeholders and their locations) and each compiled render plan are
+ * stored as separate files, which also carry a format version and {@link WordDocumentWriter#FORMATTING_RULES};
+ * entries written by another version are ignored and replaced.
+ * <p>
+ * The cache is bounded in size. Reading an entry marks it as used, and whenever an entry is added the least
+ * recently used ones are deleted until the cache fits again. Entries are written to a temporary file and moved
+ * into place, so concurrent runs never see a partial entry.
+ */
+public class TemplateStore {
+
+    /**
+     * The size the cache is trimmed to when no bound is given.
+     */
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    private static final int MAGIC = 0x54455353; // "TESS"
+    private static final int FORMAT_VERSION = 2;
+    private static final String SCAN_SUFFIX = ".scan";
+    private static final String PLAN_SUFFIX = ".plan";
+
+    private final Path directory;
+    private final long maxBytes;
+
+    /**
+     * @param directory The cache directory. It is created when the first entry is stored.
+     * @param maxBytes  The total size the cache entries may take up.
+     */
+    public TemplateStore(Path directory, long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Cache size can not be negative");
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return $XDG_CACHE_HOME/tessera, or ~/.cache/tessera if XDG_CACHE_HOME is not set.
+     */
+    public static Path defaultDirectory() {
+        String cacheHome = System.getenv("XDG_CACHE_HOME");
+        Path base = cacheHome != null && !cacheHome.isBlank()
+                ? Path.of(cacheHome)
+                : Path.of(System.getProperty("user.home"), ".cache");
+        return base.resolve("tessera");
+    }
+
+    /**
+     * @return The cache directory.
+     */
+    public Path directory() {
+        return directory;
+    }
+
+    /**
+     * Looks up the scan of a template.
+     *
+     * @param templateHash The SHA-256 of the template file.
+     * @param templatePath The template file, recorded in the returned metadata.
+     * @return The placeholders and their locations, or null if the cache has no valid entry.
+     */
+    public TemplateMetadata loadMetadata(String templateHash, Path templatePath) {
+        Path file = directory.resolve(templateHash + SCAN_SUFFIX);
+        try (DataInputStream in = open(file)) {
+            if (in == null) {
+                return null;
+            }
+            List<Placeholder> placeholders = new ArrayList<>();
+            int placeholderCount = in.readInt();
+            for (int i = 0; i < placeholderCount; i++) {
+                placeholders.add(new Placeholder(in.readUTF(), in.readUTF()));
+            }
+            List<PlaceholderLocation> locations = new ArrayList<>();
+            int locationCount = in.readInt();
+            for (int i = 0; i < locationCount; i++) {
+                Placeholder placeholder = placeholders.get(in.readInt());
+                String part = in.readUTF();
+                List<Integer> elementPath = new ArrayList<>();
+                int depth = in.readInt();
+                for (int j = 0; j < depth; j++) {
+                    elementPath.add(in.readInt());
+                }
+                locations.add(new PlaceholderLocation(placeholder, part, elementPath));
+            }
+            return new TemplateMetadata(templatePath, new HashSet<>(placeholders), locations);
+        } catch (IOException | RuntimeException e) {
+            // A damaged entry is a miss; it is replaced when the template is scanned again
+            return null;
+        }
+    }
+
+    /**
+     * Stores the scan of a template.
+     *
+     * @param templateHash The SHA-256 of the template file.
+     * @param template     The placeholders and their locations.
+     * @throws IOException if the entry cannot be written.
+     */
+    public void storeMetadata(String templateHash, TemplateMetadata template) throws IOException {
+        store(directory.resolve(templateHash + SCAN_SUFFIX), out -> {
+            Map<Placeholder, Integer> indexes = new HashMap<>();
+            out.writeInt(template.placeholders().size());
+            for (Placeholder placeholder : template.placeholders()) {
+                indexes.put(placeholder, indexes.size());
+                out.writeUTF(placeholder.varName());
+                out.writeUTF(placeholder.fullText());
+            }
+            out.writeInt(template.locations().size());
+            for (PlaceholderLocation location : template.locations()) {
+                out.writeInt(indexes.get(location.placeholder()));
+                out.writeUTF(location.part());
+                out.writeInt(location.elementPath().size());
+                for (int index : location.elementPath()) {
+                    out.writeInt(index);
+                }
+            }
+        });
+    }
+
+    /**
+     * Looks up the render plan of a template.
+     *
+     * @param templateHash The SHA-256 of the template file.
+     * @param templatePath The template file.
+     * @param placeholders The placeholders detected in the template.
+     * @param compression  The compression the plan must have been compiled with.
+     * @param images       Loads the images of image placeholders.
+     * @param runDate      The DATE of data without a DATE column, or null for the current date.
+     * @param metrics      Receives the replacement and serialisation time of every document.
+     * @return The compiled template, or null if the cache has no valid entry.
+     */
+    public CompiledTemplate loadCompiled(String templateHash, Path templatePath, Set<Placeholder> placeholders,
+                                        ZipCompression compression, ImageCache images, LocalDate runDate,
+                                        GenerationMetrics metrics) {
+        try (DataInputStream in = open(planFile(templateHash, compression))) {
+            return in == null ? null
+                    : CompiledTemplate.readFrom(in, templatePath, placeholders, compression, images, runDate, metrics);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores the render plan of a template.
+     *
+     * @param templateHash The SHA-256 of the template file.
+     * @param template     The compiled template.
+     * @throws IOException if the entry cannot be written.
+     */
+    public void storeCompiled(String templateHash, CompiledTemplate template) throws IOException {
+        store(planFile(templateHash, template.compression()), template::writeTo);
+    }
+
+    private Path planFile(String templateHash, ZipCompression compression) {
+        String variant = compression.stored() ? "stored" : "deflate" + compression.level();
+        return directory.resolve(templateHash + "-" + variant + PLAN_SUFFIX);
+    }
+
+    /**
+     * Opens an entry and checks its header, marking the entry as recently used.
+     *
+     * @return The stream positioned after the header, or null if the entry is missing or from another version.
+     */
+    private static DataInputStream open(Path file) throws IOException {
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION
+                    || !in.readUTF().equals(WordDocumentWriter.FORMATTING_RULES)) {
+                in.close();
+                return null;
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        return in;
+    }
+
+    private void store(Path file, EntryWriter writer) throws IOException {
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(WordDocumentWriter.FORMATTING_RULES);
+                writer.write(out);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        evict();
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache fits in its size bound.
+     */
+    private void evict() throws IOException {
+        List<CacheFile> files = new ArrayList<>();
+        long totalBytes = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*{" + SCAN_SUFFIX + "," + PLAN_SUFFIX + "}")) {
+            for (Path entry : entries) {
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                    files.add(new CacheFile(entry, attributes.lastModifiedTime(), attributes.size()));
+                    totalBytes += attributes.size();
+                } catch (NoSuchFileException e) {
+                    // evicted by a concurrent run
+                }
+            }
+        }
+        if (totalBytes <= maxBytes) {
+            return;
+        }
+        files.sort(Comparator.comparing(CacheFile::lastUsed));
+        for (CacheFile file : files) {
+            if (totalBytes <= maxBytes) {
+                break;
+            }
+            Files.deleteIfExists(file.path());
+            totalBytes -= file.size();
+        }
+    }
+
+    @FunctionalInterface
+    private interface EntryWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private record CacheFile(Path path, FileTime lastUsed, long size) {}
+}
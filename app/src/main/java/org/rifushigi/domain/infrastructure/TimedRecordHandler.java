@@ -0,0 +1,50 @@
+package org.rifushigi.domain.infrastructure;
+
+import org.rifushigi.domain.model.CandidateRecord;
+import org.rifushigi.metrics.GenerationMetrics;
+import org.rifushigi.metrics.Stage;
+
+import java.io.IOException;
+
+/**
+ * Times the parsing of each row as the time between handing out consecutive records, so that the
+ * time the handler spends on a record does not count as parsing.
+ */
+final class TimedRecordHandler implements SheetRecordHandler {
+
+    private final SheetRecordHandler handler;
+    private final GenerationMetrics metrics;
+    private long parsingStart;
+
+    TimedRecordHandler(SheetRecordHandler handler, GenerationMetrics metrics) {
+        this.handler = handler;
+        this.metrics = metrics;
+        this.parsingStart = metrics.start();
+    }
+
+    /**
+     * @return The handler wrapped to time parsing, or the handler itself if metrics are disabled.
+     */
+    static SheetRecordHandler wrap(SheetRecordHandler handler, GenerationMetrics metrics) {
+        return metrics.enabled() ? new TimedRecordHandler(handler, metrics) : handler;
+    }
+
+    @Override
+    public void startSheet(String sheetName) throws IOException {
+        handler.startSheet(sheetName);
+        parsingStart = metrics.start();
+    }
+
+    @Override
+    public void record(String sheetName, CandidateRecord record) throws IOException {
+        metrics.record(Stage.EXCEL_PARSING, parsingStart);
+        handler.record(sheetName, record);
+        parsingStart = metrics.start();
+    }
+
+    @Override
+    public void endSheet(String sheetName) throws IOException {
+        handler.endSheet(sheetName);
+        parsingStart = metrics.start();
+    }
+}
@@ -0,0 +1,50 @@
+package org.rifushigi.domain.infrastructure;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Deduplicates repeated cell values of a sheet, such as course names and cohort labels, so that rows share
+ * one String instance per distinct value. A column stops being pooled once it has more distinct values than
+ * the limit, which keeps unique columns like names from filling the pool.
+ */
+final class ValuePool {
+
+    private static final int MAX_DISTINCT_VALUES_PER_COLUMN = 1024;
+
+    private final List<Map<String, String>> columns = new ArrayList<>();
+    private final List<Boolean> exhausted = new ArrayList<>();
+
+    /**
+     * @param column The column index of the value.
+     * @param value  The cell value.
+     * @return A shared instance equal to the value.
+     */
+    String intern(int column, String value) {
+        if (value.isEmpty()) {
+            return "";
+        }
+        while (columns.size() <= column) {
+            columns.add(new HashMap<>());
+            exhausted.add(false);
+        }
+        if (exhausted.get(column)) {
+            return value;
+        }
+
+        Map<String, String> pool = columns.get(column);
+        String pooled = pool.get(value);
+        if (pooled != null) {
+            return pooled;
+        }
+        if (pool.size() >= MAX_DISTINCT_VALUES_PER_COLUMN) {
+            exhausted.set(column, true);
+            pool.clear();
+            return value;
+        }
+        pool.put(value, value);
+        return value;
+    }
+}
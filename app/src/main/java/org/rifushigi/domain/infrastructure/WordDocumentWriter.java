@@ -1,111 +1,290 @@
 package org.rifushigi.domain.infrastructure;
 
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
 import org.apache.poi.xwpf.usermodel.*;
+import org.apache.xmlbeans.impl.xb.xmlschema.SpaceAttribute;
 import org.rifushigi.domain.model.CandidateRecord;
 import org.rifushigi.domain.model.Placeholder;
+import org.rifushigi.domain.model.RecordSchema;
+import org.rifushigi.domain.model.TemplateMetadata;
+import org.rifushigi.metrics.GenerationMetrics;
+import org.rifushigi.metrics.Stage;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.LocalDate;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
+public class WordDocumentWriter implements DocumentRenderer {
 
-public class WordDocumentWriter {
+    /**
+     * A summary of the fixed rules applied on top of the spreadsheet values. Incremental runs compare it
+     * to decide whether existing documents are still current, so it must change whenever
+     * {@link #applySpecificFormatting}, the DATE default, the way values are placed in runs, the parts
+     * searched for placeholders or the way images are sized and placed change.
+     */
+    public static final String FORMATTING_RULES =
+            "FULL NAME=Lucida Calligraphy/22;DATE=Swis721 Th TL/16;DATE:column else run date, ordinal"
+                    + ";runs=in-place, spaces preserved;parts=all;IMAGE=inline/96dpi/max 6in";
 
     private final Path templatePath;
     private final Set<Placeholder> placeholders;
+    private final PlaceholderMatcher matcher;
+    // The paragraphs holding placeholders, or empty to search the whole document
+    private final List<ParagraphAddress> paragraphs;
+    private final ImageCache images;
+    // The DATE of data without a DATE column, or null for the day each sheet is bound
+    private final LocalDate runDate;
+    private final GenerationMetrics metrics;
+    // Shared by the threads of a compiled template, so it is replaced as a whole rather than mutated
+    private volatile ColumnBinding columnBinding;
 
     public WordDocumentWriter(Path templatePath, Set<Placeholder> placeholders) {
-        this.templatePath = templatePath;
-        this.placeholders = placeholders;
+        this(templatePath, placeholders, GenerationMetrics.DISABLED);
     }
 
     /**
-     * Generates a single personalised document (DOCX format) for a given candidate record.
-     *
-     * @param record       The candidate record containing the data for replacement.
-     * @param outputStream The output stream to which the new document will be written.
-     * @throws IOException if an error occurs during the file I/O.
+     * @param metrics Receives the template loading, replacement and serialisation time of every document.
      */
-    public void generateDocument(CandidateRecord record, OutputStream outputStream) throws IOException {
-        try (XWPFDocument document = createAndReplaceDocument(record)) {
-            document.write(outputStream);
-        }
+    public WordDocumentWriter(Path templatePath, Set<Placeholder> placeholders, GenerationMetrics metrics) {
+        this(new TemplateMetadata(templatePath, placeholders), metrics);
     }
 
     /**
-     * Creates a new document from the template and applies all placeholder replacements.
+     * @param template The scanned template. If it has placeholder locations, only the paragraphs at those
+     *                 locations are visited when rendering.
+     * @param metrics  Receives the template loading, replacement and serialisation time of every document.
      */
-    private XWPFDocument createAndReplaceDocument(CandidateRecord record) throws IOException {
-        XWPFDocument document;
-        try (InputStream templateStream = Files.newInputStream(templatePath)) {
-            document = new XWPFDocument(templateStream);
+    public WordDocumentWriter(TemplateMetadata template, GenerationMetrics metrics) {
+        this(template, ImageCache.forTemplate(template.templatePath()), metrics);
+    }
+
+    /**
+     * @param template The scanned template. If it has placeholder locations, only the paragraphs at those
+     *                 locations are visited when rendering.
+     * @param images   Loads the images of image placeholders.
+     * @param metrics  Receives the template loading, replacement and serialisation time of every document.
+     */
+    public WordDocumentWriter(TemplateMetadata template, ImageCache images, GenerationMetrics metrics) {
+        this(template, images, null, metrics);
+    }
+
+    /**
+     * @param template The scanned template. If it has placeholder locations, only the paragraphs at those
+     *                 locations are visited when rendering.
+     * @param images   Loads the images of image placeholders.
+     * @param runDate  The DATE of data without a DATE column, or null for the current date.
+     * @param metrics  Receives the template loading, replacement and serialisation time of every document.
+     */
+    public WordDocumentWriter(TemplateMetadata template, ImageCache images, LocalDate runDate, GenerationMetrics metrics) {
+        this.templatePath = template.templatePath();
+        this.placeholders = template.placeholders();
+        this.matcher = new PlaceholderMatcher(placeholders);
+        this.paragraphs = template.locations().stream()
+                .map(location -> new ParagraphAddress(location.part(), location.elementPath()))
+                .distinct()
+                .toList();
+        this.images = images;
+        this.runDate = runDate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Map<String, String> resolveReplacements(CandidateRecord record) {
+        return getReplacementsMap(record);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The package POI writes is re-stamped with fixed entry timestamps, so the same values always
+     * produce a byte-identical document.
+     */
+    @Override
+    public void render(Map<String, String> replacements, OutputStream outputStream) throws IOException {
+        long start = metrics.start();
+        ByteArrayOutputStream packageBytes = new ByteArrayOutputStream();
+        try (XWPFDocument document = loadTemplate()) {
+            start = metrics.record(Stage.TEMPLATE_LOADING, start);
+            replacePlaceholders(document, replacements, true);
+            start = metrics.record(Stage.REPLACEMENT, start);
+            document.write(packageBytes);
         }
+        ZipPassthroughWriter.copyNormalized(packageBytes.toByteArray(), outputStream);
+        metrics.record(Stage.ZIP_SERIALISATION, start);
+    }
 
-        Map<String, String> replacements = getReplacementsMap(record);
-        replacePlaceholders(document, replacements);
+    /**
+     * Creates a new document from the template and applies all placeholder replacements. Image placeholders
+     * are replaced with text too, which is how a compiled template marks where their images go.
+     */
+    XWPFDocument createAndReplaceDocument(Map<String, String> replacements) throws IOException {
+        XWPFDocument document = loadTemplate();
+
+        replacePlaceholders(document, replacements, false);
 
         return document;
     }
 
+    private XWPFDocument loadTemplate() throws IOException {
+        try (InputStream templateStream = Files.newInputStream(templatePath)) {
+            return new XWPFDocument(templateStream);
+        }
+    }
+
     /**
      * Replaces all the placeholders in the document
      * with the values from the replacements map.
+     *
+     * @param pictures true to place the images of image placeholders, false to replace them with their value.
+     * @throws IOException if an image cannot be loaded.
      */
-    private void replacePlaceholders(XWPFDocument document, Map<String, String> replacements) {
-        // Replace in main paragraphs
-        for (XWPFParagraph p : document.getParagraphs()) {
-            replaceInParagraph(p, replacements);
+    private void replacePlaceholders(XWPFDocument document, Map<String, String> replacements, boolean pictures)
+            throws IOException {
+        if (paragraphs.isEmpty()) {
+            try {
+                DocumentParagraphs.forEach(document, (part, elementPath, paragraph) -> {
+                    try {
+                        replaceInParagraph(paragraph, replacements, pictures);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            return;
         }
 
-        //Replace in tables
-        for (XWPFTable table : document.getTables()) {
-            for (XWPFTableRow row : table.getRows()) {
-                for (XWPFTableCell cell : row.getTableCells()) {
-                    for (XWPFParagraph p : cell.getParagraphs()) {
-                        replaceInParagraph(p, replacements);
-                    }
-                }
+        // Jump straight to the paragraphs found by the template scan
+        for (ParagraphAddress address : paragraphs) {
+            XWPFParagraph paragraph = DocumentParagraphs.find(document, address.part(), address.elementPath());
+            if (paragraph != null) {
+                replaceInParagraph(paragraph, replacements, pictures);
             }
         }
     }
 
     /**
-     * Rewritten to handle fragmented placeholders across multiple XWPFRun elements.
-     * It performs replacement on the paragraph's concatenated text, then deletes
-     * the old runs and creates a new run with the replaced text.
+     * Replaces every placeholder of a paragraph in place, including placeholders split over several runs.
+     * <p>
+     * All occurrences are found in one scan of the paragraph's concatenated run text. They are then substituted
+     * from right to left, so the run offsets of the occurrences still to be replaced stay valid. A value takes
+     * the formatting of the run its placeholder starts in; the rest of a split placeholder is cut from the
+     * following runs, and runs without placeholders are left untouched. An image goes into a run of its own
+     * between the text before and after its placeholder.
      */
-    private void replaceInParagraph(XWPFParagraph paragraph, Map<String, String> replacements) {
-        String paragraphText = paragraph.getText();
+    private void replaceInParagraph(XWPFParagraph paragraph, Map<String, String> replacements, boolean pictures)
+            throws IOException {
+        List<XWPFRun> runs = paragraph.getRuns();
+        if (runs.isEmpty()) {
+            return;
+        }
 
-        for (Placeholder placeholder : placeholders) {
-            String fullTag = placeholder.fullText();
+        // The run-offset map: where each run's text starts in the paragraph text
+        String[] texts = DocumentParagraphs.runTexts(paragraph);
+        int[] starts = DocumentParagraphs.runStarts(texts);
 
-            if (paragraphText.contains(fullTag)) {
-                String replacementValue = replacements.getOrDefault(placeholder.varName(), "");
+        List<PlaceholderMatcher.Match> matches = matcher.findAll(String.join("", texts));
+        // A copy of the runs as they were, since values that need their own formatting add runs to the paragraph
+        List<XWPFRun> originalRuns = List.copyOf(runs);
+        for (int m = matches.size() - 1; m >= 0; m--) {
+            PlaceholderMatcher.Match match = matches.get(m);
+            int first = DocumentParagraphs.runAt(starts, match.start());
+            int last = DocumentParagraphs.runAt(starts, match.end() - 1);
 
-                String newParagraphText = paragraphText.replace(fullTag, replacementValue);
+            String prefix = texts[first].substring(0, match.start() - starts[first]);
+            String suffix = "";
+            if (first == last) {
+                suffix = texts[first].substring(match.end() - starts[first]);
+            } else {
+                for (int i = first + 1; i < last; i++) {
+                    if (!texts[i].isEmpty()) {
+                        texts[i] = "";
+                        setText(originalRuns.get(i), "");
+                    }
+                }
+                texts[last] = texts[last].substring(match.end() - starts[last]);
+                setText(originalRuns.get(last), texts[last]);
+            }
 
-                // delete all existing runs in the paragraph (backward)
-                int numRuns = paragraph.getRuns().size();
-                for (int i = numRuns - 1; i >= 0; i--) {
-                    paragraph.removeRun(i);
+            String varName = match.placeholder().varName();
+            String value = replacements.getOrDefault(varName, "");
+            XWPFRun run = originalRuns.get(first);
+            if (pictures && match.placeholder().isImage()) {
+                int position = paragraph.getRuns().indexOf(run);
+                if (!suffix.isEmpty()) {
+                    setText(copyFormatting(run, paragraph.insertNewRun(position + 1)), suffix);
+                }
+                if (!value.isEmpty()) {
+                    addPicture(copyFormatting(run, paragraph.insertNewRun(position + 1)), images.image(value));
                 }
+                texts[first] = prefix;
+            } else if (hasSpecificFormatting(varName) && !(prefix.isEmpty() && suffix.isEmpty())) {
+                // Give the value a run of its own so that the specific formatting does not spread to its neighbours
+                int position = paragraph.getRuns().indexOf(run);
+                if (!suffix.isEmpty()) {
+                    setText(copyFormatting(run, paragraph.insertNewRun(position + 1)), suffix);
+                }
+                XWPFRun valueRun = copyFormatting(run, paragraph.insertNewRun(position + 1));
+                setText(valueRun, value);
+                applySpecificFormatting(valueRun, varName);
+                texts[first] = prefix;
+            } else {
+                texts[first] = prefix + value + suffix;
+                applySpecificFormatting(run, varName);
+            }
+            setText(run, texts[first]);
+        }
+    }
 
-                // create a new run with the replaced text
-                XWPFRun newRun = paragraph.createRun();
-                newRun.setText(newParagraphText, 0);
+    /**
+     * Places an image in a run. POI adds the image part to the document only once, however many runs show it.
+     */
+    private static void addPicture(XWPFRun run, ImageCache.Image image) throws IOException {
+        int pictureType = switch (image.format()) {
+            case "png" -> Document.PICTURE_TYPE_PNG;
+            case "jpeg" -> Document.PICTURE_TYPE_JPEG;
+            case "gif" -> Document.PICTURE_TYPE_GIF;
+            default -> Document.PICTURE_TYPE_BMP;
+        };
+        try {
+            run.addPicture(new ByteArrayInputStream(image.data()), pictureType, image.fileName(),
+                    Math.toIntExact(image.widthEmu()), Math.toIntExact(image.heightEmu()));
+        } catch (InvalidFormatException e) {
+            throw new IOException("Could not add image " + image.fileName() + ": " + e.getMessage(), e);
+        }
+    }
 
-                applySpecificFormatting(newRun, placeholder.varName());
+    /**
+     * Sets the text of a run in place, marking its text element xml:space="preserve". POI only adds the
+     * attribute when the new text starts or ends with a space, so a run whose spaces were preserved would
+     * otherwise lose them once the text around a placeholder changes, and a compiled template would collapse
+     * the spaces of values filled into a slot later.
+     */
+    private static void setText(XWPFRun run, String text) {
+        run.setText(text, 0);
+        run.getCTR().getTArray(0).setSpace(SpaceAttribute.Space.PRESERVE);
+    }
 
-                return; // Exit after replacing one placeholder to simplify the run management
-            }
+    private static XWPFRun copyFormatting(XWPFRun source, XWPFRun target) {
+        if (source.getCTR().isSetRPr()) {
+            target.getCTR().setRPr(source.getCTR().getRPr());
         }
+        return target;
+    }
+
+    private static boolean hasSpecificFormatting(String varName) {
+        return varName.equalsIgnoreCase("FULL NAME") || varName.equalsIgnoreCase("DATE");
     }
 
     private void applySpecificFormatting(XWPFRun run, String varName) {
@@ -119,20 +298,72 @@ public class WordDocumentWriter {
         }
     }
 
-    private Map<String, String> getReplacementsMap(CandidateRecord record) {
+    /**
+     * @param varName A placeholder's variable name.
+     * @return true if the placeholder has a value even when the data has no column for it.
+     */
+    public static boolean hasDefaultValue(String varName) {
+        return varName.equalsIgnoreCase("DATE");
+    }
 
-        Map<String, String> replacements = new HashMap<>();
-        for (Placeholder p : placeholders) {
-            String varName = p.varName();
-            String value = record.getValue(varName);
-            replacements.put(varName, Objects.requireNonNullElse(value, ""));
+    Map<String, String> getReplacementsMap(CandidateRecord record) {
 
-            // Override the DATE variable with the user-requested value
-            if (varName.equalsIgnoreCase("DATE")) {
-                replacements.put(varName, "20th September 2025");
+        ColumnBinding columns = bind(record.schema());
+        Map<String, String> replacements = new HashMap<>();
+        for (int i = 0; i < columns.varNames().length; i++) {
+            String varName = columns.varNames()[i];
+            int index = columns.indexes()[i];
+            String value = index < 0 ? columns.defaults()[i] : record.getValue(index);
+            if (columns.images()[i]) {
+                // Images are referred to by their hash, which is also what the content hash of the record sees
+                replacements.put(varName, images.reference(value));
+                continue;
             }
+            replacements.put(varName, Objects.requireNonNullElse(value, ""));
         }
 
         return replacements;
     }
+
+    /**
+     * Resolves every placeholder to its column in the given schema. All records of a sheet share their
+     * schema, so the lookup is done once per sheet rather than once per record.
+     */
+    private ColumnBinding bind(RecordSchema schema) {
+        ColumnBinding columns = columnBinding;
+        if (columns != null && columns.schema() == schema) {
+            return columns;
+        }
+
+        String[] varNames = new String[placeholders.size()];
+        int[] indexes = new int[placeholders.size()];
+        boolean[] imageColumns = new boolean[placeholders.size()];
+        String[] defaults = new String[placeholders.size()];
+        int i = 0;
+        for (Placeholder p : placeholders) {
+            varNames[i] = p.varName();
+            indexes[i] = schema.indexOf(p.column());
+            imageColumns[i] = p.isImage();
+            if (indexes[i] < 0 && hasDefaultValue(p.varName())) {
+                // Data without a DATE column gets the date of the run
+                defaults[i] = ColumnFormats.ordinal(runDate != null ? runDate : LocalDate.now());
+            }
+            i++;
+        }
+        columns = new ColumnBinding(schema, varNames, indexes, imageColumns, defaults);
+        columnBinding = columns;
+        return columns;
+    }
+
+    /**
+     * The column index of each placeholder variable in a particular schema, whether it is an image, and its
+     * value if the schema has no column for it.
+     */
+    private record ColumnBinding(RecordSchema schema, String[] varNames, int[] indexes, boolean[] images,
+                                 String[] defaults) {}
+
+    /**
+     * A paragraph holding placeholders, as addressed by {@link DocumentParagraphs}.
+     */
+    private record ParagraphAddress(String part, List<Integer> elementPath) {}
 }
@@ -0,0 +1,34 @@
+package org.rifushigi.domain.infrastructure;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Bundles documents into a zip archive. DOCX files are already compressed, so entries are stored as is.
+ * Zip has no links: a second central directory record for the same data makes overlapping entries, which
+ * unzip rejects as a zip bomb, so identical documents can not be {@link #link linked}.
+ */
+class ZipArchiveSink extends ArchiveSink {
+
+    private final ZipPassthroughWriter zip;
+
+    ZipArchiveSink(FileOutputStream file, String targetName, FsyncPolicy fsyncPolicy) {
+        super(file, targetName, fsyncPolicy);
+        this.zip = new ZipPassthroughWriter(out, ZipCompression.STORED);
+    }
+
+    @Override
+    protected void writeDocument(String entryPath, byte[] content) throws IOException {
+        zip.writeEntry(entryPath, content);
+    }
+
+    @Override
+    protected void writeLink(String existingEntryPath, String entryPath) throws IOException {
+        throw new IOException("Can not link " + entryPath + " to " + existingEntryPath + ": zip archives have no links");
+    }
+
+    @Override
+    protected void finishArchive() throws IOException {
+        zip.finish();
+    }
+}
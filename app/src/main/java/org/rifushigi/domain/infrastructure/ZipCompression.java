@@ -0,0 +1,36 @@
+package org.rifushigi.domain.infrastructure;
+
+import java.util.zip.Deflater;
+
+/**
+ * How the entries that change per document are compressed when a package is written.
+ *
+ * @param stored If true, entries are stored uncompressed.
+ * @param level  The deflate level (0-9, or -1 for the default) when entries are not stored.
+ */
+public record ZipCompression(boolean stored, int level) {
+
+    /**
+     * The default deflate compression.
+     */
+    public static final ZipCompression DEFAULT = deflate(Deflater.DEFAULT_COMPRESSION);
+
+    /**
+     * Entries stored without deflating them.
+     */
+    public static final ZipCompression STORED = new ZipCompression(true, Deflater.NO_COMPRESSION);
+
+    public ZipCompression {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Deflate level must be between 0 and 9");
+        }
+    }
+
+    /**
+     * @param level The deflate level (0-9, or -1 for the default).
+     * @return Compression that deflates entries at the given level.
+     */
+    public static ZipCompression deflate(int level) {
+        return new ZipCompression(false, level);
+    }
+}
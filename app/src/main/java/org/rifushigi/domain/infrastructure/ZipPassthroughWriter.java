@@ -0,0 +1,316 @@
+package org.rifushigi.domain.infrastructure;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes a zip archive from entries that are already compressed.
+ * <p>
+ * Unlike {@link java.util.zip.ZipOutputStream}, which always deflates what it is given, this writer copies
+ * a {@link RawZipEntry} verbatim, so parts that are identical in every generated document are compressed
+ * at most once. All entries carry the same fixed timestamp, so equal input produces byte-identical output.
+ * Archives that outgrow the classic format (4 GiB of data or 65535 entries, as a large bundle can) get
+ * ZIP64 records.
+ * <p>
+ * An entry too large to hold in memory can be {@link #openEntry streamed}: it is deflated as it is written,
+ * and its CRC and sizes follow the data in a data descriptor.
+ */
+public class ZipPassthroughWriter {
+
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+    private static final int CENTRAL_DIRECTORY_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR = 0x07064b50;
+    private static final int DATA_DESCRIPTOR = 0x08074b50;
+    private static final int ZIP64_EXTRA_FIELD = 0x0001;
+    private static final long MAX_32_BIT = 0xFFFFFFFFL;
+    private static final int MAX_16_BIT = 0xFFFF;
+    private static final int UTF8_NAMES_FLAG = 0x0800;
+    private static final int DATA_DESCRIPTOR_FLAG = 0x0008;
+    // 1980-01-01 00:00:00, the earliest DOS date
+    private static final int FIXED_DOS_DATE = (1 << 5) | 1;
+    private static final int FIXED_DOS_TIME = 0;
+
+    private final OutputStream out;
+    private final ZipCompression compression;
+    private final List<CentralEntry> centralDirectory = new ArrayList<>();
+    private long offset;
+
+    /**
+     * @param out         The stream the archive is written to. It is not closed by this writer.
+     * @param compression How entries added with {@link #writeEntry(String, byte[])} are compressed.
+     */
+    public ZipPassthroughWriter(OutputStream out, ZipCompression compression) {
+        this.out = out;
+        this.compression = compression;
+    }
+
+    /**
+     * Copies a zip archive entry by entry without recompressing it, replacing its timestamps with the fixed
+     * one so that the same content always produces the same bytes. Archives with entries that cannot be
+     * copied verbatim are written unchanged.
+     *
+     * @param archive The bytes of the zip archive.
+     * @param out     The stream the archive is written to. It is not closed.
+     * @throws IOException if writing fails.
+     */
+    public static void copyNormalized(byte[] archive, OutputStream out) throws IOException {
+        List<RawZipEntry> entries = RawZipEntry.readAllEntries(archive);
+        if (entries == null) {
+            out.write(archive);
+            return;
+        }
+        ZipPassthroughWriter zip = new ZipPassthroughWriter(out, ZipCompression.DEFAULT);
+        for (RawZipEntry entry : entries) {
+            zip.writeRaw(entry);
+        }
+        zip.finish();
+    }
+
+    /**
+     * Compresses and writes an entry.
+     *
+     * @param name The entry name.
+     * @param data The uncompressed entry data.
+     * @throws IOException if writing fails.
+     */
+    public void writeEntry(String name, byte[] data) throws IOException {
+        writeRaw(RawZipEntry.compress(name, data, compression));
+    }
+
+    /**
+     * Copies an already compressed entry into the archive.
+     *
+     * @param entry The entry to copy.
+     * @throws IOException if writing fails.
+     */
+    public void writeRaw(RawZipEntry entry) throws IOException {
+        byte[] name = entry.name().getBytes(StandardCharsets.UTF_8);
+        long localHeaderOffset = offset;
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream(30 + name.length);
+        writeInt(header, LOCAL_FILE_HEADER);
+        writeShort(header, versionNeeded(entry.method()));
+        writeShort(header, UTF8_NAMES_FLAG);
+        writeShort(header, entry.method());
+        writeShort(header, FIXED_DOS_TIME);
+        writeShort(header, FIXED_DOS_DATE);
+        writeInt(header, (int) entry.crc());
+        writeInt(header, entry.compressedData().length);
+        writeInt(header, (int) entry.size());
+        writeShort(header, name.length);
+        writeShort(header, 0);
+        header.write(name);
+
+        write(header.toByteArray());
+        write(entry.compressedData());
+        centralDirectory.add(new CentralEntry(name, UTF8_NAMES_FLAG, entry.method(), entry.crc(), entry.size(),
+                entry.compressedData().length, localHeaderOffset));
+    }
+
+    /**
+     * Starts an entry whose data is deflated as it is written to the returned stream, for entries too large to
+     * hold in memory. No other entry may be written until the stream is closed.
+     *
+     * @param name The entry name.
+     * @return The stream taking the uncompressed entry data. Closing it completes the entry.
+     * @throws IOException if writing fails.
+     */
+    public OutputStream openEntry(String name) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        long localHeaderOffset = offset;
+        int flags = UTF8_NAMES_FLAG | DATA_DESCRIPTOR_FLAG;
+
+        // The CRC and sizes are not known yet: they are zero here and follow the data
+        ByteArrayOutputStream header = new ByteArrayOutputStream(30 + nameBytes.length);
+        writeInt(header, LOCAL_FILE_HEADER);
+        writeShort(header, 20);
+        writeShort(header, flags);
+        writeShort(header, ZipEntry.DEFLATED);
+        writeShort(header, FIXED_DOS_TIME);
+        writeShort(header, FIXED_DOS_DATE);
+        writeInt(header, 0);
+        writeInt(header, 0);
+        writeInt(header, 0);
+        writeShort(header, nameBytes.length);
+        writeShort(header, 0);
+        header.write(nameBytes);
+        write(header.toByteArray());
+
+        // Data descriptors can not carry a stored entry reliably, so a streamed entry is always deflated
+        Deflater deflater = new Deflater(compression.stored() ? Deflater.NO_COMPRESSION : compression.level(), true);
+        return new OutputStream() {
+            private final CRC32 crc = new CRC32();
+            private final byte[] buffer = new byte[64 * 1024];
+            private final long dataOffset = offset;
+            private long size;
+            private boolean closed;
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] bytes, int off, int len) throws IOException {
+                crc.update(bytes, off, len);
+                size += len;
+                deflater.setInput(bytes, off, len);
+                while (!deflater.needsInput()) {
+                    drain();
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                try {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        drain();
+                    }
+                } finally {
+                    deflater.end();
+                }
+                long compressedSize = offset - dataOffset;
+                if (size >= MAX_32_BIT || compressedSize >= MAX_32_BIT) {
+                    throw new IOException("Entry " + name + " is larger than 4 GiB");
+                }
+
+                ByteArrayOutputStream descriptor = new ByteArrayOutputStream(16);
+                writeInt(descriptor, DATA_DESCRIPTOR);
+                writeInt(descriptor, (int) crc.getValue());
+                writeInt(descriptor, (int) compressedSize);
+                writeInt(descriptor, (int) size);
+                ZipPassthroughWriter.this.write(descriptor.toByteArray());
+                centralDirectory.add(new CentralEntry(nameBytes, flags, ZipEntry.DEFLATED, crc.getValue(), size,
+                        compressedSize, localHeaderOffset));
+            }
+
+            private void drain() throws IOException {
+                int length = deflater.deflate(buffer);
+                if (length > 0) {
+                    ZipPassthroughWriter.this.write(buffer, length);
+                }
+            }
+        };
+    }
+
+    /**
+     * Writes the central directory. The underlying stream is left open.
+     *
+     * @throws IOException if writing fails.
+     */
+    public void finish() throws IOException {
+        long directoryOffset = offset;
+
+        ByteArrayOutputStream directory = new ByteArrayOutputStream();
+        for (CentralEntry central : centralDirectory) {
+            boolean zip64Offset = central.localHeaderOffset() >= MAX_32_BIT;
+            int version = zip64Offset ? 45 : versionNeeded(central.method());
+            writeInt(directory, CENTRAL_DIRECTORY_HEADER);
+            writeShort(directory, version);
+            writeShort(directory, version);
+            writeShort(directory, central.flags());
+            writeShort(directory, central.method());
+            writeShort(directory, FIXED_DOS_TIME);
+            writeShort(directory, FIXED_DOS_DATE);
+            writeInt(directory, (int) central.crc());
+            writeInt(directory, (int) central.compressedSize());
+            writeInt(directory, (int) central.size());
+            writeShort(directory, central.name().length);
+            writeShort(directory, zip64Offset ? 12 : 0); // extra field length
+            writeShort(directory, 0); // comment length
+            writeShort(directory, 0); // disk number
+            writeShort(directory, 0); // internal attributes
+            writeInt(directory, 0);   // external attributes
+            writeInt(directory, (int) Math.min(central.localHeaderOffset(), MAX_32_BIT));
+            directory.write(central.name());
+            if (zip64Offset) {
+                writeShort(directory, ZIP64_EXTRA_FIELD);
+                writeShort(directory, 8);
+                writeLong(directory, central.localHeaderOffset());
+            }
+        }
+
+        long directorySize = directory.size();
+        int entries = centralDirectory.size();
+        boolean zip64 = entries >= MAX_16_BIT || directoryOffset >= MAX_32_BIT || directorySize >= MAX_32_BIT;
+        if (zip64) {
+            long zip64EndOffset = directoryOffset + directorySize;
+            writeInt(directory, ZIP64_END_OF_CENTRAL_DIRECTORY);
+            writeLong(directory, 44);  // size of the remaining record
+            writeShort(directory, 45);
+            writeShort(directory, 45);
+            writeInt(directory, 0);
+            writeInt(directory, 0);
+            writeLong(directory, entries);
+            writeLong(directory, entries);
+            writeLong(directory, directorySize);
+            writeLong(directory, directoryOffset);
+
+            writeInt(directory, ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR);
+            writeInt(directory, 0);
+            writeLong(directory, zip64EndOffset);
+            writeInt(directory, 1);
+        }
+
+        writeInt(directory, END_OF_CENTRAL_DIRECTORY);
+        writeShort(directory, 0);
+        writeShort(directory, 0);
+        writeShort(directory, Math.min(entries, MAX_16_BIT));
+        writeShort(directory, Math.min(entries, MAX_16_BIT));
+        writeInt(directory, (int) Math.min(directorySize, MAX_32_BIT));
+        writeInt(directory, (int) Math.min(directoryOffset, MAX_32_BIT));
+        writeShort(directory, 0);
+
+        write(directory.toByteArray());
+        out.flush();
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        write(bytes, bytes.length);
+    }
+
+    private void write(byte[] bytes, int length) throws IOException {
+        out.write(bytes, 0, length);
+        offset += length;
+    }
+
+    private static int versionNeeded(int method) {
+        return method == ZipEntry.DEFLATED ? 20 : 10;
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        writeShort(out, value & 0xFFFF);
+        writeShort(out, (value >>> 16) & 0xFFFF);
+    }
+
+    private static void writeLong(ByteArrayOutputStream out, long value) {
+        writeInt(out, (int) value);
+        writeInt(out, (int) (value >>> 32));
+    }
+
+    /**
+     * What the central directory needs to know of an entry written before. The entry data is not kept, so a
+     * large archive is not held in memory until it is finished.
+     */
+    private record CentralEntry(byte[] name, int flags, int method, long crc, long size, long compressedSize,
+                                long localHeaderOffset) {}
+}
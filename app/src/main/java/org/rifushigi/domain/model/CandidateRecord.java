@@ -1,18 +1,41 @@
 package org.rifushigi.domain.model;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
 /**
 * Represents a single record of a candidate's data read from an Excel sheet.
-* The data is stored as a map of column headers (keys) to cell values (values).
+* The values are stored as a compact row whose columns are described by a {@link RecordSchema}
+* shared with every other record of the sheet.
+* Two records are equal if they have the same columns and the same values.
 *
-* @param data A map that represents the candidate's data.
+* @param schema The column layout of the sheet.
+* @param values The cell values, indexed by column. Must not be modified.
 */
-public record CandidateRecord(Map<String, String> data) {
+public record CandidateRecord(RecordSchema schema, String[] values) {
 
     public CandidateRecord{
+        Objects.requireNonNull(schema, "Schema can not be null");
+        Objects.requireNonNull(values, "Values can not be null");
+        if (values.length != schema.size()) {
+            throw new IllegalArgumentException("Expected " + schema.size() + " values but got " + values.length);
+        }
+    }
+
+    /**
+     * Creates a stand-alone record with its own schema from a map of column headers to values.
+     *
+     * @param data A map that represents the candidate's data.
+     * @return The record.
+     */
+    public static CandidateRecord of(Map<String, String> data) {
         Objects.requireNonNull(data, "Data map can not be null");
+        List<String> headers = new ArrayList<>(data.keySet());
+        String[] values = headers.stream().map(data::get).toArray(String[]::new);
+        return new CandidateRecord(RecordSchema.of(headers), values);
     }
 
     /**
@@ -22,14 +45,31 @@ public record CandidateRecord(Map<String, String> data) {
      * @return The value or null if the header is not found.
      */
     public String getValue(String header){
-        if(header == null){
-            return null;
-        }
+        return getValue(schema.indexOf(header));
+    }
+
+    /**
+     * Gets the value of a column resolved with {@link RecordSchema#indexOf(String)}.
+     *
+     * @param columnIndex The column index.
+     * @return The value or null if the index is negative.
+     */
+    public String getValue(int columnIndex){
+        return columnIndex < 0 ? null : values[columnIndex];
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof CandidateRecord other && schema.equals(other.schema) && Arrays.equals(values, other.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * schema.hashCode() + Arrays.hashCode(values);
+    }
 
-        return data.entrySet().stream()
-                .filter(entry -> entry.getKey().equalsIgnoreCase(header))
-                .findFirst()
-                .map(Map.Entry::getValue)
-                .orElse(null);
+    @Override
+    public String toString() {
+        return "CandidateRecord[headers=" + schema.headers() + ", values=" + Arrays.toString(values) + "]";
     }
 }
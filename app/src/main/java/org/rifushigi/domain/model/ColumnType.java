@@ -0,0 +1,13 @@
+package org.rifushigi.domain.model;
+
+/**
+ * The kind of values a data column holds, as inferred from its cells.
+ */
+public enum ColumnType {
+    /** Text, and anything that is neither a number nor a date. */
+    STRING,
+    /** Numbers, shown with the number format of their cells. */
+    NUMBER,
+    /** Dates and times, stored by Excel as numbers with a date format. */
+    DATE
+}
@@ -2,12 +2,17 @@ package org.rifushigi.domain.model;
 
 /**
  * Represents a variable placeholder found within a document template.
+ * <p>
+ * A variable named "IMAGE:column", e.g ${IMAGE:SIGNATURE}, is an image placeholder: its column holds the file
+ * name of the image placed there.
  *
  * @param varName The name of the variable, e.g "fullName".
  * @param fullText The full text of the placeholder including delimiters, e.g ${fullName}.
  * */
 public record Placeholder(String varName, String fullText) {
 
+    private static final String IMAGE_PREFIX = "IMAGE:";
+
     public Placeholder{
         if (varName == null || varName.isBlank()){
             throw new IllegalArgumentException("Variable name cannot be blank or null");
@@ -17,4 +22,28 @@ public record Placeholder(String varName, String fullText) {
             throw new IllegalArgumentException("Full text cannot be null or blank.");
         }
     }
+
+    /**
+     * @return true if the placeholder is replaced with an image rather than text.
+     */
+    public boolean isImage() {
+        return isImage(varName);
+    }
+
+    /**
+     * @return The data column holding the placeholder's value: the variable name, or for an image
+     *         placeholder the name after "IMAGE:".
+     */
+    public String column() {
+        return isImage() ? varName.substring(IMAGE_PREFIX.length()) : varName;
+    }
+
+    /**
+     * @param varName A placeholder's variable name.
+     * @return true if the variable names an image placeholder with a column.
+     */
+    public static boolean isImage(String varName) {
+        return varName.regionMatches(true, 0, IMAGE_PREFIX, 0, IMAGE_PREFIX.length())
+                && !varName.substring(IMAGE_PREFIX.length()).isBlank();
+    }
 }
@@ -0,0 +1,29 @@
+package org.rifushigi.domain.model;
+
+import java.util.List;
+
+/**
+ * Records where a placeholder occurs in a document template.
+ *
+ * @param placeholder The placeholder found.
+ * @param part        The name of the package part holding it, e.g /word/document.xml or /word/header1.xml.
+ * @param elementPath The path from the part's body to the paragraph holding the placeholder.
+ * */
+public record PlaceholderLocation(Placeholder placeholder, String part, List<Integer> elementPath) {
+
+    public PlaceholderLocation{
+        if (placeholder == null){
+            throw new IllegalArgumentException("Placeholder cannot be null");
+        }
+
+        if (part == null || part.isBlank()){
+            throw new IllegalArgumentException("Part name cannot be null or blank");
+        }
+
+        if (elementPath == null || elementPath.isEmpty()){
+            throw new IllegalArgumentException("Element path cannot be null or empty");
+        }
+
+        elementPath = List.copyOf(elementPath);
+    }
+}
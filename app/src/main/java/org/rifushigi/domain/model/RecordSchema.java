@@ -0,0 +1,114 @@
+package org.rifushigi.domain.model;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The column layout shared by all candidate records of a sheet: the headers and the type of each column.
+ * Headers are normalised once so that a case-insensitive lookup is a single hash probe.
+ * Two schemas are equal if they have the same headers and column types, in the same order.
+ */
+public final class RecordSchema {
+
+    private final List<String> headers;
+    private final List<ColumnType> types;
+    private final Map<String, Integer> columnIndexes;
+
+    private RecordSchema(List<String> headers, List<ColumnType> types) {
+        this.headers = List.copyOf(headers);
+        this.types = List.copyOf(types);
+        this.columnIndexes = new HashMap<>();
+        for (int i = 0; i < this.headers.size(); i++) {
+            // A repeated header resolves to its last column, as it did when rows were stored in a map
+            columnIndexes.put(normalize(this.headers.get(i)), i);
+        }
+    }
+
+    /**
+     * Creates a schema from the header row of a sheet.
+     *
+     * @param headers The column headers, in column order.
+     * @return The schema.
+     */
+    public static RecordSchema of(List<String> headers) {
+        Objects.requireNonNull(headers, "Headers can not be null");
+        return new RecordSchema(headers, Collections.nCopies(headers.size(), ColumnType.STRING));
+    }
+
+    /**
+     * Creates a typed schema from the header row of a sheet.
+     *
+     * @param headers The column headers, in column order.
+     * @param types   The type of each column, in column order.
+     * @return The schema.
+     */
+    public static RecordSchema of(List<String> headers, List<ColumnType> types) {
+        Objects.requireNonNull(headers, "Headers can not be null");
+        Objects.requireNonNull(types, "Types can not be null");
+        if (types.size() != headers.size()) {
+            throw new IllegalArgumentException("Expected " + headers.size() + " column types but got " + types.size());
+        }
+        return new RecordSchema(headers, types);
+    }
+
+    /**
+     * @return The column headers, in column order.
+     */
+    public List<String> headers() {
+        return headers;
+    }
+
+    /**
+     * @return The type of each column, in column order.
+     */
+    public List<ColumnType> types() {
+        return types;
+    }
+
+    /**
+     * @param columnIndex A column index resolved with {@link #indexOf(String)}.
+     * @return The type of the column.
+     */
+    public ColumnType typeOf(int columnIndex) {
+        return types.get(columnIndex);
+    }
+
+    /**
+     * @return The number of columns.
+     */
+    public int size() {
+        return headers.size();
+    }
+
+    /**
+     * Resolves a header to its column index (case-insensitive).
+     *
+     * @param header The column header.
+     * @return The column index, or -1 if there is no such column.
+     */
+    public int indexOf(String header) {
+        if (header == null) {
+            return -1;
+        }
+        Integer index = columnIndexes.get(normalize(header));
+        return index == null ? -1 : index;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof RecordSchema other && headers.equals(other.headers) && types.equals(other.types);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * headers.hashCode() + types.hashCode();
+    }
+
+    private static String normalize(String header) {
+        return header.toLowerCase(Locale.ROOT);
+    }
+}
@@ -2,6 +2,7 @@ package org.rifushigi.domain.model;
 
 import java.nio.file.Path;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -9,8 +10,9 @@ import java.util.Set;
  *
  * @param templatePath The file system path to the .docx template file.
  * @param placeholders A set of unique {@link Placeholder} object found in the template.
+ * @param locations    Every occurrence of the placeholders, in document order; empty if not known.
  * */
-public record TemplateMetadata(Path templatePath, Set<Placeholder> placeholders) {
+public record TemplateMetadata(Path templatePath, Set<Placeholder> placeholders, List<PlaceholderLocation> locations) {
 
     public TemplateMetadata{
         if (templatePath == null){
@@ -20,6 +22,17 @@ public record TemplateMetadata(Path templatePath, Set<Placeholder> placeholders)
         if (placeholders == null){
             throw new IllegalArgumentException("Placeholders set cannot be null");
         }
+
+        if (locations == null){
+            throw new IllegalArgumentException("Locations list cannot be null");
+        }
+    }
+
+    /**
+     * Creates metadata without placeholder locations.
+     */
+    public TemplateMetadata(Path templatePath, Set<Placeholder> placeholders){
+        this(templatePath, placeholders, List.of());
     }
 
     /**
@@ -28,4 +41,11 @@ public record TemplateMetadata(Path templatePath, Set<Placeholder> placeholders)
     public Set<Placeholder> getPlaceholders(){
         return Collections.unmodifiableSet(placeholders);
     }
+
+    /**
+     * @return An immutable view of the placeholder locations
+     * */
+    public List<PlaceholderLocation> getLocations(){
+        return Collections.unmodifiableList(locations);
+    }
 }
@@ -0,0 +1,413 @@
+package org.rifushigi.domain.service;
+
+import org.rifushigi.domain.infrastructure.BundleFormat;
+import org.rifushigi.domain.infrastructure.ColumnFormats;
+import org.rifushigi.domain.infrastructure.DirectorySink;
+import org.rifushigi.domain.infrastructure.FsyncPolicy;
+import org.rifushigi.domain.infrastructure.ImageCache;
+import org.rifushigi.domain.infrastructure.MergeBreak;
+import org.rifushigi.domain.infrastructure.TemplateStore;
+import org.rifushigi.domain.infrastructure.ZipCompression;
+
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Objects;
+
+/**
+ * Tuning options for a {@link GenerationService} run.
+ * Instances are immutable; use {@link #builder()} to create one.
+ */
+public final class GenerationOptions {
+
+    private final boolean compiledTemplates;
+    private final int threads;
+    private final ZipCompression zipCompression;
+    private final BundleFormat bundleFormat;
+    private final String bundleTarget;
+    private final boolean incremental;
+    private final Path metricsFile;
+    private final String groupByColumn;
+    private final Shard shard;
+    private final FsyncPolicy fsyncPolicy;
+    private final int maxInFlightWrites;
+    private final Path templateCacheDirectory;
+    private final long templateCacheMaxBytes;
+    private final long maxHeapBudget;
+    private final boolean deduplicate;
+    private final Path routingFile;
+    private final Path imageDirectory;
+    private final long imageCacheMaxBytes;
+    private final ColumnFormats columnFormats;
+    private final boolean mergePerSheet;
+    private final MergeBreak mergeBreak;
+    private final LocalDate runDate;
+    private final PrintStream console;
+
+    private GenerationOptions(Builder builder) {
+        this.compiledTemplates = builder.compiledTemplates;
+        this.threads = builder.threads;
+        this.zipCompression = Objects.requireNonNullElse(builder.zipCompression, ZipCompression.DEFAULT);
+        this.bundleFormat = builder.bundleFormat;
+        this.bundleTarget = builder.bundleTarget;
+        this.incremental = builder.incremental;
+        this.metricsFile = builder.metricsFile;
+        this.groupByColumn = builder.groupByColumn;
+        this.shard = builder.shard;
+        this.fsyncPolicy = builder.fsyncPolicy;
+        this.maxInFlightWrites = builder.maxInFlightWrites;
+        this.templateCacheDirectory = builder.templateCacheDirectory;
+        this.templateCacheMaxBytes = builder.templateCacheMaxBytes;
+        this.maxHeapBudget = builder.maxHeapBudget;
+        this.deduplicate = builder.deduplicate;
+        this.routingFile = builder.routingFile;
+        this.imageDirectory = builder.imageDirectory;
+        this.imageCacheMaxBytes = builder.imageCacheMaxBytes;
+        this.columnFormats = builder.columnFormats;
+        this.mergePerSheet = builder.mergePerSheet;
+        this.mergeBreak = builder.mergeBreak;
+        this.runDate = Objects.requireNonNullElseGet(builder.runDate, LocalDate::now);
+        this.console = builder.console;
+    }
+
+    /**
+     * @return The options used when none are given: POI rendering on every available processor.
+     */
+    public static GenerationOptions defaults() {
+        return builder().build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return true if each template is compiled once into a render plan instead of re-parsed per record.
+     */
+    public boolean compiledTemplates() {
+        return compiledTemplates;
+    }
+
+    /**
+     * @return The number of worker threads rendering documents.
+     */
+    public int threads() {
+        return threads;
+    }
+
+    /**
+     * @return How compiled templates compress the parts that change per document, and merged documents their main part.
+     */
+    public ZipCompression zipCompression() {
+        return zipCompression;
+    }
+
+    /**
+     * @return The archive format all documents are bundled into, or null to write one file per document.
+     */
+    public BundleFormat bundleFormat() {
+        return bundleFormat;
+    }
+
+    /**
+     * @return The bundle file, "-" for standard output, or null for the default file in the output directory.
+     */
+    public String bundleTarget() {
+        return bundleTarget;
+    }
+
+    /**
+     * @return true if documents whose inputs are unchanged since the last run are skipped.
+     */
+    public boolean incremental() {
+        return incremental;
+    }
+
+    /**
+     * @return The file the run's timing metrics are written to as JSON, or null to not collect them.
+     */
+    public Path metricsFile() {
+        return metricsFile;
+    }
+
+    /**
+     * @return The column whose values group the data rows into sheets, or null to keep the sheets of the data file.
+     */
+    public String groupByColumn() {
+        return groupByColumn;
+    }
+
+    /**
+     * @return The share of the records this run renders, or null to render all of them.
+     */
+    public Shard shard() {
+        return shard;
+    }
+
+    /**
+     * @return When written documents are forced to disk, or null for the output's default: never for a
+     * directory, once at the end for a bundle.
+     */
+    public FsyncPolicy fsyncPolicy() {
+        return fsyncPolicy;
+    }
+
+    /**
+     * @return The number of documents written to an output directory concurrently.
+     */
+    public int maxInFlightWrites() {
+        return maxInFlightWrites;
+    }
+
+    /**
+     * @return The directory scanned and compiled templates are cached in across runs, or null to not cache them.
+     */
+    public Path templateCacheDirectory() {
+        return templateCacheDirectory;
+    }
+
+    /**
+     * @return The size the template cache is kept within.
+     */
+    public long templateCacheMaxBytes() {
+        return templateCacheMaxBytes;
+    }
+
+    /**
+     * @return The heap in bytes the documents in flight may take up, or 0 to only bound them by count.
+     */
+    public long maxHeapBudget() {
+        return maxHeapBudget;
+    }
+
+    /**
+     * @return true if records with identical documents are rendered once and stored as links to that document.
+     */
+    public boolean deduplicate() {
+        return deduplicate;
+    }
+
+    /**
+     * @return The file routing the rows to templates, or null to route sheets by template file name.
+     */
+    public Path routingFile() {
+        return routingFile;
+    }
+
+    /**
+     * @return The directory the image file names of the data are relative to, or null for the data file's directory.
+     */
+    public Path imageDirectory() {
+        return imageDirectory;
+    }
+
+    /**
+     * @return The size the decoded images kept in memory are bounded to.
+     */
+    public long imageCacheMaxBytes() {
+        return imageCacheMaxBytes;
+    }
+
+    /**
+     * @return How the values of particular data columns are formatted.
+     */
+    public ColumnFormats columnFormats() {
+        return columnFormats;
+    }
+
+    /**
+     * @return true if the documents of each sheet and template are merged into a single document for printing.
+     */
+    public boolean mergePerSheet() {
+        return mergePerSheet;
+    }
+
+    /**
+     * @return What separates the records of a merged document.
+     */
+    public MergeBreak mergeBreak() {
+        return mergeBreak;
+    }
+
+    /**
+     * @return The DATE of data without a DATE column. It is part of what incremental runs and deduplication compare,
+     * so documents dated by a run are rewritten by a run on another day unless both are given the same date.
+     */
+    public LocalDate runDate() {
+        return runDate;
+    }
+
+    /**
+     * @return Where progress messages and the summary of the run are printed. Errors and warnings always go to
+     * standard error.
+     */
+    public PrintStream console() {
+        return console;
+    }
+
+    public static final class Builder {
+
+        private boolean compiledTemplates;
+        private int threads = Runtime.getRuntime().availableProcessors();
+        // Null unless set, so that a compression nothing would apply is rejected
+        private ZipCompression zipCompression;
+        private BundleFormat bundleFormat;
+        private String bundleTarget;
+        private boolean incremental;
+        private Path metricsFile;
+        private String groupByColumn;
+        private Shard shard;
+        private FsyncPolicy fsyncPolicy;
+        private int maxInFlightWrites = DirectorySink.DEFAULT_MAX_IN_FLIGHT;
+        private Path templateCacheDirectory;
+        private long templateCacheMaxBytes = TemplateStore.DEFAULT_MAX_BYTES;
+        private long maxHeapBudget;
+        private boolean deduplicate;
+        private Path routingFile;
+        private Path imageDirectory;
+        private long imageCacheMaxBytes = ImageCache.DEFAULT_MAX_BYTES;
+        private ColumnFormats columnFormats = ColumnFormats.DEFAULT;
+        private boolean mergePerSheet;
+        private MergeBreak mergeBreak = MergeBreak.SECTION;
+        // Null unless set, so that the date is taken when the options are built
+        private LocalDate runDate;
+        private PrintStream console = System.out;
+
+        private Builder() {}
+
+        public Builder compiledTemplates(boolean compiledTemplates) {
+            this.compiledTemplates = compiledTemplates;
+            return this;
+        }
+
+        public Builder threads(int threads) {
+            if (threads < 1) {
+                throw new IllegalArgumentException("Thread count must be at least 1");
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        public Builder zipCompression(ZipCompression zipCompression) {
+            this.zipCompression = Objects.requireNonNull(zipCompression, "Zip compression can not be null");
+            return this;
+        }
+
+        public Builder bundle(BundleFormat bundleFormat, String bundleTarget) {
+            this.bundleFormat = bundleFormat;
+            this.bundleTarget = bundleTarget;
+            return this;
+        }
+
+        public Builder incremental(boolean incremental) {
+            this.incremental = incremental;
+            return this;
+        }
+
+        public Builder metricsFile(Path metricsFile) {
+            this.metricsFile = metricsFile;
+            return this;
+        }
+
+        public Builder groupByColumn(String groupByColumn) {
+            this.groupByColumn = groupByColumn;
+            return this;
+        }
+
+        public Builder shard(Shard shard) {
+            this.shard = shard;
+            return this;
+        }
+
+        public Builder fsyncPolicy(FsyncPolicy fsyncPolicy) {
+            this.fsyncPolicy = fsyncPolicy;
+            return this;
+        }
+
+        public Builder maxInFlightWrites(int maxInFlightWrites) {
+            if (maxInFlightWrites < 1) {
+                throw new IllegalArgumentException("In-flight write limit must be at least 1");
+            }
+            this.maxInFlightWrites = maxInFlightWrites;
+            return this;
+        }
+
+        public Builder templateCache(Path templateCacheDirectory, long templateCacheMaxBytes) {
+            if (templateCacheMaxBytes < 0) {
+                throw new IllegalArgumentException("Template cache size can not be negative");
+            }
+            this.templateCacheDirectory = templateCacheDirectory;
+            this.templateCacheMaxBytes = templateCacheMaxBytes;
+            return this;
+        }
+
+        public Builder maxHeapBudget(long maxHeapBudget) {
+            if (maxHeapBudget < 0) {
+                throw new IllegalArgumentException("Heap budget can not be negative");
+            }
+            this.maxHeapBudget = maxHeapBudget;
+            return this;
+        }
+
+        public Builder deduplicate(boolean deduplicate) {
+            this.deduplicate = deduplicate;
+            return this;
+        }
+
+        public Builder routingFile(Path routingFile) {
+            this.routingFile = routingFile;
+            return this;
+        }
+
+        public Builder images(Path imageDirectory, long imageCacheMaxBytes) {
+            if (imageCacheMaxBytes < 0) {
+                throw new IllegalArgumentException("Image cache size can not be negative");
+            }
+            this.imageDirectory = imageDirectory;
+            this.imageCacheMaxBytes = imageCacheMaxBytes;
+            return this;
+        }
+
+        public Builder columnFormats(ColumnFormats columnFormats) {
+            this.columnFormats = Objects.requireNonNull(columnFormats, "Column formats can not be null");
+            return this;
+        }
+
+        public Builder mergePerSheet(boolean mergePerSheet) {
+            this.mergePerSheet = mergePerSheet;
+            return this;
+        }
+
+        public Builder mergeBreak(MergeBreak mergeBreak) {
+            this.mergeBreak = Objects.requireNonNull(mergeBreak, "Merge break can not be null");
+            return this;
+        }
+
+        public Builder runDate(LocalDate runDate) {
+            this.runDate = Objects.requireNonNull(runDate, "Run date can not be null");
+            return this;
+        }
+
+        public Builder console(PrintStream console) {
+            this.console = Objects.requireNonNull(console, "Console can not be null");
+            return this;
+        }
+
+        public GenerationOptions build() {
+            if (incremental && bundleFormat != null) {
+                throw new IllegalArgumentException("Incremental generation writes to a directory and can not be bundled");
+            }
+            if (deduplicate && bundleFormat == BundleFormat.ZIP) {
+                throw new IllegalArgumentException("Deduplicated documents are links, which zip archives can not hold");
+            }
+            if (zipCompression != null && !compiledTemplates && !mergePerSheet) {
+                throw new IllegalArgumentException("Zip compression only applies to compiled templates and merged documents");
+            }
+            if (mergePerSheet && (bundleFormat != null || incremental || deduplicate || shard != null)) {
+                throw new IllegalArgumentException("Merged documents hold every record of a sheet and can not be bundled, "
+                        + "incremental, deduplicated or sharded");
+            }
+            return new GenerationOptions(this);
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package org.rifushigi.domain.service;
+
+import org.rifushigi.domain.infrastructure.DocumentSink;
+import org.rifushigi.domain.infrastructure.MergedDocument;
+import org.rifushigi.domain.infrastructure.ShardManifest;
+import org.rifushigi.domain.model.CandidateRecord;
+import org.rifushigi.metrics.GenerationMetrics;
+import org.rifushigi.metrics.RecordRenderEvent;
+import org.rifushigi.metrics.Stage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A bounded producer/consumer pipeline from rows to written files: read → map to template → render → write.
+ * <p>
+ * The reading thread maps each record to its template and output path and {@link #submit submits} it. A pool
+ * of render workers turns the resolved values into document bytes, and a single writer thread hands them to
+ * a {@link DocumentSink}, so the sink always sees one sequential stream of documents. A sink may store them in
+ * the background; the outcome of a document is recorded once it has been stored.
+ * The stages are connected by bounded queues, so rendering starts with the first row and a reader that is
+ * faster than the renderers blocks instead of holding the whole workbook in memory.
+ * <p>
+ * Every render is timed into the {@link GenerationMetrics} and emitted as a {@link RecordRenderEvent}.
+ * In a sharded run, the outcome of every record is also logged to the shard's {@link ShardManifest}.
+ * With a {@link HeapBudget}, every document also holds a share of the budget from submission until it is
+ * written, or merged for a document held back by its merged document, so the number of documents in flight
+ * adapts to their size.
+ * <p>
+ * When deduplicating, records are keyed by their {@link SheetJob#contentHash content hash}: only the first
+ * record of each distinct document is rendered, and every later one is stored as a {@link DocumentSink#link link}
+ * to it once it has been stored. The key and path of every distinct document are kept until the run ends.
+ * <p>
+ * The documents of a job with a {@link SheetJob#mergedDocument merged document} are added to it by the writer
+ * thread instead of going to the sink, and a failed one is left out of it.
+ * <p>
+ * An {@link Error} thrown while rendering fails the document like any other failure, so no stage is left
+ * waiting for it; the records after it are not rendered, and {@link #close()} rethrows it. A runtime exception
+ * thrown while storing a document fails that document, and the writer goes on with the next one.
+ */
+final class GenerationPipeline implements AutoCloseable {
+
+    /**
+     * The column whose value names a record's document.
+     */
+    static final String FILE_NAME_COLUMN = "FULL NAME";
+
+    private static final RenderTask END_OF_RECORDS = new RenderTask(null, -1, null, null, null, null, null, 0);
+    private static final WriteTask END_OF_DOCUMENTS = new WriteTask(END_OF_RECORDS, null, null, 0);
+
+    private final DocumentSink sink;
+    private final GenerationMetrics metrics;
+    private final ShardManifest shardManifest;
+    private final HeapBudget heapBudget;
+    // Only touched by the reading thread: the entry path of the first document of each content hash
+    private final Map<String, String> firstEntryPaths;
+    // Only touched by the writer thread: the stored size of each first document, once it is stored
+    private final Map<String, CompletableFuture<Integer>> storedDocuments;
+    private final BlockingQueue<RenderTask> renderQueue;
+    private final BlockingQueue<WriteTask> writeQueue;
+    private final List<Thread> renderThreads = new ArrayList<>();
+    private final Thread writerThread;
+    // The first Error thrown by a render worker, rethrown once the pipeline has stopped
+    private final AtomicReference<Error> renderError = new AtomicReference<>();
+    private boolean closed;
+
+    /**
+     * Starts the render workers and the writer thread.
+     *
+     * @param sink          Where the rendered documents are stored. It is not closed by the pipeline.
+     * @param workers       The number of render workers.
+     * @param queueCapacity The capacity of each of the two hand-off queues.
+     * @param metrics       Receives the render and write time of every document.
+     * @param shardManifest Receives the outcome of every record, or null if the run is not sharded.
+     *                      It is not closed by the pipeline.
+     * @param heapBudget    Bounds the documents in flight by their estimated size, or null to only bound
+     *                      them by the queue capacity.
+     * @param deduplicate   true to render identical documents once and link the others to it.
+     */
+    GenerationPipeline(DocumentSink sink, int workers, int queueCapacity, GenerationMetrics metrics,
+                       ShardManifest shardManifest, HeapBudget heapBudget, boolean deduplicate) {
+        this.sink = sink;
+        this.metrics = metrics;
+        this.shardManifest = shardManifest;
+        this.heapBudget = heapBudget;
+        this.firstEntryPaths = deduplicate ? new HashMap<>() : null;
+        this.storedDocuments = deduplicate ? new HashMap<>() : null;
+        this.renderQueue = new ArrayBlockingQueue<>(queueCapacity);
+        this.writeQueue = new ArrayBlockingQueue<>(queueCapacity);
+
+        for (int i = 0; i < workers; i++) {
+            renderThreads.add(Thread.ofPlatform().name("tessera-render-" + i).start(this::renderLoop));
+        }
+        writerThread = Thread.ofPlatform().name("tessera-writer").start(this::writeLoop);
+    }
+
+    /**
+     * Maps a record to its template and queues it for rendering. Blocks while the render queue is full or
+     * the heap budget is used up. If the job has a manifest and it shows the record's document to be up to date, the record is skipped.
+     *
+     * @param job          The sheet and template the record is rendered by.
+     * @param record       The record to generate.
+     * @param replacements The values of the record resolved for the job's template.
+     * @throws IOException if the calling thread is interrupted while waiting.
+     */
+    void submit(SheetJob job, CandidateRecord record, Map<String, String> replacements) throws IOException {
+        int sequence = job.nextSequence();
+        String baseFileName = job.uniqueFileName(record.getValue(FILE_NAME_COLUMN));
+        String entryPath = job.entryDirectory() + "/" + baseFileName + ".docx";
+
+        String contentHash = null;
+        if (job.manifest() != null || firstEntryPaths != null) {
+            contentHash = job.contentHash(replacements);
+        }
+        if (job.manifest() != null && job.manifest().isUpToDate(baseFileName + ".docx", contentHash)) {
+            job.recordUnchanged();
+            recordOutcome(job, sequence, ShardManifest.Status.UNCHANGED, entryPath);
+            return;
+        }
+
+        String duplicateOf = firstEntryPaths != null ? firstEntryPaths.putIfAbsent(contentHash, entryPath) : null;
+        // A duplicate holds no document bytes of its own
+        int reservation = heapBudget != null && duplicateOf == null ? heapBudget.reserve(job.estimatedDocumentBytes()) : 0;
+        put(renderQueue, new RenderTask(job, sequence, baseFileName, entryPath, replacements, contentHash,
+                duplicateOf, reservation));
+    }
+
+    /**
+     * Waits for every submitted record to be rendered and handed to the sink, then stops the pipeline threads.
+     * Documents the sink stores in the background are complete once the sink is closed.
+     *
+     * @throws IOException if the calling thread is interrupted while waiting.
+     * @throws Error       the first Error a render worker ran into, once every thread has stopped.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            for (int i = 0; i < renderThreads.size(); i++) {
+                renderQueue.put(END_OF_RECORDS);
+            }
+            for (Thread thread : renderThreads) {
+                thread.join();
+            }
+            writeQueue.put(END_OF_DOCUMENTS);
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for generation to finish");
+        }
+        Error error = renderError.get();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void renderLoop() {
+        try {
+            RenderTask task;
+            while ((task = renderQueue.take()) != END_OF_RECORDS) {
+                writeQueue.put(render(task));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private WriteTask render(RenderTask task) {
+        if (task.duplicateOf() != null) {
+            return new WriteTask(task, null, null, 0);
+        }
+        if (renderError.get() != null) {
+            return new WriteTask(task, null, String.format("Error generating DOCX for %s: not rendered after %s",
+                    task.baseFileName(), renderError.get()), 0);
+        }
+        RecordRenderEvent event = new RecordRenderEvent();
+        event.begin();
+        long start = System.nanoTime();
+        WriteTask result;
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            task.job().renderer().render(task.replacements(), buffer);
+            result = new WriteTask(task, buffer.toByteArray(), null, System.nanoTime() - start);
+        } catch (IOException | RuntimeException e) {
+            result = new WriteTask(task, null,
+                    String.format("Error generating DOCX for %s: %s", task.baseFileName(), e.getMessage()),
+                    System.nanoTime() - start);
+        } catch (Error e) {
+            // A worker that died would leave the writer and the reader waiting for it forever
+            if (!renderError.compareAndSet(null, e) && renderError.get() != e) {
+                renderError.get().addSuppressed(e);
+            }
+            result = new WriteTask(task, null,
+                    String.format("Error generating DOCX for %s: %s", task.baseFileName(), e),
+                    System.nanoTime() - start);
+        }
+        metrics.recordNanos(Stage.RENDER, result.renderNanos());
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.sheet = task.job().sheetName();
+            event.fileName = task.baseFileName() + ".docx";
+            event.sequence = task.sequence();
+            event.bytes = result.content() == null ? 0 : result.content().length;
+            event.failed = result.error() != null;
+            event.commit();
+        }
+        return result;
+    }
+
+    private void writeLoop() {
+        try {
+            WriteTask task;
+            while ((task = writeQueue.take()) != END_OF_DOCUMENTS) {
+                try {
+                    write(task);
+                } catch (RuntimeException e) {
+                    // A writer that died would leave the render workers blocked on a full queue, and close() with them
+                    writeFailed(task, e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Fails a document whose write threw before it was handed to the sink, failing the duplicates waiting for
+     * it too, and releases its share of the heap budget.
+     */
+    private void writeFailed(WriteTask task, RuntimeException e) {
+        RenderTask source = task.source();
+        failed(task, e.getMessage());
+        if (storedDocuments != null && source.duplicateOf() == null) {
+            storedDocuments.computeIfAbsent(source.entryPath(), entryPath -> new CompletableFuture<>())
+                    .completeExceptionally(e);
+        }
+        release(task);
+    }
+
+    private void write(WriteTask task) {
+        SheetJob job = task.source().job();
+        int sequence = task.source().sequence();
+        if (task.source().duplicateOf() != null) {
+            linkDuplicate(task);
+            return;
+        }
+        if (job.mergedDocument() != null) {
+            merge(task);
+            return;
+        }
+        CompletableFuture<Integer> stored = storedDocuments != null
+                ? storedDocuments.computeIfAbsent(task.source().entryPath(), entryPath -> new CompletableFuture<>())
+                : null;
+        if (task.error() != null) {
+            job.recordFailure(sequence, task.error());
+            recordOutcome(job, sequence, ShardManifest.Status.FAILED, task.source().entryPath());
+            if (stored != null) {
+                stored.completeExceptionally(new IOException(task.error()));
+            }
+            release(task);
+            return;
+        }
+
+        long start = metrics.start();
+        sink.writeAsync(task.source().entryPath(), task.content()).whenComplete((ignored, failure) -> {
+            if (failure == null) {
+                metrics.record(Stage.DISK_WRITE, start);
+                written(task);
+            } else {
+                failed(task, failure.getMessage());
+            }
+            if (stored != null) {
+                if (failure == null) {
+                    stored.complete(task.content().length);
+                } else {
+                    stored.completeExceptionally(failure);
+                }
+            }
+            release(task);
+        });
+    }
+
+    /**
+     * Stores a duplicate as a link to the first document with its content, once that has been stored.
+     * The first document may still be rendering, in which case the link is made when its write completes.
+     */
+    private void linkDuplicate(WriteTask task) {
+        RenderTask source = task.source();
+        storedDocuments.computeIfAbsent(source.duplicateOf(), entryPath -> new CompletableFuture<>())
+                .whenComplete((bytes, failure) -> {
+                    if (failure != null) {
+                        failed(task, "the identical document " + source.duplicateOf() + " could not be generated");
+                        return;
+                    }
+                    try {
+                        sink.link(source.duplicateOf(), source.entryPath());
+                    } catch (IOException e) {
+                        failed(task, e.getMessage());
+                        return;
+                    }
+                    source.job().recordDuplicate(bytes);
+                    stored(task);
+                });
+    }
+
+    /**
+     * Adds a rendered document to the merged document of its job, or leaves a failed one out of it. The merged
+     * document puts them in record order, however they arrive, and the document is recorded and its share of
+     * the heap budget released once it has been merged.
+     */
+    private void merge(WriteTask task) {
+        RenderTask source = task.source();
+        MergedDocument merged = source.job().mergedDocument();
+        if (task.error() != null) {
+            source.job().recordFailure(source.sequence(), task.error());
+            recordOutcome(source.job(), source.sequence(), ShardManifest.Status.FAILED, source.entryPath());
+            merged.skip(source.sequence());
+            release(task);
+            return;
+        }
+        long start = metrics.start();
+        CompletableFuture<Void> added = merged.add(source.sequence(), task.content());
+        metrics.record(Stage.DISK_WRITE, start);
+        added.whenComplete((ignored, failure) -> {
+            if (failure == null) {
+                written(task);
+            } else {
+                failed(task, failure.getMessage());
+            }
+            release(task);
+        });
+    }
+
+    private void release(WriteTask task) {
+        if (heapBudget != null) {
+            heapBudget.release(task.source().reservation());
+        }
+    }
+
+    /**
+     * Records a document that has been written. Called on the thread that completed the write.
+     */
+    private void written(WriteTask task) {
+        SheetJob job = task.source().job();
+        metrics.recordDocument(job.sheetName(), task.source().baseFileName() + ".docx",
+                task.renderNanos(), task.content().length);
+        stored(task);
+    }
+
+    /**
+     * Records the outcome of a document that has been written or linked.
+     */
+    private void stored(WriteTask task) {
+        SheetJob job = task.source().job();
+        if (job.manifest() != null) {
+            try {
+                // Recorded only once the file is written, so an interrupted run regenerates anything incomplete
+                job.manifest().record(task.source().baseFileName() + ".docx", task.source().contentHash());
+            } catch (IOException e) {
+                failed(task, e.getMessage());
+                return;
+            }
+        }
+        job.recordCreated();
+        recordOutcome(job, task.source().sequence(), ShardManifest.Status.CREATED, task.source().entryPath());
+    }
+
+    private void failed(WriteTask task, String error) {
+        SheetJob job = task.source().job();
+        job.recordFailure(task.source().sequence(),
+                String.format("Error generating DOCX for %s: %s", task.source().baseFileName(), error));
+        recordOutcome(job, task.source().sequence(), ShardManifest.Status.FAILED, task.source().entryPath());
+    }
+
+    private void recordOutcome(SheetJob job, int sequence, ShardManifest.Status status, String entryPath) {
+        if (shardManifest != null) {
+            shardManifest.record(job.sheetName(), sequence, status, entryPath);
+        }
+    }
+
+    private static <T> void put(BlockingQueue<T> queue, T element) throws IOException {
+        try {
+            queue.put(element);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing a record for generation");
+        }
+    }
+
+    /**
+     * A record mapped to its template, waiting to be rendered.
+     * The content hash is only computed for jobs with a manifest or when deduplicating. A duplicate names
+     * the entry path of the first document with its content and is not rendered. The reservation is the share
+     * of the heap budget held by the document, if there is a budget.
+     */
+    private record RenderTask(SheetJob job, int sequence, String baseFileName, String entryPath,
+                              Map<String, String> replacements, String contentHash, String duplicateOf,
+                              int reservation) {}
+
+    /**
+     * A rendered document waiting to be written, or the error that prevented rendering it.
+     */
+    private record WriteTask(RenderTask source, byte[] content, String error, long renderNanos) {}
+}
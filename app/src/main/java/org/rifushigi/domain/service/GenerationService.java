@@ -1,16 +1,40 @@
 package org.rifushigi.domain.service;
 
-import org.rifushigi.domain.infrastructure.ExcelReader;
+import org.apache.poi.openxml4j.opc.ZipPackage;
+import org.apache.poi.openxml4j.util.ZipInputStreamZipEntrySource;
+import org.rifushigi.domain.infrastructure.ArchiveSink;
+import org.rifushigi.domain.infrastructure.ColumnFormats;
+import org.rifushigi.domain.infrastructure.CompiledTemplate;
+import org.rifushigi.domain.infrastructure.DataSource;
+import org.rifushigi.domain.infrastructure.DirectorySink;
+import org.rifushigi.domain.infrastructure.DocumentRenderer;
+import org.rifushigi.domain.infrastructure.DocumentSink;
+import org.rifushigi.domain.infrastructure.FsyncPolicy;
+import org.rifushigi.domain.infrastructure.ImageCache;
+import org.rifushigi.domain.infrastructure.MergedDocument;
+import org.rifushigi.domain.infrastructure.OutputManifest;
+import org.rifushigi.domain.infrastructure.ShardManifest;
+import org.rifushigi.domain.infrastructure.SheetRecordHandler;
+import org.rifushigi.domain.infrastructure.TemplateStore;
 import org.rifushigi.domain.infrastructure.WordDocumentWriter;
 import org.rifushigi.domain.model.CandidateRecord;
 import org.rifushigi.domain.model.Placeholder;
+import org.rifushigi.domain.model.PlaceholderLocation;
+import org.rifushigi.domain.model.TemplateMetadata;
+import org.rifushigi.metrics.GenerationMetrics;
+import org.rifushigi.metrics.Stage;
 import org.rifushigi.util.AnsiColors;
+import org.rifushigi.util.Digests;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 
@@ -19,136 +43,594 @@ public class GenerationService {
     private final List<Path> templatePaths;
     private final Path dataPath;
     private final Path outputDir;
+    private final GenerationOptions options;
+    // Progress and summary messages; errors and warnings go to System.err
+    private final PrintStream console;
+    private GenerationMetrics metrics = GenerationMetrics.DISABLED;
+    private TemplateLoader templateLoader;
+    private ImageCache imageCache;
 
     private static final String DOCX_SUBDIR = "certificates_09_2025";
+    // Records (and rendered documents) buffered between pipeline stages, per render thread
+    private static final int QUEUE_CAPACITY_PER_THREAD = 4;
+    // Heap a document takes up in flight, as a multiple of its template's size on disk: the POI writer holds
+    // the unzipped DOM of the template, a compiled template only the values and the rendered bytes
+    private static final int POI_DOCUMENT_HEAP_FACTOR = 20;
+    private static final int COMPILED_DOCUMENT_HEAP_FACTOR = 3;
+    // With a heap budget, POI keeps zip entries larger than this in temporary files instead of on the heap
+    private static final int POI_TEMP_FILE_THRESHOLD = 1024 * 1024;
 
     public GenerationService(List<Path> templatePaths, Path dataPath, Path outputDir) {
+        this(templatePaths, dataPath, outputDir, GenerationOptions.defaults());
+    }
+
+    public GenerationService(List<Path> templatePaths, Path dataPath, Path outputDir, GenerationOptions options) {
         this.templatePaths = templatePaths;
         this.dataPath = dataPath;
         this.outputDir = outputDir;
+        this.options = options;
+        this.console = options.console();
     }
 
     /**
      * Executes the main document generation workflow.
+     * The data file is streamed through a {@link GenerationPipeline}: records are rendered on a pool of
+     * {@link GenerationOptions#threads()} workers while later rows are still being read, and the per-sheet
+     * summaries are reported in sheet order once every record has been written.
+     * In an {@link GenerationOptions#incremental() incremental} run, records whose document is unchanged
+     * according to the output directory's {@link OutputManifest} are skipped before rendering.
+     * With {@link GenerationOptions#mergePerSheet()}, the documents of each sheet and template are merged into
+     * a single {@link MergedDocument} in record order instead of being written one file per record.
      *
      * @throws IOException if there's an error with file I/O.
      */
     public void generate() throws IOException {
-        // Read Excel Data (only once)
-        System.out.println(AnsiColors.colored(AnsiColors.CYAN, "Reading Excel file..."));
-        ExcelReader excelReader = new ExcelReader();
-        Map<String, List<CandidateRecord>> allRecords = excelReader.readData(dataPath);
-        if (allRecords.isEmpty()) {
-            System.err.println(AnsiColors.colored(AnsiColors.RED, "Error: No data found in the Excel file."));
+        metrics = options.metricsFile() != null ? new GenerationMetrics() : GenerationMetrics.DISABLED;
+        imageCache = openImageCache();
+        templateLoader = openTemplateLoader();
+        HeapBudget heapBudget = options.maxHeapBudget() > 0 ? startHeapBudget() : null;
+
+        // Route each row to its templates, reading the data once for all of them
+        RoutingTable routing = openRoutingTable();
+
+        // Sheets in workbook order; skipped sheets map to null
+        Map<String, SheetDispatch> sheets = new LinkedHashMap<>();
+        List<SheetJob> jobs = new ArrayList<>();
+        int[] totalRecords = new int[1];
+
+        // Read the data (only once), generating while it is read
+        console.println(AnsiColors.colored(AnsiColors.CYAN, "Reading data file and generating documents on "
+                + options.threads() + " thread(s)..."));
+        DataSource dataSource = DataSource.forFile(dataPath, options.columnFormats(), metrics);
+        if (options.groupByColumn() != null) {
+            dataSource = dataSource.groupedBy(options.groupByColumn());
+        }
+        Shard shard = options.shard();
+        ShardManifest shardManifest = shard != null ? openShardManifest(shard) : null;
+        DocumentSink sink = openSink();
+        try (shardManifest) {
+            // The exception that ended the run early, if any, which later cleanup errors are added to
+            Throwable failure = null;
+            try (sink; GenerationPipeline pipeline = new GenerationPipeline(sink, options.threads(),
+                    options.threads() * QUEUE_CAPACITY_PER_THREAD, metrics, shardManifest, heapBudget, options.deduplicate())) {
+                dataSource.streamData(dataPath, new SheetRecordHandler() {
+                    @Override
+                    public void startSheet(String sheetName) throws IOException {
+                        SheetDispatch dispatch = prepareSheet(sheetName, routing.forSheet(sheetName));
+                        sheets.put(sheetName, dispatch);
+                        if (dispatch != null) {
+                            jobs.addAll(dispatch.jobs());
+                        }
+                    }
+
+                    @Override
+                    public void record(String sheetName, CandidateRecord record) throws IOException {
+                        totalRecords[0]++;
+                        SheetDispatch dispatch = sheets.get(sheetName);
+                        if (dispatch == null) {
+                            return;
+                        }
+                        SheetDispatch.Fanout fanout = dispatch.route(record);
+                        for (SheetJob job : fanout.jobs()) {
+                            if (job.records() == 0) {
+                                // Map columns (only for the current template)
+                                logMapping(job.placeholders(), record);
+                            }
+                        }
+                        if (shard != null && !shard.owns(record)) {
+                            String fileName = record.getValue(GenerationPipeline.FILE_NAME_COLUMN);
+                            fanout.jobs().forEach(job -> job.recordOtherShard(fileName));
+                            return;
+                        }
+                        List<Map<String, String>> replacements = fanout.resolve(record);
+                        for (int i = 0; i < fanout.jobs().size(); i++) {
+                            pipeline.submit(fanout.jobs().get(i), record, replacements.get(i));
+                        }
+                    }
+
+                    @Override
+                    public void endSheet(String sheetName) {
+                        SheetDispatch dispatch = sheets.get(sheetName);
+                        if (dispatch != null && dispatch.jobs().stream().allMatch(job -> job.records() == 0)) {
+                            System.err.println(AnsiColors.colored(AnsiColors.YELLOW, "Cannot map columns: No records found in sheet."));
+                        }
+                    }
+                });
+            } catch (Throwable e) {
+                failure = e;
+                throw e;
+            } finally {
+                // Runs after the pipeline has written its last document
+                try {
+                    closeMergedDocuments(jobs, failure);
+                } finally {
+                    closeManifests(jobs, failure);
+                }
+            }
+            if (shardManifest != null) {
+                for (SheetJob job : jobs) {
+                    shardManifest.recordCount(job.sheetName(), job.records());
+                }
+                shardManifest.complete();
+            }
+        }
+
+        if (sheets.isEmpty()) {
+            System.err.println(AnsiColors.colored(AnsiColors.RED, "Error: No data found in the data file."));
             return;
         }
 
-        System.out.printf("Detected sheets: %s%n", allRecords.keySet());
-        int totalRecords = allRecords.values().stream().mapToInt(List::size).sum();
-        System.out.printf("%d records total%n", totalRecords);
+        console.printf("%nDetected sheets: %s%n", sheets.keySet());
+        console.printf("%d records total%n", totalRecords[0]);
 
-        // Map sheet names to specific template paths for a single scan
-        Map<String, Path> templateMap = createSheetTemplateMap();
+        for (SheetJob job : jobs) {
+            reportSheet(job, sink);
+        }
+        if (options.deduplicate()) {
+            int duplicates = 0;
+            long duplicateBytes = 0;
+            for (SheetJob job : jobs) {
+                duplicates += job.duplicates();
+                duplicateBytes += job.duplicateBytes();
+            }
+            console.printf(AnsiColors.colored(AnsiColors.CYAN,
+                    "Deduplication saved %d render(s) and %d bytes of output%n"), duplicates, duplicateBytes);
+        }
+        if (heapBudget != null && heapBudget.stalls() > 0) {
+            System.err.println(AnsiColors.colored(AnsiColors.YELLOW, String.format(
+                    "The heap budget held reading back %d time(s), for %.1f s in total.",
+                    heapBudget.stalls(), heapBudget.stalledNanos() / 1e9)));
+        }
+        if (imageCache.loads() > 0) {
+            console.printf(AnsiColors.colored(AnsiColors.CYAN,
+                    "%d image(s) loaded, reused %d time(s) from the image cache%n"), imageCache.loads(), imageCache.hits());
+        }
+        console.println(AnsiColors.colored(AnsiColors.GREEN, "Generation complete for all templates..."));
 
-        System.out.println(AnsiColors.colored(AnsiColors.CYAN, "Generating documents..."));
+        if (options.metricsFile() != null) {
+            reportMetrics();
+        }
+    }
 
-        for (Map.Entry<String, List<CandidateRecord>> entry : allRecords.entrySet()) {
-            String sheetName = entry.getKey();
-            List<CandidateRecord> records = entry.getValue();
+    /**
+     * Streams the data file once without rendering and checks that a real run would produce every document:
+     * that each placeholder has a column and that the document file names are present and valid. File names
+     * repeated within a sheet are warned about. Reports the number of documents a real run would produce and
+     * their expected size.
+     * Templates are scanned (or taken from the template cache) but not compiled, and nothing is written.
+     *
+     * @return true if no problems were found.
+     * @throws IOException if the data file or a template cannot be read.
+     */
+    public boolean validate() throws IOException {
+        metrics = GenerationMetrics.DISABLED;
+        imageCache = openImageCache();
+        templateLoader = openTemplateLoader();
+        RoutingTable routing = openRoutingTable();
 
-            Path specificTemplatePath = templateMap.get(sheetName);
-            if (specificTemplatePath == null) {
-                System.err.printf(AnsiColors.colored(AnsiColors.YELLOW, "%n️No template specified for sheet '%s'. Skipping this sheet.%n"), sheetName);
-                continue;
+        // Sheets in workbook order; skipped sheets map to null
+        Map<String, RoutingTable.SheetRoutes> sheets = new LinkedHashMap<>();
+        Map<String, Map<Path, SheetValidator>> validators = new HashMap<>();
+        List<SheetValidator> checked = new ArrayList<>();
+        int[] problems = new int[1];
+        console.println(AnsiColors.colored(AnsiColors.CYAN, "Validating data file against the templates..."));
+        DataSource dataSource = DataSource.forFile(dataPath, options.columnFormats(), metrics);
+        if (options.groupByColumn() != null) {
+            dataSource = dataSource.groupedBy(options.groupByColumn());
+        }
+        Shard shard = options.shard();
+        dataSource.streamData(dataPath, new SheetRecordHandler() {
+            @Override
+            public void startSheet(String sheetName) throws IOException {
+                RoutingTable.SheetRoutes routes = routing.forSheet(sheetName);
+                if (routes.templates().isEmpty()) {
+                    System.err.printf(AnsiColors.colored(AnsiColors.YELLOW, "No template specified for sheet '%s'. It would be skipped.%n"), sheetName);
+                    sheets.put(sheetName, null);
+                    return;
+                }
+                sheets.put(sheetName, routes);
+                Map<Path, SheetValidator> sheetValidators = new HashMap<>();
+                validators.put(sheetName, sheetValidators);
+                for (Path templatePath : routes.templates()) {
+                    Set<Placeholder> placeholders = templateLoader.scan(templatePath, Digests.sha256Hex(templatePath)).value().placeholders();
+                    if (placeholders.isEmpty()) {
+                        System.err.printf(AnsiColors.colored(AnsiColors.RED, "Error: No placeholders found in template '%s' of sheet '%s'.%n"),
+                                templatePath.getFileName(), sheetName);
+                        problems[0]++;
+                    } else {
+                        SheetValidator validator = new SheetValidator(sheetLabel(sheetName, templatePath, routes),
+                                placeholders, Files.size(templatePath), imageCache);
+                        sheetValidators.put(templatePath, validator);
+                        checked.add(validator);
+                    }
+                }
             }
 
-            System.out.printf(AnsiColors.colored(AnsiColors.CYAN, "%nProcessing sheet '%s' with template '%s'...%n"), sheetName, specificTemplatePath.getFileName());
+            @Override
+            public void record(String sheetName, CandidateRecord record) {
+                RoutingTable.SheetRoutes routes = sheets.get(sheetName);
+                if (routes == null) {
+                    return;
+                }
+                Map<Path, SheetValidator> sheetValidators = validators.get(sheetName);
+                boolean owned = shard == null || shard.owns(record);
+                for (Path templatePath : routes.match(record)) {
+                    SheetValidator validator = sheetValidators.get(templatePath);
+                    if (validator == null) {
+                        continue;
+                    }
+                    if (owned) {
+                        validator.check(record);
+                    } else {
+                        validator.skipOtherShard();
+                    }
+                }
+            }
 
-            // Scan template for placeholders (once per template)
-            PlaceholderService placeholderService = new PlaceholderService();
-            Set<Placeholder> placeholders = placeholderService.findPlaceholders(specificTemplatePath);
-            if (placeholders.isEmpty()) {
-                System.err.println(AnsiColors.colored(AnsiColors.RED, "Error: No placeholders found in this template. Skipping."));
-                continue;
+            @Override
+            public void endSheet(String sheetName) {
+                // checked record by record
             }
+        });
+
+        if (sheets.isEmpty()) {
+            System.err.println(AnsiColors.colored(AnsiColors.RED, "Error: No data found in the data file."));
+            return false;
+        }
 
-            // Map columns (only for the current template)
-            logMapping(placeholders, records);
+        int documents = 0;
+        long estimatedBytes = 0;
+        for (SheetValidator sheet : checked) {
+            console.printf("%nSheet '%s': %d records, %d documents of about %.1f MB%n", sheet.sheetName(),
+                    sheet.records(), sheet.documents(), sheet.estimatedBytes() / (1024.0 * 1024));
+            if (shard != null) {
+                console.printf("  %d records left to other shards%n", sheet.otherShards());
+            }
+            for (String problem : sheet.problems()) {
+                System.err.println(AnsiColors.colored(AnsiColors.RED, "  Error: " + problem));
+            }
+            for (String warning : sheet.warnings()) {
+                System.err.println(AnsiColors.colored(AnsiColors.YELLOW, "  Warning: " + warning));
+            }
+            problems[0] += sheet.problems().size();
+            documents += sheet.documents();
+            estimatedBytes += sheet.estimatedBytes();
+        }
 
-            WordDocumentWriter documentWriter = new WordDocumentWriter(specificTemplatePath, placeholders);
-            String templateBaseName = specificTemplatePath.getFileName().toString().replace(".docx", "");
+        String summary = String.format("%d documents of about %.1f MB in total", documents, estimatedBytes / (1024.0 * 1024));
+        if (problems[0] > 0) {
+            System.err.println(AnsiColors.colored(AnsiColors.RED, "\nValidation failed: " + summary + " would be generated with the errors above."));
+            return false;
+        }
+        console.println(AnsiColors.colored(AnsiColors.GREEN, "\nValidation passed: " + summary + " would be generated."));
+        return true;
+    }
 
-            // Define base output paths for DOCX, organized by template name
-            // Example structure: outputDir/docx/diploma/Level 2
-            Path docxBaseDir = outputDir.resolve(DOCX_SUBDIR).resolve(templateBaseName).resolve(sheetName);
+    /**
+     * Scans and compiles templates through the template cache, if one is configured.
+     */
+    private TemplateLoader openTemplateLoader() {
+        TemplateStore templateStore = options.templateCacheDirectory() != null
+                ? new TemplateStore(options.templateCacheDirectory(), options.templateCacheMaxBytes())
+                : null;
+        return new TemplateLoader(templateStore, imageCache, options.runDate(), metrics);
+    }
 
-            int filesCreatedDocx = 0;
+    /**
+     * Opens the cache of the images of image placeholders, whose file names are relative to the image
+     * directory or else to the directory of the data file.
+     */
+    private ImageCache openImageCache() {
+        Path directory = options.imageDirectory();
+        if (directory == null) {
+            Path parent = dataPath.toAbsolutePath().getParent();
+            directory = parent != null ? parent : Path.of("");
+        }
+        return new ImageCache(directory, options.imageCacheMaxBytes());
+    }
 
-            for (CandidateRecord record : records) {
-                String baseFileName = record.getValue("FULL NAME");
+    /**
+     * Sets up the memory-bounded mode: documents in flight are bounded by the budget, and POI spills large
+     * zip entries of the templates and the data file to temporary files.
+     */
+    private HeapBudget startHeapBudget() {
+        long maxHeap = Runtime.getRuntime().maxMemory();
+        if (maxHeap != Long.MAX_VALUE && options.maxHeapBudget() > maxHeap) {
+            System.err.println(AnsiColors.colored(AnsiColors.YELLOW, String.format(
+                    "Warning: The heap budget of %d MB exceeds the maximum heap of %d MB (-Xmx).",
+                    options.maxHeapBudget() / (1024 * 1024), maxHeap / (1024 * 1024))));
+        }
+        ZipPackage.setUseTempFilePackageParts(true);
+        ZipInputStreamZipEntrySource.setThresholdBytesForTempFiles(POI_TEMP_FILE_THRESHOLD);
+        return new HeapBudget(options.maxHeapBudget());
+    }
 
-                // generate DOCX
-                Path docxPath = docxBaseDir.resolve(baseFileName + ".docx");
-                if (ensureDirectoryExists(docxPath)) {
-                    try (FileOutputStream fos = new FileOutputStream(docxPath.toFile())) {
-                        documentWriter.generateDocument(record, fos);
-                        filesCreatedDocx++;
-                    } catch (IOException e) {
-                        System.err.printf(AnsiColors.colored(AnsiColors.RED, "Error generating DOCX for %s: %s%n"), baseFileName, e.getMessage());
-                    }
-                }
+    /**
+     * Prints the throughput and time per stage, and writes the full metrics report.
+     */
+    private void reportMetrics() throws IOException {
+        console.printf("%nRead %.0f rows/s, wrote %.0f documents/s (%d bytes) in %.1f s%n",
+                metrics.rowsPerSecond(), metrics.documentsPerSecond(), metrics.bytesWritten(),
+                metrics.wallNanos() / 1e9);
+        for (Stage stage : Stage.values()) {
+            if (metrics.stage(stage).count() > 0) {
+                console.printf("  %-18s %8.1f ms total, p99 %.2f ms%n", stage.key(),
+                        metrics.stage(stage).totalNanos() / 1e6, metrics.stage(stage).percentileNanos(99) / 1e6);
+            }
+        }
+        metrics.writeJson(options.metricsFile());
+        console.println(AnsiColors.colored(AnsiColors.CYAN, "Metrics written to " + options.metricsFile()));
+    }
+
+    /**
+     * Starts the manifest in which a sharded run records the records it owned, for merge-manifests to check.
+     */
+    private ShardManifest openShardManifest(Shard shard) throws IOException {
+        console.printf("Rendering shard %s of the records, assigned by '%s'%n", shard, shard.keyColumn());
+        return ShardManifest.create(outputDir, shard.number(), shard.count(), shard.keyColumn(),
+                Digests.sha256Hex(dataPath));
+    }
+
+    /**
+     * Opens the output: one file per document below the output directory, or a single bundle archive.
+     */
+    private DocumentSink openSink() throws IOException {
+        if (options.bundleFormat() == null) {
+            FsyncPolicy fsyncPolicy = options.fsyncPolicy() != null ? options.fsyncPolicy() : FsyncPolicy.NONE;
+            return new DirectorySink(outputDir, fsyncPolicy, options.maxInFlightWrites());
+        }
+        String target = options.bundleTarget() != null
+                ? options.bundleTarget()
+                : outputDir.resolve(DOCX_SUBDIR + options.bundleFormat().extension()).toString();
+        FsyncPolicy fsyncPolicy = options.fsyncPolicy() != null ? options.fsyncPolicy() : FsyncPolicy.END;
+        return ArchiveSink.open(options.bundleFormat(), target, fsyncPolicy);
+    }
+
+    /**
+     * Sets up a job for every template the rows of a sheet can be routed to.
+     *
+     * @return The dispatch of the sheet's rows, or null if the sheet has to be skipped.
+     */
+    private SheetDispatch prepareSheet(String sheetName, RoutingTable.SheetRoutes routes) throws IOException {
+        if (routes.templates().isEmpty()) {
+            System.err.printf(AnsiColors.colored(AnsiColors.YELLOW, "%n️No template specified for sheet '%s'. Skipping this sheet.%n"), sheetName);
+            return null;
+        }
+
+        Map<Path, SheetJob> jobs = new LinkedHashMap<>();
+        for (Path templatePath : routes.templates()) {
+            SheetJob job = prepareTemplate(sheetName, sheetLabel(sheetName, templatePath, routes), templatePath);
+            if (job != null) {
+                jobs.put(templatePath, job);
             }
+        }
+        return jobs.isEmpty() ? null : new SheetDispatch(routes, jobs, imageCache, options.runDate());
+    }
 
-            System.out.printf(AnsiColors.colored(AnsiColors.GREEN,
-                            "%d DOCX files created for sheet '%s' in %s%n"),
-                    filesCreatedDocx, sheetName, docxBaseDir.toAbsolutePath());
+    /**
+     * @return The name of the sheet, qualified with the template if the sheet's rows go to several templates.
+     */
+    private static String sheetLabel(String sheetName, Path templatePath, RoutingTable.SheetRoutes routes) {
+        if (routes.templates().size() < 2) {
+            return sheetName;
         }
-        System.out.println(AnsiColors.colored(AnsiColors.GREEN, "Generation complete for all templates..."));
+        return sheetName + " (" + templatePath.getFileName().toString().replace(".docx", "") + ")";
     }
 
     /**
-     * Helper method to ensure the parent directory of a file path exists.
+     * Scans one template of a sheet and sets up its renderer and output directory.
+     *
+     * @return The prepared job, or null if the template has to be skipped.
      */
-    private boolean ensureDirectoryExists(Path filePath) {
-        File parentDir = filePath.getParent().toFile();
-        if (!parentDir.exists() && !parentDir.mkdirs()) {
-            System.err.printf(AnsiColors.colored(AnsiColors.RED, "Failed to create output directory: %s. Skipping file creation.%n"), parentDir.getAbsolutePath());
-            return false;
+    private SheetJob prepareTemplate(String sheetName, String label, Path specificTemplatePath) throws IOException {
+        console.printf(AnsiColors.colored(AnsiColors.CYAN, "%nProcessing sheet '%s' with template '%s'...%n"), sheetName, specificTemplatePath.getFileName());
+
+        // Scan template for placeholders (once per template), or take the scan from the template cache
+        String templateHash = Digests.sha256Hex(specificTemplatePath);
+        TemplateLoader.Loaded<TemplateMetadata> scanned = templateLoader.scan(specificTemplatePath, templateHash);
+        TemplateMetadata template = scanned.value();
+        Set<Placeholder> placeholders = template.placeholders();
+        if (placeholders.isEmpty()) {
+            System.err.println(AnsiColors.colored(AnsiColors.RED, "Error: No placeholders found in this template. Skipping."));
+            return null;
         }
-        return true;
+        List<PlaceholderLocation> sharedPlaceholders = options.mergePerSheet()
+                ? MergedDocument.sharedPartPlaceholders(template) : List.of();
+        if (!sharedPlaceholders.isEmpty()) {
+            // Every record of a merged document shares the headers and footers of the first
+            PlaceholderLocation shared = sharedPlaceholders.getFirst();
+            System.err.println(AnsiColors.colored(AnsiColors.RED, String.format(
+                    "Error: %s is in %s, which a merged document shares between all its records. Skipping.",
+                    shared.placeholder().fullText(), shared.part())));
+            return null;
+        }
+
+        // A compiled template is immutable and shared; the POI writer gets one instance per pipeline thread
+        ThreadLocal<DocumentRenderer> renderers;
+        boolean fromCache = scanned.fromCache();
+        if (options.compiledTemplates()) {
+            TemplateLoader.Loaded<CompiledTemplate> compiled = templateLoader.compile(template, templateHash, options.zipCompression());
+            CompiledTemplate compiledTemplate = compiled.value();
+            renderers = ThreadLocal.withInitial(() -> compiledTemplate);
+            fromCache &= compiled.fromCache();
+        } else {
+            renderers = ThreadLocal.withInitial(() -> new WordDocumentWriter(template, imageCache, options.runDate(), metrics));
+        }
+        if (fromCache) {
+            console.println(AnsiColors.colored(AnsiColors.CYAN, "Template loaded from the template cache."));
+        }
+        String templateBaseName = specificTemplatePath.getFileName().toString().replace(".docx", "");
+
+        // Define base output paths for DOCX, organized by template name
+        // Example structure: outputDir/docx/diploma/Level 2
+        String entryDirectory = DOCX_SUBDIR + "/" + templateBaseName + "/" + sheetName;
+
+        // Anything besides the record values that changes the output bytes: it invalidates the manifest
+        // entries of an incremental run, and tells documents of different templates apart when deduplicating
+        String renderer = options.compiledTemplates() ? "compiled " + options.zipCompression() : "poi";
+        String inputFingerprint = templateHash
+                + "|" + renderer + "|" + WordDocumentWriter.FORMATTING_RULES;
+        if (placeholders.stream().anyMatch(p -> WordDocumentWriter.hasDefaultValue(p.varName()))) {
+            // The DATE of data without a DATE column
+            inputFingerprint += "|run date " + options.runDate();
+        }
+        OutputManifest manifest = options.incremental() ? OutputManifest.load(outputDir.resolve(entryDirectory)) : null;
+        SheetJob job = new SheetJob(label, placeholders, renderers, entryDirectory, manifest, inputFingerprint);
+        if (options.mergePerSheet()) {
+            // Example: outputDir/certificates_09_2025/diploma/Level 2.docx
+            FsyncPolicy fsyncPolicy = options.fsyncPolicy() != null ? options.fsyncPolicy() : FsyncPolicy.NONE;
+            job.mergedDocument(MergedDocument.create(outputDir.resolve(entryDirectory + ".docx"), specificTemplatePath,
+                    options.mergeBreak(), options.zipCompression(), fsyncPolicy));
+        }
+        int heapFactor = options.compiledTemplates() ? COMPILED_DOCUMENT_HEAP_FACTOR : POI_DOCUMENT_HEAP_FACTOR;
+        job.estimatedDocumentBytes(Files.size(specificTemplatePath) * heapFactor);
+        return job;
     }
 
     /**
-     * Maps specific sheet names to template file paths.
+     * Compacts the manifests of an incremental run. Entries were already appended as files were written,
+     * so a run that fails here or earlier still resumes from them. Every manifest is closed even if another
+     * fails to.
+     *
+     * @param failure The exception the run failed with, which errors closing the manifests are added to rather
+     *                than hiding it, or null if the run completed.
+     */
+    private void closeManifests(List<SheetJob> jobs, Throwable failure) throws IOException {
+        IOException closeError = null;
+        for (SheetJob job : jobs) {
+            if (job.manifest() == null) {
+                continue;
+            }
+            try {
+                job.manifest().close();
+            } catch (IOException e) {
+                if (failure != null) {
+                    failure.addSuppressed(e);
+                } else if (closeError == null) {
+                    closeError = e;
+                } else {
+                    closeError.addSuppressed(e);
+                }
+            }
+        }
+        if (closeError != null) {
+            throw closeError;
+        }
+    }
+
+    /**
+     * Completes the merged documents of a run, once every document has been added to them, or abandons them
+     * if the run failed, so that no partial merged document replaces one from an earlier run. Every merged
+     * document is closed even if another fails to.
+     *
+     * @param failure The exception the run failed with, which errors closing the merged documents are added to
+     *                rather than hiding it, or null if the run completed.
      */
-    private Map<String, Path> createSheetTemplateMap() {
-        Map<String, Path> templateMap = new java.util.HashMap<>();
-        for (Path path : templatePaths) {
-            String fileName = path.getFileName().toString().toLowerCase();
-            if (fileName.contains("diploma")) {
-                templateMap.put("Level 2", path);
-            } else if (fileName.contains("certificate")) {
-                templateMap.put("Level 1", path);
-                templateMap.put("Kainos OAU", path);
+    private void closeMergedDocuments(List<SheetJob> jobs, Throwable failure) throws IOException {
+        IOException closeError = null;
+        for (SheetJob job : jobs) {
+            if (job.mergedDocument() == null) {
+                continue;
+            }
+            try {
+                if (failure != null) {
+                    job.mergedDocument().abandon();
+                } else {
+                    job.mergedDocument().close();
+                }
+            } catch (IOException e) {
+                if (failure != null) {
+                    failure.addSuppressed(e);
+                } else if (closeError == null) {
+                    closeError = e;
+                } else {
+                    closeError.addSuppressed(e);
+                }
             }
         }
-        return templateMap;
+        if (closeError != null) {
+            throw closeError;
+        }
     }
 
     /**
-     * Logs the mapping of placeholders to Excel columns for user feedback.
+     * Prints the errors and the number of files created for a sheet, in record order.
      */
-    private void logMapping(Set<Placeholder> placeholders, List<CandidateRecord> records) {
-        System.out.println(AnsiColors.colored(AnsiColors.CYAN, "Mapping columns..."));
-        if (records.isEmpty()) {
-            System.err.println(AnsiColors.colored(AnsiColors.YELLOW, "Cannot map columns: No records found in sheet."));
+    private void reportSheet(SheetJob job, DocumentSink sink) {
+        for (String error : job.errors()) {
+            System.err.println(AnsiColors.colored(AnsiColors.RED, error));
+        }
+
+        if (job.mergedDocument() != null) {
+            if (job.mergedDocument().documents() == 0) {
+                System.err.println(AnsiColors.colored(AnsiColors.YELLOW, String.format(
+                        "No document of sheet '%s' could be merged, so %s was not created.",
+                        job.sheetName(), sink.describe(job.entryDirectory() + ".docx"))));
+                return;
+            }
+            console.printf(AnsiColors.colored(AnsiColors.GREEN,
+                            "%d documents of sheet '%s' merged into %s%n"),
+                    job.mergedDocument().documents(), job.sheetName(), sink.describe(job.entryDirectory() + ".docx"));
             return;
         }
-        CandidateRecord firstRecord = records.getFirst();
+        console.printf(AnsiColors.colored(AnsiColors.GREEN,
+                        "%d DOCX files created for sheet '%s' in %s%n"),
+                job.filesCreated(), job.sheetName(), sink.describe(job.entryDirectory()));
+        if (job.manifest() != null) {
+            console.printf("  %d unchanged DOCX files skipped%n", job.unchanged());
+        }
+        if (options.deduplicate()) {
+            console.printf("  %d of them identical to another document and linked instead of rendered%n", job.duplicates());
+        }
+        if (options.shard() != null) {
+            console.printf("  %d records left to other shards%n", job.otherShards());
+        }
+    }
+
+    /**
+     * Reads the routing file if one is given, or else routes sheets to templates by their file names.
+     */
+    private RoutingTable openRoutingTable() throws IOException {
+        if (options.routingFile() != null) {
+            return RoutingTable.parse(options.routingFile());
+        }
+        return RoutingTable.byTemplateName(templatePaths);
+    }
+
+    /**
+     * Logs the mapping of placeholders to Excel columns for user feedback,
+     * based on the first record of the sheet.
+     */
+    private void logMapping(Set<Placeholder> placeholders, CandidateRecord firstRecord) {
+        console.println(AnsiColors.colored(AnsiColors.CYAN, "Mapping columns..."));
         for (Placeholder p : placeholders) {
-            String varName = p.varName();
-            if (firstRecord.getValue(varName) != null) {
-                System.out.printf("  %s -> %s%n", p.fullText(), varName);
+            String column = p.column();
+            int index = firstRecord.schema().indexOf(column);
+            if (index >= 0) {
+                console.printf("  %s -> %s (%s)%n", p.fullText(), column,
+                        firstRecord.schema().typeOf(index).name().toLowerCase(Locale.ROOT));
+            } else if (WordDocumentWriter.hasDefaultValue(p.varName())) {
+                console.printf("  %s -> date of the run, %s%n", p.fullText(), ColumnFormats.ordinal(options.runDate()));
             } else {
                 System.err.printf(AnsiColors.colored(AnsiColors.YELLOW, "Warning: Placeholder %s not found in Excel data.%n"), p.fullText());
             }
@@ -0,0 +1,93 @@
+package org.rifushigi.domain.service;
+
+import org.rifushigi.util.AnsiColors;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds the heap taken up by the documents in flight between reading and writing.
+ * <p>
+ * Every record reserves the estimated size of its document before it is queued for rendering, and gives it
+ * back once the document has been written or has failed. When the reservations reach the budget the reading
+ * thread waits, which holds back the whole pipeline; the first wait is reported, and {@link #stalls()} and
+ * {@link #stalledNanos()} tell how much the budget slowed the run down.
+ */
+final class HeapBudget {
+
+    // Reservations are counted in KiB so that budgets beyond 2 GiB fit a semaphore
+    private static final int UNIT = 1024;
+
+    private final long budgetBytes;
+    private final int capacity;
+    private final Semaphore available;
+    private final AtomicInteger stalls = new AtomicInteger();
+    private final AtomicLong stalledNanos = new AtomicLong();
+
+    /**
+     * @param budgetBytes The heap the documents in flight may take up.
+     */
+    HeapBudget(long budgetBytes) {
+        if (budgetBytes < UNIT) {
+            throw new IllegalArgumentException("Heap budget must be at least 1 KiB");
+        }
+        this.budgetBytes = budgetBytes;
+        this.capacity = (int) Math.min(Integer.MAX_VALUE, budgetBytes / UNIT);
+        this.available = new Semaphore(capacity);
+    }
+
+    /**
+     * Reserves room for a document, waiting for documents in flight to be written if the budget is used up.
+     * A document estimated larger than the whole budget reserves all of it, so it is generated on its own.
+     *
+     * @param documentBytes The estimated heap taken up by the document while it is rendered and written.
+     * @return The reservation, to be passed to {@link #release(int)}.
+     * @throws InterruptedIOException if the calling thread is interrupted while waiting.
+     */
+    int reserve(long documentBytes) throws InterruptedIOException {
+        int units = (int) Math.clamp((documentBytes + UNIT - 1) / UNIT, 1, capacity);
+        if (available.tryAcquire(units)) {
+            return units;
+        }
+        if (stalls.getAndIncrement() == 0) {
+            System.err.println(AnsiColors.colored(AnsiColors.YELLOW, String.format(
+                    "Warning: The heap budget of %d MB is in use; reading waits for documents to be written.",
+                    budgetBytes / (1024 * 1024))));
+        }
+        long start = System.nanoTime();
+        try {
+            available.acquire(units);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the heap budget");
+        } finally {
+            stalledNanos.addAndGet(System.nanoTime() - start);
+        }
+        return units;
+    }
+
+    /**
+     * Gives back the room reserved for a document. Called from any thread once the document is done with.
+     *
+     * @param reservation The value returned by {@link #reserve(long)}.
+     */
+    void release(int reservation) {
+        available.release(reservation);
+    }
+
+    /**
+     * @return The number of times reading had to wait for the budget.
+     */
+    int stalls() {
+        return stalls.get();
+    }
+
+    /**
+     * @return The total time reading waited for the budget.
+     */
+    long stalledNanos() {
+        return stalledNanos.get();
+    }
+}
@@ -1,13 +1,21 @@
 package org.rifushigi.domain.service;
 
-import org.apache.poi.xwpf.usermodel.*;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.rifushigi.domain.infrastructure.DocumentParagraphs;
 import org.rifushigi.domain.model.Placeholder;
+import org.rifushigi.domain.model.PlaceholderLocation;
+import org.rifushigi.domain.model.TemplateMetadata;
+import org.rifushigi.metrics.GenerationMetrics;
+import org.rifushigi.metrics.Stage;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -16,6 +24,19 @@ public class PlaceholderService {
 
     private static final Pattern PLACEHOLDER_PATTERN = Pattern.compile("\\$\\{(.+?)}");
 
+    private final GenerationMetrics metrics;
+
+    public PlaceholderService() {
+        this(GenerationMetrics.DISABLED);
+    }
+
+    /**
+     * @param metrics Receives the time taken by each template scan.
+     */
+    public PlaceholderService(GenerationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     /**
      * Finds all unique placeholders within a given Word document template.
      *
@@ -24,54 +45,52 @@ public class PlaceholderService {
      * @throws IOException if there is an error reading the file.
      */
     public Set<Placeholder> findPlaceholders(Path templatePath) throws IOException {
+        return scanTemplate(templatePath).placeholders();
+    }
+
+    /**
+     * Scans every part of a Word document template that can hold text (the body, headers, footers, nested
+     * tables and text boxes) and records where each placeholder occurs. Image placeholders, e.g
+     * ${IMAGE:SIGNATURE}, are found like any other; see {@link Placeholder#isImage()}.
+     *
+     * @param templatePath The path to the .docx template file.
+     * @return The placeholders and their locations.
+     * @throws IOException if there is an error reading the file.
+     */
+    public TemplateMetadata scanTemplate(Path templatePath) throws IOException {
 
         Set<Placeholder> placeholders = new HashSet<>();
+        List<PlaceholderLocation> locations = new ArrayList<>();
 
         if (!Files.exists(templatePath) || !Files.isReadable(templatePath)){
             throw new IOException("Template file not found or is not readable");
         }
 
+        long start = metrics.start();
         try (InputStream is = Files.newInputStream(templatePath);
              XWPFDocument document = new XWPFDocument(is)) {
 
-            // scan paragraphs
-            for (XWPFParagraph p : document.getParagraphs()) {
-                scanParagraph(p, placeholders);
-            }
-
-            // Scan tables
-            for (XWPFTable table : document.getTables()) {
-                for (XWPFTableRow row : table.getRows()) {
-                    for (XWPFTableCell cell : row.getTableCells()) {
-                        for (XWPFParagraph p : cell.getParagraphs()) {
-                            scanParagraph(p, placeholders);
-                        }
-                    }
-                }
-            }
+            DocumentParagraphs.forEach(document, (part, elementPath, paragraph) ->
+                    scanParagraph(part, elementPath, paragraph, placeholders, locations));
         }
+        metrics.record(Stage.PLACEHOLDER_SCAN, start);
 
-        return placeholders;
+        return new TemplateMetadata(templatePath, placeholders, locations);
     }
 
     /**
      * Scans a paragraph's concatenated text to find fragmented placeholders.
      */
-    private void scanParagraph(XWPFParagraph p, Set<Placeholder> placeholders){
-
-        StringBuilder paragraphText = new StringBuilder();
-        for (XWPFRun run : p.getRuns()){
-            String text = run.getText(0);
-            if (text != null){
-                paragraphText.append(text);
-            }
-        }
+    private void scanParagraph(String part, List<Integer> elementPath, XWPFParagraph p,
+                               Set<Placeholder> placeholders, List<PlaceholderLocation> locations){
 
-        Matcher matcher = PLACEHOLDER_PATTERN.matcher(paragraphText.toString());
+        Matcher matcher = PLACEHOLDER_PATTERN.matcher(String.join("", DocumentParagraphs.runTexts(p)));
         while (matcher.find()) {
             String fullText = matcher.group();
             String varName = matcher.group(1);
-            placeholders.add(new Placeholder(varName, fullText));
+            Placeholder placeholder = new Placeholder(varName, fullText);
+            placeholders.add(placeholder);
+            locations.add(new PlaceholderLocation(placeholder, part, elementPath));
         }
     }
 }
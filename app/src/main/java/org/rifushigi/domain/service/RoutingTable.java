@@ -0,0 +1,376 @@
+package org.rifushigi.domain.service;
+
+import org.rifushigi.domain.model.CandidateRecord;
+import org.rifushigi.domain.model.RecordSchema;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides which templates each data row is rendered into.
+ * <p>
+ * A routing file has one route per line: conditions, an arrow and one or more templates.
+ * <pre>
+ * # Every row of the sheet gets a certificate and a transcript
+ * sheet = "Level 1"                    -&gt; certificate.docx, transcript.docx
+ * sheet = "Level 2"                    -&gt; diploma.docx
+ * sheet = "Level 2" and LEVEL = Honours -&gt; honours-letter.docx
+ * TRACK != Audit                       -&gt; participation.docx
+ * *                                    -&gt; receipt.docx
+ * </pre>
+ * Conditions are joined with {@code and} and compare the sheet name ({@code sheet}) or the trimmed value of
+ * a column with {@code =} or {@code !=}; {@code *} matches every row. Names and values with spaces or
+ * commas are quoted, with {@code ""} for a quote. Column names ignore case like everywhere else, values and
+ * sheet names do not. A row is rendered into the templates of every route it matches, each template once.
+ * Template paths are relative to the routing file.
+ * <p>
+ * The table is compiled per sheet when the sheet starts: sheet conditions are decided once, column names are
+ * resolved to column indexes once per header row, and every combination of matching routes maps to a
+ * template list computed once. A row then costs one comparison per column condition.
+ */
+public final class RoutingTable {
+
+    // Matching routes are tracked as the bits of a long
+    private static final int MAX_ROUTES = Long.SIZE;
+    private static final String SHEET = "sheet";
+
+    private final List<Route> routes;
+
+    private RoutingTable(List<Route> routes) {
+        this.routes = List.copyOf(routes);
+    }
+
+    /**
+     * Reads a routing file.
+     *
+     * @param file The routing file.
+     * @return The routing table.
+     * @throws IOException if the file cannot be read, has a syntax error or names a template that does not exist.
+     */
+    public static RoutingTable parse(Path file) throws IOException {
+        Path baseDirectory = file.toAbsolutePath().getParent();
+        List<Route> routes = new ArrayList<>();
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            lineNumber++;
+            try {
+                Route route = parseRoute(line, baseDirectory);
+                if (route != null) {
+                    routes.add(route);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IOException(String.format("%s, line %d: %s", file, lineNumber, e.getMessage()));
+            }
+        }
+        if (routes.isEmpty()) {
+            throw new IOException(file + " has no routes");
+        }
+        if (routes.size() > MAX_ROUTES) {
+            throw new IOException(file + " has " + routes.size() + " routes, at most " + MAX_ROUTES + " are supported");
+        }
+        for (Route route : routes) {
+            for (Path template : route.templates()) {
+                if (!Files.isRegularFile(template)) {
+                    throw new IOException("Template not found: " + template + " (routed in " + file + ")");
+                }
+            }
+        }
+        return new RoutingTable(routes);
+    }
+
+    /**
+     * The routing used without a routing file: a template whose file name contains "diploma" renders the
+     * sheet 'Level 2', one whose name contains "certificate" the sheets 'Level 1' and 'Kainos OAU'.
+     * Where several templates claim a sheet, the last one wins.
+     *
+     * @param templatePaths The templates given on the command line.
+     * @return The routing table.
+     */
+    public static RoutingTable byTemplateName(List<Path> templatePaths) {
+        Map<String, Path> templateMap = new LinkedHashMap<>();
+        for (Path path : templatePaths) {
+            String fileName = path.getFileName().toString().toLowerCase();
+            if (fileName.contains("diploma")) {
+                templateMap.put("Level 2", path);
+            } else if (fileName.contains("certificate")) {
+                templateMap.put("Level 1", path);
+                templateMap.put("Kainos OAU", path);
+            }
+        }
+        List<Route> routes = new ArrayList<>();
+        templateMap.forEach((sheetName, path) -> routes.add(
+                new Route(List.of(new Condition(SHEET, sheetName, false, true)), List.of(path))));
+        return new RoutingTable(routes);
+    }
+
+    /**
+     * @return Every template routed to, in the order they first appear.
+     */
+    public List<Path> templates() {
+        Set<Path> templates = new LinkedHashSet<>();
+        routes.forEach(route -> templates.addAll(route.templates()));
+        return List.copyOf(templates);
+    }
+
+    /**
+     * Compiles the routes for a sheet.
+     *
+     * @param sheetName The sheet about to be read.
+     * @return The routes that can match rows of the sheet.
+     */
+    public SheetRoutes forSheet(String sheetName) {
+        List<Route> sheetRoutes = new ArrayList<>();
+        for (Route route : routes) {
+            List<Condition> columnConditions = new ArrayList<>();
+            boolean matches = true;
+            for (Condition condition : route.conditions()) {
+                if (condition.sheet()) {
+                    matches &= condition.value().equals(sheetName) != condition.negated();
+                } else {
+                    columnConditions.add(condition);
+                }
+            }
+            if (matches) {
+                sheetRoutes.add(new Route(columnConditions, route.templates()));
+            }
+        }
+        return new SheetRoutes(sheetRoutes);
+    }
+
+    /**
+     * The routes of one sheet, with the sheet conditions already decided.
+     */
+    public static final class SheetRoutes {
+
+        private final List<Route> routes;
+        private final List<Path> templates;
+        // The templates of every combination of matching routes seen so far
+        private final Map<Long, List<Path>> dispatch = new HashMap<>();
+        private final List<Path> constantMatch;
+        private RecordSchema schema;
+        private int[][] columnIndexes;
+
+        private SheetRoutes(List<Route> routes) {
+            this.routes = routes;
+            Set<Path> templates = new LinkedHashSet<>();
+            boolean constant = true;
+            for (Route route : routes) {
+                templates.addAll(route.templates());
+                constant &= route.conditions().isEmpty();
+            }
+            this.templates = List.copyOf(templates);
+            // Sheets routed by name alone, as without a routing file, need no work per row
+            this.constantMatch = constant ? this.templates : null;
+        }
+
+        /**
+         * @return Every template a row of the sheet can be rendered into.
+         */
+        public List<Path> templates() {
+            return templates;
+        }
+
+        /**
+         * Finds the templates a row is rendered into. Rows matching the same routes get the same list instance.
+         *
+         * @param record The row.
+         * @return The templates, each once, in route order.
+         */
+        public List<Path> match(CandidateRecord record) {
+            if (constantMatch != null) {
+                return constantMatch;
+            }
+            if (record.schema() != schema) {
+                bind(record.schema());
+            }
+            long matched = 0;
+            for (int i = 0; i < routes.size(); i++) {
+                if (matches(routes.get(i), columnIndexes[i], record)) {
+                    matched |= 1L << i;
+                }
+            }
+            return dispatch.computeIfAbsent(matched, this::templatesOf);
+        }
+
+        private void bind(RecordSchema schema) {
+            this.schema = schema;
+            columnIndexes = new int[routes.size()][];
+            for (int i = 0; i < routes.size(); i++) {
+                List<Condition> conditions = routes.get(i).conditions();
+                columnIndexes[i] = new int[conditions.size()];
+                for (int j = 0; j < conditions.size(); j++) {
+                    columnIndexes[i][j] = schema.indexOf(conditions.get(j).column());
+                }
+            }
+        }
+
+        private static boolean matches(Route route, int[] columnIndexes, CandidateRecord record) {
+            List<Condition> conditions = route.conditions();
+            for (int j = 0; j < conditions.size(); j++) {
+                Condition condition = conditions.get(j);
+                String value = record.getValue(columnIndexes[j]);
+                boolean equal = value != null && value.trim().equals(condition.value());
+                if (equal == condition.negated()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private List<Path> templatesOf(long matched) {
+            Set<Path> templates = new LinkedHashSet<>();
+            for (int i = 0; i < routes.size(); i++) {
+                if ((matched & (1L << i)) != 0) {
+                    templates.addAll(routes.get(i).templates());
+                }
+            }
+            return List.copyOf(templates);
+        }
+    }
+
+    private static Route parseRoute(String line, Path baseDirectory) {
+        List<Token> tokens = tokenize(line);
+        if (tokens.isEmpty()) {
+            return null;
+        }
+        int arrow = -1;
+        for (int i = 0; i < tokens.size(); i++) {
+            if (tokens.get(i).is("->")) {
+                arrow = i;
+                break;
+            }
+        }
+        if (arrow < 0) {
+            throw new IllegalArgumentException("expected '->' followed by templates");
+        }
+
+        List<Condition> conditions = new ArrayList<>();
+        List<Token> left = tokens.subList(0, arrow);
+        if (left.size() == 1 && left.getFirst().is("*")) {
+            // matches every row
+        } else {
+            for (int i = 0; i < left.size(); i += 4) {
+                if (left.size() - i < 3) {
+                    throw new IllegalArgumentException("expected a condition such as sheet = \"Level 1\" or LEVEL != Audit");
+                }
+                Token name = left.get(i);
+                Token operator = left.get(i + 1);
+                Token value = left.get(i + 2);
+                if (!operator.is("=") && !operator.is("!=")) {
+                    throw new IllegalArgumentException("expected '=' or '!=' after " + name.text());
+                }
+                if (name.operator() || value.operator()) {
+                    throw new IllegalArgumentException("expected a name and a value around " + operator.text());
+                }
+                boolean sheet = !name.quoted() && name.text().equals(SHEET);
+                conditions.add(new Condition(sheet ? SHEET : name.text(), value.text(), operator.is("!="), sheet));
+                if (i + 3 < left.size() && (!left.get(i + 3).is("and") || left.get(i + 3).quoted())) {
+                    throw new IllegalArgumentException("expected 'and' or '->' after " + value.text());
+                }
+                if (i + 3 == left.size() - 1) {
+                    throw new IllegalArgumentException("expected a condition after 'and'");
+                }
+            }
+        }
+
+        List<Path> templates = new ArrayList<>();
+        List<Token> right = tokens.subList(arrow + 1, tokens.size());
+        for (int i = 0; i < right.size(); i += 2) {
+            Token template = right.get(i);
+            if (template.operator()) {
+                throw new IllegalArgumentException("expected a template file, found " + template.text());
+            }
+            if (i + 1 < right.size() && !right.get(i + 1).is(",")) {
+                throw new IllegalArgumentException("expected ',' between templates");
+            }
+            if (i + 1 == right.size() - 1) {
+                throw new IllegalArgumentException("expected a template after ','");
+            }
+            if (!template.text().toLowerCase().endsWith(".docx")) {
+                throw new IllegalArgumentException("template " + template.text() + " is not a .docx file");
+            }
+            templates.add(baseDirectory.resolve(template.text()).normalize());
+        }
+        if (templates.isEmpty()) {
+            throw new IllegalArgumentException("expected at least one template after '->'");
+        }
+        return new Route(conditions, templates);
+    }
+
+    /**
+     * Splits a line into quoted strings, operators and words, dropping a trailing comment.
+     */
+    private static List<Token> tokenize(String line) {
+        List<Token> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < line.length()) {
+            char c = line.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '#') {
+                break;
+            } else if (c == '"') {
+                StringBuilder text = new StringBuilder();
+                i++;
+                while (true) {
+                    if (i >= line.length()) {
+                        throw new IllegalArgumentException("unterminated quote");
+                    }
+                    if (line.charAt(i) == '"') {
+                        if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                            text.append('"');
+                            i += 2;
+                            continue;
+                        }
+                        i++;
+                        break;
+                    }
+                    text.append(line.charAt(i++));
+                }
+                tokens.add(new Token(text.toString(), true, false));
+            } else if (line.startsWith("->", i) || line.startsWith("!=", i)) {
+                tokens.add(new Token(line.substring(i, i + 2), false, true));
+                i += 2;
+            } else if (c == '=' || c == ',') {
+                tokens.add(new Token(String.valueOf(c), false, true));
+                i++;
+            } else {
+                int start = i;
+                while (i < line.length() && !Character.isWhitespace(line.charAt(i)) && "\"#=,".indexOf(line.charAt(i)) < 0
+                        && !line.startsWith("->", i) && !line.startsWith("!=", i)) {
+                    i++;
+                }
+                tokens.add(new Token(line.substring(start, i), false, false));
+            }
+        }
+        return tokens;
+    }
+
+    private record Token(String text, boolean quoted, boolean operator) {
+
+        boolean is(String expected) {
+            return !quoted && text.equals(expected);
+        }
+    }
+
+    /**
+     * A comparison of the sheet name or of a column's value.
+     *
+     * @param column  The column name, or {@link #SHEET} for the sheet name.
+     * @param value   The value compared with.
+     * @param negated true for '!='.
+     * @param sheet   true if the sheet name is compared rather than a column.
+     */
+    private record Condition(String column, String value, boolean negated, boolean sheet) {}
+
+    private record Route(List<Condition> conditions, List<Path> templates) {}
+}
@@ -0,0 +1,74 @@
+package org.rifushigi.domain.service;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.rifushigi.domain.model.CandidateRecord;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * One of several processes that split a generation run between them.
+ * <p>
+ * Every shard reads all of the data, but only renders the records it owns: those whose key column hashes to
+ * its number. The hash is MurmurHash3 of the UTF-8 key, so the split is the same on every machine and JVM.
+ *
+ * @param number    The one-based number of this shard.
+ * @param count     The number of shards.
+ * @param keyColumn The column whose value decides which shard owns a record.
+ */
+public record Shard(int number, int count, String keyColumn) {
+
+    /**
+     * The key column used when none is given.
+     */
+    public static final String DEFAULT_KEY_COLUMN = "FULL NAME";
+
+    private static final HashFunction HASH = Hashing.murmur3_32_fixed();
+
+    public Shard {
+        if (count < 1 || number < 1 || number > count) {
+            throw new IllegalArgumentException("Invalid shard " + number + "/" + count);
+        }
+        Objects.requireNonNull(keyColumn, "Key column can not be null");
+    }
+
+    /**
+     * Parses a shard specification such as "2/4".
+     *
+     * @param spec      The shard number and the shard count, separated by '/'.
+     * @param keyColumn The column whose value decides which shard owns a record.
+     * @return The shard.
+     * @throws IllegalArgumentException if the specification is malformed or out of range.
+     */
+    public static Shard parse(String spec, String keyColumn) {
+        int slash = spec.indexOf('/');
+        if (slash < 0) {
+            throw new IllegalArgumentException("Expected a shard as i/N, e.g. 1/4, but got " + spec);
+        }
+        try {
+            return new Shard(Integer.parseInt(spec.substring(0, slash).strip()),
+                    Integer.parseInt(spec.substring(slash + 1).strip()), keyColumn);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Expected a shard as i/N, e.g. 1/4, but got " + spec);
+        }
+    }
+
+    /**
+     * @param record A record of the data.
+     * @return true if this shard renders the record. A record without the key column belongs to the first shard.
+     */
+    public boolean owns(CandidateRecord record) {
+        String key = record.getValue(keyColumn);
+        if (key == null) {
+            return number == 1;
+        }
+        int hash = HASH.hashString(key, StandardCharsets.UTF_8).asInt();
+        return Integer.remainderUnsigned(hash, count) == number - 1;
+    }
+
+    @Override
+    public String toString() {
+        return number + "/" + count;
+    }
+}
@@ -0,0 +1,283 @@
+package org.rifushigi.domain.service;
+
+import org.rifushigi.domain.infrastructure.OutputManifest;
+import org.rifushigi.domain.infrastructure.ShardManifest;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Checks the {@link ShardManifest}s of a sharded run against each other: that every shard ran to completion on
+ * the same data with the same split, and that together they produced every record of every sheet exactly once.
+ */
+public class ShardManifestMerger {
+
+    // Problems of one kind beyond this many are summarised in a single line
+    private static final int MAX_REPORTED = 20;
+
+    private final List<ShardManifest.Contents> shards = new ArrayList<>();
+    private final List<String> problems = new ArrayList<>();
+    private final List<String> warnings = new ArrayList<>();
+    private final Map<String, Integer> recordCounts = new LinkedHashMap<>();
+    private final List<MergedEntry> entries = new ArrayList<>();
+
+    /**
+     * A record in the merged manifest.
+     *
+     * @param shardNumber The shard that owned the record.
+     * @param entry       The record's entry in that shard's manifest.
+     */
+    public record MergedEntry(int shardNumber, ShardManifest.Entry entry) {}
+
+    /**
+     * Finds the shard manifests among the given paths: files are taken as manifests, directories are searched
+     * (not recursively) for files named {@link ShardManifest#FILE_PREFIX}*.
+     *
+     * @param paths Manifest files and output directories.
+     * @return The manifest files, in the order found.
+     * @throws IOException if a directory cannot be listed.
+     */
+    public static List<Path> findManifests(List<Path> paths) throws IOException {
+        List<Path> manifests = new ArrayList<>();
+        for (Path path : paths) {
+            if (!Files.isDirectory(path)) {
+                manifests.add(path);
+                continue;
+            }
+            try (Stream<Path> files = Files.list(path)) {
+                files.filter(file -> file.getFileName().toString().startsWith(ShardManifest.FILE_PREFIX))
+                        .sorted()
+                        .forEach(manifests::add);
+            }
+        }
+        return manifests;
+    }
+
+    /**
+     * Reads and checks a set of shard manifests.
+     *
+     * @param manifestFiles The manifest of every shard of the run.
+     * @return The merger holding the outcome of the checks.
+     * @throws IOException if a manifest cannot be read.
+     */
+    public static ShardManifestMerger merge(List<Path> manifestFiles) throws IOException {
+        ShardManifestMerger merger = new ShardManifestMerger();
+        for (Path file : manifestFiles) {
+            merger.shards.add(ShardManifest.read(file));
+        }
+        merger.check();
+        return merger;
+    }
+
+    /**
+     * @return The reasons the shards do not add up to a complete run; empty if they do.
+     */
+    public List<String> problems() {
+        return problems;
+    }
+
+    /**
+     * @return Findings that do not make the run incomplete, such as two records written to the same file.
+     */
+    public List<String> warnings() {
+        return warnings;
+    }
+
+    /**
+     * @return The number of shards merged.
+     */
+    public int shardCount() {
+        return shards.size();
+    }
+
+    /**
+     * @return The number of records read per sheet, as reported by the shards.
+     */
+    public Map<String, Integer> recordCounts() {
+        return recordCounts;
+    }
+
+    /**
+     * @return Every record produced by the shards, ordered by sheet and position within the sheet.
+     */
+    public List<MergedEntry> entries() {
+        return entries;
+    }
+
+    /**
+     * Writes the merged manifest: one tab-separated line per record with its sheet, position, shard, outcome
+     * and output path.
+     *
+     * @param file The file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    public void write(Path file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (MergedEntry merged : entries) {
+                ShardManifest.Entry entry = merged.entry();
+                writer.write(String.join("\t", OutputManifest.escape(entry.sheetName()),
+                        Integer.toString(entry.sequence()), Integer.toString(merged.shardNumber()),
+                        entry.status().key(), OutputManifest.escape(entry.entryPath())) + "\n");
+            }
+        }
+    }
+
+    private void check() {
+        if (shards.isEmpty()) {
+            problems.add("No shard manifests found");
+            return;
+        }
+        if (!checkRun()) {
+            return;
+        }
+
+        Map<String, BitSet> produced = new HashMap<>();
+        Map<String, Integer> producedBy = new HashMap<>();
+        Map<String, Integer> entryPaths = new HashMap<>();
+        Counter duplicates = new Counter("records produced more than once");
+        Counter failures = new Counter("failed records");
+        Counter unknown = new Counter("records outside the data");
+        Counter collisions = new Counter("documents written by more than one record");
+
+        for (ShardManifest.Contents shard : shards) {
+            for (ShardManifest.Entry entry : shard.entries()) {
+                String record = "record " + (entry.sequence() + 1) + " of sheet '" + entry.sheetName() + "'";
+                Integer records = recordCounts.get(entry.sheetName());
+                if (records == null || entry.sequence() < 0 || entry.sequence() >= records) {
+                    unknown.add(problems, record + " in shard " + shard.shardNumber() + " is not in the data");
+                    continue;
+                }
+                BitSet sheet = produced.computeIfAbsent(entry.sheetName(), name -> new BitSet(records));
+                String key = entry.sheetName() + "\t" + entry.sequence();
+                if (sheet.get(entry.sequence())) {
+                    duplicates.add(problems, record + " was produced by shards " + producedBy.get(key)
+                            + " and " + shard.shardNumber());
+                    continue;
+                }
+                sheet.set(entry.sequence());
+                producedBy.put(key, shard.shardNumber());
+                entries.add(new MergedEntry(shard.shardNumber(), entry));
+
+                if (entry.status() == ShardManifest.Status.FAILED) {
+                    failures.add(problems, record + " failed in shard " + shard.shardNumber() + ": " + entry.entryPath());
+                }
+                Integer previous = entryPaths.putIfAbsent(entry.entryPath(), entry.sequence());
+                if (previous != null) {
+                    collisions.add(warnings, entry.entryPath() + " was written by " + record
+                            + " and record " + (previous + 1));
+                }
+            }
+        }
+
+        Counter missing = new Counter("records not produced by any shard");
+        recordCounts.forEach((sheetName, records) -> {
+            BitSet sheet = produced.getOrDefault(sheetName, new BitSet());
+            for (int sequence = sheet.nextClearBit(0); sequence < records; sequence = sheet.nextClearBit(sequence + 1)) {
+                missing.add(problems, "record " + (sequence + 1) + " of sheet '" + sheetName
+                        + "' was not produced by any shard");
+            }
+        });
+        for (Counter counter : List.of(duplicates, failures, unknown, missing)) {
+            counter.summarise(problems);
+        }
+        collisions.summarise(warnings);
+
+        List<String> sheetOrder = new ArrayList<>(recordCounts.keySet());
+        entries.sort(Comparator.comparingInt((MergedEntry merged) -> sheetOrder.indexOf(merged.entry().sheetName()))
+                .thenComparingInt(merged -> merged.entry().sequence()));
+    }
+
+    /**
+     * Checks that the manifests describe the same run and that each of its shards is present once and complete.
+     *
+     * @return false if the manifests can not be compared record by record.
+     */
+    private boolean checkRun() {
+        ShardManifest.Contents first = shards.getFirst();
+        boolean consistent = true;
+        for (ShardManifest.Contents shard : shards) {
+            if (shard.shardCount() != first.shardCount() || !shard.keyColumn().equals(first.keyColumn())) {
+                problems.add(String.format("Shard %d/%d split by '%s' does not match shard %d/%d split by '%s'",
+                        shard.shardNumber(), shard.shardCount(), shard.keyColumn(),
+                        first.shardNumber(), first.shardCount(), first.keyColumn()));
+                consistent = false;
+            }
+            if (!shard.dataFingerprint().equals(first.dataFingerprint())) {
+                problems.add(String.format("Shard %d read a different data file than shard %d",
+                        shard.shardNumber(), first.shardNumber()));
+                consistent = false;
+            }
+            if (!shard.complete()) {
+                problems.add(String.format("Shard %d did not run to completion", shard.shardNumber()));
+            }
+        }
+        if (!consistent) {
+            return false;
+        }
+
+        Map<Integer, Long> shardNumbers = new TreeMap<>();
+        shards.forEach(shard -> shardNumbers.merge(shard.shardNumber(), 1L, Long::sum));
+        for (int number = 1; number <= first.shardCount(); number++) {
+            long found = shardNumbers.getOrDefault(number, 0L);
+            if (found == 0) {
+                problems.add(String.format("Shard %d/%d is missing", number, first.shardCount()));
+            } else if (found > 1) {
+                problems.add(String.format("Shard %d/%d was given %d times", number, first.shardCount(), found));
+                consistent = false;
+            }
+        }
+
+        // Every shard reads all records, so the complete ones must agree on the counts
+        for (ShardManifest.Contents shard : shards) {
+            if (!shard.complete()) {
+                continue;
+            }
+            shard.recordCounts().forEach((sheetName, records) -> {
+                Integer known = recordCounts.putIfAbsent(sheetName, records);
+                if (known != null && !Objects.equals(known, records)) {
+                    problems.add(String.format("Shard %d read %d records of sheet '%s', another shard read %d",
+                            shard.shardNumber(), records, sheetName, known));
+                }
+            });
+        }
+        return consistent;
+    }
+
+    /**
+     * Reports the first {@link #MAX_REPORTED} findings of a kind and counts the rest.
+     */
+    private static final class Counter {
+
+        private final String description;
+        private int count;
+
+        Counter(String description) {
+            this.description = description;
+        }
+
+        void add(List<String> findings, String finding) {
+            if (count++ < MAX_REPORTED) {
+                findings.add(finding);
+            }
+        }
+
+        void summarise(List<String> findings) {
+            if (count > MAX_REPORTED) {
+                findings.add(String.format("... and %d more %s", count - MAX_REPORTED, description));
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.rifushigi.domain.service;
+
+import org.rifushigi.domain.infrastructure.DocumentRenderer;
+import org.rifushigi.domain.infrastructure.ImageCache;
+import org.rifushigi.domain.infrastructure.WordDocumentWriter;
+import org.rifushigi.domain.model.CandidateRecord;
+import org.rifushigi.domain.model.Placeholder;
+import org.rifushigi.domain.model.TemplateMetadata;
+import org.rifushigi.metrics.GenerationMetrics;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Routes the rows of one sheet to the jobs of the templates they are rendered into.
+ * Only touched by the reading thread.
+ */
+final class SheetDispatch {
+
+    private final RoutingTable.SheetRoutes routes;
+    private final Map<Path, SheetJob> jobs;
+    private final ImageCache images;
+    private final LocalDate runDate;
+    // Keyed by the template lists of the routing table, which are the same instance for the same routes
+    private final Map<List<Path>, Fanout> fanouts = new IdentityHashMap<>();
+
+    /**
+     * @param routes  The routes of the sheet.
+     * @param jobs    The job of every template of the sheet that could be prepared.
+     * @param images  Resolves the values of image placeholders, shared with the jobs' renderers.
+     * @param runDate The DATE of data without a DATE column, the same as the jobs' renderers give it.
+     */
+    SheetDispatch(RoutingTable.SheetRoutes routes, Map<Path, SheetJob> jobs, ImageCache images, LocalDate runDate) {
+        this.routes = routes;
+        this.jobs = jobs;
+        this.images = images;
+        this.runDate = runDate;
+    }
+
+    /**
+     * @return The jobs of the sheet, in template order.
+     */
+    Collection<SheetJob> jobs() {
+        return jobs.values();
+    }
+
+    /**
+     * @param record A row of the sheet.
+     * @return The jobs the row is rendered by.
+     */
+    Fanout route(CandidateRecord record) {
+        return fanouts.computeIfAbsent(routes.match(record), this::fanout);
+    }
+
+    private Fanout fanout(List<Path> templates) {
+        List<SheetJob> targets = templates.stream().map(jobs::get).filter(Objects::nonNull).toList();
+        if (targets.size() < 2) {
+            return new Fanout(targets, null);
+        }
+        // One resolver for the placeholders of all the templates, so that a row's values are resolved once
+        Set<Placeholder> placeholders = new LinkedHashSet<>();
+        targets.forEach(job -> placeholders.addAll(job.placeholders()));
+        return new Fanout(targets, new WordDocumentWriter(new TemplateMetadata(templates.getFirst(), placeholders),
+                images, runDate, GenerationMetrics.DISABLED));
+    }
+
+    /**
+     * The jobs a combination of routes renders a row into.
+     *
+     * @param jobs     The jobs, each once.
+     * @param resolver Resolves the values of every job at once, or null if there is at most one job.
+     */
+    record Fanout(List<SheetJob> jobs, DocumentRenderer resolver) {
+
+        /**
+         * Resolves the values of a row for every job. With several jobs, the row is resolved once for all of
+         * them and each job takes its own placeholders from that.
+         *
+         * @param record The row.
+         * @return The values of each job's placeholders, in job order.
+         */
+        List<Map<String, String>> resolve(CandidateRecord record) {
+            if (resolver == null) {
+                return jobs.stream().map(job -> job.renderer().resolveReplacements(record)).toList();
+            }
+            Map<String, String> values = resolver.resolveReplacements(record);
+            return jobs.stream().map(job -> job.select(values)).toList();
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package org.rifushigi.domain.service;
+
+import org.rifushigi.domain.infrastructure.DocumentRenderer;
+import org.rifushigi.domain.infrastructure.MergedDocument;
+import org.rifushigi.domain.infrastructure.OutputManifest;
+import org.rifushigi.domain.model.Placeholder;
+import org.rifushigi.util.Digests;
+
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A sheet being generated: its renderer, its output directory within the sink and the running outcome of its records.
+ * The record count is only touched by the reading thread; the outcomes are updated by the pipeline threads.
+ */
+final class SheetJob {
+
+    private final String sheetName;
+    private final Set<Placeholder> placeholders;
+    private final ThreadLocal<DocumentRenderer> renderers;
+    private final String entryDirectory;
+    private final OutputManifest manifest;
+    private final String inputFingerprint;
+
+    private final AtomicInteger filesCreated = new AtomicInteger();
+    private final AtomicInteger duplicates = new AtomicInteger();
+    private final AtomicLong duplicateBytes = new AtomicLong();
+    private final Map<Integer, String> errors = new ConcurrentSkipListMap<>();
+    // The document file names given out so far, in lower case
+    private final Set<String> fileNames = new HashSet<>();
+    private int records;
+    private int unchanged;
+    private int otherShards;
+    private long estimatedDocumentBytes;
+    private MergedDocument mergedDocument;
+
+    /**
+     * @param sheetName        The sheet, qualified with the template when its rows are rendered into several.
+     * @param renderers        One renderer per pipeline thread; implementations that are immutable may share an instance.
+     * @param manifest         The manifest of the sheet's output directory, or null to regenerate every record.
+     * @param inputFingerprint Identifies everything besides the record values that goes into a document:
+     *                         the template bytes, the renderer and its formatting rules.
+     */
+    SheetJob(String sheetName, Set<Placeholder> placeholders, ThreadLocal<DocumentRenderer> renderers, String entryDirectory,
+             OutputManifest manifest, String inputFingerprint) {
+        this.sheetName = sheetName;
+        this.placeholders = placeholders;
+        this.renderers = renderers;
+        this.entryDirectory = entryDirectory;
+        this.manifest = manifest;
+        this.inputFingerprint = inputFingerprint;
+    }
+
+    String sheetName() {
+        return sheetName;
+    }
+
+    Set<Placeholder> placeholders() {
+        return placeholders;
+    }
+
+    /**
+     * @return The renderer owned by the calling thread.
+     */
+    DocumentRenderer renderer() {
+        return renderers.get();
+    }
+
+    /**
+     * @return The heap a document of this sheet is expected to take up while it is rendered and written.
+     */
+    long estimatedDocumentBytes() {
+        return estimatedDocumentBytes;
+    }
+
+    /**
+     * Sets the heap a document of this sheet is expected to take up, charged against the heap budget.
+     */
+    void estimatedDocumentBytes(long estimatedDocumentBytes) {
+        this.estimatedDocumentBytes = estimatedDocumentBytes;
+    }
+
+    /**
+     * @return The document every document of this sheet is merged into, or null to write one file per record.
+     */
+    MergedDocument mergedDocument() {
+        return mergedDocument;
+    }
+
+    /**
+     * Merges the documents of this sheet into a single document instead of writing them to the sink.
+     * Only the pipeline's writer thread adds to it.
+     */
+    void mergedDocument(MergedDocument mergedDocument) {
+        this.mergedDocument = mergedDocument;
+    }
+
+    /**
+     * @return The '/'-separated directory of the sheet's documents, relative to the output root.
+     */
+    String entryDirectory() {
+        return entryDirectory;
+    }
+
+    /**
+     * @return The manifest of the sheet's output directory, or null if the run is not incremental.
+     */
+    OutputManifest manifest() {
+        return manifest;
+    }
+
+    /**
+     * Picks the values of this job's placeholders from values resolved for several templates at once.
+     *
+     * @param values The resolved values of a record, covering at least this job's placeholders.
+     * @return The values of this job's placeholders.
+     */
+    Map<String, String> select(Map<String, String> values) {
+        Map<String, String> replacements = new HashMap<>();
+        for (Placeholder placeholder : placeholders) {
+            replacements.put(placeholder.varName(), values.get(placeholder.varName()));
+        }
+        return replacements;
+    }
+
+    /**
+     * Hashes everything a document is rendered from: the input fingerprint and the resolved values.
+     *
+     * @param replacements The resolved values of the record.
+     * @return The hash as a lower-case hex string.
+     */
+    String contentHash(Map<String, String> replacements) {
+        MessageDigest digest = Digests.sha256();
+        Digests.update(digest, inputFingerprint);
+        for (Map.Entry<String, String> entry : new TreeMap<>(replacements).entrySet()) {
+            Digests.update(digest, entry.getKey());
+            Digests.update(digest, entry.getValue());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Counts a record read for this sheet.
+     *
+     * @return The zero-based sequence number of the record within the sheet.
+     */
+    int nextSequence() {
+        return records++;
+    }
+
+    int records() {
+        return records;
+    }
+
+    /**
+     * Names the document of a record after its file name column. If an earlier record of the sheet already
+     * has a document of that name, " (2)", " (3)"... is added, so that no document replaces another in a
+     * directory or is listed twice in an archive. Names that differ only in case count as the same, as they do
+     * on Windows and macOS. Only called by the reading thread, for every record in order, so that every shard
+     * picks the same names.
+     *
+     * @param baseFileName The value of the record's file name column.
+     * @return The file name of the record's document, without extension.
+     */
+    String uniqueFileName(String baseFileName) {
+        String base = String.valueOf(baseFileName);
+        String name = base;
+        for (int i = 2; !fileNames.add(name.toLowerCase(Locale.ROOT)); i++) {
+            name = base + " (" + i + ")";
+        }
+        return name;
+    }
+
+    /**
+     * Counts a record whose document is already up to date. Only called by the reading thread.
+     */
+    void recordUnchanged() {
+        unchanged++;
+    }
+
+    int unchanged() {
+        return unchanged;
+    }
+
+    /**
+     * Counts a record that belongs to another shard, keeping the sequence numbers and document names the
+     * same in every shard. Only called by the reading thread.
+     *
+     * @param baseFileName The value of the record's file name column.
+     */
+    void recordOtherShard(String baseFileName) {
+        nextSequence();
+        uniqueFileName(baseFileName);
+        otherShards++;
+    }
+
+    int otherShards() {
+        return otherShards;
+    }
+
+    void recordCreated() {
+        filesCreated.incrementAndGet();
+    }
+
+    /**
+     * Counts a document stored as a link to an identical one instead of being rendered.
+     *
+     * @param bytes The size of the document that did not have to be stored again.
+     */
+    void recordDuplicate(long bytes) {
+        duplicates.incrementAndGet();
+        duplicateBytes.addAndGet(bytes);
+    }
+
+    int duplicates() {
+        return duplicates.get();
+    }
+
+    long duplicateBytes() {
+        return duplicateBytes.get();
+    }
+
+    void recordFailure(int sequence, String error) {
+        errors.put(sequence, error);
+    }
+
+    int filesCreated() {
+        return filesCreated.get();
+    }
+
+    /**
+     * @return The error messages of failed records, ordered by record sequence.
+     */
+    Iterable<String> errors() {
+        return errors.values();
+    }
+}
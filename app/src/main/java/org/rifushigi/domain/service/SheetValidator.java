@@ -0,0 +1,253 @@
+package org.rifushigi.domain.service;
+
+import org.rifushigi.domain.infrastructure.ImageCache;
+import org.rifushigi.domain.infrastructure.WordDocumentWriter;
+import org.rifushigi.domain.model.CandidateRecord;
+import org.rifushigi.domain.model.Placeholder;
+import org.rifushigi.domain.model.RecordSchema;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Checks the records of one sheet against its template without rendering them, for a validation run.
+ * <p>
+ * Every record is checked for what would make its document go missing or end up wrong: placeholders without
+ * a column, document file names that are blank or not valid on common file systems, and images that cannot be
+ * found. File names repeated within the sheet are warned about, as the later documents get numbered names.
+ * The size of the output is estimated from the template size and the values filled in. Only the first
+ * {@link #MAX_REPORTED} findings of each kind are kept.
+ */
+final class SheetValidator {
+
+    // Findings of one kind beyond this many are summarised in a single line
+    private static final int MAX_REPORTED = 20;
+    // Characters Windows, macOS or Linux do not allow in file names, or that would create subdirectories
+    private static final Pattern INVALID_FILE_NAME_CHARACTERS = Pattern.compile("[\\\\/:*?\"<>|\\p{Cntrl}]");
+    private static final Pattern RESERVED_FILE_NAME = Pattern.compile("(?i)(CON|PRN|AUX|NUL|COM[1-9]|LPT[1-9])");
+    private static final int MAX_FILE_NAME_BYTES = 255;
+    private static final String DOCUMENT_EXTENSION = ".docx";
+
+    private final String sheetName;
+    private final Set<Placeholder> placeholders;
+    private final long templateBytes;
+    private final ImageCache images;
+
+    private final Map<String, Finding> problems = new LinkedHashMap<>();
+    private final Map<String, Finding> warnings = new LinkedHashMap<>();
+    // The first record seen with each file name, keyed case-insensitively as some file systems compare them
+    private final Map<String, FirstUse> fileNames = new HashMap<>();
+    private final Map<String, Integer> blankValues = new LinkedHashMap<>();
+    private RecordSchema schema;
+    private int records;
+    private int documents;
+    private int otherShards;
+    private long valueBytes;
+
+    /**
+     * @param sheetName     The sheet checked.
+     * @param placeholders  The placeholders of the sheet's template.
+     * @param templateBytes The size of the template file.
+     * @param images        Finds the images of image placeholders.
+     */
+    SheetValidator(String sheetName, Set<Placeholder> placeholders, long templateBytes, ImageCache images) {
+        this.sheetName = sheetName;
+        this.placeholders = placeholders;
+        this.templateBytes = templateBytes;
+        this.images = images;
+    }
+
+    /**
+     * Checks a record that would be rendered by this run.
+     */
+    void check(CandidateRecord record) {
+        int number = ++records;
+        documents++;
+        if (record.schema() != schema) {
+            schema = record.schema();
+            checkColumns();
+        }
+
+        for (Placeholder placeholder : placeholders) {
+            String value = record.getValue(placeholder.column());
+            if (value == null || value.isBlank()) {
+                // A blank file name is reported on its own, and missing columns once per sheet
+                if (schema.indexOf(placeholder.column()) >= 0
+                        && !placeholder.varName().equalsIgnoreCase(GenerationPipeline.FILE_NAME_COLUMN)) {
+                    blankValues.merge(placeholder.fullText(), 1, Integer::sum);
+                }
+            } else if (placeholder.isImage()) {
+                if (!images.exists(value)) {
+                    problem("missing image", "images not found",
+                            "Record " + number + ": image '" + value + "' of " + placeholder.fullText() + " not found");
+                }
+            } else {
+                valueBytes += value.getBytes(StandardCharsets.UTF_8).length;
+            }
+        }
+        checkFileName(number, record.getValue(GenerationPipeline.FILE_NAME_COLUMN));
+    }
+
+    /**
+     * Counts a record rendered by another shard, which is read but not checked.
+     */
+    void skipOtherShard() {
+        records++;
+        otherShards++;
+    }
+
+    private void checkColumns() {
+        for (Placeholder placeholder : placeholders) {
+            if (!WordDocumentWriter.hasDefaultValue(placeholder.varName()) && schema.indexOf(placeholder.column()) < 0) {
+                problems.computeIfAbsent("missing column", kind -> new Finding("placeholders without a column"))
+                        .add("Placeholder " + placeholder.fullText() + " has no column in the data; it would be left empty");
+            }
+        }
+        if (schema.indexOf(GenerationPipeline.FILE_NAME_COLUMN) < 0) {
+            problems.computeIfAbsent("no file name column", kind -> new Finding("missing file name columns"))
+                    .add("There is no '" + GenerationPipeline.FILE_NAME_COLUMN + "' column to name the documents after");
+        }
+    }
+
+    private void checkFileName(int number, String name) {
+        String record = "Record " + number;
+        if (name == null || name.isBlank()) {
+            if (schema.indexOf(GenerationPipeline.FILE_NAME_COLUMN) >= 0) {
+                problem("blank name", "records without a file name",
+                        record + " has a blank '" + GenerationPipeline.FILE_NAME_COLUMN + "'");
+            }
+            return;
+        }
+
+        String fileName = name + DOCUMENT_EXTENSION;
+        if (INVALID_FILE_NAME_CHARACTERS.matcher(name).find()) {
+            problem("invalid characters", "file names with invalid characters",
+                    record + ": '" + name + "' contains characters not allowed in file names");
+        } else if (name.endsWith(".") || name.endsWith(" ") || name.startsWith(" ")) {
+            problem("invalid characters", "file names with invalid characters",
+                    record + ": '" + name + "' starts or ends with a space or ends with a dot");
+        } else if (RESERVED_FILE_NAME.matcher(name).matches()) {
+            problem("reserved name", "reserved file names",
+                    record + ": '" + name + "' is a reserved file name on Windows");
+        } else if (fileName.getBytes(StandardCharsets.UTF_8).length > MAX_FILE_NAME_BYTES) {
+            problem("long name", "file names that are too long",
+                    record + ": '" + name + "' is too long for a file name");
+        }
+
+        FirstUse first = fileNames.putIfAbsent(name.toLowerCase(Locale.ROOT), new FirstUse(number, name));
+        if (first == null) {
+            return;
+        }
+        Finding duplicates = warnings.computeIfAbsent("duplicate name", kind -> new Finding("duplicate file names"));
+        if (first.name().equals(name)) {
+            duplicates.add(record + " has the same name as record " + first.record() + ": '" + name
+                    + "'; its document would get a numbered name");
+        } else {
+            duplicates.add(record + ": '" + name + "' differs from '" + first.name() + "' of record " + first.record()
+                    + " only in case; its document would get a numbered name");
+        }
+    }
+
+    private void problem(String kind, String description, String message) {
+        problems.computeIfAbsent(kind, key -> new Finding(description)).add(message);
+    }
+
+    String sheetName() {
+        return sheetName;
+    }
+
+    /**
+     * @return The number of records read, including those of other shards.
+     */
+    int records() {
+        return records;
+    }
+
+    /**
+     * @return The number of documents a real run would produce.
+     */
+    int documents() {
+        return documents;
+    }
+
+    int otherShards() {
+        return otherShards;
+    }
+
+    /**
+     * @return The expected size of the documents: the template once per document plus the values filled in.
+     */
+    long estimatedBytes() {
+        return documents * templateBytes + valueBytes;
+    }
+
+    /**
+     * @return Findings that would make documents go missing or end up wrong.
+     */
+    List<String> problems() {
+        return report(problems);
+    }
+
+    /**
+     * @return Findings worth a look that do not keep the run from producing every document.
+     */
+    List<String> warnings() {
+        List<String> findings = new ArrayList<>();
+        blankValues.forEach((placeholder, count) -> findings.add(String.format(
+                "Placeholder %s is blank in %d of %d records", placeholder, count, documents)));
+        findings.addAll(report(warnings));
+        return findings;
+    }
+
+    private static List<String> report(Map<String, Finding> findings) {
+        List<String> lines = new ArrayList<>();
+        for (Finding finding : findings.values()) {
+            lines.addAll(finding.messages());
+            if (finding.count() > MAX_REPORTED) {
+                lines.add(String.format("... and %d more %s", finding.count() - MAX_REPORTED, finding.description()));
+            }
+        }
+        return lines;
+    }
+
+    private record FirstUse(int record, String name) {}
+
+    /**
+     * The first {@link #MAX_REPORTED} findings of a kind and the number of them.
+     */
+    private static final class Finding {
+
+        private final String description;
+        private final List<String> messages = new ArrayList<>();
+        private int count;
+
+        Finding(String description) {
+            this.description = description;
+        }
+
+        void add(String message) {
+            if (count++ < MAX_REPORTED) {
+                messages.add(message);
+            }
+        }
+
+        String description() {
+            return description;
+        }
+
+        List<String> messages() {
+            return messages;
+        }
+
+        int count() {
+            return count;
+        }
+    }
+}
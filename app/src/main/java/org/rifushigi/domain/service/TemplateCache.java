@@ -0,0 +1,142 @@
+package org.rifushigi.domain.service;
+
+import org.rifushigi.domain.infrastructure.CompiledTemplate;
+import org.rifushigi.domain.infrastructure.ImageCache;
+import org.rifushigi.domain.infrastructure.TemplateStore;
+import org.rifushigi.domain.infrastructure.ZipCompression;
+import org.rifushigi.domain.model.TemplateMetadata;
+import org.rifushigi.metrics.GenerationMetrics;
+import org.rifushigi.util.Digests;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the templates of a directory compiled in memory for a long-running process.
+ * <p>
+ * A template is addressed by its file name without the .docx extension. It is compiled on first use, and
+ * compiled again when its file changes on disk. Lookups of cached templates do not block each other.
+ * With a {@link TemplateStore}, templates compiled by an earlier process are read back instead of compiled.
+ * The file names of image placeholder values are relative to the template directory.
+ */
+public class TemplateCache {
+
+    private static final String TEMPLATE_EXTENSION = ".docx";
+    // Template names are plain file names, so a request can never address a file outside the directory
+    private static final Pattern TEMPLATE_NAME = Pattern.compile("[\\w .-]+");
+
+    private final Path templateDirectory;
+    private final ZipCompression compression;
+    private final TemplateLoader loader;
+    private final Map<String, Entry> templates = new ConcurrentHashMap<>();
+
+    /**
+     * @param templateDirectory The directory holding the .docx templates.
+     * @param compression       How the parts that change per document are compressed.
+     * @param metrics           Receives the scan and compile time of templates and the render time of documents.
+     */
+    public TemplateCache(Path templateDirectory, ZipCompression compression, GenerationMetrics metrics) {
+        this(templateDirectory, compression, null, metrics);
+    }
+
+    /**
+     * @param templateDirectory The directory holding the .docx templates.
+     * @param compression       How the parts that change per document are compressed.
+     * @param store             The on-disk template cache, or null to compile every template from scratch.
+     * @param metrics           Receives the scan and compile time of templates and the render time of documents.
+     */
+    public TemplateCache(Path templateDirectory, ZipCompression compression, TemplateStore store,
+                         GenerationMetrics metrics) {
+        this.templateDirectory = templateDirectory.toAbsolutePath().normalize();
+        this.compression = compression;
+        this.loader = new TemplateLoader(store, new ImageCache(this.templateDirectory, ImageCache.DEFAULT_MAX_BYTES), metrics);
+    }
+
+    /**
+     * Returns the compiled template with the given name, compiling it if it is not cached or has changed.
+     *
+     * @param name The template name: its file name without the .docx extension.
+     * @return The compiled template, or null if there is no such template.
+     * @throws IOException if the template cannot be read or has no placeholders.
+     */
+    public CompiledTemplate get(String name) throws IOException {
+        if (!TEMPLATE_NAME.matcher(name).matches() || name.startsWith(".")) {
+            return null;
+        }
+        Path file = templateDirectory.resolve(name + TEMPLATE_EXTENSION);
+        if (!Files.isRegularFile(file)) {
+            templates.remove(name);
+            return null;
+        }
+        FileTime modified = Files.getLastModifiedTime(file);
+
+        Entry cached = templates.get(name);
+        if (cached != null && cached.modified().equals(modified)) {
+            return cached.template();
+        }
+        try {
+            // compute() compiles a template once even when several requests miss it at the same time
+            return templates.compute(name, (key, current) -> {
+                if (current != null && current.modified().equals(modified)) {
+                    return current;
+                }
+                try {
+                    return new Entry(compile(file), modified);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).template();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Compiles every template of the directory, so that the first request for each is served warm.
+     *
+     * @return The names of the templates that could not be compiled, with the reason.
+     * @throws IOException if the directory cannot be listed.
+     */
+    public List<String> preload() throws IOException {
+        List<String> failures = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(templateDirectory, "*" + TEMPLATE_EXTENSION)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                String name = fileName.substring(0, fileName.length() - TEMPLATE_EXTENSION.length());
+                try {
+                    get(name);
+                } catch (IOException | RuntimeException e) {
+                    failures.add(name + ": " + e.getMessage());
+                }
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * @return The number of compiled templates held in memory.
+     */
+    public int size() {
+        return templates.size();
+    }
+
+    private CompiledTemplate compile(Path file) throws IOException {
+        String templateHash = Digests.sha256Hex(file);
+        TemplateMetadata template = loader.scan(file, templateHash).value();
+        if (template.placeholders().isEmpty()) {
+            throw new IOException("No placeholders found in template " + file.getFileName());
+        }
+        return loader.compile(template, templateHash, compression).value();
+    }
+
+    private record Entry(CompiledTemplate template, FileTime modified) {}
+}
@@ -0,0 +1,122 @@
+package org.rifushigi.domain.service;
+
+import org.rifushigi.domain.infrastructure.CompiledTemplate;
+import org.rifushigi.domain.infrastructure.ImageCache;
+import org.rifushigi.domain.infrastructure.TemplateStore;
+import org.rifushigi.domain.infrastructure.ZipCompression;
+import org.rifushigi.domain.model.TemplateMetadata;
+import org.rifushigi.metrics.GenerationMetrics;
+import org.rifushigi.metrics.Stage;
+import org.rifushigi.util.AnsiColors;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Scans and compiles templates, going through a {@link TemplateStore} when one is configured.
+ * <p>
+ * The store only ever saves work: a template missing from it is scanned or compiled as usual and then stored,
+ * and a store that cannot be written is reported once and otherwise ignored.
+ */
+class TemplateLoader {
+
+    private final TemplateStore store;
+    private final ImageCache images;
+    private final LocalDate runDate;
+    private final GenerationMetrics metrics;
+    private final AtomicBoolean storeFailureReported = new AtomicBoolean();
+
+    /**
+     * @param store   The on-disk template cache, or null to always scan and compile.
+     * @param images  Loads the images of the image placeholders of compiled templates.
+     * @param metrics Receives the time taken to scan, compile or load each template.
+     */
+    TemplateLoader(TemplateStore store, ImageCache images, GenerationMetrics metrics) {
+        this(store, images, null, metrics);
+    }
+
+    /**
+     * @param store   The on-disk template cache, or null to always scan and compile.
+     * @param images  Loads the images of the image placeholders of compiled templates.
+     * @param runDate The DATE compiled templates give data without a DATE column, or null for the current date.
+     * @param metrics Receives the time taken to scan, compile or load each template.
+     */
+    TemplateLoader(TemplateStore store, ImageCache images, LocalDate runDate, GenerationMetrics metrics) {
+        this.store = store;
+        this.images = images;
+        this.runDate = runDate;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the placeholders of a template and their locations.
+     *
+     * @param templatePath The template file.
+     * @param templateHash The SHA-256 of the template file, which keys the cache entries.
+     * @return The scanned template, and whether it came from the cache.
+     * @throws IOException if the template cannot be read.
+     */
+    Loaded<TemplateMetadata> scan(Path templatePath, String templateHash) throws IOException {
+        if (store == null) {
+            return new Loaded<>(new PlaceholderService(metrics).scanTemplate(templatePath), false);
+        }
+        long start = metrics.start();
+        TemplateMetadata template = store.loadMetadata(templateHash, templatePath);
+        if (template != null) {
+            metrics.record(Stage.PLACEHOLDER_SCAN, start);
+            return new Loaded<>(template, true);
+        }
+        template = new PlaceholderService(metrics).scanTemplate(templatePath);
+        try {
+            store.storeMetadata(templateHash, template);
+        } catch (IOException e) {
+            reportStoreFailure(e);
+        }
+        return new Loaded<>(template, false);
+    }
+
+    /**
+     * Returns the render plan of a scanned template.
+     *
+     * @param template     The scanned template.
+     * @param templateHash The SHA-256 of the template file, which keys the cache entries.
+     * @param compression  How the parts that change per record are compressed.
+     * @return The compiled template, and whether it came from the cache.
+     * @throws IOException if the template cannot be read.
+     */
+    Loaded<CompiledTemplate> compile(TemplateMetadata template, String templateHash,
+                                     ZipCompression compression) throws IOException {
+        Path templatePath = template.templatePath();
+        if (store == null) {
+            return new Loaded<>(CompiledTemplate.compile(templatePath, template.placeholders(), compression, images, runDate, metrics), false);
+        }
+        long start = metrics.start();
+        CompiledTemplate compiled = store.loadCompiled(templateHash, templatePath, template.placeholders(), compression, images, runDate, metrics);
+        if (compiled != null) {
+            metrics.record(Stage.TEMPLATE_LOADING, start);
+            return new Loaded<>(compiled, true);
+        }
+        compiled = CompiledTemplate.compile(templatePath, template.placeholders(), compression, images, runDate, metrics);
+        try {
+            store.storeCompiled(templateHash, compiled);
+        } catch (IOException e) {
+            reportStoreFailure(e);
+        }
+        return new Loaded<>(compiled, false);
+    }
+
+    private void reportStoreFailure(IOException e) {
+        if (storeFailureReported.compareAndSet(false, true)) {
+            System.err.println(AnsiColors.colored(AnsiColors.YELLOW, String.format(
+                    "Warning: Could not write to the template cache %s: %s", store.directory(), e.getMessage())));
+        }
+    }
+
+    /**
+     * @param value     The scanned or compiled template.
+     * @param fromCache true if it was read from the template cache.
+     */
+    record Loaded<T>(T value, boolean fromCache) {}
+}
@@ -0,0 +1,243 @@
+package org.rifushigi.metrics;
+
+import org.rifushigi.util.Json;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the timings of a generation run: a {@link LatencyHistogram} per {@link Stage}, the bytes written,
+ * the throughput and the slowest records.
+ * <p>
+ * All methods are thread-safe. Components that are not given an instance use {@link #DISABLED}, whose
+ * methods do nothing.
+ */
+public class GenerationMetrics {
+
+    /**
+     * An instance that records nothing.
+     */
+    public static final GenerationMetrics DISABLED = new GenerationMetrics(false);
+
+    private static final int SLOWEST_RECORDS = 10;
+
+    private final boolean enabled;
+    private final Map<Stage, LatencyHistogram> stages = new EnumMap<>(Stage.class);
+    private final LongAdder bytesWritten = new LongAdder();
+    // A min-heap, so the fastest of the slowest records is the one replaced
+    private final PriorityQueue<SlowRecord> slowest = new PriorityQueue<>(Comparator.comparingLong(SlowRecord::nanos));
+    private final long startNanos;
+    private volatile long endNanos;
+
+    public GenerationMetrics() {
+        this(true);
+    }
+
+    private GenerationMetrics(boolean enabled) {
+        this.enabled = enabled;
+        this.startNanos = System.nanoTime();
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, new LatencyHistogram());
+        }
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * @return A start time to pass to {@link #record(Stage, long)}.
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time elapsed since a {@link #start()}.
+     *
+     * @param stage      The stage that was timed.
+     * @param startNanos The value returned by {@link #start()}.
+     * @return The current time, to be used as the start of a following stage.
+     */
+    public long record(Stage stage, long startNanos) {
+        if (!enabled) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        stages.get(stage).record(now - startNanos);
+        return now;
+    }
+
+    /**
+     * Records a duration measured by the caller.
+     *
+     * @param stage The stage that was timed.
+     * @param nanos The duration in nanoseconds.
+     */
+    public void recordNanos(Stage stage, long nanos) {
+        if (enabled) {
+            stages.get(stage).record(nanos);
+        }
+    }
+
+    /**
+     * Records a document that has been written.
+     *
+     * @param sheetName   The sheet of the record.
+     * @param fileName    The document's file name.
+     * @param renderNanos How long rendering the document took.
+     * @param bytes       The size of the document.
+     */
+    public void recordDocument(String sheetName, String fileName, long renderNanos, long bytes) {
+        if (!enabled) {
+            return;
+        }
+        bytesWritten.add(bytes);
+        synchronized (slowest) {
+            if (slowest.size() < SLOWEST_RECORDS) {
+                slowest.add(new SlowRecord(sheetName, fileName, renderNanos, bytes));
+            } else if (renderNanos > slowest.peek().nanos()) {
+                slowest.poll();
+                slowest.add(new SlowRecord(sheetName, fileName, renderNanos, bytes));
+            }
+        }
+    }
+
+    /**
+     * Marks the end of the run, which the throughput figures are computed against.
+     */
+    public void finish() {
+        endNanos = System.nanoTime();
+    }
+
+    public LatencyHistogram stage(Stage stage) {
+        return stages.get(stage);
+    }
+
+    public long bytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    /**
+     * @return The time from the creation of this instance to {@link #finish()}, or to now if the run is not finished.
+     */
+    public long wallNanos() {
+        long end = endNanos;
+        return (end != 0 ? end : System.nanoTime()) - startNanos;
+    }
+
+    /**
+     * @return The rows read per second of wall time.
+     */
+    public double rowsPerSecond() {
+        return perSecond(stage(Stage.EXCEL_PARSING).count());
+    }
+
+    /**
+     * @return The documents written per second of wall time.
+     */
+    public double documentsPerSecond() {
+        return perSecond(stage(Stage.DISK_WRITE).count());
+    }
+
+    /**
+     * @return The slowest records to render, slowest first.
+     */
+    public List<SlowRecord> slowestRecords() {
+        List<SlowRecord> records;
+        synchronized (slowest) {
+            records = new ArrayList<>(slowest);
+        }
+        records.sort(Comparator.comparingLong(SlowRecord::nanos).reversed());
+        return records;
+    }
+
+    /**
+     * Writes the summary of the run as a JSON document.
+     *
+     * @param file The file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    public void writeJson(Path file) throws IOException {
+        Files.writeString(file, toJson(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The summary of the run as a JSON document. Durations are in milliseconds.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder(2048);
+        json.append("{\n");
+        json.append("  \"wallTimeMillis\": ").append(millis(wallNanos())).append(",\n");
+        json.append("  \"rowsRead\": ").append(stage(Stage.EXCEL_PARSING).count()).append(",\n");
+        json.append("  \"documentsWritten\": ").append(stage(Stage.DISK_WRITE).count()).append(",\n");
+        json.append("  \"bytesWritten\": ").append(bytesWritten()).append(",\n");
+        json.append("  \"rowsPerSecond\": ").append(decimal(rowsPerSecond())).append(",\n");
+        json.append("  \"documentsPerSecond\": ").append(decimal(documentsPerSecond())).append(",\n");
+
+        json.append("  \"stages\": {");
+        String separator = "\n";
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = stage(stage);
+            json.append(separator).append("    ").append(Json.quote(stage.key())).append(": {")
+                    .append("\"count\": ").append(histogram.count())
+                    .append(", \"totalMillis\": ").append(millis(histogram.totalNanos()))
+                    .append(", \"meanMillis\": ").append(millis(histogram.meanNanos()))
+                    .append(", \"p50Millis\": ").append(millis(histogram.percentileNanos(50)))
+                    .append(", \"p90Millis\": ").append(millis(histogram.percentileNanos(90)))
+                    .append(", \"p99Millis\": ").append(millis(histogram.percentileNanos(99)))
+                    .append(", \"maxMillis\": ").append(millis(histogram.maxNanos()))
+                    .append('}');
+            separator = ",\n";
+        }
+        json.append("\n  },\n");
+
+        json.append("  \"slowestRecords\": [");
+        separator = "\n";
+        for (SlowRecord record : slowestRecords()) {
+            json.append(separator).append("    {")
+                    .append("\"sheet\": ").append(Json.quote(record.sheetName()))
+                    .append(", \"file\": ").append(Json.quote(record.fileName()))
+                    .append(", \"renderMillis\": ").append(millis(record.nanos()))
+                    .append(", \"bytes\": ").append(record.bytes())
+                    .append('}');
+            separator = ",\n";
+        }
+        json.append(separator.equals("\n") ? "]\n" : "\n  ]\n");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    private double perSecond(long count) {
+        long nanos = wallNanos();
+        return nanos == 0 ? 0 : count * 1e9 / nanos;
+    }
+
+    private static String millis(double nanos) {
+        return decimal(nanos / 1e6);
+    }
+
+    private static String decimal(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    /**
+     * One of the slowest records of the run.
+     *
+     * @param sheetName The sheet of the record.
+     * @param fileName  The document's file name.
+     * @param nanos     How long rendering the document took.
+     * @param bytes     The size of the document.
+     */
+    public record SlowRecord(String sheetName, String fileName, long nanos, long bytes) {}
+}
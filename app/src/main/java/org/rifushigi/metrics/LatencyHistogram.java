@@ -0,0 +1,104 @@
+package org.rifushigi.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of durations in nanoseconds with bounded relative error.
+ * <p>
+ * Values are counted in log-linear buckets: every power of two is split into {@value #SUB_BUCKETS} equal
+ * buckets, so a reported percentile is at most about 6% above the true value, whatever its magnitude.
+ * The histogram has a fixed footprint of a few kilobytes and can be updated from any number of threads.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Values below SUB_BUCKETS have exact buckets; every higher power of two gets SUB_BUCKETS buckets
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos The duration in nanoseconds. Negative values are counted as zero.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(value));
+        count.increment();
+        total.add(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * @return The sum of all recorded durations in nanoseconds.
+     */
+    public long totalNanos() {
+        return total.sum();
+    }
+
+    public long maxNanos() {
+        return max.get();
+    }
+
+    /**
+     * @return The mean duration in nanoseconds, or 0 if nothing was recorded.
+     */
+    public double meanNanos() {
+        long n = count();
+        return n == 0 ? 0 : (double) totalNanos() / n;
+    }
+
+    /**
+     * @param percentile The percentile, between 0 and 100.
+     * @return An upper bound of the duration below which the given percentage of the values fall,
+     * or 0 if nothing was recorded.
+     */
+    public long percentileNanos(double percentile) {
+        long n = count();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(bucket), maxNanos());
+            }
+        }
+        return maxNanos();
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long lowerBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int magnitude = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        return (SUB_BUCKETS | subBucket) << (magnitude - SUB_BUCKET_BITS);
+    }
+
+    private static long upperBoundOf(int bucket) {
+        return bucket + 1 < BUCKET_COUNT ? lowerBoundOf(bucket + 1) - 1 : Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,38 @@
+package org.rifushigi.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Flight Recorder event covering the rendering of one document.
+ * Recorded with {@code java -XX:StartFlightRecording ...}; it costs next to nothing when no recording is running.
+ */
+@Name("org.rifushigi.RecordRender")
+@Label("Record Render")
+@Category({"Tessera", "Generation"})
+@Description("Rendering of one document from a spreadsheet record")
+@StackTrace(false)
+public class RecordRenderEvent extends Event {
+
+    @Label("Sheet")
+    public String sheet;
+
+    @Label("File Name")
+    public String fileName;
+
+    @Label("Record Sequence")
+    @Description("Zero-based position of the record within its sheet")
+    public int sequence;
+
+    @Label("Document Size")
+    @DataAmount
+    public long bytes;
+
+    @Label("Failed")
+    public boolean failed;
+}
@@ -0,0 +1,30 @@
+package org.rifushigi.metrics;
+
+import java.util.Locale;
+
+/**
+ * The timed stages of a generation run.
+ */
+public enum Stage {
+    /** Reading and decoding one data row, from a workbook or a CSV file, excluding the time spent handing it on. */
+    EXCEL_PARSING,
+    /** Scanning a template for its placeholders. */
+    PLACEHOLDER_SCAN,
+    /** Loading a template: once per template when compiled, once per document for the POI writer. */
+    TEMPLATE_LOADING,
+    /** Replacing the placeholders of one document with its values. */
+    REPLACEMENT,
+    /** Serialising and compressing one document into its zip package. */
+    ZIP_SERIALISATION,
+    /** Rendering one document end to end, from resolved values to bytes. */
+    RENDER,
+    /** Storing one rendered document in the output. */
+    DISK_WRITE;
+
+    /**
+     * @return The name used in the metrics report, e.g. "zip_serialisation".
+     */
+    public String key() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,66 @@
+package org.rifushigi.nativeimage;
+
+import org.graalvm.nativeimage.hosted.Feature;
+import org.graalvm.nativeimage.hosted.RuntimeReflection;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Registers the XMLBeans schema classes POI loads by name for reflection in the native image.
+ * <p>
+ * XMLBeans resolves every OOXML schema type to its implementation class at runtime, and finds the compiled
+ * type system through a holder class per schema. Which of the thousands of types a document needs depends on
+ * its content, so rather than listing the ones a training run happened to touch, every class of the schema
+ * packages is registered when the image is built. This class is only loaded by the native-image builder.
+ */
+public class XmlBeansFeature implements Feature {
+
+    private static final List<String> SCHEMA_PACKAGES = List.of(
+            "org/openxmlformats/schemas/",
+            "org/apache/poi/schemas/",
+            "com/microsoft/schemas/",
+            "org/etsi/uri/",
+            "org/w3/x2000/"
+    );
+
+    @Override
+    public String getDescription() {
+        return "Registers the XMLBeans OOXML schema classes for reflection";
+    }
+
+    @Override
+    public void beforeAnalysis(BeforeAnalysisAccess access) {
+        for (Path entry : access.getApplicationClassPath()) {
+            if (Files.isRegularFile(entry) && entry.toString().endsWith(".jar")) {
+                registerSchemaClasses(access, entry);
+            }
+        }
+    }
+
+    private static void registerSchemaClasses(BeforeAnalysisAccess access, Path jar) {
+        try (JarFile jarFile = new JarFile(jar.toFile())) {
+            Enumeration<JarEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                String name = entries.nextElement().getName();
+                if (!name.endsWith(".class") || name.contains("-") || SCHEMA_PACKAGES.stream().noneMatch(name::startsWith)) {
+                    continue;
+                }
+                Class<?> type = access.findClassByName(name.substring(0, name.length() - ".class".length()).replace('/', '.'));
+                if (type != null) {
+                    RuntimeReflection.register(type);
+                    RuntimeReflection.register(type.getDeclaredConstructors());
+                    RuntimeReflection.register(type.getDeclaredFields());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not scan " + jar + " for schema classes", e);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package org.rifushigi.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.rifushigi.domain.infrastructure.CompiledTemplate;
+import org.rifushigi.domain.infrastructure.ZipCompression;
+import org.rifushigi.domain.infrastructure.ZipPassthroughWriter;
+import org.rifushigi.domain.model.CandidateRecord;
+import org.rifushigi.domain.service.TemplateCache;
+import org.rifushigi.metrics.GenerationMetrics;
+import org.rifushigi.metrics.Stage;
+import org.rifushigi.util.Json;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local HTTP server that generates documents on request from templates kept compiled in memory.
+ * <p>
+ * Endpoints:
+ * <ul>
+ *     <li>{@code POST /templates/{name}/documents} with a JSON object renders one document and returns the DOCX;
+ *     with a JSON array of objects it streams back a zip bundle with one document per record.</li>
+ *     <li>{@code GET /health} reports that the server is up and how many templates are warm.</li>
+ *     <li>{@code GET /metrics} returns the request counters and the generation metrics as JSON.</li>
+ * </ul>
+ * Each exchange is handled on its own virtual thread, so a slow client does not hold up other requests.
+ */
+public class GenerationServer {
+
+    private static final Logger logger = LoggerFactory.getLogger(GenerationServer.class);
+
+    private static final String DOCX_CONTENT_TYPE = "application/vnd.openxmlformats-officedocument.wordprocessingml.document";
+    private static final String TEMPLATES_PREFIX = "/templates/";
+    private static final String DOCUMENTS_SUFFIX = "/documents";
+    private static final int MAX_REQUEST_BYTES = 16 * 1024 * 1024;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final TemplateCache templates;
+    private final GenerationMetrics metrics;
+    private final long startedAt = System.currentTimeMillis();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failedRequests = new AtomicLong();
+
+    /**
+     * Binds the server. It does not accept requests until {@link #start()} is called.
+     *
+     * @param address   The address to listen on.
+     * @param templates The templates that can be rendered.
+     * @param metrics   The metrics the templates record into, reported by the metrics endpoint.
+     * @throws IOException if the address cannot be bound.
+     */
+    public GenerationServer(InetSocketAddress address, TemplateCache templates, GenerationMetrics metrics) throws IOException {
+        this.templates = templates;
+        this.metrics = metrics;
+        this.server = HttpServer.create(address, 0);
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/health", exchange -> handle(exchange, "GET", this::health));
+        server.createContext("/metrics", exchange -> handle(exchange, "GET", this::metrics));
+        server.createContext(TEMPLATES_PREFIX, exchange -> handle(exchange, "POST", this::documents));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * @return The address the server listens on.
+     */
+    public InetSocketAddress address() {
+        return server.getAddress();
+    }
+
+    /**
+     * Stops accepting requests and waits for the ones in progress to finish.
+     *
+     * @param delaySeconds The longest time to wait for requests in progress.
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.close();
+    }
+
+    private void health(HttpExchange exchange) throws IOException {
+        String json = "{\"status\": \"UP\", \"templates\": " + templates.size()
+                + ", \"uptimeSeconds\": " + (System.currentTimeMillis() - startedAt) / 1000 + "}\n";
+        send(exchange, 200, "application/json", json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void metrics(HttpExchange exchange) throws IOException {
+        String json = "{\n\"requests\": " + requests.get()
+                + ",\n\"failedRequests\": " + failedRequests.get()
+                + ",\n\"generation\": " + metrics.toJson() + "}\n";
+        send(exchange, 200, "application/json", json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void documents(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        if (!path.endsWith(DOCUMENTS_SUFFIX) || path.length() <= TEMPLATES_PREFIX.length() + DOCUMENTS_SUFFIX.length()) {
+            sendError(exchange, 404, "Not found: " + path);
+            return;
+        }
+        String name = path.substring(TEMPLATES_PREFIX.length(), path.length() - DOCUMENTS_SUFFIX.length());
+        CompiledTemplate template = templates.get(name);
+        if (template == null) {
+            sendError(exchange, 404, "Unknown template: " + name);
+            return;
+        }
+
+        String json = readBody(exchange);
+        if (json == null) {
+            sendError(exchange, 413, "Request body is larger than " + MAX_REQUEST_BYTES + " bytes");
+            return;
+        }
+        Object body;
+        try {
+            body = Json.parse(json);
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, "Invalid JSON: " + e.getMessage());
+            return;
+        }
+
+        if (body instanceof Map<?, ?> object) {
+            CandidateRecord record = toRecord(object);
+            byte[] document = render(name, template, record);
+            exchange.getResponseHeaders().set("Content-Disposition", attachment(fileName(record) + ".docx"));
+            send(exchange, 200, DOCX_CONTENT_TYPE, document);
+        } else if (body instanceof List<?> array && array.stream().allMatch(Map.class::isInstance)) {
+            List<CandidateRecord> records = new ArrayList<>(array.size());
+            for (Object element : array) {
+                records.add(toRecord((Map<?, ?>) element));
+            }
+            streamBundle(exchange, name, template, records);
+        } else {
+            sendError(exchange, 400, "Expected a JSON object or an array of objects");
+        }
+    }
+
+    /**
+     * Streams a zip with one document per record. Documents are already compressed, so they are stored as is.
+     * The response is chunked and each document is sent as soon as it is rendered.
+     */
+    private void streamBundle(HttpExchange exchange, String templateName, CompiledTemplate template,
+                              List<CandidateRecord> records) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/zip");
+        exchange.getResponseHeaders().set("Content-Disposition", attachment(templateName + ".zip"));
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            ZipPassthroughWriter zip = new ZipPassthroughWriter(out, ZipCompression.STORED);
+            Set<String> entryNames = new HashSet<>();
+            for (CandidateRecord record : records) {
+                zip.writeEntry(uniqueName(fileName(record), entryNames) + ".docx", render(templateName, template, record));
+            }
+            zip.finish();
+        }
+    }
+
+    private byte[] render(String templateName, CompiledTemplate template, CandidateRecord record) throws IOException {
+        long start = System.nanoTime();
+        ByteArrayOutputStream document = new ByteArrayOutputStream();
+        template.generateDocument(record, document);
+        long nanos = System.nanoTime() - start;
+        metrics.recordNanos(Stage.RENDER, nanos);
+        metrics.recordDocument(templateName, fileName(record) + ".docx", nanos, document.size());
+        return document.toByteArray();
+    }
+
+    /**
+     * Runs a handler, turning unexpected failures into a 500 response.
+     */
+    private void handle(HttpExchange exchange, String method, Handler handler) {
+        requests.incrementAndGet();
+        try (exchange) {
+            if (!method.equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", method);
+                sendError(exchange, 405, "Method not allowed: " + exchange.getRequestMethod());
+                return;
+            }
+            handler.handle(exchange);
+        } catch (IOException | RuntimeException e) {
+            failedRequests.incrementAndGet();
+            logger.error("Request {} {} failed", exchange.getRequestMethod(), exchange.getRequestURI(), e);
+            try {
+                sendError(exchange, 500, e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage());
+            } catch (IOException | RuntimeException ignored) {
+                // The response was already started; the client sees a truncated body
+            }
+        }
+    }
+
+    /**
+     * @return The request body, or null if it is larger than {@link #MAX_REQUEST_BYTES}.
+     */
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] body = in.readNBytes(MAX_REQUEST_BYTES + 1);
+            return body.length > MAX_REQUEST_BYTES ? null : new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Turns a JSON object into a record. Numbers keep their JSON text; null becomes an empty value.
+     */
+    private static CandidateRecord toRecord(Map<?, ?> object) {
+        Map<String, String> data = new LinkedHashMap<>();
+        for (Map.Entry<?, ?> member : object.entrySet()) {
+            Object value = member.getValue();
+            // A number is used as written, never expanded into its plain decimal form
+            String text = value == null ? ""
+                    : value instanceof Json.RawNumber number ? number.text()
+                    : value.toString();
+            data.put((String) member.getKey(), text);
+        }
+        return CandidateRecord.of(data);
+    }
+
+    private static String fileName(CandidateRecord record) {
+        String name = record.getValue("FULL NAME");
+        return name == null || name.isBlank() ? "document" : name.replaceAll("[\\\\/:*?\"<>|\\p{Cntrl}]", "_");
+    }
+
+    private static String uniqueName(String name, Set<String> taken) {
+        String unique = name;
+        for (int i = 2; !taken.add(unique); i++) {
+            unique = name + " (" + i + ")";
+        }
+        return unique;
+    }
+
+    private static String attachment(String fileName) {
+        String ascii = fileName.replaceAll("[^\\x20-\\x7E]|\"", "_");
+        return "attachment; filename=\"" + ascii + "\"; filename*=UTF-8''"
+                + URLEncoder.encode(fileName, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        String json = "{\"error\": " + Json.quote(message) + "}\n";
+        send(exchange, status, "application/json", json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        void handle(HttpExchange exchange) throws IOException;
+    }
+}
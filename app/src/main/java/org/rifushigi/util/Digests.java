@@ -0,0 +1,69 @@
+package org.rifushigi.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Utility class for computing content hashes.
+ */
+public class Digests {
+
+    /**
+     * @return A new SHA-256 message digest.
+     */
+    public static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Computes the SHA-256 hash of the given bytes.
+     *
+     * @param data The bytes to hash.
+     * @return The hash as a lower-case hex string.
+     */
+    public static String sha256Hex(byte[] data) {
+        return HexFormat.of().formatHex(sha256().digest(data));
+    }
+
+    /**
+     * Computes the SHA-256 hash of a file without reading it into memory.
+     *
+     * @param file The file to hash.
+     * @return The hash as a lower-case hex string.
+     * @throws IOException if the file cannot be read.
+     */
+    public static String sha256Hex(Path file) throws IOException {
+        MessageDigest digest = sha256();
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            int length;
+            while ((length = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, length);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Feeds a string into a digest, followed by a separator that cannot appear in the string's UTF-8 encoding,
+     * so that consecutive fields cannot run into each other.
+     *
+     * @param digest The digest to update.
+     * @param value  The string to add.
+     */
+    public static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0xFF);
+    }
+}
@@ -3,6 +3,7 @@ package org.rifushigi.util;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
 
 /**
  * Utility class for validating file paths.
@@ -55,4 +56,15 @@ public class FileValidator {
         String fileName = path.getFileName().toString();
         return fileName.toLowerCase().endsWith(extension.toLowerCase());
     }
+
+    /**
+     * Checks if a file has one of the expected extensions.
+     *
+     * @param path       The path to the file.
+     * @param extensions The accepted file extensions e.g., ".csv", ".tsv".
+     * @return true if the file extension matches one of them, false otherwise.
+     */
+    public static boolean hasAnyExtension(Path path, List<String> extensions) {
+        return extensions.stream().anyMatch(extension -> hasExtension(path, extension));
+    }
 }
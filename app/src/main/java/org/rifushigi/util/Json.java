@@ -0,0 +1,274 @@
+package org.rifushigi.util;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Utility class for reading and writing JSON by hand.
+ */
+public class Json {
+
+    /**
+     * Parses a JSON document.
+     * Objects become a {@link LinkedHashMap} in document order, arrays a {@link List}, numbers a {@link RawNumber},
+     * and the literals a {@link Boolean} or null.
+     *
+     * @param text The JSON text.
+     * @return The parsed value.
+     * @throws IllegalArgumentException if the text is not valid JSON.
+     */
+    public static Object parse(String text) {
+        Parser parser = new Parser(text);
+        Object value = parser.value();
+        parser.skipWhitespace();
+        if (parser.position < text.length()) {
+            throw parser.error("Unexpected trailing content");
+        }
+        return value;
+    }
+
+    /**
+     * Quotes and escapes a string as a JSON string literal.
+     *
+     * @param value The string, or null.
+     * @return The JSON literal, or {@code null} for a null string.
+     */
+    public static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * A JSON number, kept as it was written. Converting it is up to the caller: a number such as 1e999999999 is
+     * short in the document, but its plain decimal form takes up a gigabyte.
+     *
+     * @param text The number as it appears in the document.
+     */
+    public record RawNumber(String text) {
+
+        /**
+         * @return The exact value of the number.
+         * @throws NumberFormatException if the exponent is out of the range a BigDecimal can hold.
+         */
+        public BigDecimal toBigDecimal() {
+            return new BigDecimal(text);
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    /**
+     * A recursive descent parser over the JSON grammar of RFC 8259.
+     */
+    private static final class Parser {
+
+        // Deeper nesting than any record needs, and shallow enough not to overflow the stack
+        private static final int MAX_DEPTH = 256;
+        private static final Pattern NUMBER = Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?");
+
+        private final String text;
+        private int position;
+        private int depth;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        Object value() {
+            skipWhitespace();
+            if (position >= text.length()) {
+                throw error("Unexpected end of input");
+            }
+            char c = text.charAt(position);
+            return switch (c) {
+                case '{' -> object();
+                case '[' -> array();
+                case '"' -> string();
+                case 't' -> literal("true", Boolean.TRUE);
+                case 'f' -> literal("false", Boolean.FALSE);
+                case 'n' -> literal("null", null);
+                default -> {
+                    if (c == '-' || (c >= '0' && c <= '9')) {
+                        yield number();
+                    }
+                    throw error("Unexpected character '" + c + "'");
+                }
+            };
+        }
+
+        private Map<String, Object> object() {
+            enter();
+            Map<String, Object> object = new LinkedHashMap<>();
+            position++;
+            skipWhitespace();
+            if (peek() == '}') {
+                position++;
+                depth--;
+                return object;
+            }
+            while (true) {
+                skipWhitespace();
+                if (peek() != '"') {
+                    throw error("Expected a member name");
+                }
+                String name = string();
+                skipWhitespace();
+                expect(':');
+                object.put(name, value());
+                skipWhitespace();
+                if (peek() == ',') {
+                    position++;
+                } else {
+                    expect('}');
+                    depth--;
+                    return object;
+                }
+            }
+        }
+
+        private List<Object> array() {
+            enter();
+            List<Object> array = new ArrayList<>();
+            position++;
+            skipWhitespace();
+            if (peek() == ']') {
+                position++;
+                depth--;
+                return array;
+            }
+            while (true) {
+                array.add(value());
+                skipWhitespace();
+                if (peek() == ',') {
+                    position++;
+                } else {
+                    expect(']');
+                    depth--;
+                    return array;
+                }
+            }
+        }
+
+        private String string() {
+            position++;
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                if (position >= text.length()) {
+                    throw error("Unterminated string");
+                }
+                char c = text.charAt(position++);
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c < 0x20) {
+                    throw error("Control character in string");
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (position >= text.length()) {
+                    throw error("Unterminated escape");
+                }
+                char escape = text.charAt(position++);
+                switch (escape) {
+                    case '"', '\\', '/' -> sb.append(escape);
+                    case 'b' -> sb.append('\b');
+                    case 'f' -> sb.append('\f');
+                    case 'n' -> sb.append('\n');
+                    case 'r' -> sb.append('\r');
+                    case 't' -> sb.append('\t');
+                    case 'u' -> {
+                        if (position + 4 > text.length()) {
+                            throw error("Truncated unicode escape");
+                        }
+                        try {
+                            sb.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("Invalid unicode escape");
+                        }
+                        position += 4;
+                    }
+                    default -> throw error("Invalid escape '\\" + escape + "'");
+                }
+            }
+        }
+
+        private RawNumber number() {
+            int start = position;
+            if (peek() == '-') {
+                position++;
+            }
+            while (position < text.length() && "0123456789.eE+-".indexOf(text.charAt(position)) >= 0) {
+                position++;
+            }
+            String number = text.substring(start, position);
+            if (!NUMBER.matcher(number).matches()) {
+                throw error("Invalid number");
+            }
+            return new RawNumber(number);
+        }
+
+        private Object literal(String literal, Object value) {
+            if (!text.startsWith(literal, position)) {
+                throw error("Unexpected token");
+            }
+            position += literal.length();
+            return value;
+        }
+
+        private void enter() {
+            if (++depth > MAX_DEPTH) {
+                throw error("Nesting too deep");
+            }
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw error("Expected '" + c + "'");
+            }
+            position++;
+        }
+
+        private char peek() {
+            return position < text.length() ? text.charAt(position) : '\0';
+        }
+
+        void skipWhitespace() {
+            while (position < text.length() && " \t\r\n".indexOf(text.charAt(position)) >= 0) {
+                position++;
+            }
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + position);
+        }
+    }
+}
@@ -1,11 +0,0 @@
-/*
- * This source file was generated by the Gradle 'init' task
- */
-package org.rifushigi;
-
-import org.junit.jupiter.api.Test;
-
-class AppTest {
-    @Test void appHasAGreeting() {
-    }
-}
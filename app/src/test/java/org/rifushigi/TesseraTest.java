@@ -0,0 +1,149 @@
+package org.rifushigi;
+
+import org.apache.poi.wp.usermodel.HeaderFooterType;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TesseraTest {
+
+    // The default routing renders the sheet 'Level 2', which a CSV file gets from its name, into diploma.docx
+    private static final String SHEET_DIRECTORY = "certificates_09_2025/diploma/Level 2";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void generatesOneDocumentPerRecord() throws IOException {
+        Path template = writeTemplate("Awarded to ${FULL NAME} for ${COURSE}");
+        Path data = Files.writeString(directory.resolve("Level 2.csv"),
+                "FULL NAME,COURSE\nAda Lovelace,Mathematics\nAlan  Turing,Computing\n");
+        Path output = directory.resolve("poi");
+
+        assertEquals(0, generate(template, data, output));
+
+        Path sheet = output.resolve(SHEET_DIRECTORY);
+        assertEquals(List.of("Awarded to Ada Lovelace for Mathematics"), paragraphs(sheet.resolve("Ada Lovelace.docx")));
+        assertEquals(List.of("Awarded to Alan  Turing for Computing"), paragraphs(sheet.resolve("Alan  Turing.docx")));
+    }
+
+    @Test
+    void compiledTemplateRendersTheSameText() throws IOException {
+        Path template = writeTemplate("Awarded to ${FULL NAME} for ${COURSE}");
+        Path data = Files.writeString(directory.resolve("Level 2.csv"),
+                "FULL NAME,COURSE\nAda Lovelace,Mathematics & Logic\n");
+
+        assertEquals(0, generate(template, data, directory.resolve("poi")));
+        assertEquals(0, generate(template, data, directory.resolve("compiled"), "--compiled-template"));
+
+        String document = SHEET_DIRECTORY + "/Ada Lovelace.docx";
+        assertEquals(paragraphs(directory.resolve("poi").resolve(document)),
+                paragraphs(directory.resolve("compiled").resolve(document)));
+        assertEquals(List.of("Awarded to Ada Lovelace for Mathematics & Logic"),
+                paragraphs(directory.resolve("compiled").resolve(document)));
+    }
+
+    @Test
+    void replacedTextKeepsItsSpaces() throws IOException {
+        Path template = writeTemplate("${FULL NAME}");
+        Path data = Files.writeString(directory.resolve("Level 2.csv"), "FULL NAME\n\"Ada   Lovelace\"\n");
+        Path output = directory.resolve("poi");
+
+        assertEquals(0, generate(template, data, output));
+
+        Path document = output.resolve(SHEET_DIRECTORY + "/Ada   Lovelace.docx");
+        assertEquals(List.of("Ada   Lovelace"), paragraphs(document));
+        try (ZipFile zip = new ZipFile(document.toFile());
+             InputStream in = zip.getInputStream(zip.getEntry("word/document.xml"))) {
+            String xml = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            assertTrue(xml.contains("xml:space=\"preserve\">Ada   Lovelace<"), xml);
+        }
+    }
+
+    @Test
+    void dataWithoutADateColumnGetsTheRunDate() throws IOException {
+        Path template = writeTemplate("Issued to ${FULL NAME} on ${DATE}");
+        Path data = Files.writeString(directory.resolve("Level 2.csv"), "FULL NAME\nAda Lovelace\n");
+        Path output = directory.resolve("poi");
+
+        assertEquals(0, generate(template, data, output, "--date", "2025-09-21"));
+        assertEquals(List.of("Issued to Ada Lovelace on 21st September 2025"),
+                paragraphs(output.resolve(SHEET_DIRECTORY + "/Ada Lovelace.docx")));
+
+        assertEquals(1, generate(template, data, output, "--date", "21/09/2025"));
+    }
+
+    @Test
+    void optionsThatCanNotBeCombinedAreRejectedBeforeAnythingIsWritten() throws IOException {
+        Path template = writeTemplate("${FULL NAME}");
+        Path data = Files.writeString(directory.resolve("Level 2.csv"), "FULL NAME\nAda Lovelace\n");
+        Path output = directory.resolve("rejected");
+
+        assertEquals(1, generate(template, data, output, "--compiled-template", "--stored", "--deflate-level", "5"));
+        assertEquals(1, generate(template, data, output, "--incremental", "--bundle", "zip"));
+        assertEquals(1, generate(template, data, output, "--merge-per-sheet", "--dedup"));
+        assertEquals(1, generate(template, data, output, "--stored"));
+        assertFalse(Files.exists(output));
+    }
+
+    @Test
+    void templatesWithPlaceholdersInTheirHeaderAreNotMerged() throws IOException {
+        Path data = Files.writeString(directory.resolve("Level 2.csv"), "FULL NAME\nAda Lovelace\nAlan Turing\n");
+        Path merged = directory.resolve("merged").resolve(SHEET_DIRECTORY + ".docx");
+
+        writeTemplate("Awarded to ${FULL NAME}");
+        assertEquals(0, generate(directory.resolve("diploma.docx"), data, directory.resolve("merged"), "--merge-per-sheet"));
+        assertEquals(List.of("Awarded to Ada Lovelace", "Awarded to Alan Turing"), paragraphs(merged));
+        Files.delete(merged);
+
+        // The header would show the first record's name above every record
+        Path template = directory.resolve("diploma.docx");
+        try (XWPFDocument document = new XWPFDocument(); OutputStream out = Files.newOutputStream(template)) {
+            document.createHeader(HeaderFooterType.DEFAULT).createParagraph().createRun().setText("${FULL NAME}");
+            document.createParagraph().createRun().setText("Awarded to ${FULL NAME}");
+            document.write(out);
+        }
+        generate(template, data, directory.resolve("merged"), "--merge-per-sheet");
+        assertFalse(Files.exists(merged));
+    }
+
+    private int generate(Path template, Path data, Path output, String... options) {
+        List<String> args = new ArrayList<>(List.of("generate", "--no-template-cache",
+                "-t", template.toString(), "-d", data.toString(), "-o", output.toString()));
+        args.addAll(List.of(options));
+        return new CommandLine(Tessera.class)
+                .setCaseInsensitiveEnumValuesAllowed(true)
+                .execute(args.toArray(String[]::new));
+    }
+
+    private Path writeTemplate(String text) throws IOException {
+        Path template = directory.resolve("diploma.docx");
+        try (XWPFDocument document = new XWPFDocument(); OutputStream out = Files.newOutputStream(template)) {
+            document.createParagraph().createRun().setText(text);
+            document.write(out);
+        }
+        return template;
+    }
+
+    private static List<String> paragraphs(Path document) throws IOException {
+        try (InputStream in = Files.newInputStream(document); XWPFDocument read = new XWPFDocument(in)) {
+            return read.getParagraphs().stream().map(XWPFParagraph::getText).toList();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package org.rifushigi.domain.infrastructure;
+
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.rifushigi.domain.model.ColumnType;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CellFormatterTest {
+
+    // 20 September 2025 as an Excel date
+    private static final double ISSUE_DATE = 45920;
+
+    // Holds the cell styles, in memory only
+    private final XSSFWorkbook workbook = new XSSFWorkbook();
+
+    @Test
+    void dateCellsOfTheDateColumnAreOrdinal() {
+        CellFormatter formatter = formatter(ColumnFormats.DEFAULT, "FULL NAME", "DATE");
+
+        assertEquals("Ada Lovelace", formatter.text(0, "Ada Lovelace"));
+        assertEquals("20th September 2025", formatter.number(1, ISSUE_DATE, style("d/m/yyyy")));
+        assertEquals("1st October 2025", formatter.number(1, ISSUE_DATE + 11, style("yyyy-mm-dd")));
+        assertEquals(List.of(ColumnType.STRING, ColumnType.DATE), formatter.types(2));
+
+        assertEquals("20th September 2025", formatter.text(1, "2025-09-20"));
+        assertEquals(List.of(ColumnType.STRING, ColumnType.STRING), formatter.types(2));
+    }
+
+    @Test
+    void configuredPatternsApplyToDatesNumbersAndIsoText() {
+        ColumnFormats formats = ColumnFormats.parse(List.of("ISSUED=date:dd/MM/yyyy", " score = number:#,##0.00"));
+        CellFormatter formatter = formatter(formats, "ISSUED", "SCORE", "DATE");
+
+        assertEquals("20/09/2025", formatter.number(0, ISSUE_DATE, style("mmm d, yyyy")));
+        assertEquals("20/09/2025", formatter.text(0, "2025-09-20"));
+        assertEquals("20/09/2025", formatter.text(0, "2025-09-20T14:30"));
+        assertEquals("next week", formatter.text(0, "next week"));
+        assertEquals("2025-13-45", formatter.text(0, "2025-13-45"));
+        assertEquals("1,234.50", formatter.number(1, 1234.5, -1));
+        assertEquals("20th September 2025", formatter.text(2, "2025-09-20"));
+    }
+
+    @Test
+    void columnsWithoutAFormatAreWrittenAsExcelShowsThem() {
+        ColumnFormats formats = ColumnFormats.parse(List.of("DATE=excel"));
+        CellFormatter formatter = formatter(formats, "SCORE", "DATE");
+
+        assertEquals("50.0%", formatter.number(0, 0.5, style("0.0%")));
+        assertEquals("1234.5", formatter.number(0, 1234.5, -1));
+        assertEquals("20/09/2025", formatter.number(1, ISSUE_DATE, style("dd/mm/yyyy")));
+        assertEquals("2025-09-20", formatter.text(1, "2025-09-20"));
+        assertEquals(List.of(ColumnType.NUMBER, ColumnType.STRING), formatter.types(2));
+    }
+
+    @Test
+    void aValueIsFormattedAgainWhenItsCellStyleChanges() {
+        CellFormatter formatter = formatter(ColumnFormats.DEFAULT, "DATE");
+        int date = style("d/m/yyyy");
+        int general = style("General");
+
+        assertEquals("20th September 2025", formatter.number(0, ISSUE_DATE, date));
+        assertEquals("45920", formatter.number(0, ISSUE_DATE, general));
+        assertEquals(List.of(ColumnType.NUMBER), formatter.types(1));
+        assertEquals("20th September 2025", formatter.number(0, ISSUE_DATE, date));
+        assertEquals(List.of(ColumnType.DATE), formatter.types(1));
+    }
+
+    @Test
+    void columnsWithManyDistinctValuesStayCorrect() {
+        CellFormatter formatter = formatter(ColumnFormats.DEFAULT, "ID", "DATE");
+        int date = style("d/m/yyyy");
+
+        for (int i = 0; i < 3000; i++) {
+            assertEquals(Integer.toString(i), formatter.number(0, i, -1));
+            assertEquals(ColumnFormats.ordinal(LocalDate.of(2025, 9, 20).plusDays(i % 1500)),
+                    formatter.number(1, ISSUE_DATE + i % 1500, date));
+        }
+    }
+
+    @Test
+    void blankCellsDoNotChangeTheTypeOfAColumn() {
+        CellFormatter formatter = formatter(ColumnFormats.DEFAULT, "SCORE", "NOTE");
+
+        formatter.number(0, 3, -1);
+        assertEquals("", formatter.text(0, ""));
+
+        assertEquals(List.of(ColumnType.NUMBER, ColumnType.STRING, ColumnType.STRING), formatter.types(3));
+    }
+
+    @Test
+    void invalidFormatsAreRejected() {
+        for (String spec : List.of("DATE", "=ordinal", "DATE=roman", "DATE=date:yyyy-MM-dd 'at",
+                "SCORE=number:#,##0.00.0")) {
+            assertThrows(IllegalArgumentException.class, () -> ColumnFormats.parse(List.of(spec)), spec);
+        }
+    }
+
+    private CellFormatter formatter(ColumnFormats formats, String... headers) {
+        CellFormatter formatter = new CellFormatter(formats, new DataFormatter(), workbook::getCellStyleAt);
+        formatter.headers(List.of(headers));
+        return formatter;
+    }
+
+    private int style(String pattern) {
+        CellStyle style = workbook.createCellStyle();
+        style.setDataFormat(workbook.createDataFormat().getFormat(pattern));
+        return style.getIndex();
+    }
+}
@@ -0,0 +1,160 @@
+package org.rifushigi.domain.infrastructure;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rifushigi.domain.model.CandidateRecord;
+import org.rifushigi.metrics.GenerationMetrics;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CsvReaderTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void quotedFieldsKeepDelimitersQuotesAndLineBreaks() throws IOException {
+        List<List<String>> rows = read("data.csv", ',',
+                "FULL NAME,NOTE\n\"Lovelace, Ada\",\"She said \"\"hello\"\"\"\n\"Turing\nAlan\",plain\n");
+
+        assertEquals(List.of(
+                List.of("FULL NAME", "NOTE"),
+                List.of("Lovelace, Ada", "She said \"hello\""),
+                List.of("Turing\nAlan", "plain")), rows);
+    }
+
+    @Test
+    void crlfLineEndsAndAByteOrderMarkAreAccepted() throws IOException {
+        Path file = directory.resolve("data.csv");
+        Files.write(file, concat(new byte[]{(byte) 0xEF, (byte) 0xBB, (byte) 0xBF},
+                "FULL NAME,LEVEL\r\nAda,1\r\n\"Alan\r\nTuring\",2\r\n".getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(List.of(
+                List.of("FULL NAME", "LEVEL"),
+                List.of("Ada", "1"),
+                List.of("Alan\r\nTuring", "2")), read(file, ','));
+    }
+
+    @Test
+    void blankRowsAreSkippedAndShortRowsPadded() throws IOException {
+        List<List<String>> rows = read("data.tsv", '\t', "FULL NAME\tLEVEL\tTRACK\n\n\t\t\nAda\t1\nAlan\t2\tHonours\tignored\n");
+
+        assertEquals(List.of(
+                List.of("FULL NAME", "LEVEL", "TRACK"),
+                List.of("Ada", "1", ""),
+                List.of("Alan", "2", "Honours")), rows);
+    }
+
+    @Test
+    void aSingleValueRowBeforeTheHeaderIsATitle() throws IOException {
+        List<List<String>> rows = read("data.csv", ',', "Graduates of 2025\nFULL NAME,LEVEL\nAda,1\n");
+
+        assertEquals(List.of(List.of("FULL NAME", "LEVEL"), List.of("Ada", "1")), rows);
+    }
+
+    @Test
+    void lastRowNeedsNoLineEndAndFieldsAreUtf8() throws IOException {
+        List<List<String>> rows = read("data.csv", ',', "FULL NAME,CITY\nZo\u00eb,M\u00fcnchen");
+
+        assertEquals(List.of(List.of("FULL NAME", "CITY"), List.of("Zo\u00eb", "M\u00fcnchen")), rows);
+    }
+
+    @Test
+    void fieldsLongerThanTheBufferAreRead() throws IOException {
+        String longValue = "x".repeat(10_000);
+
+        List<List<String>> rows = read("data.csv", ',', "FULL NAME,NOTE\nAda,\"" + longValue + "\"\n");
+
+        assertEquals(longValue, rows.get(1).get(1));
+    }
+
+    @Test
+    void anUnterminatedQuoteIsReportedWithItsLine() throws IOException {
+        Path file = Files.writeString(directory.resolve("data.csv"), "FULL NAME,NOTE\nAda,1\nAlan,\"open\n");
+
+        IOException e = assertThrows(IOException.class, () -> read(file, ','));
+        assertTrue(e.getMessage().contains("line 3"), e.getMessage());
+    }
+
+    @Test
+    void theSheetIsNamedAfterTheFile() throws IOException {
+        Path file = Files.writeString(directory.resolve("Level 2.csv"), "FULL NAME\nAda\n");
+        List<String> sheets = new ArrayList<>();
+
+        new CsvReader(',').streamData(file, new SheetRecordHandler() {
+            @Override
+            public void startSheet(String sheetName) {
+                sheets.add(sheetName);
+            }
+
+            @Override
+            public void record(String sheetName, CandidateRecord record) {
+                assertEquals("Ada", record.getValue("full name"));
+            }
+        });
+
+        assertEquals(List.of("Level 2"), sheets);
+    }
+
+    @Test
+    void groupedRowsFormASheetPerValue() throws IOException {
+        Path file = Files.writeString(directory.resolve("graduates.csv"),
+                "FULL NAME,LEVEL\nAda,Level 1\nAlan,Level 2\nGrace,\nEdsger,Level 1\n");
+
+        Map<String, List<CandidateRecord>> sheets = new CsvReader(',').groupedBy("level").readData(file);
+
+        assertEquals(List.of("Level 1", "Level 2", "graduates"), List.copyOf(sheets.keySet()));
+        assertEquals(List.of("Ada", "Edsger"), sheets.get("Level 1").stream().map(r -> r.getValue("FULL NAME")).toList());
+        assertEquals("Grace", sheets.get("graduates").getFirst().getValue("FULL NAME"));
+    }
+
+    @Test
+    void groupingByAMissingColumnFails() throws IOException {
+        Path file = Files.writeString(directory.resolve("graduates.csv"), "FULL NAME,LEVEL\nAda,Level 1\n");
+
+        IOException e = assertThrows(IOException.class, () -> new CsvReader(',').groupedBy("TRACK").readData(file));
+        assertTrue(e.getMessage().contains("'TRACK'"), e.getMessage());
+    }
+
+    @Test
+    void anInvalidDelimiterIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new CsvReader('"'));
+        assertThrows(IllegalArgumentException.class, () -> new CsvReader('\n'));
+        assertThrows(IllegalArgumentException.class, () -> new CsvReader('\u00a7', GenerationMetrics.DISABLED));
+    }
+
+    private List<List<String>> read(String fileName, char delimiter, String content) throws IOException {
+        return read(Files.writeString(directory.resolve(fileName), content), delimiter);
+    }
+
+    /**
+     * @return The header, then the values of every record.
+     */
+    private static List<List<String>> read(Path file, char delimiter) throws IOException {
+        List<List<String>> rows = new ArrayList<>();
+        new CsvReader(delimiter).streamData(file, (sheetName, record) -> {
+            if (rows.isEmpty()) {
+                rows.add(record.schema().headers());
+            }
+            rows.add(Arrays.asList(record.values()));
+        });
+        return rows;
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] bytes = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, bytes, first.length, second.length);
+        return bytes;
+    }
+}
@@ -0,0 +1,80 @@
+package org.rifushigi.domain.infrastructure;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DirectorySinkTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void documentsAreWrittenWithoutLeavingTemporaryFiles() throws Exception {
+        try (DirectorySink sink = new DirectorySink(directory, FsyncPolicy.END, 2)) {
+            for (int i = 0; i < 10; i++) {
+                sink.writeAsync("certificates/Level 1/" + i + ".docx", bytes("document " + i)).get(10, TimeUnit.SECONDS);
+            }
+            sink.write("certificates/Level 1/0.docx", bytes("replaced"));
+            sink.link("certificates/Level 1/1.docx", "certificates/Level 2/copy.docx");
+        }
+
+        Path level1 = directory.resolve("certificates/Level 1");
+        assertEquals(10, files(level1).size());
+        assertArrayEquals(bytes("replaced"), Files.readAllBytes(level1.resolve("0.docx")));
+        assertArrayEquals(bytes("document 9"), Files.readAllBytes(level1.resolve("9.docx")));
+        assertEquals(List.of(directory.resolve("certificates/Level 2/copy.docx")), files(directory.resolve("certificates/Level 2")));
+        assertArrayEquals(bytes("document 1"), Files.readAllBytes(directory.resolve("certificates/Level 2/copy.docx")));
+    }
+
+    @Test
+    void anInvalidEntryNameFailsItsWriteInsteadOfHanging() throws Exception {
+        DirectorySink sink = new DirectorySink(directory, FsyncPolicy.NONE, 1);
+
+        CompletableFuture<Void> invalid = sink.writeAsync("certificates/Ada\u0000Lovelace.docx", bytes("invalid"));
+        ExecutionException e = assertThrows(ExecutionException.class, () -> invalid.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(InvalidPathException.class, e.getCause());
+
+        // The failed write gave back its in-flight slot, so the next write and close do not wait for it
+        sink.writeAsync("certificates/Alan Turing.docx", bytes("valid")).get(10, TimeUnit.SECONDS);
+        CompletableFuture<Void> closed = CompletableFuture.runAsync(() -> {
+            try {
+                sink.close();
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        });
+        try {
+            closed.get(10, TimeUnit.SECONDS);
+        } catch (TimeoutException ex) {
+            throw new AssertionError("close() did not return", ex);
+        }
+        assertEquals(List.of(directory.resolve("certificates/Alan Turing.docx")), files(directory.resolve("certificates")));
+    }
+
+    private static List<Path> files(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().toList();
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
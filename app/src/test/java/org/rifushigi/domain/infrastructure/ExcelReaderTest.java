@@ -0,0 +1,130 @@
+package org.rifushigi.domain.infrastructure;
+
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rifushigi.domain.model.CandidateRecord;
+import org.rifushigi.domain.model.ColumnType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ExcelReaderTest {
+
+    // 20 September 2025 as an Excel date
+    private static final double ISSUE_DATE = 45920;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void streamingAndWorkbookReadersGiveTheSameRecords() throws IOException {
+        Path workbook = writeWorkbook();
+
+        // A workbook over the threshold is streamed with SAX; any other is loaded as a whole
+        Map<String, List<List<String>>> loaded = rows(new ExcelReader(Long.MAX_VALUE).readData(workbook));
+        Map<String, List<List<String>>> streamed = rows(new ExcelReader(0).readData(workbook));
+
+        assertEquals(loaded, streamed);
+        assertEquals(Map.of("Level 1", List.of(
+                List.of("STRING", "STRING", "NUMBER", "DATE"),
+                List.of("FULL NAME", "LEVEL", "SCORE", "DATE"),
+                List.of("Ada Lovelace", "Honours", "91.5", "20th September 2025"),
+                List.of("Alan Turing", "", "81.5", "1st October 2025"),
+                List.of("Grace Hopper", "TRUE", "1,234", "20th September 2025"),
+                List.of("Edsger Dijkstra", "Pass", "", ""))), streamed);
+    }
+
+    /**
+     * Writes a sheet with a merged title row, a merged cell, blank and missing rows and cells of every type,
+     * and a sheet with a single row, which neither reader reports.
+     */
+    private Path writeWorkbook() throws IOException {
+        Path file = directory.resolve("graduates.xlsx");
+        try (XSSFWorkbook workbook = new XSSFWorkbook(); OutputStream out = Files.newOutputStream(file)) {
+            CellStyle date = workbook.createCellStyle();
+            date.setDataFormat(workbook.createDataFormat().getFormat("d/m/yyyy"));
+            CellStyle decimal = workbook.createCellStyle();
+            decimal.setDataFormat(workbook.createDataFormat().getFormat("0.0"));
+            CellStyle thousands = workbook.createCellStyle();
+            thousands.setDataFormat(workbook.createDataFormat().getFormat("#,##0"));
+
+            Sheet sheet = workbook.createSheet("Level 1");
+            sheet.createRow(0).createCell(0).setCellValue("Graduates of 2025");
+            sheet.addMergedRegion(new CellRangeAddress(0, 0, 0, 3));
+            Row header = sheet.createRow(1);
+            List<String> headers = List.of("FULL NAME", "LEVEL", "SCORE", "DATE");
+            for (int i = 0; i < headers.size(); i++) {
+                header.createCell(i).setCellValue(headers.get(i));
+            }
+
+            Row ada = sheet.createRow(2);
+            ada.createCell(0).setCellValue("Ada Lovelace");
+            ada.createCell(1).setCellValue("Honours");
+            ada.createCell(2).setCellValue(91.5);
+            ada.getCell(2).setCellStyle(decimal);
+            ada.createCell(3).setCellValue(ISSUE_DATE);
+            ada.getCell(3).setCellStyle(date);
+
+            // The merged level only has a value in its first cell
+            Row alan = sheet.createRow(3);
+            alan.createCell(0).setCellValue("Alan Turing");
+            alan.createCell(1);
+            sheet.addMergedRegion(new CellRangeAddress(2, 3, 1, 1));
+            alan.createCell(2).setCellFormula("C3-10");
+            alan.getCell(2).setCellStyle(decimal);
+            alan.createCell(3).setCellValue(ISSUE_DATE + 11);
+            alan.getCell(3).setCellStyle(date);
+
+            Row blank = sheet.createRow(4);
+            blank.createCell(0).setCellValue("  ");
+            blank.createCell(2).setCellStyle(decimal);
+
+            Row grace = sheet.createRow(5);
+            grace.createCell(0).setCellValue("Grace Hopper");
+            grace.createCell(1).setCellValue(true);
+            grace.createCell(2).setCellValue(1234);
+            grace.getCell(2).setCellStyle(thousands);
+            grace.createCell(3).setCellValue("2025-09-20");
+
+            // Row 7 is missing altogether
+            sheet.createRow(7).createCell(0).setCellValue("Edsger Dijkstra");
+            sheet.getRow(7).createCell(1).setCellValue("Pass");
+
+            workbook.createSheet("Notes").createRow(0).createCell(0).setCellValue("Nothing to see");
+
+            workbook.getCreationHelper().createFormulaEvaluator().evaluateAll();
+            workbook.write(out);
+        }
+        return file;
+    }
+
+    /**
+     * @return For each sheet, the column types, then the values of every record.
+     */
+    private static Map<String, List<List<String>>> rows(Map<String, List<CandidateRecord>> sheets) {
+        Map<String, List<List<String>>> rows = new LinkedHashMap<>();
+        sheets.forEach((sheetName, records) -> {
+            List<List<String>> values = new ArrayList<>();
+            values.add(records.getFirst().schema().types().stream().map(ColumnType::name).toList());
+            for (CandidateRecord record : records) {
+                values.add(Arrays.asList(record.values()));
+            }
+            rows.put(sheetName, values);
+        });
+        return rows;
+    }
+}
@@ -0,0 +1,133 @@
+package org.rifushigi.domain.infrastructure;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.zip.ZipEntry;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImageCacheTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void filesWithTheSameContentShareOneImage() throws IOException {
+        byte[] png = image(40, 20, "png");
+        Files.write(directory.resolve("ada.png"), png);
+        Files.createDirectories(directory.resolve("signatures"));
+        Files.write(directory.resolve("signatures/copy.png"), png);
+        ImageCache cache = new ImageCache(directory, ImageCache.DEFAULT_MAX_BYTES);
+
+        String reference = cache.reference(" ada.png ");
+        assertTrue(reference.startsWith("sha256:"), reference);
+        assertEquals(reference, cache.reference("signatures/copy.png"));
+        assertEquals(1, cache.loads());
+
+        ImageCache.Image image = cache.image(reference);
+        assertSame(image, cache.image(reference));
+        assertEquals(2, cache.hits());
+        assertEquals("png", image.format());
+        assertArrayEquals(png, image.data());
+        assertEquals(40 * 9525L, image.widthEmu());
+        assertEquals(20 * 9525L, image.heightEmu());
+        assertEquals("tessera-" + reference.substring(7, 23) + ".png", image.fileName());
+        assertEquals("word/media/" + image.fileName(), image.entry().name());
+        assertEquals(ZipEntry.STORED, image.entry().method());
+    }
+
+    @Test
+    void wideImagesAreScaledToTheTextWidth() throws IOException {
+        Files.write(directory.resolve("photo.jpg"), image(1152, 300, "jpeg"));
+        ImageCache cache = new ImageCache(directory, ImageCache.DEFAULT_MAX_BYTES);
+
+        ImageCache.Image image = cache.image(cache.reference("photo.jpg"));
+
+        assertEquals("jpeg", image.format());
+        assertEquals(6 * 914400L, image.widthEmu());
+        assertEquals(300 * 9525L / 2, image.heightEmu());
+    }
+
+    @Test
+    void namesThatAreBlankMissingOrOutsideTheDirectoryAreNotReferences() throws IOException {
+        Path images = Files.createDirectories(directory.resolve("images"));
+        Files.write(directory.resolve("outside.png"), image(1, 1, "png"));
+        ImageCache cache = new ImageCache(images, ImageCache.DEFAULT_MAX_BYTES);
+
+        assertEquals("", cache.reference(null));
+        assertEquals("", cache.reference("  "));
+        assertEquals("missing.png", cache.reference("missing.png"));
+        assertEquals("../outside.png", cache.reference("../outside.png"));
+        assertFalse(cache.exists("../outside.png"));
+        IOException e = assertThrows(IOException.class, () -> cache.image("missing.png"));
+        assertEquals("Image not found: missing.png", e.getMessage());
+        assertThrows(IOException.class, () -> cache.image("sha256:0000"));
+    }
+
+    @Test
+    void aFileThatIsNotAnImageIsReportedWhenRendered() throws IOException {
+        Files.writeString(directory.resolve("notes.png"), "not an image");
+        ImageCache cache = new ImageCache(directory, ImageCache.DEFAULT_MAX_BYTES);
+
+        String reference = cache.reference("notes.png");
+
+        assertTrue(cache.exists("notes.png"));
+        IOException e = assertThrows(IOException.class, () -> cache.image(reference));
+        assertEquals("Not a supported image: notes.png", e.getMessage());
+    }
+
+    @Test
+    void evictedImagesAreReadAgainAndChangedFilesAreRehashed() throws IOException {
+        byte[] first = image(30, 30, "png");
+        byte[] second = image(31, 30, "png");
+        Path firstFile = Files.write(directory.resolve("first.png"), first);
+        Files.write(directory.resolve("second.png"), second);
+        ImageCache cache = new ImageCache(directory, Math.max(first.length, second.length));
+
+        String firstReference = cache.reference("first.png");
+        String secondReference = cache.reference("second.png");
+        assertEquals(2, cache.loads());
+
+        // Only one image fits, so the first was dropped for the second
+        assertEquals(31 * 9525L, cache.image(secondReference).widthEmu());
+        assertEquals(30 * 9525L, cache.image(firstReference).widthEmu());
+        assertEquals(3, cache.loads());
+        assertEquals(1, cache.hits());
+
+        Files.write(firstFile, second);
+        Files.setLastModifiedTime(firstFile, FileTime.fromMillis(0));
+        // Loading the second image drops the first, which then has to be read from its changed file
+        cache.image(secondReference);
+        IOException e = assertThrows(IOException.class, () -> cache.image(firstReference));
+        assertEquals("Image changed during the run: first.png", e.getMessage());
+        assertNotEquals(firstReference, cache.reference("first.png"));
+        assertEquals(secondReference, cache.reference("first.png"));
+    }
+
+    @Test
+    void aNegativeSizeIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new ImageCache(directory, -1));
+    }
+
+    private static byte[] image(int width, int height, String format) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, width * 31 + height);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        return out.toByteArray();
+    }
+}
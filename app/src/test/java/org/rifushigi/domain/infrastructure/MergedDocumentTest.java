@@ -0,0 +1,265 @@
+package org.rifushigi.domain.infrastructure;
+
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MergedDocumentTest {
+
+    private static final String SECTION = "<w:sectPr><w:pgSz w:w=\"11906\"/></w:sectPr>";
+    private static final String IMAGE_TYPE = "http://schemas.openxmlformats.org/officeDocument/2006/relationships/image";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void documentsAreMergedInSequenceOrderWithPageBreaks() throws IOException {
+        Path merged = directory.resolve("out/Level 1.docx");
+        MergedDocument document = create(merged, MergeBreak.PAGE);
+
+        CompletableFuture<Void> second = document.add(1, docx(paragraph("two")));
+        assertFalse(second.isDone());
+        assertEquals(0, document.documents());
+        CompletableFuture<Void> first = document.add(0, docx(paragraph("one")));
+        assertTrue(first.isDone() && second.isDone());
+        document.add(2, docx(paragraph("three") + paragraph("four")));
+        assertEquals(3, document.documents());
+        document.close();
+
+        assertEquals(body(paragraph("one")
+                + "<w:p><w:pPr><w:pageBreakBefore/></w:pPr><w:r><w:t>two</w:t></w:r></w:p>"
+                + "<w:p><w:pPr><w:pageBreakBefore/></w:pPr><w:r><w:t>three</w:t></w:r></w:p>" + paragraph("four")
+                + SECTION), mainPart(merged));
+        assertEquals(List.of("one", "two", "three", "four"), paragraphs(merged));
+        assertEquals(List.of(merged), files(merged.getParent()));
+    }
+
+    @Test
+    void sectionBreaksEndEachDocumentButTheLast() throws IOException {
+        Path merged = directory.resolve("Level 2.docx");
+        try (MergedDocument document = create(merged, MergeBreak.SECTION)) {
+            document.add(0, docx(paragraph("one")));
+            document.add(1, docx("<w:tbl><w:tr/></w:tbl>"));
+            document.add(2, docx(paragraph("three")));
+        }
+
+        assertEquals(body("<w:p><w:pPr>" + SECTION + "</w:pPr><w:r><w:t>one</w:t></w:r></w:p>"
+                + "<w:tbl><w:tr/></w:tbl><w:p><w:pPr>" + SECTION + "</w:pPr></w:p>"
+                + paragraph("three") + SECTION), mainPart(merged));
+        assertEquals(List.of("one", "", "three"), paragraphs(merged));
+    }
+
+    @Test
+    void partsAddedByTheDocumentsAreCopiedOnceEach() throws IOException {
+        Path merged = directory.resolve("images.docx");
+        byte[] signature = "signature".getBytes(StandardCharsets.UTF_8);
+        try (MergedDocument document = create(merged, MergeBreak.PAGE)) {
+            document.add(0, docxWithImage(signature));
+            document.add(1, docxWithImage(signature));
+            document.add(2, docxWithImage("photo".getBytes(StandardCharsets.UTF_8)));
+        }
+
+        try (ZipFile zip = new ZipFile(merged.toFile())) {
+            assertEquals("signature", read(zip, "word/media/merged1.png"));
+            assertEquals("photo", read(zip, "word/media/merged2.png"));
+            assertNull(zip.getEntry("word/media/image1.png"));
+
+            String relationships = read(zip, "word/_rels/document.xml.rels");
+            assertTrue(relationships.contains("Id=\"rIdMerged1\"") && relationships.contains("Target=\"/word/media/merged1.png\""), relationships);
+            assertTrue(relationships.contains("Id=\"rIdMerged2\"") && relationships.contains("Target=\"/word/media/merged2.png\""), relationships);
+            assertFalse(relationships.contains("rId9"), relationships);
+            String contentTypes = read(zip, "[Content_Types].xml");
+            assertEquals(1, contentTypes.split("Extension=\"png\"", -1).length - 1, contentTypes);
+        }
+        String main = mainPart(merged);
+        assertEquals(2, main.split("r:embed=\"rIdMerged1\"", -1).length - 1, main);
+        assertEquals(1, main.split("r:embed=\"rIdMerged2\"", -1).length - 1, main);
+        assertTrue(main.contains("id=\"1000000\"") && main.contains("id=\"1000001\"") && main.contains("id=\"1000002\""), main);
+        assertTrue(main.contains("xmlns:r="), main);
+    }
+
+    @Test
+    void anUnreadableDocumentIsLeftOut() throws IOException {
+        Path merged = directory.resolve("merged.docx");
+        try (MergedDocument document = create(merged, MergeBreak.PAGE)) {
+            CompletableFuture<Void> broken = document.add(0, new byte[]{1, 2, 3});
+            assertTrue(broken.isCompletedExceptionally());
+            document.skip(1);
+            assertTrue(document.add(2, docx(paragraph("three"))).isDone());
+            assertEquals(1, document.documents());
+        }
+
+        assertEquals(List.of("three"), paragraphs(merged));
+    }
+
+    @Test
+    void noFileIsCreatedWhenNoDocumentWasMerged() throws IOException {
+        Path merged = directory.resolve("empty.docx");
+        try (MergedDocument document = create(merged, MergeBreak.PAGE)) {
+            document.skip(0);
+        }
+
+        assertEquals(List.of(), files(directory));
+    }
+
+    @Test
+    void anAbandonedDocumentLeavesTheEarlierOneInPlace() throws IOException {
+        Path merged = directory.resolve("merged.docx");
+        Files.writeString(merged, "from an earlier run");
+        MergedDocument document = create(merged, MergeBreak.SECTION);
+        document.add(0, docx(paragraph("one")));
+        CompletableFuture<Void> heldBack = document.add(2, docx(paragraph("three")));
+
+        document.abandon();
+        document.close();
+
+        assertTrue(heldBack.isCompletedExceptionally());
+        assertEquals(List.of(merged), files(directory));
+        assertEquals("from an earlier run", Files.readString(merged));
+    }
+
+    @Test
+    void pageBreaksGoIntoTheParagraphPropertiesInSchemaOrder() {
+        assertEquals("<w:p><w:pPr><w:pageBreakBefore/></w:pPr></w:p>", MergedDocument.withPageBreakBefore("<w:p/>"));
+        assertEquals("<w:p><w:pPr><w:pageBreakBefore/></w:pPr></w:p>", MergedDocument.withPageBreakBefore("<w:p><w:pPr/></w:p>"));
+        assertEquals("<w:p><w:pPr><w:pStyle w:val=\"Title\"/><w:keepNext/><w:pageBreakBefore/><w:jc w:val=\"center\"/></w:pPr></w:p>",
+                MergedDocument.withPageBreakBefore("<w:p><w:pPr><w:pStyle w:val=\"Title\"/><w:keepNext/><w:jc w:val=\"center\"/></w:pPr></w:p>"));
+        assertEquals("<w:p><w:pPr><w:pageBreakBefore/></w:pPr></w:p>",
+                MergedDocument.withPageBreakBefore("<w:p><w:pPr><w:pageBreakBefore w:val=\"0\"/></w:pPr></w:p>"));
+        assertEquals("<w:p><w:r><w:br w:type=\"page\"/></w:r></w:p><w:tbl/>", MergedDocument.withPageBreakBefore("<w:tbl/>"));
+    }
+
+    @Test
+    void sectionBreaksGoBeforeATrackedChangeOfTheParagraphProperties() {
+        assertEquals("<w:p><w:pPr><w:jc/>" + SECTION + "<w:pPrChange><w:pPr/></w:pPrChange></w:pPr></w:p>",
+                MergedDocument.withSectionBreak("<w:p><w:pPr><w:jc/><w:pPrChange><w:pPr/></w:pPrChange></w:pPr></w:p>", SECTION));
+        assertEquals("<w:p/><w:p><w:pPr>" + SECTION + "</w:pPr></w:p>", MergedDocument.withSectionBreak("<w:p/>", SECTION));
+    }
+
+    @Test
+    void topLevelElementsSkipCommentsAndRejectUnclosedElements() throws IOException {
+        String xml = "<!-- <w:p> --><w:p><w:r/></w:p> <w:tbl/>";
+
+        List<int[]> elements = MergedDocument.topLevelElements(xml);
+
+        assertEquals(List.of("<w:p><w:r/></w:p>", "<w:tbl/>"),
+                elements.stream().map(element -> xml.substring(element[0], element[1])).toList());
+        assertThrows(IOException.class, () -> MergedDocument.topLevelElements("<w:p><w:r/>"));
+    }
+
+    private MergedDocument create(Path merged, MergeBreak mergeBreak) throws IOException {
+        Path template = directory.resolve("template/diploma.docx");
+        if (!Files.exists(template)) {
+            Files.createDirectories(template.getParent());
+            Files.write(template, docx(paragraph("${FULL NAME}")));
+        }
+        return MergedDocument.create(merged, template, mergeBreak, ZipCompression.DEFAULT, FsyncPolicy.NONE);
+    }
+
+    private static String paragraph(String text) {
+        return "<w:p><w:r><w:t>" + text + "</w:t></w:r></w:p>";
+    }
+
+    private static String body(String content) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+                + "<w:document xmlns:w=\"http://schemas.openxmlformats.org/wordprocessingml/2006/main\"><w:body>"
+                + content + "</w:body></w:document>";
+    }
+
+    private static byte[] docx(String content) throws IOException {
+        return docx(body(content + SECTION), "", null);
+    }
+
+    /**
+     * @return A document showing an image that the template does not have.
+     */
+    private static byte[] docxWithImage(byte[] image) throws IOException {
+        String drawing = "<w:p><w:r><w:drawing><wp:inline><wp:docPr id=\"1\" name=\"Picture 1\"/>"
+                + "<a:blip r:embed=\"rId9\"/></wp:inline></w:drawing></w:r></w:p>";
+        String main = body(drawing + SECTION).replace("<w:document ", "<w:document"
+                + " xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\""
+                + " xmlns:wp=\"http://schemas.openxmlformats.org/drawingml/2006/wordprocessingDrawing\""
+                + " xmlns:a=\"http://schemas.openxmlformats.org/drawingml/2006/main\" ");
+        return docx(main, "<Relationship Id=\"rId9\" Type=\"" + IMAGE_TYPE + "\" Target=\"media/image1.png\"/>", image);
+    }
+
+    private static byte[] docx(String main, String relationships, byte[] image) throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            put(zip, "[Content_Types].xml", "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                    + "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+                    + "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+                    + "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+                    + (image != null ? "<Default Extension=\"png\" ContentType=\"image/png\"/>" : "")
+                    + "<Override PartName=\"/word/document.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.wordprocessingml.document.main+xml\"/>"
+                    + "</Types>");
+            put(zip, "_rels/.rels", "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                    + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+                    + "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument\" Target=\"word/document.xml\"/>"
+                    + "</Relationships>");
+            put(zip, "word/_rels/document.xml.rels", "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                    + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+                    + relationships + "</Relationships>");
+            put(zip, "word/document.xml", main);
+            if (image != null) {
+                zip.putNextEntry(new ZipEntry("word/media/image1.png"));
+                zip.write(image);
+                zip.closeEntry();
+            }
+        }
+        return archive.toByteArray();
+    }
+
+    private static void put(ZipOutputStream zip, String name, String content) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(content.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+
+    private static String mainPart(Path merged) throws IOException {
+        try (ZipFile zip = new ZipFile(merged.toFile())) {
+            return read(zip, "word/document.xml");
+        }
+    }
+
+    private static String read(ZipFile zip, String name) throws IOException {
+        ZipEntry entry = zip.getEntry(name);
+        assertNotNull(entry, name);
+        try (InputStream in = zip.getInputStream(entry)) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static List<String> paragraphs(Path merged) throws IOException {
+        try (InputStream in = Files.newInputStream(merged); XWPFDocument document = new XWPFDocument(in)) {
+            return document.getParagraphs().stream().map(XWPFParagraph::getText).toList();
+        }
+    }
+
+    private static List<Path> files(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> !file.getFileName().toString().equals("template")).sorted().toList();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package org.rifushigi.domain.infrastructure;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TarArchiveSinkTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void documentsAndLinksReadBack() throws IOException {
+        byte[] first = bytes("first document");
+        byte[] second = new byte[1300];
+        Arrays.fill(second, (byte) 7);
+
+        List<Entry> entries = bundle(sink -> {
+            sink.write("certificates/diploma/Level 1/Ada Lovelace.docx", first);
+            sink.write("certificates/diploma/Level 1/Alan Turing.docx", second);
+            sink.link("certificates/diploma/Level 1/Ada Lovelace.docx", "certificates/diploma/Level 1/Ada Lovelace (2).docx");
+        });
+
+        assertEquals(3, entries.size());
+        assertEquals(new Entry("certificates/diploma/Level 1/Ada Lovelace.docx", '0', null), entries.get(0).header());
+        assertArrayEquals(first, entries.get(0).content());
+        assertArrayEquals(second, entries.get(1).content());
+        assertEquals(new Entry("certificates/diploma/Level 1/Ada Lovelace (2).docx", '1',
+                "certificates/diploma/Level 1/Ada Lovelace.docx"), entries.get(2).header());
+        assertEquals(0, entries.get(2).content().length);
+    }
+
+    @Test
+    void longPathIsSplitIntoPrefixAndName() throws IOException {
+        String path = "certificates_09_2025/" + "a".repeat(80) + "/" + "b".repeat(90) + ".docx";
+
+        List<Entry> entries = bundle(sink -> sink.write(path, bytes("long")));
+
+        assertEquals(1, entries.size());
+        assertEquals(path, entries.get(0).path());
+        assertArrayEquals(bytes("long"), entries.get(0).content());
+    }
+
+    @Test
+    void pathsThatDoNotFitUstarGoInPaxHeaders() throws IOException {
+        String unicode = "certificates/diploma/Zo\u00eb \u00c5ngstr\u00f6m.docx";
+        String tooLong = "c/" + "x".repeat(120) + ".docx";
+        String longLink = "d/" + "y".repeat(120) + ".docx";
+
+        List<Entry> entries = bundle(sink -> {
+            sink.write(unicode, bytes("unicode"));
+            sink.write(tooLong, bytes("long"));
+            sink.link(tooLong, longLink);
+        });
+
+        assertEquals(3, entries.size());
+        assertEquals(unicode, entries.get(0).path());
+        assertArrayEquals(bytes("unicode"), entries.get(0).content());
+        assertEquals(tooLong, entries.get(1).path());
+        assertEquals(new Entry(longLink, '1', tooLong), entries.get(2).header());
+    }
+
+    @Test
+    void archiveEndsWithTwoEmptyBlocksAndIsReproducible() throws IOException {
+        Path firstArchive = directory.resolve("first.tar");
+        Path secondArchive = directory.resolve("second.tar");
+        for (Path archive : List.of(firstArchive, secondArchive)) {
+            try (ArchiveSink sink = ArchiveSink.open(BundleFormat.TAR, archive.toString(), FsyncPolicy.NONE)) {
+                sink.write("a.docx", bytes("a"));
+            }
+        }
+
+        byte[] tar = Files.readAllBytes(firstArchive);
+        assertEquals(0, tar.length % 512);
+        assertTrue(Arrays.equals(new byte[1024], Arrays.copyOfRange(tar, tar.length - 1024, tar.length)));
+        assertArrayEquals(tar, Files.readAllBytes(secondArchive));
+    }
+
+    private List<Entry> bundle(SinkWriter writer) throws IOException {
+        Path archive = directory.resolve("bundle.tar");
+        try (ArchiveSink sink = ArchiveSink.open(BundleFormat.TAR, archive.toString(), FsyncPolicy.NONE)) {
+            writer.write(sink);
+        }
+        return read(Files.readAllBytes(archive));
+    }
+
+    /**
+     * Reads a ustar archive, applying the path and linkpath of PAX headers to the entry that follows them.
+     */
+    private static List<Entry> read(byte[] tar) {
+        List<Entry> entries = new ArrayList<>();
+        String paxPath = null;
+        String paxLinkPath = null;
+        int position = 0;
+        while (position + 512 <= tar.length && tar[position] != 0) {
+            byte[] header = Arrays.copyOfRange(tar, position, position + 512);
+            assertEquals(checksum(header), Long.parseLong(field(header, 148, 7), 8), "header checksum");
+            assertEquals("ustar", field(header, 257, 6));
+            int size = Integer.parseInt(field(header, 124, 11), 8);
+            byte[] content = Arrays.copyOfRange(tar, position + 512, position + 512 + size);
+            position += 512 + (size + 511) / 512 * 512;
+
+            char type = (char) header[156];
+            if (type == 'x') {
+                for (String record : new String(content, StandardCharsets.UTF_8).split("\n")) {
+                    String keyValue = record.substring(record.indexOf(' ') + 1);
+                    assertEquals(Integer.parseInt(record.substring(0, record.indexOf(' '))),
+                            (record + "\n").getBytes(StandardCharsets.UTF_8).length, "PAX record length");
+                    String key = keyValue.substring(0, keyValue.indexOf('='));
+                    String value = keyValue.substring(keyValue.indexOf('=') + 1);
+                    if (key.equals("path")) {
+                        paxPath = value;
+                    } else if (key.equals("linkpath")) {
+                        paxLinkPath = value;
+                    }
+                }
+                continue;
+            }
+            String prefix = field(header, 345, 155);
+            String name = prefix.isEmpty() ? field(header, 0, 100) : prefix + "/" + field(header, 0, 100);
+            String linkName = type == '1' ? field(header, 157, 100) : null;
+            entries.add(new Entry(paxPath != null ? paxPath : name, type,
+                    paxLinkPath != null ? paxLinkPath : linkName, content));
+            paxPath = null;
+            paxLinkPath = null;
+        }
+        return entries;
+    }
+
+    private static String field(byte[] header, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, StandardCharsets.US_ASCII);
+    }
+
+    private static long checksum(byte[] header) {
+        long checksum = 0;
+        for (int i = 0; i < header.length; i++) {
+            checksum += i >= 148 && i < 156 ? ' ' : header[i] & 0xFF;
+        }
+        return checksum;
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private interface SinkWriter {
+        void write(ArchiveSink sink) throws IOException;
+    }
+
+    private record Entry(String path, char type, String linkPath, byte[] content) {
+
+        Entry(String path, char type, String linkPath) {
+            this(path, type, linkPath, null);
+        }
+
+        /**
+         * @return The entry without its content, to compare by value.
+         */
+        Entry header() {
+            return new Entry(path, type, linkPath);
+        }
+    }
+}
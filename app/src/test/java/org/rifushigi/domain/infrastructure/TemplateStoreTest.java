@@ -0,0 +1,66 @@
+package org.rifushigi.domain.infrastructure;
+
+import org.apache.poi.wp.usermodel.HeaderFooterType;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rifushigi.domain.model.Placeholder;
+import org.rifushigi.domain.model.TemplateMetadata;
+import org.rifushigi.domain.service.PlaceholderService;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class TemplateStoreTest {
+
+    private static final String HASH = "0123456789abcdef";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void storedPlaceholderLocationsAreReadBackUnchanged() throws IOException {
+        Path template = directory.resolve("diploma.docx");
+        try (XWPFDocument document = new XWPFDocument(); OutputStream out = Files.newOutputStream(template)) {
+            document.createHeader(HeaderFooterType.DEFAULT).createParagraph().createRun().setText("${COURSE} ${DATE}");
+            document.createParagraph().createRun().setText("Awarded to ${FULL NAME}");
+            XWPFTable table = document.createTable(2, 2);
+            table.getRow(1).getCell(1).getParagraphs().getFirst().createRun().setText("${FULL NAME}, ${COURSE}");
+            document.write(out);
+        }
+        TemplateMetadata scanned = new PlaceholderService().scanTemplate(template);
+        TemplateStore store = new TemplateStore(directory.resolve("cache"), TemplateStore.DEFAULT_MAX_BYTES);
+
+        store.storeMetadata(HASH, scanned);
+        TemplateMetadata loaded = store.loadMetadata(HASH, template);
+
+        assertEquals(Set.of("COURSE", "DATE", "FULL NAME"),
+                Set.copyOf(loaded.placeholders().stream().map(Placeholder::varName).toList()));
+        assertEquals(scanned.placeholders(), loaded.placeholders());
+        assertEquals(5, loaded.locations().size());
+        assertEquals(scanned.locations(), loaded.locations());
+        assertEquals(template, loaded.templatePath());
+    }
+
+    @Test
+    void aDamagedEntryIsAMiss() throws IOException {
+        Path template = directory.resolve("diploma.docx");
+        TemplateStore store = new TemplateStore(directory.resolve("cache"), TemplateStore.DEFAULT_MAX_BYTES);
+        store.storeMetadata(HASH, new TemplateMetadata(template, Set.of()));
+
+        Path entry = directory.resolve("cache").resolve(HASH + ".scan");
+        byte[] bytes = Files.readAllBytes(entry);
+        Files.write(entry, Arrays.copyOf(bytes, bytes.length - 2));
+
+        assertNull(store.loadMetadata(HASH, template));
+        assertNull(store.loadMetadata("fedcba9876543210", template));
+    }
+}
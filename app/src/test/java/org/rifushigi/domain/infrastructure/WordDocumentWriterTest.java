@@ -0,0 +1,106 @@
+package org.rifushigi.domain.infrastructure;
+
+import org.apache.poi.xwpf.usermodel.UnderlinePatterns;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rifushigi.domain.model.TemplateMetadata;
+import org.rifushigi.domain.service.PlaceholderService;
+import org.rifushigi.metrics.GenerationMetrics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class WordDocumentWriterTest {
+
+    private static final Map<String, String> VALUES = Map.of("FULL NAME", "Ada Lovelace", "COURSE", "Mathematics");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void placeholdersSplitOverRunsWithMixedFormattingAreReplacedInPlace() throws IOException {
+        Path template = directory.resolve("diploma.docx");
+        try (XWPFDocument document = new XWPFDocument(); OutputStream out = Files.newOutputStream(template)) {
+            XWPFParagraph awarded = document.createParagraph();
+            run(awarded, "Awarded to ${CO", Style.PLAIN);
+            run(awarded, "UR", Style.BOLD);
+            run(awarded, "SE} in ", Style.ITALIC);
+            run(awarded, "${FULL ", Style.BOLD);
+            run(awarded, "NAME}", Style.ITALIC);
+            run(awarded, "!", Style.PLAIN);
+            XWPFParagraph dear = document.createParagraph();
+            run(dear, "Dear ${FU", Style.UNDERLINED);
+            run(dear, "LL NAME}, well done", Style.PLAIN);
+            document.write(out);
+        }
+
+        TemplateMetadata scanned = new PlaceholderService().scanTemplate(template);
+        assertFalse(scanned.locations().isEmpty());
+        List<List<String>> expected = List.of(
+                List.of("Awarded to Mathematics|plain", "|bold", " in |italic",
+                        "Ada Lovelace|bold, Lucida Calligraphy 22", "|italic", "!|plain"),
+                // A name sharing its run with other text gets a run of its own, formatted like the run it starts in
+                List.of("Dear |underlined", "Ada Lovelace|underlined, Lucida Calligraphy 22", ", well done|plain"));
+
+        // Whether the whole document is searched or only the paragraphs found by the scan
+        assertEquals(expected, runs(new WordDocumentWriter(template, scanned.placeholders())));
+        assertEquals(expected, runs(new WordDocumentWriter(scanned, GenerationMetrics.DISABLED)));
+    }
+
+    private static List<List<String>> runs(WordDocumentWriter writer) throws IOException {
+        ByteArrayOutputStream rendered = new ByteArrayOutputStream();
+        writer.render(VALUES, rendered);
+        List<List<String>> paragraphs = new ArrayList<>();
+        try (XWPFDocument document = new XWPFDocument(new ByteArrayInputStream(rendered.toByteArray()))) {
+            for (XWPFParagraph paragraph : document.getParagraphs()) {
+                paragraphs.add(paragraph.getRuns().stream().map(WordDocumentWriterTest::describe).toList());
+            }
+        }
+        return paragraphs;
+    }
+
+    private static String describe(XWPFRun run) {
+        List<String> formatting = new ArrayList<>();
+        if (run.isBold()) {
+            formatting.add("bold");
+        }
+        if (run.isItalic()) {
+            formatting.add("italic");
+        }
+        if (run.getUnderline() != UnderlinePatterns.NONE) {
+            formatting.add("underlined");
+        }
+        if (run.getFontFamily() != null) {
+            formatting.add(run.getFontFamily() + " " + run.getFontSizeAsDouble().intValue());
+        }
+        String text = run.text();
+        return text + "|" + (formatting.isEmpty() ? "plain" : String.join(", ", formatting));
+    }
+
+    private static void run(XWPFParagraph paragraph, String text, Style style) {
+        XWPFRun run = paragraph.createRun();
+        run.setText(text);
+        switch (style) {
+            case BOLD -> run.setBold(true);
+            case ITALIC -> run.setItalic(true);
+            case UNDERLINED -> run.setUnderline(UnderlinePatterns.SINGLE);
+            case PLAIN -> {
+            }
+        }
+    }
+
+    private enum Style { PLAIN, BOLD, ITALIC, UNDERLINED }
+}
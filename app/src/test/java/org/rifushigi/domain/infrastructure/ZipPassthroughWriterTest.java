@@ -0,0 +1,161 @@
+package org.rifushigi.domain.infrastructure;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ZipPassthroughWriterTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void writtenEntriesReadBackWithZipFile() throws IOException {
+        Path archive = directory.resolve("entries.zip");
+        try (OutputStream out = Files.newOutputStream(archive)) {
+            ZipPassthroughWriter zip = new ZipPassthroughWriter(out, ZipCompression.DEFAULT);
+            zip.writeEntry("word/document.xml", bytes("<w:document/>"));
+            zip.writeRaw(RawZipEntry.compress("word/media/image1.png", bytes("not really a png"), ZipCompression.STORED));
+            zip.writeEntry("docProps/app.xml", new byte[0]);
+            zip.finish();
+        }
+
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            assertEquals(3, zip.size());
+            assertArrayEquals(bytes("<w:document/>"), read(zip, "word/document.xml"));
+            assertEquals(ZipEntry.DEFLATED, zip.getEntry("word/document.xml").getMethod());
+            assertArrayEquals(bytes("not really a png"), read(zip, "word/media/image1.png"));
+            assertEquals(ZipEntry.STORED, zip.getEntry("word/media/image1.png").getMethod());
+            assertArrayEquals(new byte[0], read(zip, "docProps/app.xml"));
+        }
+    }
+
+    @Test
+    void streamedEntryHasItsSizesInADataDescriptor() throws IOException {
+        byte[] data = new byte[3 * 1024 * 1024];
+        new Random(42).nextBytes(data);
+        byte[] text = bytes("<w:t>record</w:t>".repeat(10_000));
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        ZipPassthroughWriter zip = new ZipPassthroughWriter(archive, ZipCompression.STORED);
+        zip.writeEntry("before.xml", bytes("<before/>"));
+        try (OutputStream entry = zip.openEntry("word/document.xml")) {
+            entry.write(text, 0, 7);
+            entry.write(text[7]);
+            entry.write(text, 8, text.length - 8);
+        }
+        try (OutputStream entry = zip.openEntry("random.bin")) {
+            entry.write(data);
+        }
+        zip.writeEntry("after.xml", bytes("<after/>"));
+        zip.finish();
+
+        Path file = Files.write(directory.resolve("streamed.zip"), archive.toByteArray());
+        try (ZipFile read = new ZipFile(file.toFile())) {
+            assertEquals(4, read.size());
+            assertArrayEquals(text, read(read, "word/document.xml"));
+            assertArrayEquals(data, read(read, "random.bin"));
+            assertArrayEquals(bytes("<after/>"), read(read, "after.xml"));
+            // Even with stored compression, a streamed entry is deflated
+            assertEquals(ZipEntry.DEFLATED, read.getEntry("word/document.xml").getMethod());
+            assertEquals(text.length, read.getEntry("word/document.xml").getSize());
+        }
+
+        // A reader that only sees the local headers has to find the sizes after the data
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(archive.toByteArray()))) {
+            assertEquals("before.xml", in.getNextEntry().getName());
+            assertEquals("word/document.xml", in.getNextEntry().getName());
+            assertArrayEquals(text, in.readAllBytes());
+            assertEquals("random.bin", in.getNextEntry().getName());
+            assertArrayEquals(data, in.readAllBytes());
+            assertEquals("after.xml", in.getNextEntry().getName());
+            assertArrayEquals(bytes("<after/>"), in.readAllBytes());
+            assertNull(in.getNextEntry());
+        }
+    }
+
+    @Test
+    void moreThan65535EntriesGetZip64Records() throws IOException {
+        int entries = 70_000;
+        Path archive = directory.resolve("many.zip");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(archive))) {
+            ZipPassthroughWriter zip = new ZipPassthroughWriter(out, ZipCompression.STORED);
+            for (int i = 0; i < entries; i++) {
+                zip.writeEntry("docx/" + i + ".docx", bytes(Integer.toString(i)));
+            }
+            zip.finish();
+        }
+
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            assertEquals(entries, zip.size());
+            assertArrayEquals(bytes("0"), read(zip, "docx/0.docx"));
+            assertArrayEquals(bytes("65535"), read(zip, "docx/65535.docx"));
+            assertArrayEquals(bytes("69999"), read(zip, "docx/69999.docx"));
+        }
+    }
+
+    @Test
+    void copyNormalizedGivesTheSameBytesForTheSameContent() throws IOException {
+        byte[] first = zipWithTimestamp(FileTime.fromMillis(0));
+        byte[] second = zipWithTimestamp(FileTime.fromMillis(1_700_000_000_000L));
+
+        ByteArrayOutputStream firstCopy = new ByteArrayOutputStream();
+        ZipPassthroughWriter.copyNormalized(first, firstCopy);
+        ByteArrayOutputStream secondCopy = new ByteArrayOutputStream();
+        ZipPassthroughWriter.copyNormalized(second, secondCopy);
+
+        assertArrayEquals(firstCopy.toByteArray(), secondCopy.toByteArray());
+        Path file = Files.write(directory.resolve("normalized.zip"), firstCopy.toByteArray());
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+            assertArrayEquals(bytes("<w:document>same</w:document>"), read(zip, "word/document.xml"));
+            assertArrayEquals(bytes("<Types/>"), read(zip, "[Content_Types].xml"));
+        }
+    }
+
+    private static byte[] zipWithTimestamp(FileTime time) throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            for (String[] entry : new String[][]{
+                    {"[Content_Types].xml", "<Types/>"}, {"word/document.xml", "<w:document>same</w:document>"}}) {
+                ZipEntry zipEntry = new ZipEntry(entry[0]);
+                zipEntry.setLastModifiedTime(time);
+                zip.putNextEntry(zipEntry);
+                zip.write(bytes(entry[1]));
+                zip.closeEntry();
+            }
+        }
+        return archive.toByteArray();
+    }
+
+    private static byte[] read(ZipFile zip, String name) throws IOException {
+        ZipEntry entry = zip.getEntry(name);
+        assertNotNull(entry, name);
+        try (InputStream in = zip.getInputStream(entry)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
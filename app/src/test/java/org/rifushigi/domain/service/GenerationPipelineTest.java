@@ -0,0 +1,188 @@
+package org.rifushigi.domain.service;
+
+import org.junit.jupiter.api.Test;
+import org.rifushigi.domain.infrastructure.DocumentRenderer;
+import org.rifushigi.domain.infrastructure.DocumentSink;
+import org.rifushigi.domain.model.CandidateRecord;
+import org.rifushigi.domain.model.RecordSchema;
+import org.rifushigi.metrics.GenerationMetrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GenerationPipelineTest {
+
+    private static final String DIRECTORY = "certificates/Level 1";
+
+    @Test
+    void documentsAreWrittenInRecordOrderBeyondTheQueueCapacity() throws Exception {
+        List<String> names = names(50);
+        RecordingSink sink = new RecordingSink(null);
+        SheetJob job = job(null);
+
+        generate(new GenerationPipeline(sink, 1, 2, GenerationMetrics.DISABLED, null, null, false), job, names);
+
+        assertEquals(names.stream().map(name -> DIRECTORY + "/" + name + ".docx").toList(), sink.entryPaths);
+        assertEquals(names, sink.contents);
+        assertEquals(50, job.filesCreated());
+    }
+
+    @Test
+    void everyDocumentIsWrittenWithSeveralWorkers() throws Exception {
+        List<String> names = names(200);
+        RecordingSink sink = new RecordingSink(null);
+        SheetJob job = job(null);
+
+        generate(new GenerationPipeline(sink, 4, 2, GenerationMetrics.DISABLED, null, new HeapBudget(1 << 20), false),
+                job, names);
+
+        // The workers may finish out of order, but each document has the content of its own record
+        assertEquals(names.stream().sorted().toList(), sink.contents.stream().sorted().toList());
+        for (int i = 0; i < sink.entryPaths.size(); i++) {
+            assertEquals(DIRECTORY + "/" + sink.contents.get(i) + ".docx", sink.entryPaths.get(i));
+        }
+        assertEquals(200, job.filesCreated());
+        assertEquals(List.of(), errors(job));
+    }
+
+    @Test
+    void aFailedRenderLeavesTheOtherRecordsWritten() throws Exception {
+        List<String> names = names(20);
+        RecordingSink sink = new RecordingSink(null);
+        SheetJob job = job("Candidate 7");
+
+        generate(new GenerationPipeline(sink, 3, 2, GenerationMetrics.DISABLED, null, null, false), job, names);
+
+        assertEquals(19, sink.contents.size());
+        assertFalse(sink.contents.contains("Candidate 7"), sink.contents::toString);
+        assertEquals(19, job.filesCreated());
+        List<String> errors = errors(job);
+        assertEquals(1, errors.size());
+        assertTrue(errors.getFirst().contains("Candidate 7") && errors.getFirst().contains("unreadable"), errors::toString);
+    }
+
+    @Test
+    void aFailingSinkDoesNotHangClose() throws Exception {
+        List<String> names = names(20);
+        RecordingSink sink = new RecordingSink("Candidate 3");
+        SheetJob job = job(null);
+
+        generate(new GenerationPipeline(sink, 2, 1, GenerationMetrics.DISABLED, null, new HeapBudget(1 << 20), false),
+                job, names);
+
+        assertEquals(19, sink.contents.size());
+        assertEquals(19, job.filesCreated());
+        List<String> errors = errors(job);
+        assertEquals(1, errors.size());
+        assertTrue(errors.getFirst().contains("Candidate 3") && errors.getFirst().contains("disk gone"), errors::toString);
+    }
+
+    /**
+     * Submits a record per name and closes the pipeline, failing if that does not finish in time.
+     */
+    private static void generate(GenerationPipeline pipeline, SheetJob job, List<String> names) throws Exception {
+        RecordSchema schema = RecordSchema.of(List.of(GenerationPipeline.FILE_NAME_COLUMN));
+        CompletableFuture<Void> generated = CompletableFuture.runAsync(() -> {
+            try (pipeline) {
+                for (String name : names) {
+                    pipeline.submit(job, new CandidateRecord(schema, new String[]{name}),
+                            Map.of(GenerationPipeline.FILE_NAME_COLUMN, name));
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        try {
+            generated.get(10, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            throw new AssertionError("The pipeline did not finish", e);
+        }
+    }
+
+    /**
+     * @param unreadable The name whose document fails to render, or null.
+     */
+    private static SheetJob job(String unreadable) {
+        DocumentRenderer renderer = new DocumentRenderer() {
+            @Override
+            public Map<String, String> resolveReplacements(CandidateRecord record) {
+                return Map.of(GenerationPipeline.FILE_NAME_COLUMN, record.getValue(GenerationPipeline.FILE_NAME_COLUMN));
+            }
+
+            @Override
+            public void render(Map<String, String> replacements, OutputStream outputStream) throws IOException {
+                String name = replacements.get(GenerationPipeline.FILE_NAME_COLUMN);
+                if (name.equals(unreadable)) {
+                    throw new IOException("template unreadable");
+                }
+                outputStream.write(name.getBytes(StandardCharsets.UTF_8));
+            }
+        };
+        SheetJob job = new SheetJob("Level 1", Set.of(), ThreadLocal.withInitial(() -> renderer), DIRECTORY,
+                null, "fingerprint");
+        job.estimatedDocumentBytes(1 << 16);
+        return job;
+    }
+
+    private static List<String> names(int count) {
+        return IntStream.range(0, count).mapToObj(i -> "Candidate " + i).toList();
+    }
+
+    private static List<String> errors(SheetJob job) {
+        List<String> errors = new ArrayList<>();
+        job.errors().forEach(errors::add);
+        return errors;
+    }
+
+    /**
+     * Keeps every document in the order it is written, throwing instead for the document of one name.
+     */
+    private static final class RecordingSink implements DocumentSink {
+
+        private final String failing;
+        private final List<String> entryPaths = Collections.synchronizedList(new ArrayList<>());
+        private final List<String> contents = Collections.synchronizedList(new ArrayList<>());
+
+        RecordingSink(String failing) {
+            this.failing = failing;
+        }
+
+        @Override
+        public void write(String entryPath, byte[] content) {
+            String text = new String(content, StandardCharsets.UTF_8);
+            if (text.equals(failing)) {
+                throw new IllegalStateException("disk gone");
+            }
+            entryPaths.add(entryPath);
+            contents.add(text);
+        }
+
+        @Override
+        public void link(String existingEntryPath, String entryPath) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String describe(String entryDirectory) {
+            return entryDirectory;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package org.rifushigi.domain.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rifushigi.domain.model.CandidateRecord;
+import org.rifushigi.domain.model.RecordSchema;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RoutingTableTest {
+
+    private static final RecordSchema SCHEMA = RecordSchema.of(List.of("FULL NAME", "LEVEL", "TRACK"));
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void rowsFanOutToTheTemplatesOfEveryMatchingRoute() throws IOException {
+        RoutingTable table = parse("""
+                # Every row of the sheet gets a certificate and a transcript
+                sheet = "Level 1"                     -> certificate.docx, transcript.docx
+                sheet = "Level 2"                     -> diploma.docx
+                sheet = "Level 2" and level = Honours -> honours-letter.docx
+                TRACK != Audit                        -> participation.docx
+                *                                     -> receipt.docx, certificate.docx
+                """);
+
+        assertEquals(templates("certificate", "transcript", "diploma", "honours-letter", "participation", "receipt"),
+                table.templates());
+
+        RoutingTable.SheetRoutes level1 = table.forSheet("Level 1");
+        assertEquals(templates("certificate", "transcript", "participation", "receipt"), level1.templates());
+        assertEquals(templates("certificate", "transcript", "participation", "receipt"),
+                level1.match(row("Ada", "Pass", "Full")));
+        assertEquals(templates("certificate", "transcript", "receipt"), level1.match(row("Alan", "Pass", " Audit ")));
+
+        RoutingTable.SheetRoutes level2 = table.forSheet("Level 2");
+        assertEquals(templates("diploma", "honours-letter", "participation", "receipt", "certificate"),
+                level2.match(row("Grace", "Honours", "Full")));
+        assertEquals(templates("diploma", "receipt", "certificate"), level2.match(row("Edsger", "Pass", "Audit")));
+
+        assertEquals(templates("participation", "receipt", "certificate"), table.forSheet("level 2").match(row("Ada", "Honours", "")));
+    }
+
+    @Test
+    void rowsMatchingTheSameRoutesShareOneList() throws IOException {
+        RoutingTable.SheetRoutes routes = parse("LEVEL = Honours -> honours.docx\n* -> receipt.docx\n").forSheet("Level 2");
+
+        List<Path> first = routes.match(row("Ada", "Honours", ""));
+        assertSame(first, routes.match(row("Grace", "Honours", "")));
+        assertEquals(templates("receipt"), routes.match(row("Alan", "Pass", "")));
+
+        // A sheet with the column in another place is bound again
+        RecordSchema reordered = RecordSchema.of(List.of("level", "FULL NAME"));
+        assertSame(first, routes.match(new CandidateRecord(reordered, new String[]{"Honours", "Edsger"})));
+        assertEquals(templates("receipt"), routes.match(new CandidateRecord(RecordSchema.of(List.of("FULL NAME")), new String[]{"Barbara"})));
+    }
+
+    @Test
+    void quotedNamesAndValuesMayHoldSpacesCommasAndQuotes() throws IOException {
+        RoutingTable table = parse("\"FULL NAME\" = \"Lovelace, \"\"Ada\"\"\" and sheet != Archive -> \"letters/ada letter.docx\"\n");
+
+        assertEquals(List.of(directory.resolve("letters/ada letter.docx")),
+                table.forSheet("Level 1").match(row("Lovelace, \"Ada\"", "", "")));
+        assertEquals(List.of(), table.forSheet("Level 1").match(row("Ada", "", "")));
+        assertEquals(List.of(), table.forSheet("Archive").templates());
+    }
+
+    @Test
+    void sheetsRoutedByNameAloneNeedNoRowWork() throws IOException {
+        Path diploma = Files.createFile(directory.resolve("Diploma-2025.docx"));
+        Path certificate = Files.createFile(directory.resolve("certificate.docx"));
+
+        RoutingTable table = RoutingTable.byTemplateName(List.of(diploma, certificate, directory.resolve("notes.docx")));
+
+        assertEquals(List.of(diploma, certificate), table.templates());
+        assertEquals(List.of(diploma), table.forSheet("Level 2").match(row("Ada", "", "")));
+        assertEquals(List.of(certificate), table.forSheet("Kainos OAU").templates());
+        assertEquals(List.of(), table.forSheet("Level 3").templates());
+    }
+
+    @Test
+    void syntaxErrorsAreReportedWithTheirLine() throws IOException {
+        for (String route : List.of("sheet = \"Level 1\"", "sheet \"Level 1\" -> a.docx", "LEVEL = -> a.docx",
+                "LEVEL = 1 or TRACK = 2 -> a.docx", "LEVEL = 1 and -> a.docx", "* -> a.docx,", "* -> a.docx b.docx",
+                "* -> notes.txt", "* ->", "\"LEVEL = 1 -> a.docx")) {
+            IOException e = assertThrows(IOException.class, () -> parse("# header\n\n" + route + "\n"), route);
+            assertTrue(e.getMessage().contains("line 3: "), e.getMessage());
+        }
+    }
+
+    @Test
+    void missingTemplatesAndEmptyFilesAreRejected() throws IOException {
+        Path routing = Files.writeString(directory.resolve("routes.txt"), "* -> missing.docx\n");
+        IOException e = assertThrows(IOException.class, () -> RoutingTable.parse(routing));
+        assertTrue(e.getMessage().startsWith("Template not found: " + directory.resolve("missing.docx")), e.getMessage());
+
+        Files.writeString(routing, "# nothing yet\n");
+        assertThrows(IOException.class, () -> RoutingTable.parse(routing));
+
+        Files.writeString(routing, "* -> a.docx\n".repeat(65));
+        Files.createFile(directory.resolve("a.docx"));
+        e = assertThrows(IOException.class, () -> RoutingTable.parse(routing));
+        assertTrue(e.getMessage().contains("65 routes"), e.getMessage());
+    }
+
+    private RoutingTable parse(String routes) throws IOException {
+        for (String template : List.of("certificate", "transcript", "diploma", "honours-letter", "participation",
+                "receipt", "honours", "letters/ada letter", "a")) {
+            Path file = directory.resolve(template + ".docx");
+            Files.createDirectories(file.getParent());
+            if (!Files.exists(file)) {
+                Files.createFile(file);
+            }
+        }
+        return RoutingTable.parse(Files.writeString(directory.resolve("routes.txt"), routes));
+    }
+
+    private List<Path> templates(String... names) {
+        return List.of(names).stream().map(name -> directory.resolve(name + ".docx")).toList();
+    }
+
+    private static CandidateRecord row(String fullName, String level, String track) {
+        return new CandidateRecord(SCHEMA, new String[]{fullName, level, track});
+    }
+}
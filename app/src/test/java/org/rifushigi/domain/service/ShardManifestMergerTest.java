@@ -0,0 +1,145 @@
+package org.rifushigi.domain.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rifushigi.domain.infrastructure.ShardManifest;
+import org.rifushigi.domain.infrastructure.ShardManifest.Status;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardManifestMergerTest {
+
+    private static final String DATA = "0f1e2d";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void shardsThatCoverEveryRecordMergeInDataOrder() throws IOException {
+        try (ShardManifest first = create(1, 2)) {
+            first.record("Level 2", 0, Status.CREATED, "diploma/Level 2/Grace.docx");
+            first.record("Level 1", 1, Status.UNCHANGED, "diploma/Level 1/Alan.docx");
+            complete(first, Map.of("Level 1", 2, "Level 2", 1));
+        }
+        try (ShardManifest second = create(2, 2)) {
+            second.record("Level 1", 0, Status.CREATED, "diploma/Level 1/Ada\tLovelace.docx");
+            complete(second, Map.of("Level 1", 2, "Level 2", 1));
+        }
+
+        ShardManifestMerger merger = ShardManifestMerger.merge(ShardManifestMerger.findManifests(List.of(directory)));
+
+        assertEquals(List.of(), merger.problems());
+        assertEquals(List.of(), merger.warnings());
+        assertEquals(2, merger.shardCount());
+        assertEquals(List.of(
+                new ShardManifestMerger.MergedEntry(2, new ShardManifest.Entry("Level 1", 0, Status.CREATED, "diploma/Level 1/Ada\tLovelace.docx")),
+                new ShardManifestMerger.MergedEntry(1, new ShardManifest.Entry("Level 1", 1, Status.UNCHANGED, "diploma/Level 1/Alan.docx")),
+                new ShardManifestMerger.MergedEntry(1, new ShardManifest.Entry("Level 2", 0, Status.CREATED, "diploma/Level 2/Grace.docx"))),
+                merger.entries());
+
+        Path merged = directory.resolve("merged.tsv");
+        merger.write(merged);
+        assertEquals(List.of(
+                "Level 1\t0\t2\tcreated\tdiploma/Level 1/Ada\\tLovelace.docx",
+                "Level 1\t1\t1\tunchanged\tdiploma/Level 1/Alan.docx",
+                "Level 2\t0\t1\tcreated\tdiploma/Level 2/Grace.docx"), Files.readAllLines(merged));
+    }
+
+    @Test
+    void missingDuplicatedAndFailedRecordsAreProblems() throws IOException {
+        try (ShardManifest first = create(1, 2)) {
+            first.record("Level 1", 0, Status.CREATED, "a.docx");
+            first.record("Level 1", 5, Status.CREATED, "f.docx");
+            complete(first, Map.of("Level 1", 3));
+        }
+        try (ShardManifest second = create(2, 2)) {
+            second.record("Level 1", 0, Status.CREATED, "a.docx");
+            second.record("Level 1", 1, Status.FAILED, "Broken template");
+            complete(second, Map.of("Level 1", 3));
+        }
+
+        ShardManifestMerger merger = ShardManifestMerger.merge(ShardManifestMerger.findManifests(List.of(directory)));
+
+        assertEquals(List.of(
+                "record 6 of sheet 'Level 1' in shard 1 is not in the data",
+                "record 1 of sheet 'Level 1' was produced by shards 1 and 2",
+                "record 2 of sheet 'Level 1' failed in shard 2: Broken template",
+                "record 3 of sheet 'Level 1' was not produced by any shard"), merger.problems());
+    }
+
+    @Test
+    void twoRecordsWritingTheSameDocumentIsAWarning() throws IOException {
+        try (ShardManifest only = create(1, 1)) {
+            only.record("Level 1", 0, Status.CREATED, "Ada.docx");
+            only.record("Level 1", 1, Status.CREATED, "Ada.docx");
+            complete(only, Map.of("Level 1", 2));
+        }
+
+        ShardManifestMerger merger = ShardManifestMerger.merge(List.of(ShardManifest.fileFor(directory, 1, 1)));
+
+        assertEquals(List.of(), merger.problems());
+        assertEquals(List.of("Ada.docx was written by record 2 of sheet 'Level 1' and record 1"), merger.warnings());
+    }
+
+    @Test
+    void incompleteMissingAndMismatchedShardsAreProblems() throws IOException {
+        try (ShardManifest first = create(1, 3)) {
+            first.record("Level 1", 0, Status.CREATED, "a.docx");
+        }
+        try (ShardManifest second = create(2, 3)) {
+            complete(second, Map.of("Level 1", 1));
+        }
+        Files.writeString(ShardManifest.fileFor(directory, 1, 3), "record\tLevel 1\t1\tcrea", StandardOpenOption.APPEND);
+
+        ShardManifestMerger merger = ShardManifestMerger.merge(ShardManifestMerger.findManifests(List.of(directory)));
+
+        assertEquals(List.of("Shard 1 did not run to completion", "Shard 3/3 is missing"), merger.problems());
+
+        ShardManifest.create(directory.resolve("other"), 3, 3, "EMAIL", DATA).close();
+        merger = ShardManifestMerger.merge(List.of(ShardManifest.fileFor(directory, 2, 3),
+                ShardManifest.fileFor(directory.resolve("other"), 3, 3)));
+        assertTrue(merger.problems().contains("Shard 3/3 split by 'EMAIL' does not match shard 2/3 split by 'FULL NAME'"),
+                merger.problems().toString());
+        assertFalse(merger.problems().contains("Shard 1/3 is missing"), merger.problems().toString());
+    }
+
+    @Test
+    void manyProblemsOfAKindAreSummarised() throws IOException {
+        try (ShardManifest only = create(1, 1)) {
+            complete(only, Map.of("Level 1", 25));
+        }
+
+        List<String> problems = ShardManifestMerger.merge(List.of(ShardManifest.fileFor(directory, 1, 1))).problems();
+
+        assertEquals(21, problems.size());
+        assertEquals("... and 5 more records not produced by any shard", problems.getLast());
+    }
+
+    @Test
+    void aFileThatIsNotAShardManifestIsRejected() throws IOException {
+        Path file = Files.writeString(directory.resolve("notes.txt"), "hello\n");
+
+        assertThrows(IOException.class, () -> ShardManifestMerger.merge(List.of(file)));
+        assertEquals(List.of("No shard manifests found"), ShardManifestMerger.merge(List.of()).problems());
+    }
+
+    private ShardManifest create(int number, int count) throws IOException {
+        return ShardManifest.create(directory, number, count, "FULL NAME", DATA);
+    }
+
+    private static void complete(ShardManifest manifest, Map<String, Integer> recordCounts) {
+        recordCounts.entrySet().stream().sorted(Map.Entry.comparingByKey())
+                .forEach(entry -> manifest.recordCount(entry.getKey(), entry.getValue()));
+        manifest.complete();
+    }
+}
@@ -0,0 +1,85 @@
+package org.rifushigi.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonTest {
+
+    @Test
+    void objectsKeepTheirMemberOrder() {
+        Object value = Json.parse(" {\"sheet\": \"diploma\", \"records\": [{\"FULL NAME\": \"Ada\"}], \"a\": true, \"b\": null} ");
+
+        Map<?, ?> object = (Map<?, ?>) value;
+        assertEquals(LinkedHashMap.class, object.getClass());
+        assertEquals(List.of("sheet", "records", "a", "b"), List.copyOf(object.keySet()));
+        assertEquals("diploma", object.get("sheet"));
+        assertEquals(List.of(Map.of("FULL NAME", "Ada")), object.get("records"));
+        assertEquals(Boolean.TRUE, object.get("a"));
+        assertNull(object.get("b"));
+    }
+
+    @Test
+    void numbersKeepTheTextTheyWereWrittenWith() {
+        List<?> numbers = (List<?>) Json.parse("[0, -12, 3.50, 1e999999999, 2E-3]");
+
+        assertEquals(List.of(new Json.RawNumber("0"), new Json.RawNumber("-12"), new Json.RawNumber("3.50"),
+                new Json.RawNumber("1e999999999"), new Json.RawNumber("2E-3")), numbers);
+        assertEquals(new BigDecimal("3.50"), ((Json.RawNumber) numbers.get(2)).toBigDecimal());
+        assertEquals("1e999999999", numbers.get(3).toString());
+    }
+
+    @Test
+    void invalidNumbersAreRejected() {
+        for (String number : List.of("01", "1.", ".5", "-", "1e", "1e+", "+1", "1.2.3", "--1")) {
+            assertThrows(IllegalArgumentException.class, () -> Json.parse(number), number);
+        }
+    }
+
+    @Test
+    void stringEscapesAreDecoded() {
+        assertEquals("a\"b\\c/\b\f\n\r\t\u00e9", Json.parse("\"a\\\"b\\\\c\\/\\b\\f\\n\\r\\t\\u00e9\""));
+        assertThrows(IllegalArgumentException.class, () -> Json.parse("\"\\x\""));
+        assertThrows(IllegalArgumentException.class, () -> Json.parse("\"\\u12\""));
+        assertThrows(IllegalArgumentException.class, () -> Json.parse("\"line\nbreak\""));
+        assertThrows(IllegalArgumentException.class, () -> Json.parse("\"open"));
+    }
+
+    @Test
+    void quoteRoundTripsThroughParse() {
+        String text = "Zo\u00eb \"Ada\" \\ line\nbreak\ttab\u0001";
+
+        assertEquals("\"Zo\u00eb \\\"Ada\\\" \\\\ line\\nbreak\\ttab\\u0001\"", Json.quote(text));
+        assertEquals(text, Json.parse(Json.quote(text)));
+        assertEquals("null", Json.quote(null));
+    }
+
+    @Test
+    void malformedDocumentsAreRejectedWithTheirPosition() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> Json.parse("{\"a\": 1} x"));
+        assertTrue(e.getMessage().endsWith("at position 9"), e.getMessage());
+
+        for (String text : List.of("", "{", "[1,]", "{\"a\" 1}", "{a: 1}", "tru", "[1 2]")) {
+            assertThrows(IllegalArgumentException.class, () -> Json.parse(text), text);
+        }
+    }
+
+    @Test
+    void deepNestingIsRejectedBeforeTheStackOverflows() {
+        char[] open = new char[100_000];
+        Arrays.fill(open, '[');
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> Json.parse(new String(open)));
+        assertTrue(e.getMessage().startsWith("Nesting too deep"), e.getMessage());
+        assertEquals(List.of(List.of(List.of())), Json.parse("[[[]]]"));
+    }
+}
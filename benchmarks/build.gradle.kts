@@ -0,0 +1,40 @@
+/*
+ * JMH benchmarks for the generation hot paths.
+ *
+ * Run with `./gradlew :benchmarks:jmh`. Results, including the gc profiler's allocation rates,
+ * are written as JSON to build/results/jmh/results.json.
+ * A single benchmark can be selected with `-Pjmh.includes=<regex>`.
+ */
+
+plugins {
+    java
+    id("me.champeau.jmh") version "0.7.3"
+}
+
+repositories {
+    mavenCentral()
+}
+
+dependencies {
+    jmhImplementation(project(":app"))
+
+    // The synthetic data generator builds workbooks and templates directly with POI
+    jmhImplementation("org.apache.poi:poi-ooxml:5.4.0")
+}
+
+java {
+    toolchain {
+        languageVersion = JavaLanguageVersion.of(21)
+    }
+}
+
+jmh {
+    jmhVersion = "1.37"
+    warmupIterations = 2
+    iterations = 5
+    fork = 1
+    profilers = listOf("gc")
+    resultFormat = "JSON"
+    resultsFile = layout.buildDirectory.file("results/jmh/results.json")
+    providers.gradleProperty("jmh.includes").orNull?.let { includes = listOf(it) }
+}
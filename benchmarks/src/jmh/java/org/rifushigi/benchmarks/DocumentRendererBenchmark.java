@@ -0,0 +1,73 @@
+package org.rifushigi.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.rifushigi.domain.infrastructure.CompiledTemplate;
+import org.rifushigi.domain.infrastructure.DocumentRenderer;
+import org.rifushigi.domain.infrastructure.WordDocumentWriter;
+import org.rifushigi.domain.model.CandidateRecord;
+import org.rifushigi.domain.model.Placeholder;
+import org.rifushigi.domain.model.RecordSchema;
+import org.rifushigi.domain.service.PlaceholderService;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders a single document with {@link DocumentRenderer#generateDocument}, with the POI writer and with a
+ * compiled template. Output goes to memory so that only rendering is measured.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DocumentRendererBenchmark {
+
+    @Param({"5", "20", "50"})
+    public int placeholders;
+
+    @Param({"poi", "compiled"})
+    public String renderer;
+
+    private Path directory;
+    private DocumentRenderer documentRenderer;
+    private CandidateRecord record;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("tessera-bench");
+        Path template = SyntheticData.template(directory.resolve("certificate.docx"), placeholders);
+        Set<Placeholder> found = new PlaceholderService().findPlaceholders(template);
+        documentRenderer = renderer.equals("compiled")
+                ? CompiledTemplate.compile(template, found)
+                : new WordDocumentWriter(template, found);
+
+        List<String> columns = SyntheticData.columnNames(placeholders);
+        String[] values = new String[columns.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = SyntheticData.value(42, i);
+        }
+        record = new CandidateRecord(RecordSchema.of(columns), values);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticData.delete(directory);
+    }
+
+    @Benchmark
+    public byte[] generateDocument() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        documentRenderer.generateDocument(record, out);
+        return out.toByteArray();
+    }
+}
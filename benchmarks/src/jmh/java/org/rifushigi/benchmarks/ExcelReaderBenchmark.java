@@ -0,0 +1,58 @@
+package org.rifushigi.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.rifushigi.domain.infrastructure.ExcelReader;
+import org.rifushigi.domain.model.CandidateRecord;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a whole workbook into records with {@link ExcelReader#readData(Path)}, through the in-memory
+ * workbook model and through the streaming reader.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MINUTES)
+public class ExcelReaderBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int rows;
+
+    @Param({"5", "50"})
+    public int columns;
+
+    @Param({"dom", "streaming"})
+    public String reader;
+
+    private Path directory;
+    private Path workbook;
+    private ExcelReader excelReader;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("tessera-bench");
+        workbook = SyntheticData.workbook(directory.resolve("cohort.xlsx"), rows, columns);
+        excelReader = new ExcelReader(reader.equals("streaming") ? 0 : Long.MAX_VALUE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticData.delete(directory);
+    }
+
+    @Benchmark
+    public Map<String, List<CandidateRecord>> readData() throws IOException {
+        return excelReader.readData(workbook);
+    }
+}
@@ -0,0 +1,83 @@
+package org.rifushigi.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rifushigi.domain.service.GenerationOptions;
+import org.rifushigi.domain.service.GenerationService;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a complete {@link GenerationService#generate()}: reading the workbook, rendering every record and
+ * writing the documents to disk. Each invocation takes long enough to be timed on its own, so the benchmark
+ * reports the time per run; documents per second follow from the row count.
+ * The 100000-row case is left out of the defaults because a single run takes minutes; select it with
+ * {@code -p rows=100000}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class GenerationServiceBenchmark {
+
+    @Param({"1000", "10000"})
+    public int rows;
+
+    @Param({"5", "50"})
+    public int placeholders;
+
+    @Param({"false", "true"})
+    public boolean compiledTemplates;
+
+    private Path directory;
+    private Path template;
+    private Path workbook;
+    private Path outputDir;
+    private PrintStream console;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("tessera-bench");
+        template = SyntheticData.template(directory.resolve("certificate.docx"), placeholders);
+        workbook = SyntheticData.workbook(directory.resolve("cohort.xlsx"), rows, placeholders);
+        outputDir = directory.resolve("output");
+
+        // The progress report is not what is being measured
+        console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.setOut(console);
+        SyntheticData.delete(directory);
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteOutput() throws IOException {
+        SyntheticData.delete(outputDir);
+    }
+
+    @Benchmark
+    public void generate() throws IOException {
+        GenerationOptions options = GenerationOptions.builder().compiledTemplates(compiledTemplates).build();
+        new GenerationService(List.of(template), workbook, outputDir, options).generate();
+    }
+}
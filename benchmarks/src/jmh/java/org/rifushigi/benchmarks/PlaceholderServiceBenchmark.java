@@ -0,0 +1,49 @@
+package org.rifushigi.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.rifushigi.domain.model.Placeholder;
+import org.rifushigi.domain.service.PlaceholderService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scans a template for placeholders with {@link PlaceholderService#findPlaceholders(Path)}.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PlaceholderServiceBenchmark {
+
+    @Param({"5", "20", "50"})
+    public int placeholders;
+
+    private Path directory;
+    private Path template;
+    private final PlaceholderService placeholderService = new PlaceholderService();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("tessera-bench");
+        template = SyntheticData.template(directory.resolve("certificate.docx"), placeholders);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticData.delete(directory);
+    }
+
+    @Benchmark
+    public Set<Placeholder> findPlaceholders() throws IOException {
+        return placeholderService.findPlaceholders(template);
+    }
+}
@@ -0,0 +1,166 @@
+package org.rifushigi.benchmarks;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.apache.poi.xwpf.usermodel.XWPFTableRow;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Generates the workbooks and templates the benchmarks run against.
+ * <p>
+ * Both follow the layout {@link org.rifushigi.domain.service.GenerationService} expects: the template file name
+ * contains "certificate", so it is used for the sheet "Level 1", and the workbook has a title row above the
+ * header row. Template placeholders are split over several runs, as Word does when a placeholder is typed
+ * or edited in pieces.
+ */
+public final class SyntheticData {
+
+    /**
+     * The sheet the generated template is mapped to.
+     */
+    public static final String SHEET_NAME = "Level 1";
+
+    private static final String[] COURSES = {"Software Engineering", "Data Analysis", "Cloud Computing",
+            "Cyber Security", "Product Design", "Project Management", "Machine Learning"};
+
+    private SyntheticData() {}
+
+    /**
+     * @param count The number of columns, at least 1.
+     * @return "FULL NAME" followed by "FIELD 1", "FIELD 2", ...
+     */
+    public static List<String> columnNames(int count) {
+        List<String> names = new ArrayList<>(count);
+        names.add("FULL NAME");
+        for (int i = 1; i < count; i++) {
+            names.add("FIELD " + i);
+        }
+        return names;
+    }
+
+    /**
+     * @return The value of a column in a data row. Names are unique, other columns repeat a few values.
+     */
+    public static String value(int row, int column) {
+        return column == 0
+                ? "Candidate " + row
+                : COURSES[(row + column) % COURSES.length];
+    }
+
+    /**
+     * Writes a workbook with one sheet of synthetic candidates.
+     *
+     * @param file    The workbook file.
+     * @param rows    The number of data rows.
+     * @param columns The number of columns.
+     * @return The file.
+     * @throws IOException if the file cannot be written.
+     */
+    public static Path workbook(Path file, int rows, int columns) throws IOException {
+        // Rows are flushed to a temporary file as they are written, so large workbooks do not fill the heap
+        SXSSFWorkbook workbook = new SXSSFWorkbook(1000);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            Sheet sheet = workbook.createSheet(SHEET_NAME);
+            sheet.createRow(0).createCell(0).setCellValue("Synthetic cohort");
+
+            Row header = sheet.createRow(1);
+            List<String> names = columnNames(columns);
+            for (int column = 0; column < columns; column++) {
+                header.createCell(column).setCellValue(names.get(column));
+            }
+            for (int row = 0; row < rows; row++) {
+                Row dataRow = sheet.createRow(row + 2);
+                for (int column = 0; column < columns; column++) {
+                    dataRow.createCell(column).setCellValue(value(row, column));
+                }
+            }
+            workbook.write(out);
+        } finally {
+            workbook.dispose();
+            workbook.close();
+        }
+        return file;
+    }
+
+    /**
+     * Writes a template with one placeholder per column: half of them in body paragraphs and the rest in a table.
+     *
+     * @param file         The template file.
+     * @param placeholders The number of placeholders.
+     * @return The file.
+     * @throws IOException if the file cannot be written.
+     */
+    public static Path template(Path file, int placeholders) throws IOException {
+        List<String> names = columnNames(placeholders);
+        try (XWPFDocument document = new XWPFDocument(); OutputStream out = Files.newOutputStream(file)) {
+            document.createParagraph().createRun().setText("Certificate of Completion");
+
+            int inBody = (names.size() + 1) / 2;
+            for (int i = 0; i < inBody; i++) {
+                XWPFParagraph paragraph = document.createParagraph();
+                paragraph.createRun().setText("This certifies that ");
+                addFragmentedPlaceholder(paragraph, names.get(i), i);
+                paragraph.createRun().setText(" has completed the requirements.");
+            }
+
+            if (inBody < names.size()) {
+                XWPFTable table = document.createTable(names.size() - inBody, 2);
+                for (int i = inBody; i < names.size(); i++) {
+                    XWPFTableRow row = table.getRow(i - inBody);
+                    row.getCell(0).setText(names.get(i));
+                    XWPFParagraph paragraph = row.getCell(1).getParagraphs().getFirst();
+                    addFragmentedPlaceholder(paragraph, names.get(i), i);
+                }
+            }
+            document.write(out);
+        }
+        return file;
+    }
+
+    /**
+     * Deletes a directory created for benchmark data, with everything in it.
+     *
+     * @param directory The directory.
+     * @throws IOException if a file cannot be deleted.
+     */
+    public static void delete(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Adds "${name}" split over two to four runs, varying where the splits fall.
+     */
+    private static void addFragmentedPlaceholder(XWPFParagraph paragraph, String name, int variant) {
+        String placeholder = "${" + name + "}";
+        int[] splits = switch (variant % 3) {
+            case 0 -> new int[]{2};                                  // "${" | "NAME}"
+            case 1 -> new int[]{1, 2 + name.length() / 2};           // "$" | "{NA" | "ME}"
+            default -> new int[]{2, 2 + name.length() / 2, placeholder.length() - 1}; // "${" | "NA" | "ME" | "}"
+        };
+        int start = 0;
+        for (int split : splits) {
+            paragraph.createRun().setText(placeholder.substring(start, split));
+            start = split;
+        }
+        paragraph.createRun().setText(placeholder.substring(start));
+    }
+}
@@ -0,0 +1,93 @@
+#!/usr/bin/env bash
+#
+# Compares the startup time of the three ways to launch Tessera:
+#   jar     the shadow jar on a plain JVM
+#   cds     the shadow jar with the AppCDS archive from the training run
+#   native  the GraalVM native image
+#
+# Build the artifacts first:
+#   ./gradlew :app:shadowJar :app:appCdsArchive :app:nativeCompile
+#
+# Usage: scripts/startup-benchmark.sh [runs] [-- tessera arguments]
+# By default each mode prints the version 20 times. Pass tessera arguments after "--" to time a real
+# command instead, e.g. a small generate run. Uses hyperfine when it is installed. Without it, runs that
+# exit with an error are counted and left out of the times.
+
+set -euo pipefail
+
+ROOT="$(cd "$(dirname "${BASH_SOURCE[0]}")/.." && pwd)"
+JAR="$ROOT/app/build/libs/app-all.jar"
+CDS_ARCHIVE="$ROOT/app/build/cds/tessera.jsa"
+NATIVE="$ROOT/app/build/native/nativeCompile/tessera"
+JAVA="${JAVA_HOME:+$JAVA_HOME/bin/}java"
+
+RUNS="${1:-20}"
+shift || true
+if [[ "${1:-}" == "--" ]]; then
+    shift
+fi
+ARGS=("$@")
+if [[ ${#ARGS[@]} -eq 0 ]]; then
+    ARGS=(--version)
+fi
+
+declare -A COMMANDS
+MODES=()
+if [[ -f "$JAR" ]]; then
+    COMMANDS[jar]="$JAVA -jar $JAR"
+    MODES+=(jar)
+fi
+if [[ -f "$JAR" && -f "$CDS_ARCHIVE" ]]; then
+    COMMANDS[cds]="$JAVA -XX:SharedArchiveFile=$CDS_ARCHIVE -Xshare:auto -jar $JAR"
+    MODES+=(cds)
+fi
+if [[ -x "$NATIVE" ]]; then
+    COMMANDS[native]="$NATIVE"
+    MODES+=(native)
+fi
+if [[ ${#MODES[@]} -eq 0 ]]; then
+    echo "No launch mode is built. Run: ./gradlew :app:shadowJar :app:appCdsArchive :app:nativeCompile" >&2
+    exit 1
+fi
+
+if command -v hyperfine > /dev/null; then
+    HYPERFINE_ARGS=(--warmup 3 --runs "$RUNS" --export-json "$ROOT/app/build/startup-benchmark.json")
+    for mode in "${MODES[@]}"; do
+        HYPERFINE_ARGS+=(--command-name "$mode" "${COMMANDS[$mode]} ${ARGS[*]}")
+    done
+    hyperfine "${HYPERFINE_ARGS[@]}"
+    exit 0
+fi
+
+printf "%-8s %10s %10s %10s %8s\n" mode "mean ms" "min ms" "max ms" failed
+for mode in "${MODES[@]}"; do
+    # shellcheck disable=SC2086
+    ${COMMANDS[$mode]} "${ARGS[@]}" > /dev/null 2>&1 || true   # warm the file system cache
+    total=0
+    min=
+    max=0
+    failed=0
+    for ((i = 0; i < RUNS; i++)); do
+        start=$(date +%s%N)
+        status=0
+        # shellcheck disable=SC2086
+        ${COMMANDS[$mode]} "${ARGS[@]}" > /dev/null 2>&1 || status=$?
+        elapsed=$(( ($(date +%s%N) - start) / 1000000 ))
+        if (( status != 0 )); then
+            failed=$((failed + 1))
+            continue
+        fi
+        total=$((total + elapsed))
+        if (( elapsed > max )); then
+            max=$elapsed
+        fi
+        if [[ -z "$min" ]] || (( elapsed < min )); then
+            min=$elapsed
+        fi
+    done
+    if (( failed == RUNS )); then
+        printf "%-8s %10s %10s %10s %8d\n" "$mode" - - - "$failed"
+    else
+        printf "%-8s %10d %10d %10d %8d\n" "$mode" $((total / (RUNS - failed))) "$min" "$max" "$failed"
+    fi
+done
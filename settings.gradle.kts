@@ -12,3 +12,4 @@ plugins {
 
 rootProject.name = "tessera"
 include("app")
+include("benchmarks")